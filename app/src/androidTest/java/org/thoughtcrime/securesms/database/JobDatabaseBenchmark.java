@@ -0,0 +1,123 @@
+package org.thoughtcrime.securesms.database;
+
+import android.app.Application;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.thoughtcrime.securesms.crypto.DatabaseSecret;
+import org.thoughtcrime.securesms.jobmanager.persistence.FullSpec;
+import org.thoughtcrime.securesms.jobmanager.persistence.JobSpec;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Replays the state transitions of a message catch-up against {@link JobDatabase}: every job is
+ * added, started, and then either finishes or is retried once before finishing. The immediate mode
+ * flushes after every transition, which is how every transition used to be written, while the
+ * deferred mode lets transitions coalesce. Results are logged rather than asserted, since timings
+ * depend entirely on the device.
+ */
+@RunWith(AndroidJUnit4.class)
+public final class JobDatabaseBenchmark {
+
+  private static final String TAG = JobDatabaseBenchmark.class.getSimpleName();
+
+  private static final String DATABASE_NAME = "signal-jobmanager-benchmark.db";
+
+  private static final int JOB_COUNT   = 5_000;
+  private static final int RETRY_EVERY = 10;
+  private static final int ITERATIONS  = 3;
+
+  private Application application;
+  private JobDatabase jobDatabase;
+
+  @Before
+  public void setUp() {
+    application = (Application) InstrumentationRegistry.getInstrumentation().getTargetContext().getApplicationContext();
+    application.deleteDatabase(DATABASE_NAME);
+
+    jobDatabase = new JobDatabase(application, new DatabaseSecret(new byte[32]), DATABASE_NAME);
+  }
+
+  @After
+  public void tearDown() {
+    jobDatabase.close();
+    application.deleteDatabase(DATABASE_NAME);
+  }
+
+  @Test
+  public void immediate_vs_deferred() {
+    long immediateTime = Long.MAX_VALUE;
+    long deferredTime  = Long.MAX_VALUE;
+
+    for (int i = 0; i < ITERATIONS; i++) {
+      immediateTime = Math.min(immediateTime, replay(true));
+      deferredTime  = Math.min(deferredTime, replay(false));
+    }
+
+    Log.i(TAG, String.format("%d jobs | immediate: %7.1f ms | deferred: %7.1f ms",
+                             JOB_COUNT,
+                             immediateTime / 1_000_000.0,
+                             deferredTime / 1_000_000.0));
+  }
+
+  private long replay(boolean immediate) {
+    List<String> ids = new ArrayList<>(JOB_COUNT);
+
+    for (int i = 0; i < JOB_COUNT; i++) {
+      ids.add(UUID.randomUUID().toString());
+    }
+
+    long start = System.nanoTime();
+
+    for (String id : ids) {
+      jobDatabase.insertJobs(Collections.singletonList(new FullSpec(jobSpec(id), Collections.emptyList(), Collections.emptyList())));
+    }
+
+    for (int i = 0; i < ids.size(); i++) {
+      String id = ids.get(i);
+
+      jobDatabase.updateJobRunningState(id, true);
+      flushIf(immediate);
+
+      if (i % RETRY_EVERY == 0) {
+        jobDatabase.updateJobAfterRetry(id, false, 1, System.currentTimeMillis(), "{}");
+        flushIf(immediate);
+
+        jobDatabase.updateJobRunningState(id, true);
+        flushIf(immediate);
+      }
+
+      jobDatabase.deleteJobs(Collections.singletonList(id));
+    }
+
+    jobDatabase.flushPendingUpdates();
+
+    long elapsed = System.nanoTime() - start;
+
+    assertEquals(0, jobDatabase.getAllJobSpecs().size());
+
+    return elapsed;
+  }
+
+  private void flushIf(boolean immediate) {
+    if (immediate) {
+      jobDatabase.flushPendingUpdates();
+    }
+  }
+
+  private static JobSpec jobSpec(String id) {
+    return new JobSpec(id, "PushProcessMessageJob", "__PUSH_PROCESS_JOB__", System.currentTimeMillis(), 0, 0, 5, -1, "{}", null, false, false);
+  }
+}
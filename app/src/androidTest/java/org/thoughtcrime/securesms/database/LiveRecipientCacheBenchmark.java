@@ -0,0 +1,333 @@
+package org.thoughtcrime.securesms.database;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import net.sqlcipher.Cursor;
+import net.sqlcipher.database.SQLiteDatabase;
+import net.sqlcipher.database.SQLiteStatement;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.signal.core.util.ConcurrentLruCache;
+import org.thoughtcrime.securesms.recipients.LiveRecipientCache;
+import org.thoughtcrime.securesms.util.LRUCache;
+import org.thoughtcrime.securesms.util.SqlUtil;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Binds 5000 recipients on the main thread, while a background thread looks up the same recipients
+ * the way a data source does, and compares the two ways {@link LiveRecipientCache} has handed out
+ * and resolved recipients:
+ *
+ * - Locked: a synchronized {@link LRUCache}, with every miss submitting its own resolve task to a
+ *   shared pool, which reads that one recipient.
+ * - Queued: a {@link ConcurrentLruCache}, with misses added to a queue that a single resolver thread
+ *   drains in batches, reading many recipients per query.
+ *
+ * Both are modelled here over an in-memory recipient table, rather than run through
+ * {@link LiveRecipientCache} itself, since that needs a populated app database. For each, this logs
+ * how long the main thread spent in lookups, how much of that was spent waiting on the cache lock
+ * (the queued cache has no lock on hits), and how many tasks were submitted to an executor. Results
+ * are logged rather than asserted, since timings depend entirely on the device.
+ */
+@RunWith(AndroidJUnit4.class)
+public final class LiveRecipientCacheBenchmark {
+
+  private static final String TAG = LiveRecipientCacheBenchmark.class.getSimpleName();
+
+  private static final int  RECIPIENT_COUNT    = 5_000;
+  private static final int  CACHE_MAX          = 1_000;
+  private static final int  RESOLVE_BATCH_SIZE = 100;
+  private static final int  POOL_SIZE          = 4;
+  private static final int  ITERATIONS         = 3;
+  private static final long RESOLVE_TIMEOUT_MS = TimeUnit.SECONDS.toMillis(60);
+
+  private SQLiteDatabase db;
+  private List<Long>     bindOrder;
+
+  @Before
+  public void setUp() {
+    Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+
+    SQLiteDatabase.loadLibs(context);
+    db = SQLiteDatabase.openOrCreateDatabase(":memory:", "", null);
+
+    db.execSQL(RecipientDatabase.CREATE_TABLE);
+
+    populate(new Random(1));
+
+    bindOrder = new ArrayList<>(RECIPIENT_COUNT);
+    for (long id = 1; id <= RECIPIENT_COUNT; id++) {
+      bindOrder.add(id);
+    }
+    Collections.shuffle(bindOrder, new Random(2));
+  }
+
+  @After
+  public void tearDown() {
+    db.close();
+  }
+
+  @Test
+  public void locked_vs_queued() throws InterruptedException {
+    for (int i = 0; i < ITERATIONS; i++) {
+      log(bind(new LockedCache()));
+      log(bind(new QueuedCache()));
+    }
+  }
+
+  private Result bind(@NonNull Cache cache) throws InterruptedException {
+    Thread background = new Thread(() -> {
+      for (long id : bindOrder) {
+        cache.getLive(id, false);
+      }
+    });
+
+    long   start  = System.nanoTime();
+    long[] inMain = new long[2];
+
+    background.start();
+
+    InstrumentationRegistry.getInstrumentation().runOnMainSync(() -> {
+      for (long id : bindOrder) {
+        long callStart = System.nanoTime();
+        cache.getLive(id, true);
+        long callTime  = System.nanoTime() - callStart;
+
+        inMain[0] += callTime;
+        inMain[1]  = Math.max(inMain[1], callTime);
+      }
+    });
+
+    background.join();
+
+    long deadline = System.currentTimeMillis() + RESOLVE_TIMEOUT_MS;
+    while (cache.outstanding.get() > 0) {
+      assertTrue("Resolves didn't finish.", System.currentTimeMillis() < deadline);
+      Thread.sleep(1);
+    }
+
+    long total = System.nanoTime() - start;
+
+    cache.shutdown();
+
+    return new Result(cache.getClass().getSimpleName(), inMain[0], inMain[1], cache.mainLockWaitNanos, cache.tasks.get(), total);
+  }
+
+  private static void log(@NonNull Result result) {
+    Log.i(TAG, String.format("%-11s | main thread in lookups: %7.2f ms (max %6.2f ms) | main thread lock wait: %7.2f ms | executor tasks: %5d | all resolved: %7.1f ms",
+                             result.name,
+                             result.mainNanos / 1_000_000.0,
+                             result.mainMaxNanos / 1_000_000.0,
+                             result.mainLockWaitNanos / 1_000_000.0,
+                             result.tasks,
+                             result.totalNanos / 1_000_000.0));
+  }
+
+  private void populate(Random random) {
+    db.beginTransaction();
+    try {
+      SQLiteStatement statement = db.compileStatement("INSERT INTO " + RecipientDatabase.TABLE_NAME + " (uuid, phone, signal_profile_name) VALUES (?, ?, ?)");
+
+      for (int i = 0; i < RECIPIENT_COUNT; i++) {
+        statement.bindString(1, UUID.randomUUID().toString());
+        statement.bindString(2, "+1555" + (1_000_000 + i));
+        statement.bindString(3, "Name " + random.nextInt());
+        statement.executeInsert();
+      }
+
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+  }
+
+  private static final class Entry {
+    private final    long   id;
+    private volatile String name;
+
+    private Entry(long id) {
+      this.id = id;
+    }
+  }
+
+  private abstract class Cache {
+    final AtomicInteger outstanding = new AtomicInteger();
+    final AtomicInteger tasks       = new AtomicInteger();
+
+    volatile long mainLockWaitNanos;
+
+    abstract Entry getLive(long id, boolean onMain);
+
+    abstract void shutdown();
+
+    @Nullable String readOne(long id) {
+      try (Cursor cursor = db.query(RecipientDatabase.TABLE_NAME, new String[] { "signal_profile_name" }, RecipientDatabase.ID + " = ?", SqlUtil.buildArgs(id), null, null, null)) {
+        return cursor.moveToFirst() ? cursor.getString(0) : null;
+      }
+    }
+
+    void readAll(@NonNull List<Entry> entries) {
+      List<Long> ids = new ArrayList<>(entries.size());
+      for (Entry entry : entries) {
+        ids.add(entry.id);
+      }
+
+      Map<Long, String> names = new HashMap<>(ids.size());
+
+      for (SqlUtil.Query query : SqlUtil.buildCollectionQueries(RecipientDatabase.ID, ids)) {
+        try (Cursor cursor = db.query(RecipientDatabase.TABLE_NAME, new String[] { RecipientDatabase.ID, "signal_profile_name" }, query.getWhere(), query.getWhereArgs(), null, null, null)) {
+          while (cursor.moveToNext()) {
+            names.put(cursor.getLong(0), cursor.getString(1));
+          }
+        }
+      }
+
+      for (Entry entry : entries) {
+        entry.name = names.get(entry.id);
+      }
+    }
+  }
+
+  /**
+   * How the cache used to work: every lookup takes the cache lock, and every miss is its own task.
+   */
+  private final class LockedCache extends Cache {
+    private final LRUCache<Long, Entry> entries = new LRUCache<>(CACHE_MAX);
+    private final ReentrantLock         lock    = new ReentrantLock();
+    private final ExecutorService       pool    = Executors.newFixedThreadPool(POOL_SIZE);
+
+    @Override
+    Entry getLive(long id, boolean onMain) {
+      long waitStart = System.nanoTime();
+      lock.lock();
+
+      if (onMain) {
+        mainLockWaitNanos += System.nanoTime() - waitStart;
+      }
+
+      try {
+        Entry entry = entries.get(id);
+
+        if (entry == null) {
+          Entry newEntry = new Entry(id);
+          entries.put(id, newEntry);
+
+          outstanding.incrementAndGet();
+          tasks.incrementAndGet();
+          pool.execute(() -> {
+            newEntry.name = readOne(id);
+            outstanding.decrementAndGet();
+          });
+
+          entry = newEntry;
+        }
+
+        return entry;
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    @Override
+    void shutdown() {
+      pool.shutdown();
+    }
+  }
+
+  /**
+   * How the cache works now: lookups don't lock, and misses are resolved in batches by one thread.
+   */
+  private final class QueuedCache extends Cache {
+    private final ConcurrentLruCache<Long, Entry> entries          = new ConcurrentLruCache<>(CACHE_MAX);
+    private final BlockingQueue<Entry>            pending          = new LinkedBlockingQueue<>();
+    private final AtomicBoolean                   resolveScheduled = new AtomicBoolean(false);
+    private final ExecutorService                 resolver         = Executors.newSingleThreadExecutor();
+
+    @Override
+    Entry getLive(long id, boolean onMain) {
+      Entry entry = entries.get(id);
+
+      if (entry == null) {
+        Entry newEntry = new Entry(id);
+        Entry existing = entries.putIfAbsent(id, newEntry);
+
+        if (existing != null) {
+          return existing;
+        }
+
+        outstanding.incrementAndGet();
+        pending.add(newEntry);
+
+        if (resolveScheduled.compareAndSet(false, true)) {
+          tasks.incrementAndGet();
+          resolver.execute(this::resolvePending);
+        }
+
+        entry = newEntry;
+      }
+
+      return entry;
+    }
+
+    private void resolvePending() {
+      resolveScheduled.set(false);
+
+      List<Entry> batch = new ArrayList<>(RESOLVE_BATCH_SIZE);
+
+      while (pending.drainTo(batch, RESOLVE_BATCH_SIZE) > 0) {
+        readAll(batch);
+        outstanding.addAndGet(-batch.size());
+        batch.clear();
+      }
+    }
+
+    @Override
+    void shutdown() {
+      resolver.shutdown();
+    }
+  }
+
+  private static final class Result {
+    private final String name;
+    private final long   mainNanos;
+    private final long   mainMaxNanos;
+    private final long   mainLockWaitNanos;
+    private final int    tasks;
+    private final long   totalNanos;
+
+    private Result(String name, long mainNanos, long mainMaxNanos, long mainLockWaitNanos, int tasks, long totalNanos) {
+      this.name              = name;
+      this.mainNanos         = mainNanos;
+      this.mainMaxNanos      = mainMaxNanos;
+      this.mainLockWaitNanos = mainLockWaitNanos;
+      this.tasks             = tasks;
+      this.totalNanos        = totalNanos;
+    }
+  }
+}
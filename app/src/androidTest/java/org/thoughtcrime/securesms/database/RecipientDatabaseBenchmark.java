@@ -0,0 +1,133 @@
+package org.thoughtcrime.securesms.database;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import net.sqlcipher.Cursor;
+import net.sqlcipher.database.SQLiteDatabase;
+import net.sqlcipher.database.SQLiteStatement;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.thoughtcrime.securesms.util.SqlUtil;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares reading group members from the recipient table one row at a time, which is how groups
+ * used to be resolved, against the chunked IN queries used by
+ * {@link RecipientDatabase#getRecipientSettings(java.util.Collection)}. Results are logged rather
+ * than asserted, since timings depend entirely on the device.
+ */
+@RunWith(AndroidJUnit4.class)
+public final class RecipientDatabaseBenchmark {
+
+  private static final String TAG = RecipientDatabaseBenchmark.class.getSimpleName();
+
+  private static final int   RECIPIENT_COUNT = 20_000;
+  private static final int   ITERATIONS      = 5;
+  private static final int[] GROUP_SIZES     = { 100, 1000 };
+
+  private SQLiteDatabase db;
+
+  @Before
+  public void setUp() {
+    Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+
+    SQLiteDatabase.loadLibs(context);
+    db = SQLiteDatabase.openOrCreateDatabase(":memory:", "", null);
+
+    db.execSQL(RecipientDatabase.CREATE_TABLE);
+
+    populate(new Random(1));
+  }
+
+  @After
+  public void tearDown() {
+    db.close();
+  }
+
+  @Test
+  public void singleRow_vs_bulk() {
+    Random random = new Random(2);
+
+    for (int size : GROUP_SIZES) {
+      List<String> ids = randomIds(random, size);
+
+      long singleTime = Long.MAX_VALUE;
+      long bulkTime   = Long.MAX_VALUE;
+
+      for (int i = 0; i < ITERATIONS; i++) {
+        long start = System.nanoTime();
+        int  found = 0;
+
+        for (String id : ids) {
+          try (Cursor cursor = db.query(RecipientDatabase.TABLE_NAME, null, RecipientDatabase.ID + " = ?", new String[] { id }, null, null, null)) {
+            if (cursor.moveToFirst()) found++;
+          }
+        }
+
+        singleTime = Math.min(singleTime, System.nanoTime() - start);
+        assertEquals(size, found);
+
+        start = System.nanoTime();
+        found = 0;
+
+        for (SqlUtil.Query query : SqlUtil.buildCollectionQueries(RecipientDatabase.ID, ids)) {
+          try (Cursor cursor = db.query(RecipientDatabase.TABLE_NAME, null, query.getWhere(), query.getWhereArgs(), null, null, null)) {
+            while (cursor.moveToNext()) found++;
+          }
+        }
+
+        bulkTime = Math.min(bulkTime, System.nanoTime() - start);
+        assertEquals(size, found);
+      }
+
+      Log.i(TAG, String.format("%4d members | one row at a time: %6.2f ms | bulk: %6.2f ms",
+                               size,
+                               singleTime / 1_000_000.0,
+                               bulkTime / 1_000_000.0));
+    }
+  }
+
+  private void populate(Random random) {
+    db.beginTransaction();
+    try {
+      SQLiteStatement statement = db.compileStatement("INSERT INTO " + RecipientDatabase.TABLE_NAME + " (uuid, phone, signal_profile_name) VALUES (?, ?, ?)");
+
+      for (int i = 0; i < RECIPIENT_COUNT; i++) {
+        statement.bindString(1, UUID.randomUUID().toString());
+        statement.bindString(2, "+1555" + (1_000_000 + i));
+        statement.bindString(3, "Name " + random.nextInt());
+        statement.executeInsert();
+      }
+
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+  }
+
+  private static List<String> randomIds(Random random, int count) {
+    List<String> ids = new ArrayList<>(RECIPIENT_COUNT);
+
+    for (int i = 1; i <= RECIPIENT_COUNT; i++) {
+      ids.add(String.valueOf(i));
+    }
+
+    Collections.shuffle(ids, random);
+
+    return ids.subList(0, count);
+  }
+}
@@ -0,0 +1,145 @@
+package org.thoughtcrime.securesms.database;
+
+import android.content.Context;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.thoughtcrime.securesms.crypto.DatabaseSecret;
+import org.thoughtcrime.securesms.database.RecipientDatabase.RegisteredState;
+import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper;
+import org.thoughtcrime.securesms.recipients.RecipientId;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(AndroidJUnit4.class)
+public final class RecipientDatabaseTest_discovery {
+
+  private static final String DATABASE_NAME = "signal-recipient-discovery-test.db";
+
+  private static final String REGISTERED   = "+15550000001";
+  private static final String UNREGISTERED = "+15550000002";
+  private static final String IGNORED      = "+15550000003";
+  private static final String UNCHECKED    = "+15550000004";
+
+  private static final long DISCOVERY_TIME = 1_600_000_000_000L;
+
+  private Context             context;
+  private SQLCipherOpenHelper databaseHelper;
+  private RecipientDatabase   recipientDatabase;
+
+  @Before
+  public void setUp() {
+    context = InstrumentationRegistry.getInstrumentation().getTargetContext().getApplicationContext();
+    context.deleteDatabase(DATABASE_NAME);
+
+    databaseHelper    = new SQLCipherOpenHelper(context, new DatabaseSecret(new byte[32]), DATABASE_NAME);
+    recipientDatabase = new RecipientDatabase(context, databaseHelper);
+  }
+
+  @After
+  public void tearDown() {
+    databaseHelper.close();
+    context.deleteDatabase(DATABASE_NAME);
+  }
+
+  @Test
+  public void getNumbersNeedingDiscovery_neverChecked_allNeeded() {
+    recipientDatabase.getOrInsertFromE164(REGISTERED);
+
+    Set<String> numbers = setOf(REGISTERED, UNCHECKED);
+
+    assertEquals(numbers, recipientDatabase.getNumbersNeedingDiscovery(numbers, 0));
+  }
+
+  @Test
+  public void getNumbersNeedingDiscovery_afterApply_onlyUncheckedNeeded() {
+    apply();
+
+    Set<String> needed = recipientDatabase.getNumbersNeedingDiscovery(setOf(REGISTERED, UNREGISTERED, IGNORED, UNCHECKED), DISCOVERY_TIME - 1);
+
+    assertEquals(setOf(UNCHECKED), needed);
+  }
+
+  @Test
+  public void getNumbersNeedingDiscovery_afterApply_staleNumbersNeeded() {
+    apply();
+
+    Set<String> numbers = setOf(REGISTERED, UNREGISTERED, IGNORED);
+
+    assertEquals(numbers, recipientDatabase.getNumbersNeedingDiscovery(numbers, DISCOVERY_TIME + 1));
+  }
+
+  @Test
+  public void getNumbersNeedingDiscovery_registrationChangedAfterApply_changedNumberNeeded() {
+    apply();
+
+    RecipientId unregistered = recipientDatabase.getByE164(UNREGISTERED).get();
+    recipientDatabase.bulkUpdatedRegisteredStatus(Collections.singletonMap(unregistered, UUID.randomUUID().toString()), Collections.emptyList());
+
+    Set<String> needed = recipientDatabase.getNumbersNeedingDiscovery(setOf(REGISTERED, UNREGISTERED, IGNORED), DISCOVERY_TIME - 1);
+
+    assertEquals(setOf(UNREGISTERED), needed);
+  }
+
+  @Test
+  public void bulkApplyCdsResult_setsRegisteredStates() {
+    Map<RecipientId, String> uuidMap = apply();
+
+    RecipientId registered   = recipientDatabase.getByE164(REGISTERED).get();
+    RecipientId unregistered = recipientDatabase.getByE164(UNREGISTERED).get();
+    RecipientId ignored      = recipientDatabase.getByE164(IGNORED).get();
+
+    assertEquals(Collections.singleton(registered), uuidMap.keySet());
+    assertEquals(RegisteredState.REGISTERED, recipientDatabase.getRecipientSettings(registered).getRegistered());
+    assertEquals(RegisteredState.NOT_REGISTERED, recipientDatabase.getRecipientSettings(unregistered).getRegistered());
+    assertEquals(RegisteredState.UNKNOWN, recipientDatabase.getRecipientSettings(ignored).getRegistered());
+  }
+
+  @Test
+  public void bulkApplyCdsResult_existingRecipients_notDuplicated() {
+    RecipientId unregistered = recipientDatabase.getOrInsertFromE164(UNREGISTERED);
+    RecipientId ignored      = recipientDatabase.getOrInsertFromE164(IGNORED);
+
+    apply();
+
+    assertEquals(unregistered, recipientDatabase.getByE164(UNREGISTERED).get());
+    assertEquals(ignored, recipientDatabase.getByE164(IGNORED).get());
+    assertEquals(setOf(REGISTERED, UNREGISTERED, IGNORED), recipientDatabase.getAllPhoneNumbers());
+  }
+
+  @Test
+  public void getOrInsertFromE164s_onlyInsertsMissing() {
+    RecipientId existing = recipientDatabase.getOrInsertFromE164(REGISTERED);
+
+    Map<String, RecipientId> ids = recipientDatabase.getOrInsertFromE164s(Arrays.asList(REGISTERED, UNREGISTERED));
+
+    assertEquals(2, ids.size());
+    assertEquals(existing, ids.get(REGISTERED));
+    assertEquals(ids.get(UNREGISTERED), recipientDatabase.getByE164(UNREGISTERED).get());
+    assertEquals(setOf(REGISTERED, UNREGISTERED), recipientDatabase.getAllPhoneNumbers());
+  }
+
+  private Map<RecipientId, String> apply() {
+    return recipientDatabase.bulkApplyCdsResult(Collections.emptyMap(),
+                                                Collections.singletonMap(REGISTERED, UUID.randomUUID()),
+                                                Collections.singleton(UNREGISTERED),
+                                                Collections.singleton(IGNORED),
+                                                DISCOVERY_TIME);
+  }
+
+  private static Set<String> setOf(String... values) {
+    return new HashSet<>(Arrays.asList(values));
+  }
+}
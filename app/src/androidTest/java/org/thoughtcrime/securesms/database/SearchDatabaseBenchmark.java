@@ -0,0 +1,240 @@
+package org.thoughtcrime.securesms.database;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import net.sqlcipher.Cursor;
+import net.sqlcipher.database.SQLiteDatabase;
+import net.sqlcipher.database.SQLiteStatement;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Compares the old date-ordered message search against the ranked, keyset-paginated one, and a
+ * LIKE scan against the trigram substring index, over a synthetic 500k message database. Results
+ * are logged rather than asserted, since timings depend entirely on the device.
+ */
+@RunWith(AndroidJUnit4.class)
+public final class SearchDatabaseBenchmark {
+
+  private static final String TAG = SearchDatabaseBenchmark.class.getSimpleName();
+
+  private static final int MESSAGE_COUNT = 500_000;
+  private static final int THREAD_COUNT  = 500;
+  private static final int PAGE_SIZE     = 100;
+  private static final int RESULT_LIMIT  = 500;
+
+  private static final String[] QUERIES = { "ab", "abc", "ab cd", "gna" };
+
+  private static final String DATE_ORDERED_QUERY =
+      "SELECT thread.recipient_ids, snippet(sms_fts, -1, '', '', '...', 7), sms.date AS date_received, sms_fts.rowid AS message_id, 0 AS is_mms " +
+      "FROM sms INNER JOIN sms_fts ON sms_fts.rowid = sms._id INNER JOIN thread ON sms_fts.thread_id = thread._id WHERE sms_fts MATCH ? " +
+      "UNION ALL " +
+      "SELECT thread.recipient_ids, snippet(mms_fts, -1, '', '', '...', 7), mms.date_received AS date_received, mms_fts.rowid AS message_id, 1 AS is_mms " +
+      "FROM mms INNER JOIN mms_fts ON mms_fts.rowid = mms._id INNER JOIN thread ON mms_fts.thread_id = thread._id WHERE mms_fts MATCH ? " +
+      "ORDER BY date_received DESC LIMIT " + RESULT_LIMIT;
+
+  private static final String[] SUBSTRING_QUERIES = { "bcd", "gnab", "ponm", "abcdef" };
+
+  private static final String LIKE_QUERY = "SELECT COUNT(*) FROM (SELECT _id FROM sms WHERE body LIKE ? UNION ALL SELECT _id FROM mms WHERE body LIKE ?)";
+
+  private SQLiteDatabase db;
+  private boolean        hasTrigramTables;
+
+  @Before
+  public void setUp() {
+    Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+
+    SQLiteDatabase.loadLibs(context);
+    db = SQLiteDatabase.openOrCreateDatabase(":memory:", "", null);
+
+    db.execSQL("CREATE TABLE thread (_id INTEGER PRIMARY KEY, recipient_ids INTEGER)");
+    db.execSQL("CREATE TABLE sms (_id INTEGER PRIMARY KEY, thread_id INTEGER, address INTEGER, date INTEGER, body TEXT)");
+    db.execSQL("CREATE TABLE mms (_id INTEGER PRIMARY KEY, thread_id INTEGER, address INTEGER, date_received INTEGER, body TEXT)");
+
+    for (String statement : SearchDatabase.CREATE_TABLE) {
+      db.execSQL(statement);
+    }
+
+    hasTrigramTables = SearchDatabase.isTrigramTokenizerSupported(db);
+
+    if (hasTrigramTables) {
+      for (String statement : SearchDatabase.CREATE_TRIGRAM_TABLES) {
+        db.execSQL(statement);
+      }
+    }
+
+    populate(new Random(1));
+  }
+
+  @After
+  public void tearDown() {
+    db.close();
+  }
+
+  @Test
+  public void ranked_vs_dateOrdered() {
+    for (String query : QUERIES) {
+      String match = fullTextSearchQuery(query);
+
+      long start = System.nanoTime();
+      int  dateOrderedCount = count(db.rawQuery(DATE_ORDERED_QUERY, new String[] { match, match }));
+      long dateOrderedTime  = System.nanoTime() - start;
+
+      start = System.nanoTime();
+      count(rankedPage(query, null, PAGE_SIZE / 2));
+      long firstPageTime = System.nanoTime() - start;
+
+      start = System.nanoTime();
+      List<Long> paged = new ArrayList<>();
+      SearchDatabase.SearchPosition after = null;
+
+      while (paged.size() < RESULT_LIMIT) {
+        try (Cursor cursor = rankedPage(query, after, PAGE_SIZE)) {
+          if (!cursor.moveToFirst()) break;
+
+          do {
+            paged.add(cursor.getLong(cursor.getColumnIndexOrThrow(SearchDatabase.MESSAGE_ID)));
+            after = SearchDatabase.SearchPosition.fromCursor(cursor);
+          } while (cursor.moveToNext());
+        }
+      }
+      long pagedTime = System.nanoTime() - start;
+
+      assertEquals(Math.min(dateOrderedCount, RESULT_LIMIT), Math.min(paged.size(), RESULT_LIMIT));
+
+      Log.i(TAG, String.format("%-16s date-ordered: %5d ms | ranked first page: %5d ms | %d via keyset: %5d ms",
+                               query,
+                               dateOrderedTime / 1_000_000,
+                               firstPageTime / 1_000_000,
+                               paged.size(),
+                               pagedTime / 1_000_000));
+    }
+  }
+
+  @Test
+  public void substring_vs_like() {
+    assumeTrue("Trigram tokenizer not supported.", hasTrigramTables);
+
+    for (String query : SUBSTRING_QUERIES) {
+      long start = System.nanoTime();
+      try (Cursor cursor = db.rawQuery(LIKE_QUERY, new String[] { "%" + query + "%", "%" + query + "%" })) {
+        cursor.moveToFirst();
+      }
+      long likeTime = System.nanoTime() - start;
+
+      List<String> args = new ArrayList<>();
+      String       sql  = SearchDatabase.buildSubstringMessagesQuery(query, null, PAGE_SIZE / 2, args);
+
+      start = System.nanoTime();
+      int  found         = count(db.rawQuery(sql, args.toArray(new String[0])));
+      long firstPageTime = System.nanoTime() - start;
+
+      Log.i(TAG, String.format("%-8s LIKE scan: %5d ms | trigram first page (%d): %5d ms",
+                               query,
+                               likeTime / 1_000_000,
+                               found,
+                               firstPageTime / 1_000_000));
+    }
+  }
+
+  private Cursor rankedPage(String query, SearchDatabase.SearchPosition after, int limit) {
+    List<String> args = new ArrayList<>();
+    String       sql  = SearchDatabase.buildRankedMessagesQuery(query, after, limit, args);
+
+    return db.rawQuery(sql, args.toArray(new String[0]));
+  }
+
+  private static String fullTextSearchQuery(String query) {
+    StringBuilder builder = new StringBuilder();
+
+    for (String term : query.split(" ")) {
+      builder.append('"').append(term).append("\"* ");
+    }
+
+    return builder.toString();
+  }
+
+  private void populate(Random random) {
+    String[] words = new String[20_000];
+    for (int i = 0; i < words.length; i++) {
+      words[i] = randomWord(random);
+    }
+
+    db.beginTransaction();
+    try {
+      for (int i = 1; i <= THREAD_COUNT; i++) {
+        db.execSQL("INSERT INTO thread VALUES (?, ?)", new Object[] { i, i });
+      }
+
+      SQLiteStatement sms = db.compileStatement("INSERT INTO sms VALUES (?, ?, 1, ?, ?)");
+      SQLiteStatement mms = db.compileStatement("INSERT INTO mms VALUES (?, ?, 1, ?, ?)");
+
+      for (int i = 1; i <= MESSAGE_COUNT / 2; i++) {
+        insert(sms, i, random, words);
+        insert(mms, i, random, words);
+      }
+
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+  }
+
+  private static void insert(SQLiteStatement statement, long id, Random random, String[] words) {
+    statement.bindLong(1, id);
+    statement.bindLong(2, 1 + random.nextInt(THREAD_COUNT));
+    statement.bindLong(3, id);
+    statement.bindString(4, randomBody(random, words));
+    statement.executeInsert();
+  }
+
+  /**
+   * Bodies draw from vocabularies of very different sizes, so that some prefixes are common and
+   * others are rare.
+   */
+  private static String randomBody(Random random, String[] words) {
+    int[]         vocabularies = { 200, 2_000, words.length };
+    int           vocabulary   = vocabularies[random.nextInt(vocabularies.length)];
+    int           length       = 3 + random.nextInt(18);
+    StringBuilder body         = new StringBuilder();
+
+    for (int i = 0; i < length; i++) {
+      body.append(words[random.nextInt(vocabulary)]).append(' ');
+    }
+
+    return body.toString();
+  }
+
+  private static String randomWord(Random random) {
+    int           length = 2 + random.nextInt(7);
+    StringBuilder word   = new StringBuilder();
+
+    for (int i = 0; i < length; i++) {
+      word.append((char) ('a' + random.nextInt(16)));
+    }
+
+    return word.toString();
+  }
+
+  private static int count(Cursor cursor) {
+    try {
+      return cursor.getCount();
+    } finally {
+      cursor.close();
+    }
+  }
+}
@@ -54,6 +54,7 @@ import org.thoughtcrime.securesms.jobs.MultiDeviceContactUpdateJob;
 import org.thoughtcrime.securesms.jobs.PushNotificationReceiveJob;
 import org.thoughtcrime.securesms.jobs.RefreshPreKeysJob;
 import org.thoughtcrime.securesms.jobs.RetrieveProfileJob;
+import org.thoughtcrime.securesms.jobs.ThreadSummaryConsistencyJob;
 import org.thoughtcrime.securesms.keyvalue.SignalStore;
 import org.thoughtcrime.securesms.logging.CustomSignalProtocolLogger;
 import org.thoughtcrime.securesms.logging.LogSecretProvider;
@@ -85,6 +86,7 @@ import org.webrtc.voiceengine.WebRtcAudioManager;
 import org.webrtc.voiceengine.WebRtcAudioUtils;
 import org.whispersystems.libsignal.logging.SignalProtocolLoggerProvider;
 
+import java.io.File;
 import java.security.Security;
 import java.util.HashSet;
 import java.util.Set;
@@ -182,6 +184,7 @@ public class ApplicationContext extends MultiDexApplication implements DefaultLi
       ApplicationDependencies.getRecipientCache().warmUp();
       RetrieveProfileJob.enqueueRoutineFetchIfNecessary(this);
       GroupV1MigrationJob.enqueueRoutineMigrationsIfNecessary(this);
+      ThreadSummaryConsistencyJob.enqueueIfNecessary();
       executePendingContactSync();
       KeyCachingService.onAppForegrounded(this);
       ApplicationDependencies.getShakeToReport().enable();
@@ -252,10 +255,14 @@ public class ApplicationContext extends MultiDexApplication implements DefaultLi
   }
 
   private void initializeLogging() {
-    persistentLogger = new PersistentLogger(this, LogSecretProvider.getOrCreateAttachmentSecret(this), BuildConfig.VERSION_NAME);
+    byte[] logSecret = LogSecretProvider.getOrCreateAttachmentSecret(this);
+
+    persistentLogger = new PersistentLogger(this, logSecret, BuildConfig.VERSION_NAME);
     org.signal.core.util.logging.Log.initialize(new AndroidLogger(), persistentLogger);
 
     SignalProtocolLoggerProvider.setProvider(new CustomSignalProtocolLogger());
+
+    SignalExecutors.BOUNDED.execute(() -> Tracer.getInstance().enableSpilling(new File(getCacheDir(), "traces"), logSecret));
   }
 
   private void initializeCrashHandling() {
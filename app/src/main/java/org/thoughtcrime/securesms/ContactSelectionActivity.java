@@ -141,7 +141,7 @@ public abstract class ContactSelectionActivity extends PassphraseRequiredActivit
     @Override
     protected Void doInBackground(Context... params) {
       try {
-        DirectoryHelper.refreshDirectory(params[0], true);
+        DirectoryHelper.refreshDirectory(params[0], true, true);
       } catch (IOException e) {
         Log.w(TAG, e);
       }
@@ -6,7 +6,6 @@ import android.media.MediaExtractor;
 import android.media.MediaFormat;
 import android.net.Uri;
 import android.os.Build;
-import android.util.LruCache;
 
 import androidx.annotation.AnyThread;
 import androidx.annotation.NonNull;
@@ -16,6 +15,7 @@ import androidx.core.util.Consumer;
 
 import com.google.protobuf.ByteString;
 
+import org.signal.core.util.ConcurrentLruCache;
 import org.signal.core.util.concurrent.SignalExecutors;
 import org.signal.core.util.logging.Log;
 import org.thoughtcrime.securesms.attachments.Attachment;
@@ -51,8 +51,8 @@ public final class AudioWaveForm {
     this.slide   = slide;
   }
 
-  private static final LruCache<String, AudioFileInfo> WAVE_FORM_CACHE        = new LruCache<>(200);
-  private static final Executor                        AUDIO_DECODER_EXECUTOR = new SerialExecutor(SignalExecutors.BOUNDED);
+  private static final ConcurrentLruCache<String, AudioFileInfo> WAVE_FORM_CACHE        = new ConcurrentLruCache<>(200);
+  private static final Executor                                  AUDIO_DECODER_EXECUTOR = new SerialExecutor(SignalExecutors.BOUNDED);
 
   @AnyThread
   public void getWaveForm(@NonNull Consumer<AudioFileInfo> onSuccess, @NonNull Runnable onFailure) {
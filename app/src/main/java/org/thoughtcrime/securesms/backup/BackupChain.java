@@ -0,0 +1,293 @@
+package org.thoughtcrime.securesms.backup;
+
+import android.database.Cursor;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import net.sqlcipher.database.SQLiteDatabase;
+
+import org.signal.core.util.logging.Log;
+import org.thoughtcrime.securesms.database.AttachmentDatabase;
+import org.thoughtcrime.securesms.database.BackupChangeDatabase;
+import org.thoughtcrime.securesms.database.GroupReceiptDatabase;
+import org.thoughtcrime.securesms.database.MmsDatabase;
+import org.thoughtcrime.securesms.database.SmsDatabase;
+import org.thoughtcrime.securesms.database.StickerDatabase;
+import org.thoughtcrime.securesms.util.JsonUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Describes a chain of local backups: a full base backup, followed by deltas that each only contain
+ * what changed since the backup before them.
+ *
+ * Tables that only grow at the end, like messages and attachments, are tracked by the highest row
+ * id that's been backed up. Every backup only includes rows up to the watermarks captured before it
+ * started, so a row is never written by two backups as a new row. A delta contains the rows between
+ * the previous watermark and its own, plus deletes for any rows below the previous watermark that
+ * have since gone away. Every other table is small, and is written out in full.
+ *
+ * Rows below the watermark that were changed in place (read state, remote deletes, reactions, a
+ * finished attachment download, etc.) are found through {@link BackupChangeDatabase}, which is
+ * watermarked the same way. A delta deletes and then reinserts those rows, so that the search
+ * index triggers on the restored database see the change.
+ *
+ * Row ids are used rather than date_received, since messages aren't inserted in date_received
+ * order (late deliveries, syncs from linked devices), and a date watermark would skip them.
+ */
+public final class BackupChain {
+
+  private static final String TAG = Log.tag(BackupChain.class);
+
+  public static final int MAX_DELTAS = 6;
+
+  static final String ID = "_id";
+
+  private static final String BASE_EXTENSION  = ".backup";
+  private static final String DELTA_EXTENSION = ".delta";
+
+  private static final String[] WATERMARKED_TABLES = { SmsDatabase.TABLE_NAME,
+                                                       MmsDatabase.TABLE_NAME,
+                                                       AttachmentDatabase.TABLE_NAME,
+                                                       GroupReceiptDatabase.TABLE_NAME,
+                                                       StickerDatabase.TABLE_NAME,
+                                                       BackupChangeDatabase.TABLE_NAME };
+
+  @JsonProperty
+  private String baseName;
+
+  @JsonProperty
+  private int sequence;
+
+  @JsonProperty
+  private int databaseVersion;
+
+  @JsonProperty
+  private long timestamp;
+
+  @JsonProperty
+  private Map<String, Long> watermarks;
+
+  @JsonCreator
+  @SuppressWarnings("unused")
+  public BackupChain() {}
+
+  private BackupChain(@NonNull String baseName, int sequence, int databaseVersion, long timestamp, @NonNull Map<String, Long> watermarks) {
+    this.baseName        = baseName;
+    this.sequence        = sequence;
+    this.databaseVersion = databaseVersion;
+    this.timestamp       = timestamp;
+    this.watermarks      = watermarks;
+  }
+
+  /**
+   * Starts a new chain from a full backup.
+   *
+   * @param watermarks Captured with {@link #captureWatermarks(SQLiteDatabase)} before the backup
+   *                   started.
+   * @param timestamp  The time the backup started.
+   */
+  public static @NonNull BackupChain forBase(@NonNull String baseName, int databaseVersion, long timestamp, @NonNull Map<String, Long> watermarks) {
+    return new BackupChain(baseName, 0, databaseVersion, timestamp, watermarks);
+  }
+
+  /**
+   * @return The chain after a delta with the provided watermarks has been written.
+   */
+  public @NonNull BackupChain append(long timestamp, @NonNull Map<String, Long> watermarks) {
+    return new BackupChain(baseName, sequence + 1, databaseVersion, timestamp, watermarks);
+  }
+
+  /**
+   * The highest id in every watermarked table. Rows can be added while a backup is in progress, so
+   * this must be captured before the backup starts, and the backup only includes rows up to it.
+   * That way, the next delta will include anything that was added or changed in the meantime.
+   *
+   * The watermarks are read in one transaction, so they describe a single point in time.
+   */
+  public static @NonNull Map<String, Long> captureWatermarks(@NonNull SQLiteDatabase db) {
+    Map<String, Long> watermarks = new HashMap<>();
+
+    db.beginTransaction();
+    try {
+      for (String table : WATERMARKED_TABLES) {
+        try (Cursor cursor = db.rawQuery("SELECT MAX(" + ID + ") FROM " + table, null)) {
+          if (cursor != null && cursor.moveToFirst()) {
+            watermarks.put(table, cursor.getLong(0));
+          }
+        }
+      }
+
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+
+    return watermarks;
+  }
+
+  /**
+   * Drops the change log entries that a backup with the provided watermarks has covered. Only call
+   * this once that backup has been written and recorded as the head of the chain.
+   */
+  public static void pruneChanges(@NonNull SQLiteDatabase db, @NonNull Map<String, Long> watermarks) {
+    Long watermark = watermarks.get(BackupChangeDatabase.TABLE_NAME);
+
+    if (watermark != null) {
+      db.execSQL(BackupChangeDatabase.getPruneStatement(watermark));
+    }
+  }
+
+  /**
+   * Whether a delta can be added to this chain, or whether a new base needs to be made.
+   */
+  public boolean canAppend(@NonNull File directory, int currentDatabaseVersion) {
+    if (sequence >= MAX_DELTAS) {
+      Log.i(TAG, "Chain is at its max length.");
+      return false;
+    }
+
+    if (currentDatabaseVersion != databaseVersion) {
+      Log.i(TAG, "Database version changed from " + databaseVersion + " to " + currentDatabaseVersion + ".");
+      return false;
+    }
+
+    if (!new File(directory, baseName).exists()) {
+      Log.w(TAG, "Base backup is missing.");
+      return false;
+    }
+
+    List<File> deltas = getDeltaFiles(new File(directory, baseName));
+
+    if (deltas.size() != sequence) {
+      Log.w(TAG, "Expected " + sequence + " deltas, but found " + deltas.size() + ".");
+      return false;
+    }
+
+    return true;
+  }
+
+  public @NonNull String getBaseName() {
+    return baseName;
+  }
+
+  public int getSequence() {
+    return sequence;
+  }
+
+  /**
+   * @return The time the most recent backup in the chain started.
+   */
+  public long getTimestamp() {
+    return timestamp;
+  }
+
+  @JsonIgnore
+  public @NonNull String getNextDeltaName() {
+    return getDeltaName(baseName, sequence + 1);
+  }
+
+  boolean isWatermarked(@NonNull String table) {
+    return watermarks.containsKey(table);
+  }
+
+  long getWatermark(@NonNull String table) {
+    Long watermark = watermarks.get(table);
+    return watermark != null ? watermark : 0;
+  }
+
+  public @NonNull String serialize() {
+    try {
+      return JsonUtils.toJson(this);
+    } catch (IOException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  public static @Nullable BackupChain deserialize(@Nullable String serialized) {
+    if (serialized == null) {
+      return null;
+    }
+
+    try {
+      return JsonUtils.fromJson(serialized, BackupChain.class);
+    } catch (IOException e) {
+      Log.w(TAG, "Failed to parse backup chain.", e);
+      return null;
+    }
+  }
+
+  static @NonNull String getDeltaName(@NonNull String baseName, int sequence) {
+    return getDeltaPrefix(baseName) + sequence + DELTA_EXTENSION;
+  }
+
+  /**
+   * @return The deltas for a base backup, in the order they should be applied. Stops at the first
+   *         missing one, since every delta depends on the ones before it.
+   */
+  public static @NonNull List<File> getDeltaFiles(@NonNull File base) {
+    File directory = base.getParentFile();
+
+    if (directory == null || !base.getName().endsWith(BASE_EXTENSION)) {
+      return Collections.emptyList();
+    }
+
+    List<File> deltas = new ArrayList<>();
+
+    for (int sequence = 1; sequence <= MAX_DELTAS; sequence++) {
+      File delta = new File(directory, getDeltaName(base.getName(), sequence));
+
+      if (!delta.exists()) {
+        break;
+      }
+
+      deltas.add(delta);
+    }
+
+    return deltas;
+  }
+
+  /**
+   * Deletes any deltas left behind after their base was deleted.
+   */
+  public static void deleteOrphanedDeltas(@NonNull File directory) {
+    File[] files = directory.listFiles();
+
+    if (files == null) {
+      return;
+    }
+
+    for (File file : files) {
+      String name = file.getName();
+
+      if (file.isFile() && name.endsWith(DELTA_EXTENSION)) {
+        int    separator = name.indexOf('.');
+        String baseName  = separator > 0 ? name.substring(0, separator) + BASE_EXTENSION : null;
+
+        if (baseName == null || !new File(directory, baseName).exists()) {
+          if (file.delete()) {
+            Log.i(TAG, "Deleted orphaned delta: " + name);
+          } else {
+            Log.w(TAG, "Failed to delete orphaned delta: " + name);
+          }
+        }
+      }
+    }
+  }
+
+  private static @NonNull String getDeltaPrefix(@NonNull String baseName) {
+    String name = baseName.endsWith(BASE_EXTENSION) ? baseName.substring(0, baseName.length() - BASE_EXTENSION.length()) : baseName;
+    return name + ".";
+  }
+}
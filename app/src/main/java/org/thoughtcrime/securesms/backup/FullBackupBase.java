@@ -47,10 +47,18 @@ public abstract class FullBackupBase {
 
     private final Type type;
     private final int count;
+    private final long bytesWritten;
+    private final long elapsedMs;
 
     BackupEvent(Type type, int count) {
-      this.type  = type;
-      this.count = count;
+      this(type, count, 0, 0);
+    }
+
+    BackupEvent(Type type, int count, long bytesWritten, long elapsedMs) {
+      this.type         = type;
+      this.count        = count;
+      this.bytesWritten = bytesWritten;
+      this.elapsedMs    = elapsedMs;
     }
 
     public Type getType() {
@@ -60,6 +68,18 @@ public abstract class FullBackupBase {
     public int getCount() {
       return count;
     }
+
+    public long getBytesWritten() {
+      return bytesWritten;
+    }
+
+    public long getElapsedMs() {
+      return elapsedMs;
+    }
+
+    public long getBytesPerSecond() {
+      return elapsedMs > 0 ? bytesWritten * 1000 / elapsedMs : 0;
+    }
   }
 
 }
@@ -8,16 +8,18 @@ import android.text.TextUtils;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.annotation.RequiresApi;
+import androidx.annotation.WorkerThread;
 import androidx.documentfile.provider.DocumentFile;
 
-import com.annimon.stream.function.Consumer;
-import com.annimon.stream.function.Predicate;
+import com.annimon.stream.function.Function;
 import com.google.protobuf.ByteString;
 
 import net.sqlcipher.database.SQLiteDatabase;
 
 import org.greenrobot.eventbus.EventBus;
 import org.signal.core.util.Conversions;
+import org.signal.core.util.StreamUtil;
+import org.signal.core.util.concurrent.SignalExecutors;
 import org.signal.core.util.logging.Log;
 import org.thoughtcrime.securesms.attachments.AttachmentId;
 import org.thoughtcrime.securesms.crypto.AttachmentSecret;
@@ -25,6 +27,7 @@ import org.thoughtcrime.securesms.crypto.ClassicDecryptingPartInputStream;
 import org.thoughtcrime.securesms.crypto.IdentityKeyUtil;
 import org.thoughtcrime.securesms.crypto.ModernDecryptingPartInputStream;
 import org.thoughtcrime.securesms.database.AttachmentDatabase;
+import org.thoughtcrime.securesms.database.BackupChangeDatabase;
 import org.thoughtcrime.securesms.database.GroupReceiptDatabase;
 import org.thoughtcrime.securesms.database.JobDatabase;
 import org.thoughtcrime.securesms.database.KeyValueDatabase;
@@ -40,9 +43,12 @@ import org.thoughtcrime.securesms.profiles.AvatarHelper;
 import org.thoughtcrime.securesms.util.SetUtil;
 import org.thoughtcrime.securesms.util.Stopwatch;
 import org.thoughtcrime.securesms.util.Util;
+import org.thoughtcrime.securesms.util.concurrent.SettableFuture;
 import org.whispersystems.libsignal.kdf.HKDFv3;
 import org.whispersystems.libsignal.util.ByteUtil;
 
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
@@ -51,16 +57,26 @@ import java.io.OutputStream;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
 import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.Mac;
 import javax.crypto.NoSuchPaddingException;
+import javax.crypto.ShortBufferException;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 
@@ -74,18 +90,56 @@ public class FullBackupExporter extends FullBackupBase {
     OneTimePreKeyDatabase.TABLE_NAME,
     SessionDatabase.TABLE_NAME,
     SearchDatabase.SMS_FTS_TABLE_NAME,
-    SearchDatabase.MMS_FTS_TABLE_NAME
+    SearchDatabase.MMS_FTS_TABLE_NAME,
+    SearchDatabase.SMS_TRIGRAM_TABLE_NAME,
+    SearchDatabase.MMS_TRIGRAM_TABLE_NAME,
+    BackupChangeDatabase.TABLE_NAME
   );
 
+  private static final int  MAX_PENDING_FRAMES        = 32;
+  private static final int  MAX_PREFETCH_SIZE         = 512 * 1024;
+  private static final long PRODUCER_POLL_INTERVAL_MS = 100;
+  private static final long PROGRESS_INTERVAL_MS      = 250;
+
+  private static final String NON_EXPIRING_MESSAGE = MmsDatabase.TABLE_NAME + "." + MmsDatabase.EXPIRES_IN + " = 0 AND " + MmsDatabase.TABLE_NAME + "." + MmsDatabase.VIEW_ONCE + " = 0";
+
+  private static final ExecutorService PRODUCER_EXECUTOR = SignalExecutors.newCachedSingleThreadExecutor("signal-BackupProducer");
+  private static final ExecutorService PREPARE_EXECUTOR  = SignalExecutors.newCachedBoundedExecutor("signal-BackupPrepare", 1, SignalExecutors.getIdealThreadCount());
+
+  /**
+   * Exports a base for a new chain. See {@link BackupChain}.
+   *
+   * @param watermarks Captured with {@link BackupChain#captureWatermarks(SQLiteDatabase)}. Rows
+   *                   above them are left for the next delta.
+   */
   public static void export(@NonNull Context context,
                             @NonNull AttachmentSecret attachmentSecret,
                             @NonNull SQLiteDatabase input,
                             @NonNull File output,
-                            @NonNull String passphrase)
+                            @NonNull String passphrase,
+                            @NonNull Map<String, Long> watermarks)
+      throws IOException
+  {
+    try (OutputStream outputStream = new FileOutputStream(output)) {
+      internalExport(context, attachmentSecret, input, outputStream, passphrase, null, watermarks);
+    }
+  }
+
+  /**
+   * Exports only what's changed since the last backup in the chain, up to the watermarks. See
+   * {@link BackupChain}.
+   */
+  public static void exportDelta(@NonNull Context context,
+                                 @NonNull AttachmentSecret attachmentSecret,
+                                 @NonNull SQLiteDatabase input,
+                                 @NonNull File output,
+                                 @NonNull String passphrase,
+                                 @NonNull BackupChain chain,
+                                 @NonNull Map<String, Long> watermarks)
       throws IOException
   {
     try (OutputStream outputStream = new FileOutputStream(output)) {
-      internalExport(context, attachmentSecret, input, outputStream, passphrase);
+      internalExport(context, attachmentSecret, input, outputStream, passphrase, chain, watermarks);
     }
   }
 
@@ -98,69 +152,75 @@ public class FullBackupExporter extends FullBackupBase {
       throws IOException
   {
     try (OutputStream outputStream = Objects.requireNonNull(context.getContentResolver().openOutputStream(output.getUri()))) {
-      internalExport(context, attachmentSecret, input, outputStream, passphrase);
+      internalExport(context, attachmentSecret, input, outputStream, passphrase, null, Collections.emptyMap());
     }
   }
 
+  /**
+   * The export is a pipeline:
+   * - A producer thread streams rows out of the database and turns them into frames.
+   * - Attachments and stickers are prepared on a pool of threads, so that their sizes can be
+   *   checked and small ones can be decrypted in parallel.
+   * - This thread takes the frames in order, and encrypts and writes them.
+   *
+   * The number of frames in flight is bounded, so a slow writer will hold back the producer.
+   *
+   * If there's a chain to build on, only what's changed since its last backup is written. Rows in
+   * watermarked tables are only written up to the watermarks, if there are any.
+   */
   private static void internalExport(@NonNull Context context,
                                      @NonNull AttachmentSecret attachmentSecret,
                                      @NonNull SQLiteDatabase input,
                                      @NonNull OutputStream fileOutputStream,
-                                     @NonNull String passphrase)
+                                     @NonNull String passphrase,
+                                     @Nullable BackupChain since,
+                                     @NonNull Map<String, Long> watermarks)
       throws IOException
   {
-    BackupFrameOutputStream outputStream = new BackupFrameOutputStream(fileOutputStream, passphrase);
-    int                     count        = 0;
+    BackupFrameOutputStream      outputStream = new BackupFrameOutputStream(fileOutputStream, passphrase);
+    BlockingQueue<Future<Frame>> frames       = new ArrayBlockingQueue<>(MAX_PENDING_FRAMES);
+    Progress                     progress     = new Progress();
+    Future<?>                    producer     = null;
 
     try {
       outputStream.writeDatabaseVersion(input.getVersion());
 
-      List<String> tables = exportSchema(input, outputStream);
-
-      Stopwatch stopwatch = new Stopwatch("Backup");
-
-      for (String table : tables) {
-        if (table.equals(MmsDatabase.TABLE_NAME)) {
-          count = exportTable(table, input, outputStream, FullBackupExporter::isNonExpiringMmsMessage, null, count);
-        } else if (table.equals(SmsDatabase.TABLE_NAME)) {
-          count = exportTable(table, input, outputStream, FullBackupExporter::isNonExpiringSmsMessage, null, count);
-        } else if (table.equals(GroupReceiptDatabase.TABLE_NAME)) {
-          count = exportTable(table, input, outputStream, cursor -> isForNonExpiringMessage(input, cursor.getLong(cursor.getColumnIndexOrThrow(GroupReceiptDatabase.MMS_ID))), null, count);
-        } else if (table.equals(AttachmentDatabase.TABLE_NAME)) {
-          count = exportTable(table, input, outputStream, cursor -> isForNonExpiringMessage(input, cursor.getLong(cursor.getColumnIndexOrThrow(AttachmentDatabase.MMS_ID))), cursor -> exportAttachment(attachmentSecret, cursor, outputStream), count);
-        } else if (table.equals(StickerDatabase.TABLE_NAME)) {
-          count = exportTable(table, input, outputStream, cursor -> true, cursor -> exportSticker(attachmentSecret, cursor, outputStream), count);
-        } else if (!BLACKLISTED_TABLES.contains(table) && !table.startsWith("sqlite_")) {
-          count = exportTable(table, input, outputStream, null, null, count);
-        }
-        stopwatch.split("table::" + table);
+      if (since != null) {
+        outputStream.writeDelta(since.getBaseName(), since.getSequence() + 1);
       }
 
-      for (BackupProtos.SharedPreference preference : IdentityKeyUtil.getBackupRecord(context)) {
-        EventBus.getDefault().post(new BackupEvent(BackupEvent.Type.PROGRESS, ++count));
-        outputStream.write(preference);
-      }
+      List<String> tables = exportSchema(input, since == null ? outputStream : null);
 
-      stopwatch.split("prefs");
+      producer = PRODUCER_EXECUTOR.submit(() -> {
+        produceFrames(context, attachmentSecret, input, tables, frames, since, watermarks);
+        return null;
+      });
 
-      for (AvatarHelper.Avatar avatar : AvatarHelper.getAvatars(context)) {
-        if (avatar != null) {
-          EventBus.getDefault().post(new BackupEvent(BackupEvent.Type.PROGRESS, ++count));
-          outputStream.write(avatar.getFilename(), avatar.getInputStream(), avatar.getLength());
-        }
-      }
-
-      stopwatch.split("avatars");
-      stopwatch.stop(TAG);
+      writeFrames(frames, producer, outputStream, progress);
 
       outputStream.writeEnd();
     } finally {
+      if (producer != null) {
+        producer.cancel(true);
+      }
+
+      for (Future<Frame> frame : frames) {
+        frame.cancel(true);
+      }
+
       outputStream.close();
-      EventBus.getDefault().post(new BackupEvent(BackupEvent.Type.FINISHED, ++count));
+
+      long elapsed = System.currentTimeMillis() - progress.startTime;
+      Log.i(TAG, "Exported " + progress.count + " rows, " + outputStream.getBytesWritten() + " bytes in " + elapsed + " ms.");
+
+      EventBus.getDefault().post(new BackupEvent(BackupEvent.Type.FINISHED, ++progress.count, outputStream.getBytesWritten(), elapsed));
     }
   }
 
-  private static List<String> exportSchema(@NonNull SQLiteDatabase input, @NonNull BackupFrameOutputStream outputStream)
+  /**
+   * @param outputStream Where to write the schema, or null to only list the tables.
+   */
+  private static List<String> exportSchema(@NonNull SQLiteDatabase input, @Nullable BackupFrameOutputStream outputStream)
       throws IOException
   {
     List<String> tables = new LinkedList<>();
@@ -175,13 +235,17 @@ public class FullBackupExporter extends FullBackupBase {
 
           boolean isSmsFtsSecretTable = name != null && !name.equals(SearchDatabase.SMS_FTS_TABLE_NAME) && name.startsWith(SearchDatabase.SMS_FTS_TABLE_NAME);
           boolean isMmsFtsSecretTable = name != null && !name.equals(SearchDatabase.MMS_FTS_TABLE_NAME) && name.startsWith(SearchDatabase.MMS_FTS_TABLE_NAME);
+          boolean isSmsTrigramSecretTable = name != null && !name.equals(SearchDatabase.SMS_TRIGRAM_TABLE_NAME) && name.startsWith(SearchDatabase.SMS_TRIGRAM_TABLE_NAME);
+          boolean isMmsTrigramSecretTable = name != null && !name.equals(SearchDatabase.MMS_TRIGRAM_TABLE_NAME) && name.startsWith(SearchDatabase.MMS_TRIGRAM_TABLE_NAME);
 
-          if (!isSmsFtsSecretTable && !isMmsFtsSecretTable) {
+          if (!isSmsFtsSecretTable && !isMmsFtsSecretTable && !isSmsTrigramSecretTable && !isMmsTrigramSecretTable) {
             if ("table".equals(type)) {
               tables.add(name);
             }
 
-            outputStream.write(BackupProtos.SqlStatement.newBuilder().setStatement(cursor.getString(0)).build());
+            if (outputStream != null) {
+              outputStream.write(BackupProtos.SqlStatement.newBuilder().setStatement(cursor.getString(0)).build());
+            }
           }
         }
       }
@@ -190,162 +254,446 @@ public class FullBackupExporter extends FullBackupBase {
     return tables;
   }
 
-  private static int exportTable(@NonNull   String table,
-                                 @NonNull   SQLiteDatabase input,
-                                 @NonNull   BackupFrameOutputStream outputStream,
-                                 @Nullable  Predicate<Cursor> predicate,
-                                 @Nullable  Consumer<Cursor> postProcess,
-                                            int count)
+  @WorkerThread
+  private static void writeFrames(@NonNull BlockingQueue<Future<Frame>> frames,
+                                  @NonNull Future<?> producer,
+                                  @NonNull BackupFrameOutputStream outputStream,
+                                  @NonNull Progress progress)
       throws IOException
+  {
+    try {
+      while (true) {
+        Future<Frame> frame = frames.poll(PRODUCER_POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+
+        if (frame != null) {
+          progress.onRowsWritten(frame.get().write(outputStream), outputStream.getBytesWritten());
+        } else if (producer.isDone() && frames.isEmpty()) {
+          break;
+        }
+      }
+
+      producer.get();
+    } catch (InterruptedException e) {
+      throw new IOException(e);
+    } catch (ExecutionException e) {
+      if      (e.getCause() instanceof IOException)      throw (IOException) e.getCause();
+      else if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+      else                                               throw new IOException(e.getCause());
+    }
+  }
+
+  @WorkerThread
+  private static void produceFrames(@NonNull Context context,
+                                    @NonNull AttachmentSecret attachmentSecret,
+                                    @NonNull SQLiteDatabase input,
+                                    @NonNull List<String> tables,
+                                    @NonNull BlockingQueue<Future<Frame>> frames,
+                                    @Nullable BackupChain since,
+                                    @NonNull Map<String, Long> watermarks)
+      throws IOException, InterruptedException
+  {
+    Stopwatch stopwatch = new Stopwatch("Backup");
+
+    for (String table : tables) {
+      if (BLACKLISTED_TABLES.contains(table) || table.startsWith("sqlite_")) {
+        continue;
+      }
+
+      String                          join         = null;
+      List<String>                    conditions   = new LinkedList<>();
+      Function<Cursor, Future<Frame>> blobPreparer = null;
+
+      if (table.equals(MmsDatabase.TABLE_NAME)) {
+        conditions.add(MmsSmsColumns.EXPIRES_IN + " <= 0");
+        conditions.add(MmsDatabase.VIEW_ONCE + " <= 0");
+      } else if (table.equals(SmsDatabase.TABLE_NAME)) {
+        conditions.add(MmsSmsColumns.EXPIRES_IN + " <= 0");
+      } else if (table.equals(GroupReceiptDatabase.TABLE_NAME)) {
+        join = joinMessage(table, GroupReceiptDatabase.MMS_ID);
+        conditions.add(NON_EXPIRING_MESSAGE);
+      } else if (table.equals(AttachmentDatabase.TABLE_NAME)) {
+        join = joinMessage(table, AttachmentDatabase.MMS_ID);
+        conditions.add(NON_EXPIRING_MESSAGE);
+        blobPreparer = cursor -> prepareAttachment(attachmentSecret, cursor);
+      } else if (table.equals(StickerDatabase.TABLE_NAME)) {
+        blobPreparer = cursor -> prepareSticker(attachmentSecret, cursor);
+      }
+
+      Long upTo = watermarks.get(table);
+
+      if (upTo != null) {
+        conditions.add(table + "." + BackupChain.ID + " <= " + upTo);
+      }
+
+      if (since != null && since.isWatermarked(table)) {
+        long   watermark = since.getWatermark(table);
+        String changed   = table + "." + BackupChain.ID + " IN (" + BackupChangeDatabase.getChangedRowsQuery(table, since.getWatermark(BackupChangeDatabase.TABLE_NAME), getChangeWatermark(watermarks)) + ")";
+
+        produceDeletedRanges(table, input, frames, watermark);
+        produceChangedRows(table, input, frames, join, conditions, changed, watermark, blobPreparer);
+
+        conditions.add(table + "." + BackupChain.ID + " > " + watermark);
+      } else if (since != null) {
+        frames.put(ready(statement("DELETE FROM " + table)));
+      }
+
+      produceTable(table, input, frames, join, conditions, blobPreparer);
+      stopwatch.split("table::" + table);
+    }
+
+    for (BackupProtos.SharedPreference preference : IdentityKeyUtil.getBackupRecord(context)) {
+      frames.put(ready(outputStream -> {
+        outputStream.write(preference);
+        return 1;
+      }));
+    }
+
+    stopwatch.split("prefs");
+
+    for (AvatarHelper.Avatar avatar : AvatarHelper.getAvatars(context)) {
+      if (avatar != null) {
+        frames.put(ready(outputStream -> {
+          outputStream.write(avatar.getFilename(), avatar.getInputStream(), avatar.getLength());
+          return 1;
+        }));
+      }
+    }
+
+    stopwatch.split("avatars");
+    stopwatch.stop(TAG);
+  }
+
+  /**
+   * The change log watermark bounds which updates a delta covers. Without one, every update up to
+   * now is included.
+   */
+  private static long getChangeWatermark(@NonNull Map<String, Long> watermarks) {
+    Long watermark = watermarks.get(BackupChangeDatabase.TABLE_NAME);
+    return watermark != null ? watermark : Long.MAX_VALUE;
+  }
+
+  /**
+   * Queues up a statement for every row in the table that matches the conditions. If there's a blob
+   * preparer, the blob's frame is queued right after the row it belongs to.
+   *
+   * Rows are always inserted without replacing, since a replace doesn't fire the delete triggers
+   * that keep the search indexes in sync. Rows that may already exist must be deleted first.
+   */
+  private static void produceTable(@NonNull   String table,
+                                   @NonNull   SQLiteDatabase input,
+                                   @NonNull   BlockingQueue<Future<Frame>> frames,
+                                   @Nullable  String join,
+                                   @NonNull   List<String> conditions,
+                                   @Nullable  Function<Cursor, Future<Frame>> blobPreparer)
+      throws InterruptedException
   {
     String template = "INSERT INTO " + table + " VALUES ";
+    String query    = "SELECT " + table + ".* FROM " + table;
+
+    if (join != null) {
+      query += join;
+    }
+
+    if (!conditions.isEmpty()) {
+      query += " WHERE " + TextUtils.join(" AND ", conditions);
+    }
 
-    try (Cursor cursor = input.rawQuery("SELECT * FROM " + table, null)) {
+    try (Cursor cursor = input.rawQuery(query, null)) {
       while (cursor != null && cursor.moveToNext()) {
-        EventBus.getDefault().post(new BackupEvent(BackupEvent.Type.PROGRESS, ++count));
-
-        if (predicate == null || predicate.test(cursor)) {
-          StringBuilder                     statement        = new StringBuilder(template);
-          BackupProtos.SqlStatement.Builder statementBuilder = BackupProtos.SqlStatement.newBuilder();
-
-          statement.append('(');
-
-          for (int i=0;i<cursor.getColumnCount();i++) {
-            statement.append('?');
-
-            if (cursor.getType(i) == Cursor.FIELD_TYPE_STRING) {
-              statementBuilder.addParameters(BackupProtos.SqlStatement.SqlParameter.newBuilder().setStringParamter(cursor.getString(i)));
-            } else if (cursor.getType(i) == Cursor.FIELD_TYPE_FLOAT) {
-              statementBuilder.addParameters(BackupProtos.SqlStatement.SqlParameter.newBuilder().setDoubleParameter(cursor.getDouble(i)));
-            } else if (cursor.getType(i) == Cursor.FIELD_TYPE_INTEGER) {
-              statementBuilder.addParameters(BackupProtos.SqlStatement.SqlParameter.newBuilder().setIntegerParameter(cursor.getLong(i)));
-            } else if (cursor.getType(i) == Cursor.FIELD_TYPE_BLOB) {
-              statementBuilder.addParameters(BackupProtos.SqlStatement.SqlParameter.newBuilder().setBlobParameter(ByteString.copyFrom(cursor.getBlob(i))));
-            } else if (cursor.getType(i) == Cursor.FIELD_TYPE_NULL) {
-              statementBuilder.addParameters(BackupProtos.SqlStatement.SqlParameter.newBuilder().setNullparameter(true));
-            } else {
-              throw new AssertionError("unknown type?"  + cursor.getType(i));
-            }
+        frames.put(ready(statement(buildStatement(template, cursor))));
 
-            if (i < cursor.getColumnCount()-1) {
-              statement.append(',');
-            }
-          }
+        if (blobPreparer != null) {
+          frames.put(blobPreparer.apply(cursor));
+        }
+      }
+    }
+  }
 
-          statement.append(')');
+  /**
+   * Queues up deletes for every range of ids at or below the watermark that no longer exist, so
+   * that rows deleted since the last backup in the chain are deleted on restore as well.
+   */
+  private static void produceDeletedRanges(@NonNull String table,
+                                           @NonNull SQLiteDatabase input,
+                                           @NonNull BlockingQueue<Future<Frame>> frames,
+                                           long watermark)
+      throws InterruptedException
+  {
+    String query    = "SELECT " + BackupChain.ID + " FROM " + table + " WHERE " + BackupChain.ID + " <= " + watermark + " ORDER BY " + BackupChain.ID;
+    long   expected = 1;
 
-          outputStream.write(statementBuilder.setStatement(statement.toString()).build());
+    try (Cursor cursor = input.rawQuery(query, null)) {
+      while (cursor != null && cursor.moveToNext()) {
+        long id = cursor.getLong(0);
 
-          if (postProcess != null) postProcess.accept(cursor);
+        if (id > expected) {
+          frames.put(ready(deleteRange(table, expected, id - 1)));
         }
+
+        expected = id + 1;
       }
     }
 
-    return count;
+    if (expected <= watermark) {
+      frames.put(ready(deleteRange(table, expected, watermark)));
+    }
   }
 
-  private static void exportAttachment(@NonNull AttachmentSecret attachmentSecret, @NonNull Cursor cursor, @NonNull BackupFrameOutputStream outputStream) {
-    try {
-      long rowId    = cursor.getLong(cursor.getColumnIndexOrThrow(AttachmentDatabase.ROW_ID));
-      long uniqueId = cursor.getLong(cursor.getColumnIndexOrThrow(AttachmentDatabase.UNIQUE_ID));
-      long size     = cursor.getLong(cursor.getColumnIndexOrThrow(AttachmentDatabase.SIZE));
+  /**
+   * Queues up a delete for every row at or below the watermark that was updated since the last
+   * backup in the chain, followed by the row as it is now, if it still matches the conditions.
+   */
+  private static void produceChangedRows(@NonNull  String table,
+                                         @NonNull  SQLiteDatabase input,
+                                         @NonNull  BlockingQueue<Future<Frame>> frames,
+                                         @Nullable String join,
+                                         @NonNull  List<String> conditions,
+                                         @NonNull  String changed,
+                                                   long watermark,
+                                         @Nullable Function<Cursor, Future<Frame>> blobPreparer)
+      throws InterruptedException
+  {
+    String query = "SELECT " + BackupChain.ID + " FROM " + table + " WHERE " + BackupChain.ID + " <= " + watermark + " AND " + changed;
+
+    try (Cursor cursor = input.rawQuery(query, null)) {
+      while (cursor != null && cursor.moveToNext()) {
+        long id = cursor.getLong(0);
+        frames.put(ready(deleteRange(table, id, id)));
+      }
+    }
 
-      String data   = cursor.getString(cursor.getColumnIndexOrThrow(AttachmentDatabase.DATA));
-      byte[] random = cursor.getBlob(cursor.getColumnIndexOrThrow(AttachmentDatabase.DATA_RANDOM));
+    List<String> changedConditions = new ArrayList<>(conditions);
+    changedConditions.add(table + "." + BackupChain.ID + " <= " + watermark);
+    changedConditions.add(changed);
+
+    produceTable(table, input, frames, join, changedConditions, blobPreparer);
+  }
 
+  private static @NonNull Frame deleteRange(@NonNull String table, long start, long end) {
+    return statement(BackupProtos.SqlStatement.newBuilder()
+                                              .setStatement("DELETE FROM " + table + " WHERE " + BackupChain.ID + " BETWEEN ? AND ?")
+                                              .addParameters(BackupProtos.SqlStatement.SqlParameter.newBuilder().setIntegerParameter(start))
+                                              .addParameters(BackupProtos.SqlStatement.SqlParameter.newBuilder().setIntegerParameter(end))
+                                              .build());
+  }
+
+  private static @NonNull Frame statement(@NonNull String sql) {
+    return statement(BackupProtos.SqlStatement.newBuilder().setStatement(sql).build());
+  }
+
+  private static @NonNull Frame statement(@NonNull BackupProtos.SqlStatement statement) {
+    return outputStream -> {
+      outputStream.write(statement);
+      return 1;
+    };
+  }
+
+  private static @NonNull BackupProtos.SqlStatement buildStatement(@NonNull String template, @NonNull Cursor cursor) {
+    StringBuilder                     statement        = new StringBuilder(template);
+    BackupProtos.SqlStatement.Builder statementBuilder = BackupProtos.SqlStatement.newBuilder();
+
+    statement.append('(');
+
+    for (int i=0;i<cursor.getColumnCount();i++) {
+      statement.append('?');
+
+      if (cursor.getType(i) == Cursor.FIELD_TYPE_STRING) {
+        statementBuilder.addParameters(BackupProtos.SqlStatement.SqlParameter.newBuilder().setStringParamter(cursor.getString(i)));
+      } else if (cursor.getType(i) == Cursor.FIELD_TYPE_FLOAT) {
+        statementBuilder.addParameters(BackupProtos.SqlStatement.SqlParameter.newBuilder().setDoubleParameter(cursor.getDouble(i)));
+      } else if (cursor.getType(i) == Cursor.FIELD_TYPE_INTEGER) {
+        statementBuilder.addParameters(BackupProtos.SqlStatement.SqlParameter.newBuilder().setIntegerParameter(cursor.getLong(i)));
+      } else if (cursor.getType(i) == Cursor.FIELD_TYPE_BLOB) {
+        statementBuilder.addParameters(BackupProtos.SqlStatement.SqlParameter.newBuilder().setBlobParameter(ByteString.copyFrom(cursor.getBlob(i))));
+      } else if (cursor.getType(i) == Cursor.FIELD_TYPE_NULL) {
+        statementBuilder.addParameters(BackupProtos.SqlStatement.SqlParameter.newBuilder().setNullparameter(true));
+      } else {
+        throw new AssertionError("unknown type?"  + cursor.getType(i));
+      }
+
+      if (i < cursor.getColumnCount()-1) {
+        statement.append(',');
+      }
+    }
+
+    statement.append(')');
+
+    return statementBuilder.setStatement(statement.toString()).build();
+  }
+
+  /**
+   * Replaces a per-row lookup of the message. Combined with {@link #NON_EXPIRING_MESSAGE}, only
+   * keeps rows whose message exists and won't expire.
+   */
+  private static @NonNull String joinMessage(@NonNull String table, @NonNull String mmsIdColumn) {
+    return " INNER JOIN " + MmsDatabase.TABLE_NAME + " ON " + table + "." + mmsIdColumn + " = " + MmsDatabase.TABLE_NAME + "." + MmsDatabase.ID;
+  }
+
+  private static @NonNull Future<Frame> prepareAttachment(@NonNull AttachmentSecret attachmentSecret, @NonNull Cursor cursor) {
+    long   rowId    = cursor.getLong(cursor.getColumnIndexOrThrow(AttachmentDatabase.ROW_ID));
+    long   uniqueId = cursor.getLong(cursor.getColumnIndexOrThrow(AttachmentDatabase.UNIQUE_ID));
+    long   size     = cursor.getLong(cursor.getColumnIndexOrThrow(AttachmentDatabase.SIZE));
+    String data     = cursor.getString(cursor.getColumnIndexOrThrow(AttachmentDatabase.DATA));
+    byte[] random   = cursor.getBlob(cursor.getColumnIndexOrThrow(AttachmentDatabase.DATA_RANDOM));
+
+    return PREPARE_EXECUTOR.submit(() -> prepareAttachmentFrame(attachmentSecret, new AttachmentId(rowId, uniqueId), size, data, random));
+  }
+
+  @WorkerThread
+  private static @NonNull Frame prepareAttachmentFrame(@NonNull AttachmentSecret attachmentSecret,
+                                                       @NonNull AttachmentId attachmentId,
+                                                       long size,
+                                                       @Nullable String data,
+                                                       @Nullable byte[] random)
+  {
+    try {
       if (!TextUtils.isEmpty(data)) {
         long fileLength = new File(data).length();
         long dbLength   = size;
 
         if (size <= 0 || fileLength != dbLength) {
           size = calculateVeryOldStreamLength(attachmentSecret, random, data);
-          Log.w(TAG, "Needed size calculation! Manual: " + size + " File: " + fileLength + "  DB: " + dbLength + " ID: " + new AttachmentId(rowId, uniqueId));
+          Log.w(TAG, "Needed size calculation! Manual: " + size + " File: " + fileLength + "  DB: " + dbLength + " ID: " + attachmentId);
         }
       }
 
       if (!TextUtils.isEmpty(data) && size > 0) {
-        InputStream inputStream;
-
-        if (random != null && random.length == 32) inputStream = ModernDecryptingPartInputStream.createFor(attachmentSecret, random, new File(data), 0);
-        else                                       inputStream = ClassicDecryptingPartInputStream.createFor(attachmentSecret, new File(data));
-
-        outputStream.write(new AttachmentId(rowId, uniqueId), inputStream, size);
+        long         length = size;
+        StreamOpener opener = prefetch(length, () -> openAttachment(attachmentSecret, random, data));
+
+        return outputStream -> {
+          try (InputStream inputStream = opener.open()) {
+            outputStream.write(attachmentId, inputStream, length);
+          } catch (IOException e) {
+            Log.w(TAG, e);
+          }
+          return 0;
+        };
       }
     } catch (IOException e) {
       Log.w(TAG, e);
     }
+
+    return EMPTY_FRAME;
   }
 
-  private static void exportSticker(@NonNull AttachmentSecret attachmentSecret, @NonNull Cursor cursor, @NonNull BackupFrameOutputStream outputStream) {
-    try {
-      long rowId    = cursor.getLong(cursor.getColumnIndexOrThrow(StickerDatabase._ID));
-      long size     = cursor.getLong(cursor.getColumnIndexOrThrow(StickerDatabase.FILE_LENGTH));
+  private static @NonNull Future<Frame> prepareSticker(@NonNull AttachmentSecret attachmentSecret, @NonNull Cursor cursor) {
+    long   rowId  = cursor.getLong(cursor.getColumnIndexOrThrow(StickerDatabase._ID));
+    long   size   = cursor.getLong(cursor.getColumnIndexOrThrow(StickerDatabase.FILE_LENGTH));
+    String data   = cursor.getString(cursor.getColumnIndexOrThrow(StickerDatabase.FILE_PATH));
+    byte[] random = cursor.getBlob(cursor.getColumnIndexOrThrow(StickerDatabase.FILE_RANDOM));
 
-      String data   = cursor.getString(cursor.getColumnIndexOrThrow(StickerDatabase.FILE_PATH));
-      byte[] random = cursor.getBlob(cursor.getColumnIndexOrThrow(StickerDatabase.FILE_RANDOM));
+    if (TextUtils.isEmpty(data) || size <= 0) {
+      return ready(EMPTY_FRAME);
+    }
 
-      if (!TextUtils.isEmpty(data) && size > 0) {
-        InputStream inputStream = ModernDecryptingPartInputStream.createFor(attachmentSecret, random, new File(data), 0);
-        outputStream.writeSticker(rowId, inputStream, size);
+    return PREPARE_EXECUTOR.submit(() -> {
+      try {
+        StreamOpener opener = prefetch(size, () -> ModernDecryptingPartInputStream.createFor(attachmentSecret, random, new File(data), 0));
+
+        return outputStream -> {
+          try (InputStream inputStream = opener.open()) {
+            outputStream.writeSticker(rowId, inputStream, size);
+          } catch (IOException e) {
+            Log.w(TAG, e);
+          }
+          return 0;
+        };
+      } catch (IOException e) {
+        Log.w(TAG, e);
+        return EMPTY_FRAME;
       }
-    } catch (IOException e) {
-      Log.w(TAG, e);
+    });
+  }
+
+  /**
+   * Small blobs are decrypted now, on the preparing thread, so the writer only has to encrypt them.
+   * Larger ones are left to be streamed by the writer, so we never hold too much in memory.
+   */
+  @WorkerThread
+  private static @NonNull StreamOpener prefetch(long size, @NonNull StreamOpener opener) throws IOException {
+    if (size > MAX_PREFETCH_SIZE) {
+      return opener;
     }
+
+    byte[] plaintext = StreamUtil.readFully(opener.open());
+
+    return () -> new ByteArrayInputStream(plaintext);
+  }
+
+  private static @NonNull InputStream openAttachment(@NonNull AttachmentSecret attachmentSecret, @Nullable byte[] random, @NonNull String data) throws IOException {
+    if (random != null && random.length == 32) return ModernDecryptingPartInputStream.createFor(attachmentSecret, random, new File(data), 0);
+    else                                       return ClassicDecryptingPartInputStream.createFor(attachmentSecret, new File(data));
   }
 
   private static long calculateVeryOldStreamLength(@NonNull AttachmentSecret attachmentSecret, @Nullable byte[] random, @NonNull String data) throws IOException {
     long result = 0;
-    InputStream inputStream;
 
-    if (random != null && random.length == 32) inputStream = ModernDecryptingPartInputStream.createFor(attachmentSecret, random, new File(data), 0);
-    else                                       inputStream = ClassicDecryptingPartInputStream.createFor(attachmentSecret, new File(data));
+    try (InputStream inputStream = openAttachment(attachmentSecret, random, data)) {
+      int    read;
+      byte[] buffer = new byte[8192];
 
-    int read;
-    byte[] buffer = new byte[8192];
-
-    while ((read = inputStream.read(buffer, 0, buffer.length)) != -1) {
-      result += read;
+      while ((read = inputStream.read(buffer, 0, buffer.length)) != -1) {
+        result += read;
+      }
     }
 
     return result;
   }
 
-  private static boolean isNonExpiringMmsMessage(@NonNull Cursor cursor) {
-    return cursor.getInt(cursor.getColumnIndexOrThrow(MmsSmsColumns.EXPIRES_IN)) <= 0 &&
-           cursor.getInt(cursor.getColumnIndexOrThrow(MmsDatabase.VIEW_ONCE))    <= 0;
+  /**
+   * Something to write to the backup, in order.
+   */
+  private interface Frame {
+    /**
+     * @return The number of rows written, for progress reporting.
+     */
+    int write(@NonNull BackupFrameOutputStream outputStream) throws IOException;
+  }
+
+  private static @NonNull Future<Frame> ready(@NonNull Frame frame) {
+    return new SettableFuture<>(frame);
   }
 
-  private static boolean isNonExpiringSmsMessage(@NonNull Cursor cursor) {
-    return cursor.getInt(cursor.getColumnIndexOrThrow(MmsSmsColumns.EXPIRES_IN)) <= 0;
+  private interface StreamOpener {
+    @NonNull InputStream open() throws IOException;
   }
 
-  private static boolean isForNonExpiringMessage(@NonNull SQLiteDatabase db, long mmsId) {
-    String[] columns = new String[] { MmsDatabase.EXPIRES_IN, MmsDatabase.VIEW_ONCE};
-    String   where   = MmsDatabase.ID + " = ?";
-    String[] args    = new String[] { String.valueOf(mmsId) };
+  private static final Frame EMPTY_FRAME = outputStream -> 0;
 
-    try (Cursor mmsCursor = db.query(MmsDatabase.TABLE_NAME, columns, where, args, null, null, null)) {
-      if (mmsCursor != null && mmsCursor.moveToFirst()) {
-        return mmsCursor.getLong(mmsCursor.getColumnIndexOrThrow(MmsDatabase.EXPIRES_IN)) == 0 &&
-               mmsCursor.getLong(mmsCursor.getColumnIndexOrThrow(MmsDatabase.VIEW_ONCE))  == 0;
+  private static final class Progress {
+    private final long startTime = System.currentTimeMillis();
+
+    private int  count;
+    private long lastPostTime;
+
+    void onRowsWritten(int rows, long bytesWritten) {
+      count += rows;
+
+      long now = System.currentTimeMillis();
+
+      if (rows > 0 && now - lastPostTime >= PROGRESS_INTERVAL_MS) {
+        EventBus.getDefault().post(new BackupEvent(BackupEvent.Type.PROGRESS, count, bytesWritten, now - startTime));
+        lastPostTime = now;
       }
     }
-
-    return false;
   }
 
-
   private static class BackupFrameOutputStream extends BackupStream {
 
-    private final OutputStream outputStream;
-    private final Cipher       cipher;
-    private final Mac          mac;
+    private static final int BUFFER_SIZE = 64 * 1024;
 
-    private final byte[]       cipherKey;
-    private final byte[]       macKey;
+    private final OutputStream  outputStream;
+    private final Cipher        cipher;
+    private final Mac           mac;
+    private final SecretKeySpec cipherKey;
+    private final byte[]        macKey;
+    private final byte[]        buffer;
 
+    private byte[] ciphertextBuffer;
     private byte[] iv;
     private int    counter;
+    private long   bytesWritten;
 
     private BackupFrameOutputStream(@NonNull OutputStream output, @NonNull String passphrase) throws IOException {
       try {
@@ -354,14 +702,16 @@ public class FullBackupExporter extends FullBackupBase {
         byte[]   derived = new HKDFv3().deriveSecrets(key, "Backup Export".getBytes(), 64);
         byte[][] split   = ByteUtil.split(derived, 32, 32);
 
-        this.cipherKey = split[0];
+        this.cipherKey = new SecretKeySpec(split[0], "AES");
         this.macKey    = split[1];
 
-        this.cipher       = Cipher.getInstance("AES/CTR/NoPadding");
-        this.mac          = Mac.getInstance("HmacSHA256");
-        this.outputStream = output;
-        this.iv           = Util.getSecretBytes(16);
-        this.counter      = Conversions.byteArrayToInt(iv);
+        this.cipher           = Cipher.getInstance("AES/CTR/NoPadding");
+        this.mac              = Mac.getInstance("HmacSHA256");
+        this.outputStream     = new BufferedOutputStream(output, BUFFER_SIZE);
+        this.buffer           = new byte[BUFFER_SIZE];
+        this.ciphertextBuffer = new byte[BUFFER_SIZE];
+        this.iv               = Util.getSecretBytes(16);
+        this.counter          = Conversions.byteArrayToInt(iv);
 
         mac.init(new SecretKeySpec(macKey, "HmacSHA256"));
 
@@ -370,28 +720,28 @@ public class FullBackupExporter extends FullBackupBase {
                                                                                            .setSalt(ByteString.copyFrom(salt)))
                                                 .build().toByteArray();
 
-        outputStream.write(Conversions.intToByteArray(header.length));
-        outputStream.write(header);
+        writeRaw(Conversions.intToByteArray(header.length));
+        writeRaw(header);
       } catch (NoSuchAlgorithmException | NoSuchPaddingException | InvalidKeyException e) {
         throw new AssertionError(e);
       }
     }
 
     public void write(BackupProtos.SharedPreference preference) throws IOException {
-      write(outputStream, BackupProtos.BackupFrame.newBuilder().setPreference(preference).build());
+      write(BackupProtos.BackupFrame.newBuilder().setPreference(preference).build());
     }
 
     public void write(BackupProtos.SqlStatement statement) throws IOException {
-      write(outputStream, BackupProtos.BackupFrame.newBuilder().setStatement(statement).build());
+      write(BackupProtos.BackupFrame.newBuilder().setStatement(statement).build());
     }
 
     public void write(@NonNull String avatarName, @NonNull InputStream in, long size) throws IOException {
-      write(outputStream, BackupProtos.BackupFrame.newBuilder()
-                                                  .setAvatar(BackupProtos.Avatar.newBuilder()
-                                                                                .setRecipientId(avatarName)
-                                                                                .setLength(Util.toIntExact(size))
-                                                                                .build())
-                                                  .build());
+      write(BackupProtos.BackupFrame.newBuilder()
+                                    .setAvatar(BackupProtos.Avatar.newBuilder()
+                                                                  .setRecipientId(avatarName)
+                                                                  .setLength(Util.toIntExact(size))
+                                                                  .build())
+                                    .build());
 
       if (writeStream(in) != size) {
         throw new IOException("Size mismatch!");
@@ -399,13 +749,13 @@ public class FullBackupExporter extends FullBackupBase {
     }
 
     public void write(@NonNull AttachmentId attachmentId, @NonNull InputStream in, long size) throws IOException {
-      write(outputStream, BackupProtos.BackupFrame.newBuilder()
-                                                  .setAttachment(BackupProtos.Attachment.newBuilder()
-                                                                                        .setRowId(attachmentId.getRowId())
-                                                                                        .setAttachmentId(attachmentId.getUniqueId())
-                                                                                        .setLength(Util.toIntExact(size))
-                                                                                        .build())
-                                                  .build());
+      write(BackupProtos.BackupFrame.newBuilder()
+                                    .setAttachment(BackupProtos.Attachment.newBuilder()
+                                                                          .setRowId(attachmentId.getRowId())
+                                                                          .setAttachmentId(attachmentId.getUniqueId())
+                                                                          .setLength(Util.toIntExact(size))
+                                                                          .build())
+                                    .build());
 
       if (writeStream(in) != size) {
         throw new IOException("Size mismatch!");
@@ -413,12 +763,12 @@ public class FullBackupExporter extends FullBackupBase {
     }
 
     public void writeSticker(long rowId, @NonNull InputStream in, long size) throws IOException {
-      write(outputStream, BackupProtos.BackupFrame.newBuilder()
-                                                  .setSticker(BackupProtos.Sticker.newBuilder()
-                                                                                  .setRowId(rowId)
-                                                                                  .setLength(Util.toIntExact(size))
-                                                                                  .build())
-                                                  .build());
+      write(BackupProtos.BackupFrame.newBuilder()
+                                    .setSticker(BackupProtos.Sticker.newBuilder()
+                                                                    .setRowId(rowId)
+                                                                    .setLength(Util.toIntExact(size))
+                                                                    .build())
+                                    .build());
 
       if (writeStream(in) != size) {
         throw new IOException("Size mismatch!");
@@ -426,13 +776,28 @@ public class FullBackupExporter extends FullBackupBase {
     }
 
     void writeDatabaseVersion(int version) throws IOException {
-      write(outputStream, BackupProtos.BackupFrame.newBuilder()
-                                                  .setVersion(BackupProtos.DatabaseVersion.newBuilder().setVersion(version))
-                                                  .build());
+      write(BackupProtos.BackupFrame.newBuilder()
+                                    .setVersion(BackupProtos.DatabaseVersion.newBuilder().setVersion(version))
+                                    .build());
+    }
+
+    void writeDelta(@NonNull String baseName, int sequence) throws IOException {
+      write(BackupProtos.BackupFrame.newBuilder()
+                                    .setDelta(BackupProtos.DeltaInfo.newBuilder()
+                                                                    .setBase(baseName)
+                                                                    .setSequence(sequence))
+                                    .build());
     }
 
     void writeEnd() throws IOException {
-      write(outputStream, BackupProtos.BackupFrame.newBuilder().setEnd(true).build());
+      write(BackupProtos.BackupFrame.newBuilder().setEnd(true).build());
+    }
+
+    /**
+     * @return The number of bytes written to the backup so far.
+     */
+    long getBytesWritten() {
+      return bytesWritten;
     }
 
     /**
@@ -441,55 +806,66 @@ public class FullBackupExporter extends FullBackupBase {
     private long writeStream(@NonNull InputStream inputStream) throws IOException {
       try {
         Conversions.intToByteArray(iv, 0, counter++);
-        cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(cipherKey, "AES"), new IvParameterSpec(iv));
+        cipher.init(Cipher.ENCRYPT_MODE, cipherKey, new IvParameterSpec(iv));
         mac.update(iv);
 
-        byte[] buffer = new byte[8192];
-        long   total  = 0;
+        long total = 0;
 
         int read;
 
         while ((read = inputStream.read(buffer)) != -1) {
-          byte[] ciphertext = cipher.update(buffer, 0, read);
+          int outputSize = cipher.getOutputSize(read);
 
-          if (ciphertext != null) {
-            outputStream.write(ciphertext);
-            mac.update(ciphertext);
+          if (ciphertextBuffer.length < outputSize) {
+            ciphertextBuffer = new byte[outputSize];
           }
 
+          int length = cipher.update(buffer, 0, read, ciphertextBuffer);
+
+          writeRaw(ciphertextBuffer, 0, length);
+          mac.update(ciphertextBuffer, 0, length);
+
           total += read;
         }
 
         byte[] remainder = cipher.doFinal();
-        outputStream.write(remainder);
+        writeRaw(remainder);
         mac.update(remainder);
 
         byte[] attachmentDigest = mac.doFinal();
-        outputStream.write(attachmentDigest, 0, 10);
+        writeRaw(attachmentDigest, 0, 10);
 
         return total;
-      } catch (InvalidKeyException | InvalidAlgorithmParameterException | IllegalBlockSizeException | BadPaddingException e) {
+      } catch (InvalidKeyException | InvalidAlgorithmParameterException | IllegalBlockSizeException | BadPaddingException | ShortBufferException e) {
         throw new AssertionError(e);
       }
     }
 
-    private void write(@NonNull OutputStream out, @NonNull BackupProtos.BackupFrame frame) throws IOException {
+    private void write(@NonNull BackupProtos.BackupFrame frame) throws IOException {
       try {
         Conversions.intToByteArray(iv, 0, counter++);
-        cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(cipherKey, "AES"), new IvParameterSpec(iv));
+        cipher.init(Cipher.ENCRYPT_MODE, cipherKey, new IvParameterSpec(iv));
 
         byte[] frameCiphertext = cipher.doFinal(frame.toByteArray());
         byte[] frameMac        = mac.doFinal(frameCiphertext);
         byte[] length          = Conversions.intToByteArray(frameCiphertext.length + 10);
 
-        out.write(length);
-        out.write(frameCiphertext);
-        out.write(frameMac, 0, 10);
+        writeRaw(length);
+        writeRaw(frameCiphertext);
+        writeRaw(frameMac, 0, 10);
       } catch (InvalidKeyException | InvalidAlgorithmParameterException | IllegalBlockSizeException | BadPaddingException e) {
         throw new AssertionError(e);
       }
     }
 
+    private void writeRaw(@NonNull byte[] data) throws IOException {
+      writeRaw(data, 0, data.length);
+    }
+
+    private void writeRaw(@NonNull byte[] data, int offset, int length) throws IOException {
+      outputStream.write(data, offset, length);
+      bytesWritten += length;
+    }
 
     public void close() throws IOException {
       outputStream.close();
@@ -10,6 +10,7 @@ import android.net.Uri;
 import android.util.Pair;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import net.sqlcipher.database.SQLiteDatabase;
 
@@ -20,6 +21,7 @@ import org.signal.core.util.logging.Log;
 import org.thoughtcrime.securesms.backup.BackupProtos.Attachment;
 import org.thoughtcrime.securesms.backup.BackupProtos.BackupFrame;
 import org.thoughtcrime.securesms.backup.BackupProtos.DatabaseVersion;
+import org.thoughtcrime.securesms.backup.BackupProtos.DeltaInfo;
 import org.thoughtcrime.securesms.backup.BackupProtos.SharedPreference;
 import org.thoughtcrime.securesms.backup.BackupProtos.SqlStatement;
 import org.thoughtcrime.securesms.backup.BackupProtos.Sticker;
@@ -45,6 +47,7 @@ import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Objects;
@@ -62,30 +65,32 @@ public class FullBackupImporter extends FullBackupBase {
   @SuppressWarnings("unused")
   private static final String TAG = FullBackupImporter.class.getSimpleName();
 
+  /**
+   * Restores a backup, along with any deltas that were written after it. See {@link BackupChain}.
+   */
   public static void importFile(@NonNull Context context, @NonNull AttachmentSecret attachmentSecret,
                                 @NonNull SQLiteDatabase db, @NonNull Uri uri, @NonNull String passphrase)
       throws IOException
   {
     int count = 0;
 
-    try (InputStream is = getInputStream(context, uri)) {
-      BackupRecordInputStream inputStream = new BackupRecordInputStream(is, passphrase);
-
+    try {
       db.beginTransaction();
 
       dropAllTables(db);
 
-      BackupFrame frame;
+      try (InputStream is = getInputStream(context, uri)) {
+        count = importFrames(context, attachmentSecret, db, new BackupRecordInputStream(is, passphrase), null, 0, count);
+      }
 
-      while (!(frame = inputStream.readFrame()).getEnd()) {
-        if (count++ % 100 == 0) EventBus.getDefault().post(new BackupEvent(BackupEvent.Type.PROGRESS, count));
+      List<File> deltas = getDeltaFiles(context, uri);
 
-        if      (frame.hasVersion())    processVersion(db, frame.getVersion());
-        else if (frame.hasStatement())  processStatement(db, frame.getStatement());
-        else if (frame.hasPreference()) processPreference(context, frame.getPreference());
-        else if (frame.hasAttachment()) processAttachment(context, attachmentSecret, db, frame.getAttachment(), inputStream);
-        else if (frame.hasSticker())    processSticker(context, attachmentSecret, db, frame.getSticker(), inputStream);
-        else if (frame.hasAvatar())     processAvatar(context, db, frame.getAvatar(), inputStream);
+      for (int i = 0; i < deltas.size(); i++) {
+        Log.i(TAG, "Restoring delta " + (i + 1) + " of " + deltas.size());
+
+        try (InputStream is = new FileInputStream(deltas.get(i))) {
+          count = importFrames(context, attachmentSecret, db, new BackupRecordInputStream(is, passphrase), Objects.requireNonNull(uri.getLastPathSegment()), i + 1, count);
+        }
       }
 
       db.setTransactionSuccessful();
@@ -96,6 +101,49 @@ public class FullBackupImporter extends FullBackupBase {
     EventBus.getDefault().post(new BackupEvent(BackupEvent.Type.FINISHED, count));
   }
 
+  /**
+   * @param baseName The name of the base backup if this is a delta, otherwise null.
+   * @param sequence The position of the delta in its chain.
+   * @return The running count of frames imported.
+   */
+  private static int importFrames(@NonNull Context context,
+                                  @NonNull AttachmentSecret attachmentSecret,
+                                  @NonNull SQLiteDatabase db,
+                                  @NonNull BackupRecordInputStream inputStream,
+                                  @Nullable String baseName,
+                                  int sequence,
+                                  int count)
+      throws IOException
+  {
+    BackupFrame frame;
+
+    while (!(frame = inputStream.readFrame()).getEnd()) {
+      if (count++ % 100 == 0) EventBus.getDefault().post(new BackupEvent(BackupEvent.Type.PROGRESS, count));
+
+      if      (frame.hasVersion())    processVersion(db, frame.getVersion());
+      else if (frame.hasDelta())      processDelta(frame.getDelta(), baseName, sequence);
+      else if (frame.hasStatement())  processStatement(db, frame.getStatement());
+      else if (frame.hasPreference()) processPreference(context, frame.getPreference());
+      else if (frame.hasAttachment()) processAttachment(context, attachmentSecret, db, frame.getAttachment(), inputStream);
+      else if (frame.hasSticker())    processSticker(context, attachmentSecret, db, frame.getSticker(), inputStream);
+      else if (frame.hasAvatar())     processAvatar(context, db, frame.getAvatar(), inputStream);
+    }
+
+    return count;
+  }
+
+  /**
+   * Deltas can only be found when the backup is in a directory we can list, which isn't the case
+   * when the user picked a single file.
+   */
+  private static @NonNull List<File> getDeltaFiles(@NonNull Context context, @NonNull Uri uri) {
+    if (BackupUtil.isUserSelectionRequired(context) || uri.getPath() == null) {
+      return Collections.emptyList();
+    } else {
+      return BackupChain.getDeltaFiles(new File(uri.getPath()));
+    }
+  }
+
   private static @NonNull InputStream getInputStream(@NonNull Context context, @NonNull Uri uri) throws IOException{
     if (BackupUtil.isUserSelectionRequired(context)) {
       return Objects.requireNonNull(context.getContentResolver().openInputStream(uri));
@@ -112,12 +160,24 @@ public class FullBackupImporter extends FullBackupBase {
     db.setVersion(version.getVersion());
   }
 
+  private static void processDelta(@NonNull DeltaInfo delta, @Nullable String baseName, int sequence) throws IOException {
+    if (baseName == null) {
+      throw new IOException("Can't restore a delta on its own!");
+    }
+
+    if (!baseName.equals(delta.getBase()) || delta.getSequence() != sequence) {
+      throw new IOException("Delta is for " + delta.getBase() + " #" + delta.getSequence() + ", but expected " + baseName + " #" + sequence);
+    }
+  }
+
   private static void processStatement(@NonNull SQLiteDatabase db, SqlStatement statement) {
     boolean isForSmsFtsSecretTable = statement.getStatement().contains(SearchDatabase.SMS_FTS_TABLE_NAME + "_");
     boolean isForMmsFtsSecretTable = statement.getStatement().contains(SearchDatabase.MMS_FTS_TABLE_NAME + "_");
+    boolean isForSmsTrigramSecretTable = statement.getStatement().contains(SearchDatabase.SMS_TRIGRAM_TABLE_NAME + "_");
+    boolean isForMmsTrigramSecretTable = statement.getStatement().contains(SearchDatabase.MMS_TRIGRAM_TABLE_NAME + "_");
     boolean isForSqliteSecretTable = statement.getStatement().toLowerCase().startsWith("create table sqlite_");
 
-    if (isForSmsFtsSecretTable || isForMmsFtsSecretTable || isForSqliteSecretTable) {
+    if (isForSmsFtsSecretTable || isForMmsFtsSecretTable || isForSmsTrigramSecretTable || isForMmsTrigramSecretTable || isForSqliteSecretTable) {
       Log.i(TAG, "Ignoring import for statement: " + statement.getStatement());
       return;
     }
@@ -43,18 +43,16 @@ import org.thoughtcrime.securesms.recipients.RecipientId;
 import org.thoughtcrime.securesms.registration.RegistrationUtil;
 import org.thoughtcrime.securesms.sms.IncomingJoinedMessage;
 import org.thoughtcrime.securesms.storage.StorageSyncHelper;
+import org.thoughtcrime.securesms.util.ProfileFetchScheduler;
 import org.thoughtcrime.securesms.util.ProfileUtil;
 import org.thoughtcrime.securesms.util.SetUtil;
 import org.thoughtcrime.securesms.util.Stopwatch;
 import org.thoughtcrime.securesms.util.TextSecurePreferences;
 import org.thoughtcrime.securesms.util.Util;
-import org.whispersystems.libsignal.util.Pair;
 import org.whispersystems.libsignal.util.guava.Optional;
-import org.whispersystems.signalservice.api.profiles.ProfileAndCredential;
 import org.whispersystems.signalservice.api.profiles.SignalServiceProfile;
 import org.whispersystems.signalservice.api.push.exceptions.NotFoundException;
 import org.whispersystems.signalservice.api.util.UuidUtil;
-import org.whispersystems.signalservice.internal.util.concurrent.ListenableFuture;
 
 import java.io.IOException;
 import java.util.Calendar;
@@ -65,9 +63,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
-import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
 
 /**
  * Manages all the stuff around determining if a user is registered or not.
@@ -76,8 +72,33 @@ public class DirectoryHelper {
 
   private static final String TAG = Log.tag(DirectoryHelper.class);
 
+  /**
+   * How often every number is sent to contact discovery, regardless of what we already know.
+   * In between, {@link #refreshDirectory(Context, boolean)} only sends the numbers that are new,
+   * stale, or whose registration state has changed since they were last checked.
+   */
+  private static final long FULL_REFRESH_INTERVAL = TimeUnit.DAYS.toMillis(7);
+
+  /**
+   * How long the result for a single number is trusted during an incremental refresh.
+   */
+  private static final long DISCOVERY_STALE_AGE = TimeUnit.DAYS.toMillis(3);
+
+  private static final int UNLISTED_MAX_IN_FLIGHT   = 8;
+  private static final int UNLISTED_TIMEOUT_SECONDS = 30;
+
   @WorkerThread
   public static void refreshDirectory(@NonNull Context context, boolean notifyOfNewUsers) throws IOException {
+    refreshDirectory(context, notifyOfNewUsers, false);
+  }
+
+  /**
+   * @param forceFullRefresh Send every number, even if a full refresh isn't due. Use this when the
+   *                         user asked for a refresh, since they may be looking for someone who
+   *                         registered after we last checked their number.
+   */
+  @WorkerThread
+  public static void refreshDirectory(@NonNull Context context, boolean notifyOfNewUsers, boolean forceFullRefresh) throws IOException {
     if (TextUtils.isEmpty(TextSecurePreferences.getLocalNumber(context))) {
       Log.w(TAG, "Have not yet set our own local number. Skipping.");
       return;
@@ -97,8 +118,27 @@ public class DirectoryHelper {
     RecipientDatabase recipientDatabase = DatabaseFactory.getRecipientDatabase(context);
     Set<String>       databaseNumbers   = sanitizeNumbers(recipientDatabase.getAllPhoneNumbers());
     Set<String>       systemNumbers     = sanitizeNumbers(ContactAccessor.getInstance().getAllContactsWithNumbers(context));
+    long              now               = System.currentTimeMillis();
+    long              lastFullRefresh   = SignalStore.misc().getLastFullCdsRefreshTime();
+    boolean           fullRefresh       = forceFullRefresh || now - lastFullRefresh > FULL_REFRESH_INTERVAL || lastFullRefresh > now;
+
+    if (!fullRefresh) {
+      Set<String> allNumbers = SetUtil.union(databaseNumbers, systemNumbers);
+      Set<String> needed     = recipientDatabase.getNumbersNeedingDiscovery(allNumbers, now - DISCOVERY_STALE_AGE);
+
+      Log.i(TAG, "Incremental refresh. Checking " + needed.size() + " of " + allNumbers.size() + " numbers.");
+
+      databaseNumbers = SetUtil.intersection(databaseNumbers, needed);
+      systemNumbers   = SetUtil.intersection(systemNumbers, needed);
+    } else {
+      Log.i(TAG, "Full refresh. Forced: " + forceFullRefresh);
+    }
 
-    refreshNumbers(context, databaseNumbers, systemNumbers, notifyOfNewUsers);
+    refreshNumbers(context, databaseNumbers, systemNumbers, notifyOfNewUsers, !fullRefresh);
+
+    if (fullRefresh) {
+      SignalStore.misc().setLastFullCdsRefreshTime(now);
+    }
 
     StorageSyncHelper.scheduleSyncForDataChange();
   }
@@ -122,7 +162,7 @@ public class DirectoryHelper {
                                 .map(Recipient::requireE164)
                                 .collect(Collectors.toSet());
 
-    refreshNumbers(context, numbers, numbers, notifyOfNewUsers);
+    refreshNumbers(context, numbers, numbers, notifyOfNewUsers, false);
   }
 
   @WorkerThread
@@ -208,13 +248,28 @@ public class DirectoryHelper {
     return newRegisteredState;
   }
 
+  /**
+   * @param incremental True if the numbers are only the subset that needed to be checked, in which
+   *                    case registered users that weren't included are left alone in the system
+   *                    contacts.
+   */
   @WorkerThread
-  private static void refreshNumbers(@NonNull Context context, @NonNull Set<String> databaseNumbers, @NonNull Set<String> systemNumbers, boolean notifyOfNewUsers) throws IOException {
+  private static void refreshNumbers(@NonNull Context context,
+                                     @NonNull Set<String> databaseNumbers,
+                                     @NonNull Set<String> systemNumbers,
+                                     boolean notifyOfNewUsers,
+                                     boolean incremental)
+      throws IOException
+  {
     RecipientDatabase recipientDatabase = DatabaseFactory.getRecipientDatabase(context);
     Set<String>       allNumbers        = SetUtil.union(databaseNumbers, systemNumbers);
 
     if (allNumbers.isEmpty()) {
-      Log.w(TAG, "No numbers to refresh!");
+      if (incremental) {
+        Log.i(TAG, "No numbers need to be refreshed.");
+      } else {
+        Log.w(TAG, "No numbers to refresh!");
+      }
       return;
     }
 
@@ -224,26 +279,20 @@ public class DirectoryHelper {
 
     stopwatch.split("network");
 
-    if (result.getNumberRewrites().size() > 0) {
-      Log.i(TAG, "[getDirectoryResult] Need to rewrite some numbers.");
-      recipientDatabase.updatePhoneNumbers(result.getNumberRewrites());
-    }
-
-    Map<RecipientId, String> uuidMap       = recipientDatabase.bulkProcessCdsResult(result.getRegisteredNumbers());
-    Set<String>              activeNumbers = result.getRegisteredNumbers().keySet();
-    Set<RecipientId>         activeIds     = uuidMap.keySet();
-    Set<RecipientId>         inactiveIds   = Stream.of(allNumbers)
-                                                   .filterNot(activeNumbers::contains)
-                                                   .filterNot(n -> result.getNumberRewrites().containsKey(n))
-                                                   .filterNot(n -> result.getIgnoredNumbers().contains(n))
-                                                   .map(recipientDatabase::getOrInsertFromE164)
-                                                   .collect(Collectors.toSet());
-
-    stopwatch.split("process-cds");
+    Set<String> activeNumbers   = result.getRegisteredNumbers().keySet();
+    Set<String> inactiveNumbers = Stream.of(allNumbers)
+                                        .filterNot(activeNumbers::contains)
+                                        .filterNot(n -> result.getNumberRewrites().containsKey(n))
+                                        .filterNot(n -> result.getIgnoredNumbers().contains(n))
+                                        .collect(Collectors.toSet());
 
-    UnlistedResult unlistedResult = filterForUnlistedUsers(context, inactiveIds);
+    Map<String, RecipientId> existingInactive = recipientDatabase.getByE164s(inactiveNumbers);
+    UnlistedResult           unlistedResult   = filterForUnlistedUsers(context, new HashSet<>(existingInactive.values()));
 
-    inactiveIds.removeAll(unlistedResult.getPossiblyActive());
+    Set<String> confirmedInactive = Stream.of(inactiveNumbers)
+                                          .filterNot(n -> unlistedResult.getPossiblyActive().contains(existingInactive.get(n)))
+                                          .collect(Collectors.toSet());
+    Set<String> ignoredNumbers    = SetUtil.intersection(allNumbers, result.getIgnoredNumbers());
 
     if (unlistedResult.getRetries().size() > 0) {
       Log.i(TAG, "Some profile fetches failed to resolve. Assuming not-inactive for now and scheduling a retry.");
@@ -252,13 +301,21 @@ public class DirectoryHelper {
 
     stopwatch.split("handle-unlisted");
 
-    Set<RecipientId> preExistingRegisteredUsers = new HashSet<>(recipientDatabase.getRegistered());
+    if (result.getNumberRewrites().size() > 0) {
+      Log.i(TAG, "[getDirectoryResult] Need to rewrite some numbers.");
+    }
 
-    recipientDatabase.bulkUpdatedRegisteredStatus(uuidMap, inactiveIds);
+    Set<RecipientId>         preExistingRegisteredUsers = new HashSet<>(recipientDatabase.getRegistered());
+    Map<RecipientId, String> uuidMap                    = recipientDatabase.bulkApplyCdsResult(result.getNumberRewrites(),
+                                                                                               result.getRegisteredNumbers(),
+                                                                                               confirmedInactive,
+                                                                                               ignoredNumbers,
+                                                                                               System.currentTimeMillis());
+    Set<RecipientId>         activeIds                  = uuidMap.keySet();
 
     stopwatch.split("update-registered");
 
-    updateContactsDatabase(context, activeIds, true, result.getNumberRewrites());
+    updateContactsDatabase(context, activeIds, !incremental, result.getNumberRewrites());
 
     stopwatch.split("contacts-db");
 
@@ -445,27 +502,15 @@ public class DirectoryHelper {
                                              .filter(r -> hasCommunicatedWith(context, r))
                                              .toList();
 
-    List<Pair<Recipient, ListenableFuture<ProfileAndCredential>>> futures = Stream.of(possiblyUnlisted)
-                                                                                  .map(r -> new Pair<>(r, ProfileUtil.retrieveProfile(context, r, SignalServiceProfile.RequestType.PROFILE)))
-                                                                                  .toList();
-    Set<RecipientId> potentiallyActiveIds = new HashSet<>();
-    Set<RecipientId> retries              = new HashSet<>();
-
-    Stream.of(futures)
-          .forEach(pair -> {
-            try {
-              pair.second().get(5, TimeUnit.SECONDS);
-              potentiallyActiveIds.add(pair.first().getId());
-            } catch (InterruptedException | TimeoutException e) {
-              retries.add(pair.first().getId());
-              potentiallyActiveIds.add(pair.first().getId());
-            } catch (ExecutionException e) {
-              if (!(e.getCause() instanceof NotFoundException)) {
-                retries.add(pair.first().getId());
-                potentiallyActiveIds.add(pair.first().getId());
-              }
-            }
-          });
+    ProfileFetchScheduler.Result result = ProfileFetchScheduler.fetch(context,
+                                                                     possiblyUnlisted,
+                                                                     r -> SignalServiceProfile.RequestType.PROFILE,
+                                                                     UNLISTED_MAX_IN_FLIGHT,
+                                                                     UNLISTED_TIMEOUT_SECONDS,
+                                                                     TimeUnit.SECONDS);
+
+    Set<RecipientId> potentiallyActiveIds = SetUtil.difference(Stream.of(possiblyUnlisted).map(Recipient::getId).toList(), result.getNotFound());
+    Set<RecipientId> retries              = SetUtil.union(result.getRetries(), result.getFailures());
 
     return new UnlistedResult(potentiallyActiveIds, retries);
   }
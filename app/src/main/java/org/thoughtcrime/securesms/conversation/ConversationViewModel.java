@@ -91,6 +91,8 @@ class ConversationViewModel extends ViewModel {
                                                           .setPageSize(25)
                                                           .setBufferPages(3)
                                                           .setStartIndex(Math.max(startPosition, 0))
+                                                          .setMaxPrefetchPages(4)
+                                                          .setFetchThreads(2)
                                                           .build();
 
       Log.d(TAG, "Starting at position: " + startPosition + " || jumpToPosition: " + data.getJumpToPosition() + ", lastSeenPosition: " + data.getLastSeenPosition() + ", lastScrolledPosition: " + data.getLastScrolledPosition());
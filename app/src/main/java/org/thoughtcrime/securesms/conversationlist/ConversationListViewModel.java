@@ -59,6 +59,8 @@ class ConversationListViewModel extends ViewModel {
                                                 new PagingConfig.Builder()
                                                                 .setPageSize(15)
                                                                 .setBufferPages(2)
+                                                                .setMaxPrefetchPages(2)
+                                                                .setFetchThreads(1)
                                                                 .build());
     this.observer            = () -> {
       if (!TextUtils.isEmpty(getLastQuery())) {
@@ -59,6 +59,7 @@ import org.thoughtcrime.securesms.util.FileUtils;
 import org.thoughtcrime.securesms.util.JsonUtils;
 import org.thoughtcrime.securesms.util.MediaUtil;
 import org.thoughtcrime.securesms.util.SetUtil;
+import org.thoughtcrime.securesms.util.SqlUtil;
 import org.thoughtcrime.securesms.util.StorageUtil;
 import org.thoughtcrime.securesms.video.EncryptedMediaDataSource;
 import org.whispersystems.libsignal.util.guava.Optional;
@@ -336,6 +337,50 @@ public class AttachmentDatabase extends Database {
     notifyAttachmentListeners();
   }
 
+  /**
+   * Deletes the attachment rows for a batch of messages, but leaves their files on disk. The result
+   * should be passed to {@link #deleteAttachmentFiles(List)} once the surrounding transaction has
+   * committed, so that a rolled back delete can't leave rows pointing at files that are gone.
+   */
+  @NonNull List<AttachmentFile> deleteAttachmentRowsForMessages(@NonNull Collection<Long> mmsIds) {
+    if (mmsIds.isEmpty()) {
+      return Collections.emptyList();
+    }
+
+    SQLiteDatabase       database = databaseHelper.getWritableDatabase();
+    List<AttachmentFile> files    = new LinkedList<>();
+
+    for (SqlUtil.Query query : SqlUtil.buildCollectionQueries(MMS_ID, mmsIds)) {
+      try (Cursor cursor = database.query(TABLE_NAME, new String[] {DATA, CONTENT_TYPE, ROW_ID, UNIQUE_ID}, query.getWhere(), query.getWhereArgs(), null, null, null)) {
+        while (cursor != null && cursor.moveToNext()) {
+          files.add(new AttachmentFile(CursorUtil.requireString(cursor, DATA),
+                                       CursorUtil.requireString(cursor, CONTENT_TYPE),
+                                       new AttachmentId(CursorUtil.requireLong(cursor, ROW_ID), CursorUtil.requireLong(cursor, UNIQUE_ID))));
+        }
+      }
+
+      database.delete(TABLE_NAME, query.getWhere(), query.getWhereArgs());
+    }
+
+    return files;
+  }
+
+  /**
+   * Deletes the files of attachments removed by {@link #deleteAttachmentRowsForMessages(Collection)},
+   * skipping any that are still used by another attachment.
+   */
+  void deleteAttachmentFiles(@NonNull List<AttachmentFile> files) {
+    if (files.isEmpty()) {
+      return;
+    }
+
+    for (AttachmentFile file : files) {
+      deleteAttachmentOnDisk(file.data, file.contentType, file.attachmentId);
+    }
+
+    notifyAttachmentListeners();
+  }
+
   /**
    * Deletes all attachments with an ID of {@link #PREUPLOAD_MESSAGE_ID}. These represent
    * attachments that were pre-uploaded and haven't been assigned to a message. This should only be
@@ -1353,6 +1398,21 @@ public class AttachmentDatabase extends Database {
     }
   }
 
+  /**
+   * An attachment whose row has been deleted, but whose file may still be on disk.
+   */
+  static final class AttachmentFile {
+    private final String       data;
+    private final String       contentType;
+    private final AttachmentId attachmentId;
+
+    private AttachmentFile(@Nullable String data, @Nullable String contentType, @NonNull AttachmentId attachmentId) {
+      this.data         = data;
+      this.contentType  = contentType;
+      this.attachmentId = attachmentId;
+    }
+  }
+
   private static final class DataUsageResult {
     private final boolean            hasStrongReference;
     private final List<AttachmentId> removableWeakReferences;
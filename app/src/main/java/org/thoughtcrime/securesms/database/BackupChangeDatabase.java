@@ -0,0 +1,73 @@
+package org.thoughtcrime.securesms.database;
+
+import androidx.annotation.NonNull;
+
+/**
+ * A log of in-place updates to the tables that local backup deltas track by row id. Triggers add
+ * an entry every time one of those rows is updated, replacing any earlier entry for the same row,
+ * so the log has at most one entry per row. Entries are ordered by their own id, which lets a
+ * delta pick up exactly the rows that changed since the last backup in its chain.
+ *
+ * See {@link org.thoughtcrime.securesms.backup.BackupChain}.
+ */
+public final class BackupChangeDatabase {
+
+  public  static final String TABLE_NAME = "backup_change";
+  public  static final String ID         = "_id";
+  private static final String ROW_TABLE  = "row_table";
+  private static final String ROW_ID     = "row_id";
+
+  private static final String[] TRACKED_TABLES = { SmsDatabase.TABLE_NAME,
+                                                   MmsDatabase.TABLE_NAME,
+                                                   AttachmentDatabase.TABLE_NAME,
+                                                   GroupReceiptDatabase.TABLE_NAME,
+                                                   StickerDatabase.TABLE_NAME };
+
+  public static final String[] CREATE_TABLE = buildCreateStatements();
+
+  public static final String[] CREATE_INDEXES = {
+    "CREATE INDEX IF NOT EXISTS backup_change_row_index ON " + TABLE_NAME + " (" + ROW_TABLE + ", " + ROW_ID + ");"
+  };
+
+  private BackupChangeDatabase() {}
+
+  /**
+   * @return A query for the ids of the rows in the table that were updated after the change
+   *         watermark {@code after}, up to and including {@code upTo}.
+   */
+  public static @NonNull String getChangedRowsQuery(@NonNull String table, long after, long upTo) {
+    return "SELECT " + ROW_ID + " FROM " + TABLE_NAME + " WHERE " + ROW_TABLE + " = '" + table + "' AND " + ID + " > " + after + " AND " + ID + " <= " + upTo;
+  }
+
+  /**
+   * @return A statement that drops every entry up to and including the change watermark.
+   */
+  public static @NonNull String getPruneStatement(long upTo) {
+    return "DELETE FROM " + TABLE_NAME + " WHERE " + ID + " <= " + upTo;
+  }
+
+  /**
+   * Entries aren't unique on the row, since a conflict clause on the statement that fires a trigger
+   * overrides the one inside it. The trigger deletes the old entry itself instead.
+   *
+   * The id autoincrements so that it's never reused after the log is pruned.
+   */
+  private static String[] buildCreateStatements() {
+    String[] statements = new String[TRACKED_TABLES.length + 1];
+
+    statements[0] = "CREATE TABLE " + TABLE_NAME + " (" + ID        + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                                                          ROW_TABLE + " TEXT NOT NULL, " +
+                                                          ROW_ID    + " INTEGER NOT NULL)";
+
+    for (int i = 0; i < TRACKED_TABLES.length; i++) {
+      String table = TRACKED_TABLES[i];
+
+      statements[i + 1] = "CREATE TRIGGER " + table + "_backup_au AFTER UPDATE ON " + table + " BEGIN\n" +
+                          "  DELETE FROM " + TABLE_NAME + " WHERE " + ROW_TABLE + " = '" + table + "' AND " + ROW_ID + " = old." + ID + ";\n" +
+                          "  INSERT INTO " + TABLE_NAME + " (" + ROW_TABLE + ", " + ROW_ID + ") VALUES ('" + table + "', new." + ID + ");\n" +
+                          "END;";
+    }
+
+    return statements;
+  }
+}
@@ -2,8 +2,8 @@ package org.thoughtcrime.securesms.database;
 
 import androidx.annotation.NonNull;
 
+import org.signal.core.util.ConcurrentLruCache;
 import org.thoughtcrime.securesms.recipients.RecipientId;
-import org.thoughtcrime.securesms.util.LRUCache;
 
 import java.util.HashMap;
 import java.util.Map;
@@ -12,7 +12,7 @@ public class EarlyReceiptCache {
 
   private static final String TAG = EarlyReceiptCache.class.getSimpleName();
 
-  private final LRUCache<Long, Map<RecipientId, Long>> cache = new LRUCache<>(100);
+  private final ConcurrentLruCache<Long, Map<RecipientId, Long>> cache = new ConcurrentLruCache<>(100);
   private final String name;
 
   public EarlyReceiptCache(@NonNull String name) {
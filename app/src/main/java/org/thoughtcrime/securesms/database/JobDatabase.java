@@ -3,14 +3,17 @@ package org.thoughtcrime.securesms.database;
 import android.app.Application;
 import android.content.ContentValues;
 import android.database.Cursor;
+import android.os.Handler;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.VisibleForTesting;
 
 import com.annimon.stream.Stream;
 
 import net.sqlcipher.database.SQLiteOpenHelper;
 import net.sqlcipher.database.SQLiteDatabase;
 
+import org.signal.core.util.concurrent.SignalExecutors;
 import org.signal.core.util.logging.Log;
 import org.thoughtcrime.securesms.crypto.DatabaseSecret;
 import org.thoughtcrime.securesms.crypto.DatabaseSecretProvider;
@@ -20,9 +23,20 @@ import org.thoughtcrime.securesms.jobmanager.persistence.FullSpec;
 import org.thoughtcrime.securesms.jobmanager.persistence.JobSpec;
 import org.thoughtcrime.securesms.util.CursorUtil;
 
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
-
+import java.util.Map;
+
+/**
+ * Persists the state of the {@link org.thoughtcrime.securesms.jobmanager.JobManager}.
+ *
+ * Writes that only affect the progress of a job that already exists (its running state and its
+ * retry attempt) are not needed for correctness after a process death, so they are deferred and
+ * coalesced per-job. They are written in a single transaction after {@link #FLUSH_DELAY_MS}, once
+ * {@link #MAX_PENDING_UPDATES} jobs have pending updates, or along with the next write that has to
+ * be durable. Inserting, updating, and deleting jobs are always written before returning.
+ */
 public class JobDatabase extends SQLiteOpenHelper implements SignalDatabase {
 
   private static final String TAG = Log.tag(JobDatabase.class);
@@ -30,6 +44,9 @@ public class JobDatabase extends SQLiteOpenHelper implements SignalDatabase {
   private static final int    DATABASE_VERSION = 1;
   private static final String DATABASE_NAME    = "signal-jobmanager.db";
 
+  private static final long FLUSH_DELAY_MS      = 100;
+  private static final int  MAX_PENDING_UPDATES = 100;
+
   private static final class Jobs {
     private static final String TABLE_NAME            = "job_spec";
     private static final String ID                    = "_id";
@@ -86,8 +103,12 @@ public class JobDatabase extends SQLiteOpenHelper implements SignalDatabase {
 
   private static volatile JobDatabase instance;
 
-  private final Application    application;
-  private final DatabaseSecret databaseSecret;
+  private final Application                application;
+  private final DatabaseSecret             databaseSecret;
+  private final Map<String, ContentValues> pendingUpdates;
+
+  private Handler flushHandler;
+  private boolean flushScheduled;
 
   public static @NonNull JobDatabase getInstance(@NonNull Application context) {
     if (instance == null) {
@@ -101,10 +122,16 @@ public class JobDatabase extends SQLiteOpenHelper implements SignalDatabase {
   }
 
   public JobDatabase(@NonNull Application application, @NonNull DatabaseSecret databaseSecret) {
-    super(application, DATABASE_NAME, null, DATABASE_VERSION, new SqlCipherDatabaseHook());
+    this(application, databaseSecret, DATABASE_NAME);
+  }
+
+  @VisibleForTesting
+  JobDatabase(@NonNull Application application, @NonNull DatabaseSecret databaseSecret, @NonNull String databaseName) {
+    super(application, databaseName, null, DATABASE_VERSION, new SqlCipherDatabaseHook());
 
     this.application    = application;
     this.databaseSecret = databaseSecret;
+    this.pendingUpdates = new LinkedHashMap<>();
   }
 
   @Override
@@ -155,6 +182,8 @@ public class JobDatabase extends SQLiteOpenHelper implements SignalDatabase {
     db.beginTransaction();
 
     try {
+      writePendingUpdates(db);
+
       for (FullSpec fullSpec : fullSpecs) {
         insertJobSpec(db, fullSpec.getJobSpec());
         insertConstraintSpecs(db, fullSpec.getConstraintSpecs());
@@ -168,6 +197,8 @@ public class JobDatabase extends SQLiteOpenHelper implements SignalDatabase {
   }
 
   public synchronized @NonNull List<JobSpec> getAllJobSpecs() {
+    flushPendingUpdates();
+
     List<JobSpec> jobs = new LinkedList<>();
 
     try (Cursor cursor = getReadableDatabase().query(Jobs.TABLE_NAME, null, null, null, null, null, Jobs.CREATE_TIME + ", " + Jobs.ID + " ASC")) {
@@ -183,30 +214,52 @@ public class JobDatabase extends SQLiteOpenHelper implements SignalDatabase {
     ContentValues contentValues = new ContentValues();
     contentValues.put(Jobs.IS_RUNNING, isRunning ? 1 : 0);
 
-    String   query = Jobs.JOB_SPEC_ID + " = ?";
-    String[] args  = new String[]{ id };
-
-    getWritableDatabase().update(Jobs.TABLE_NAME, contentValues, query, args);
+    enqueueUpdate(id, contentValues);
   }
 
+  /**
+   * The job's data and backoff are written immediately, since losing them would lose the job's
+   * progress and retry it early. Only its running state and attempt count are deferred.
+   */
   public synchronized void updateJobAfterRetry(@NonNull String id, boolean isRunning, int runAttempt, long nextRunAttemptTime, @NonNull String serializedData) {
-    ContentValues contentValues = new ContentValues();
-    contentValues.put(Jobs.IS_RUNNING, isRunning ? 1 : 0);
-    contentValues.put(Jobs.RUN_ATTEMPT, runAttempt);
-    contentValues.put(Jobs.NEXT_RUN_ATTEMPT_TIME, nextRunAttemptTime);
-    contentValues.put(Jobs.SERIALIZED_DATA, serializedData);
+    ContentValues durableValues = new ContentValues();
+    durableValues.put(Jobs.NEXT_RUN_ATTEMPT_TIME, nextRunAttemptTime);
+    durableValues.put(Jobs.SERIALIZED_DATA, serializedData);
+
+    SQLiteDatabase db = getWritableDatabase();
+
+    db.beginTransaction();
+
+    try {
+      writePendingUpdates(db);
+      db.update(Jobs.TABLE_NAME, durableValues, Jobs.JOB_SPEC_ID + " = ?", new String[]{ id });
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
 
-    String   query = Jobs.JOB_SPEC_ID + " = ?";
-    String[] args  = new String[]{ id };
+    ContentValues progressValues = new ContentValues();
+    progressValues.put(Jobs.IS_RUNNING, isRunning ? 1 : 0);
+    progressValues.put(Jobs.RUN_ATTEMPT, runAttempt);
 
-    getWritableDatabase().update(Jobs.TABLE_NAME, contentValues, query, args);
+    enqueueUpdate(id, progressValues);
   }
 
   public synchronized void updateAllJobsToBePending() {
     ContentValues contentValues = new ContentValues();
     contentValues.put(Jobs.IS_RUNNING, 0);
 
-    getWritableDatabase().update(Jobs.TABLE_NAME, contentValues, null, null);
+    SQLiteDatabase db = getWritableDatabase();
+
+    db.beginTransaction();
+
+    try {
+      writePendingUpdates(db);
+      db.update(Jobs.TABLE_NAME, contentValues, null, null);
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
   }
 
   public synchronized void updateJobs(@NonNull List<JobSpec> jobs) {
@@ -219,6 +272,8 @@ public class JobDatabase extends SQLiteOpenHelper implements SignalDatabase {
     db.beginTransaction();
 
     try {
+      writePendingUpdates(db);
+
       Stream.of(jobs)
             .filterNot(JobSpec::isMemoryOnly)
             .forEach(job -> {
@@ -248,11 +303,17 @@ public class JobDatabase extends SQLiteOpenHelper implements SignalDatabase {
   }
 
   public synchronized void deleteJobs(@NonNull List<String> jobIds) {
+    for (String jobId : jobIds) {
+      pendingUpdates.remove(jobId);
+    }
+
     SQLiteDatabase db = getWritableDatabase();
 
     db.beginTransaction();
 
     try {
+      writePendingUpdates(db);
+
       for (String jobId : jobIds) {
         String[] arg = new String[]{jobId};
 
@@ -268,6 +329,28 @@ public class JobDatabase extends SQLiteOpenHelper implements SignalDatabase {
     }
   }
 
+  /**
+   * Immediately writes any deferred updates to disk.
+   */
+  public synchronized void flushPendingUpdates() {
+    flushScheduled = false;
+
+    if (pendingUpdates.isEmpty()) {
+      return;
+    }
+
+    SQLiteDatabase db = getWritableDatabase();
+
+    db.beginTransaction();
+
+    try {
+      writePendingUpdates(db);
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+  }
+
   public synchronized @NonNull List<ConstraintSpec> getAllConstraintSpecs() {
     List<ConstraintSpec> constraints = new LinkedList<>();
 
@@ -292,6 +375,39 @@ public class JobDatabase extends SQLiteOpenHelper implements SignalDatabase {
     return dependencies;
   }
 
+  private void enqueueUpdate(@NonNull String id, @NonNull ContentValues values) {
+    ContentValues pending = pendingUpdates.get(id);
+
+    if (pending != null) {
+      pending.putAll(values);
+    } else {
+      pendingUpdates.put(id, values);
+    }
+
+    if (pendingUpdates.size() >= MAX_PENDING_UPDATES) {
+      flushPendingUpdates();
+    } else if (!flushScheduled) {
+      if (flushHandler == null) {
+        flushHandler = new Handler(SignalExecutors.getAndStartHandlerThread("signal-JobDatabase").getLooper());
+      }
+
+      flushScheduled = true;
+      flushHandler.postDelayed(this::flushPendingUpdates, FLUSH_DELAY_MS);
+    }
+  }
+
+  /**
+   * Must be called inside of a transaction, before any other writes in that transaction, so that
+   * deferred updates are never applied on top of newer data.
+   */
+  private void writePendingUpdates(@NonNull SQLiteDatabase db) {
+    for (Map.Entry<String, ContentValues> entry : pendingUpdates.entrySet()) {
+      db.update(Jobs.TABLE_NAME, entry.getValue(), Jobs.JOB_SPEC_ID + " = ?", new String[]{ entry.getKey() });
+    }
+
+    pendingUpdates.clear();
+  }
+
   private void insertJobSpec(@NonNull SQLiteDatabase db, @NonNull JobSpec job) {
     if (job.isMemoryOnly()) {
       return;
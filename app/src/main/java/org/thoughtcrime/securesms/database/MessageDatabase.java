@@ -45,9 +45,11 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 
@@ -55,6 +57,12 @@ public abstract class MessageDatabase extends Database implements MmsSmsColumns
 
   private static final String TAG = MessageDatabase.class.getSimpleName();
 
+  /**
+   * When a message's disappearing timer runs out. Matches the expression the expiration indexes
+   * are built on, so queries that filter or sort by it can use them.
+   */
+  static final String EXPIRES_AT = EXPIRE_STARTED + " + " + EXPIRES_IN;
+
   public MessageDatabase(Context context, SQLCipherOpenHelper databaseHelper) {
     super(context, databaseHelper);
   }
@@ -75,7 +83,7 @@ public abstract class MessageDatabase extends Database implements MmsSmsColumns
   abstract int getMessageCountForThreadSummary(long threadId);
   public abstract Optional<MmsNotificationInfo> getNotification(long messageId);
 
-  public abstract Cursor getExpirationStartedMessages();
+  public abstract @NonNull List<ExpirationInfo> getExpiringMessages(long expiresBefore);
   public abstract SmsMessageRecord getSmsMessage(long messageId) throws NoSuchMessageException;
   public abstract Reader getMessages(Collection<Long> messageIds);
   public abstract Cursor getMessageCursor(long messageId);
@@ -174,6 +182,95 @@ public abstract class MessageDatabase extends Database implements MmsSmsColumns
   public abstract void ensureMigration();
 
 
+  /**
+   * @return The soonest time a started disappearing timer runs out that's at or after the given
+   *         time, or -1 if there are none.
+   */
+  public long getNearestExpiration(long atOrAfter) {
+    SQLiteDatabase db         = databaseHelper.getReadableDatabase();
+    String[]       projection = new String[] { "MIN(" + EXPIRES_AT + ")" };
+    String         query      = EXPIRE_STARTED + " > 0 AND " + EXPIRES_AT + " >= ?";
+    String[]       args       = SqlUtil.buildArgs(atOrAfter);
+
+    try (Cursor cursor = db.query(getTableName(), projection, query, args, null, null, null)) {
+      if (cursor != null && cursor.moveToFirst() && !cursor.isNull(0)) {
+        return cursor.getLong(0);
+      }
+    }
+
+    return -1;
+  }
+
+  /**
+   * @return When the message was received, or -1 if it doesn't exist.
+   */
+  long getDateReceived(long messageId) {
+    SQLiteDatabase db         = databaseHelper.getReadableDatabase();
+    String[]       projection = new String[] { getDateReceivedColumnName() };
+
+    try (Cursor cursor = db.query(getTableName(), projection, ID_WHERE, SqlUtil.buildArgs(messageId), null, null, null)) {
+      if (cursor != null && cursor.moveToFirst()) {
+        return cursor.getLong(0);
+      }
+    }
+
+    return -1;
+  }
+
+  /**
+   * @return The given messages that still exist, grouped by the thread they're in.
+   */
+  @NonNull Map<Long, List<Long>> getMessageIdsByThread(@NonNull Collection<Long> messageIds) {
+    Map<Long, List<Long>> idsByThread = new HashMap<>();
+
+    if (messageIds.isEmpty()) {
+      return idsByThread;
+    }
+
+    SQLiteDatabase db         = databaseHelper.getReadableDatabase();
+    String[]       projection = new String[] { ID, THREAD_ID };
+
+    for (SqlUtil.Query query : SqlUtil.buildCollectionQueries(ID, messageIds)) {
+      try (Cursor cursor = db.query(getTableName(), projection, query.getWhere(), query.getWhereArgs(), null, null, null)) {
+        while (cursor != null && cursor.moveToNext()) {
+          long       threadId = cursor.getLong(cursor.getColumnIndexOrThrow(THREAD_ID));
+          List<Long> ids      = idsByThread.get(threadId);
+
+          if (ids == null) {
+            ids = new ArrayList<>();
+            idsByThread.put(threadId, ids);
+          }
+
+          ids.add(cursor.getLong(cursor.getColumnIndexOrThrow(ID)));
+        }
+      }
+    }
+
+    return idsByThread;
+  }
+
+  /**
+   * Shared by both tables' {@link #getExpiringMessages(long)}.
+   */
+  final @NonNull List<ExpirationInfo> getExpiringMessages(long expiresBefore, boolean mms) {
+    SQLiteDatabase       db         = databaseHelper.getReadableDatabase();
+    String[]             projection = new String[] { ID, EXPIRES_IN, EXPIRE_STARTED };
+    String               query      = EXPIRE_STARTED + " > 0 AND " + EXPIRES_AT + " < ?";
+    String[]             args       = SqlUtil.buildArgs(expiresBefore);
+    List<ExpirationInfo> results    = new ArrayList<>();
+
+    try (Cursor cursor = db.query(getTableName(), projection, query, args, null, null, EXPIRES_AT)) {
+      while (cursor != null && cursor.moveToNext()) {
+        results.add(new ExpirationInfo(cursor.getLong(cursor.getColumnIndexOrThrow(ID)),
+                                       cursor.getLong(cursor.getColumnIndexOrThrow(EXPIRES_IN)),
+                                       cursor.getLong(cursor.getColumnIndexOrThrow(EXPIRE_STARTED)),
+                                       mms));
+      }
+    }
+
+    return results;
+  }
+
   final int getInsecureMessagesSentForThread(long threadId) {
     SQLiteDatabase db         = databaseHelper.getReadableDatabase();
     String[]       projection = new String[]{"COUNT(*)"};
@@ -194,7 +194,8 @@ public class MmsDatabase extends MessageDatabase {
     "CREATE INDEX IF NOT EXISTS mms_date_sent_index ON " + TABLE_NAME + " (" + DATE_SENT + ");",
     "CREATE INDEX IF NOT EXISTS mms_date_server_index ON " + TABLE_NAME + " (" + DATE_SERVER + ");",
     "CREATE INDEX IF NOT EXISTS mms_thread_date_index ON " + TABLE_NAME + " (" + THREAD_ID + ", " + DATE_RECEIVED + ");",
-    "CREATE INDEX IF NOT EXISTS mms_reactions_unread_index ON " + TABLE_NAME + " (" + REACTIONS_UNREAD + ");"
+    "CREATE INDEX IF NOT EXISTS mms_reactions_unread_index ON " + TABLE_NAME + " (" + REACTIONS_UNREAD + ");",
+    "CREATE INDEX IF NOT EXISTS mms_expires_at_index ON " + TABLE_NAME + " (" + EXPIRES_AT + ") WHERE " + EXPIRE_STARTED + " > 0;"
   };
 
   private static final String[] MMS_PROJECTION = new String[] {
@@ -283,9 +284,8 @@ public class MmsDatabase extends MessageDatabase {
   }
 
   @Override
-  public Cursor getExpirationStartedMessages() {
-    String where = EXPIRE_STARTED + " > 0";
-    return rawQuery(where, null);
+  public @NonNull List<ExpirationInfo> getExpiringMessages(long expiresBefore) {
+    return getExpiringMessages(expiresBefore, true);
   }
 
   @Override
@@ -645,7 +645,7 @@ public class MmsDatabase extends MessageDatabase {
                              new String[] {String.valueOf(id)});
 
             DatabaseFactory.getGroupReceiptDatabase(context).update(ourRecipientId, id, status, timestamp);
-            DatabaseFactory.getThreadDatabase(context).update(threadId, false);
+            DatabaseFactory.getThreadDatabase(context).updateForChange(threadId, id, true, false);
 
             if (isFirstIncrement) {
               notifyConversationListeners(threadId);
@@ -756,7 +756,7 @@ public class MmsDatabase extends MessageDatabase {
                    " WHERE " + ID + " = ?", new String[] {id + ""});
 
     if (threadId.isPresent()) {
-      DatabaseFactory.getThreadDatabase(context).update(threadId.get(), false);
+      DatabaseFactory.getThreadDatabase(context).updateForChange(threadId.get(), id, true, false);
     }
   }
 
@@ -821,7 +821,7 @@ public class MmsDatabase extends MessageDatabase {
     DatabaseFactory.getMentionDatabase(context).deleteMentionsForMessage(messageId);
 
     long threadId = getThreadIdForMessage(messageId);
-    DatabaseFactory.getThreadDatabase(context).update(threadId, false);
+    DatabaseFactory.getThreadDatabase(context).updateForChange(threadId, messageId, true, false);
     notifyConversationListeners(threadId);
   }
 
@@ -1303,7 +1303,7 @@ public class MmsDatabase extends MessageDatabase {
 
     if (!Types.isExpirationTimerUpdate(mailbox)) {
       DatabaseFactory.getThreadDatabase(context).incrementUnread(threadId, 1);
-      DatabaseFactory.getThreadDatabase(context).update(threadId, true);
+      notifyConversationListListeners();
     }
 
     notifyConversationListeners(threadId);
@@ -1531,9 +1531,11 @@ public class MmsDatabase extends MessageDatabase {
     contentValues.put(PART_COUNT, allAttachments.size());
     contentValues.put(MENTIONS_SELF, mentionsSelf ? 1 : 0);
 
+    long messageId = -1;
+
     db.beginTransaction();
     try {
-      long messageId = db.insert(TABLE_NAME, null, contentValues);
+      messageId = db.insert(TABLE_NAME, null, contentValues);
 
       mentionDatabase.insert(threadId, messageId, mentions);
 
@@ -1575,7 +1577,7 @@ public class MmsDatabase extends MessageDatabase {
       }
 
       notifyConversationListeners(contentValues.getAsLong(THREAD_ID));
-      DatabaseFactory.getThreadDatabase(context).update(contentValues.getAsLong(THREAD_ID), true);
+      DatabaseFactory.getThreadDatabase(context).updateForInsert(contentValues.getAsLong(THREAD_ID), messageId, true, true);
     }
   }
 
@@ -1595,7 +1597,7 @@ public class MmsDatabase extends MessageDatabase {
 
     SQLiteDatabase database = databaseHelper.getWritableDatabase();
     database.delete(TABLE_NAME, ID_WHERE, new String[] {messageId+""});
-    boolean threadDeleted = DatabaseFactory.getThreadDatabase(context).update(threadId, false);
+    boolean threadDeleted = DatabaseFactory.getThreadDatabase(context).updateForDelete(threadId, Collections.emptyList(), Collections.singleton(messageId));
     notifyConversationListeners(threadId);
     notifyStickerListeners();
     notifyStickerPackListeners();
@@ -1731,6 +1733,35 @@ public class MmsDatabase extends MessageDatabase {
     db.delete(TABLE_NAME, where, null);
   }
 
+  /**
+   * Deletes the messages and their rows in other tables, without updating their threads. Attachment
+   * files are left on disk and returned, so that the caller can delete them with
+   * {@link AttachmentDatabase#deleteAttachmentFiles(List)} after its transaction commits.
+   */
+  @NonNull List<AttachmentDatabase.AttachmentFile> deleteMessagesWithoutThreadUpdate(@NonNull Collection<Long> messageIds) {
+    if (messageIds.isEmpty()) {
+      return Collections.emptyList();
+    }
+
+    GroupReceiptDatabase groupReceiptDatabase = DatabaseFactory.getGroupReceiptDatabase(context);
+    MentionDatabase      mentionDatabase      = DatabaseFactory.getMentionDatabase(context);
+
+    List<AttachmentDatabase.AttachmentFile> attachmentFiles = DatabaseFactory.getAttachmentDatabase(context).deleteAttachmentRowsForMessages(messageIds);
+
+    for (long messageId : messageIds) {
+      groupReceiptDatabase.deleteRowsForMessage(messageId);
+      mentionDatabase.deleteMentionsForMessage(messageId);
+    }
+
+    SQLiteDatabase db = databaseHelper.getWritableDatabase();
+
+    for (SqlUtil.Query query : SqlUtil.buildCollectionQueries(ID, messageIds)) {
+      db.delete(TABLE_NAME, query.getWhere(), query.getWhereArgs());
+    }
+
+    return attachmentFiles;
+  }
+
   @Override
   public List<MessageRecord> getMessagesInThreadAfterInclusive(long threadId, long timestamp, long limit) {
     String   where = TABLE_NAME + "." + MmsSmsColumns.THREAD_ID + " = ? AND " +
@@ -293,6 +293,16 @@ public interface MmsSmsColumns {
       return type == GV1_MIGRATION_TYPE;
     }
 
+    /**
+     * Whether an sms of this type makes {@link SmsDatabase#getMessageCountForThreadSummary(long)}
+     * count the thread's sms. Once one does, every sms in the thread is counted, including the
+     * identity, session and profile updates that don't count on their own.
+     */
+    public static boolean isCountedInThreadSummary(long type) {
+      return (type & (END_SESSION_BIT | KEY_EXCHANGE_IDENTITY_UPDATE_BIT | KEY_EXCHANGE_IDENTITY_VERIFIED_BIT)) == 0 &&
+             type != PROFILE_CHANGE_TYPE;
+    }
+
     public static long translateFromSystemBaseType(long theirType) {
 //    public static final int NONE_TYPE           = 0;
 //    public static final int INBOX_TYPE          = 1;
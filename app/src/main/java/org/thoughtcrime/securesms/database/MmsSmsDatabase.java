@@ -33,6 +33,7 @@ import org.thoughtcrime.securesms.database.model.MessageRecord;
 import org.thoughtcrime.securesms.recipients.Recipient;
 import org.thoughtcrime.securesms.recipients.RecipientId;
 import org.thoughtcrime.securesms.util.CursorUtil;
+import org.thoughtcrime.securesms.util.SqlUtil;
 import org.whispersystems.libsignal.util.Pair;
 
 import java.io.Closeable;
@@ -41,6 +42,7 @@ import java.util.Collections;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 public class MmsSmsDatabase extends Database {
@@ -211,6 +213,32 @@ public class MmsSmsDatabase extends Database {
     return  queryTables(PROJECTION, selection, order, "1");
   }
 
+  /**
+   * @return When the message {@link #getConversationSnippet(long)} would return was received, or
+   *         -1 if there isn't one. Much cheaper than reading the snippet itself.
+   */
+  public long getConversationSnippetDateReceived(long threadId) {
+    SQLiteDatabase db       = databaseHelper.getReadableDatabase();
+    String         smsQuery = SmsDatabase.THREAD_ID + " = ? AND " + SmsDatabase.TYPE + " NOT IN (" + SmsDatabase.Types.PROFILE_CHANGE_TYPE + ", " + SmsDatabase.Types.GV1_MIGRATION_TYPE + ")";
+    String         mmsQuery = MmsDatabase.THREAD_ID + " = ?";
+    String[]       args     = SqlUtil.buildArgs(threadId);
+    long           latest   = -1;
+
+    try (Cursor cursor = db.query(SmsDatabase.TABLE_NAME, new String[] { "MAX(" + SmsDatabase.DATE_RECEIVED + ")" }, smsQuery, args, null, null, null)) {
+      if (cursor != null && cursor.moveToFirst() && !cursor.isNull(0)) {
+        latest = Math.max(latest, cursor.getLong(0));
+      }
+    }
+
+    try (Cursor cursor = db.query(MmsDatabase.TABLE_NAME, new String[] { "MAX(" + MmsDatabase.DATE_RECEIVED + ")" }, mmsQuery, args, null, null, null)) {
+      if (cursor != null && cursor.moveToFirst() && !cursor.isNull(0)) {
+        latest = Math.max(latest, cursor.getLong(0));
+      }
+    }
+
+    return latest;
+  }
+
   public Cursor getUnread() {
     String order           = MmsSmsColumns.NORMALIZED_DATE_RECEIVED + " ASC";
     String selection       = MmsSmsColumns.NOTIFIED + " = 0 AND (" + MmsSmsColumns.READ + " = 0 OR " + MmsSmsColumns.REACTIONS_UNREAD + " = 1)";
@@ -514,6 +542,51 @@ public class MmsSmsDatabase extends Database {
     DatabaseFactory.getMmsDatabase(context).deleteMessagesInThreadBeforeDate(threadId, trimBeforeDate);
   }
 
+  /**
+   * Deletes messages whose disappearing timers have run out. Each thread's messages are deleted in
+   * a single transaction, followed by a single update and notification for that thread, rather
+   * than one of each per message. Attachment files are only deleted once that transaction commits.
+   */
+  public void deleteExpiredMessages(@NonNull Collection<Long> smsIds, @NonNull Collection<Long> mmsIds) {
+    Log.d(TAG, "deleteExpiredMessages(" + smsIds.size() + " sms, " + mmsIds.size() + " mms)");
+
+    SmsDatabase           smsDatabase        = DatabaseFactory.getSmsDatabase(context);
+    MmsDatabase           mmsDatabase        = DatabaseFactory.getMmsDatabase(context);
+    AttachmentDatabase    attachmentDatabase = DatabaseFactory.getAttachmentDatabase(context);
+    ThreadDatabase        threadDatabase     = DatabaseFactory.getThreadDatabase(context);
+    Map<Long, List<Long>> smsByThread        = smsDatabase.getMessageIdsByThread(smsIds);
+    Map<Long, List<Long>> mmsByThread        = mmsDatabase.getMessageIdsByThread(mmsIds);
+    Set<Long>             threadIds          = new HashSet<>(smsByThread.keySet());
+
+    threadIds.addAll(mmsByThread.keySet());
+
+    for (long threadId : threadIds) {
+      List<Long>     threadSmsIds = smsByThread.containsKey(threadId) ? smsByThread.get(threadId) : Collections.emptyList();
+      List<Long>     threadMmsIds = mmsByThread.containsKey(threadId) ? mmsByThread.get(threadId) : Collections.emptyList();
+      SQLiteDatabase db           = databaseHelper.getWritableDatabase();
+
+      List<AttachmentDatabase.AttachmentFile> attachmentFiles;
+
+      db.beginTransaction();
+      try {
+        smsDatabase.deleteMessagesWithoutThreadUpdate(threadSmsIds);
+        attachmentFiles = mmsDatabase.deleteMessagesWithoutThreadUpdate(threadMmsIds);
+        db.setTransactionSuccessful();
+      } finally {
+        db.endTransaction();
+      }
+
+      attachmentDatabase.deleteAttachmentFiles(attachmentFiles);
+      threadDatabase.updateForDelete(threadId, threadSmsIds, threadMmsIds);
+      notifyConversationListeners(threadId);
+    }
+
+    if (!mmsByThread.isEmpty()) {
+      notifyStickerListeners();
+      notifyStickerPackListeners();
+    }
+  }
+
   public void deleteAbandonedMessages() {
     Log.d(TAG, "deleteAbandonedMessages()");
     DatabaseFactory.getSmsDatabase(context).deleteAbandonedMessages();
@@ -52,6 +52,7 @@ import org.thoughtcrime.securesms.util.Bitmask;
 import org.thoughtcrime.securesms.util.CursorUtil;
 import org.thoughtcrime.securesms.util.GroupUtil;
 import org.thoughtcrime.securesms.util.IdentityUtil;
+import org.thoughtcrime.securesms.util.SetUtil;
 import org.thoughtcrime.securesms.util.SqlUtil;
 import org.thoughtcrime.securesms.util.StringUtil;
 import org.thoughtcrime.securesms.util.Util;
@@ -140,6 +141,8 @@ public class RecipientDatabase extends Database {
   private static final String WALLPAPER_URI             = "wallpaper_file";
   public  static final String ABOUT                     = "about";
   public  static final String ABOUT_EMOJI               = "about_emoji";
+  private static final String DISCOVERY_HASH            = "discovery_hash";
+  private static final String LAST_DISCOVERY_TIME       = "last_discovery_time";
 
   public  static final String SEARCH_PROFILE_NAME      = "search_signal_profile";
   private static final String SORT_NAME                = "sort_name";
@@ -365,7 +368,9 @@ public class RecipientDatabase extends Database {
                                             WALLPAPER                 + " BLOB DEFAULT NULL, " +
                                             WALLPAPER_URI             + " TEXT DEFAULT NULL, " +
                                             ABOUT                     + " TEXT DEFAULT NULL, " +
-                                            ABOUT_EMOJI               + " TEXT DEFAULT NULL);";
+                                            ABOUT_EMOJI               + " TEXT DEFAULT NULL, " +
+                                            DISCOVERY_HASH            + " INTEGER DEFAULT 0, " +
+                                            LAST_DISCOVERY_TIME       + " INTEGER DEFAULT 0);";
 
   private static final String INSIGHTS_INVITEE_LIST = "SELECT " + TABLE_NAME + "." + ID +
       " FROM " + TABLE_NAME +
@@ -397,6 +402,24 @@ public class RecipientDatabase extends Database {
     return getByColumn(PHONE, e164);
   }
 
+  /**
+   * Looks up the recipients that already exist for the given numbers, without inserting anything.
+   */
+  public @NonNull Map<String, RecipientId> getByE164s(@NonNull Collection<String> e164s) {
+    SQLiteDatabase           db      = databaseHelper.getReadableDatabase();
+    Map<String, RecipientId> results = new HashMap<>(e164s.size());
+
+    for (SqlUtil.Query query : SqlUtil.buildCollectionQueries(PHONE, e164s)) {
+      try (Cursor cursor = db.query(TABLE_NAME, new String[] { ID, PHONE }, query.getWhere(), query.getWhereArgs(), null, null, null)) {
+        while (cursor != null && cursor.moveToNext()) {
+          results.put(CursorUtil.requireString(cursor, PHONE), RecipientId.from(CursorUtil.requireLong(cursor, ID)));
+        }
+      }
+    }
+
+    return results;
+  }
+
   public @NonNull Optional<RecipientId> getByEmail(@NonNull String email) {
     return getByColumn(EMAIL, email);
   }
@@ -573,6 +596,50 @@ public class RecipientDatabase extends Database {
     return getOrInsertByColumn(PHONE, e164).recipientId;
   }
 
+  /**
+   * Bulk version of {@link #getOrInsertFromE164(String)}. Looks up all of the numbers at once, and
+   * only inserts the ones that don't have a recipient yet.
+   */
+  public @NonNull Map<String, RecipientId> getOrInsertFromE164s(@NonNull Collection<String> e164s) {
+    if (e164s.isEmpty()) {
+      return Collections.emptyMap();
+    }
+
+    SQLiteDatabase db = databaseHelper.getWritableDatabase();
+
+    db.beginTransaction();
+    try {
+      Map<String, RecipientId> results = getByE164s(e164s);
+
+      for (String e164 : e164s) {
+        if (results.containsKey(e164)) {
+          continue;
+        }
+
+        if (TextUtils.isEmpty(e164)) {
+          throw new AssertionError(PHONE + " cannot be empty.");
+        }
+
+        ContentValues values = new ContentValues(1);
+        values.put(PHONE, e164);
+
+        long id = db.insert(TABLE_NAME, null, values);
+
+        if (id < 0) {
+          throw new AssertionError("Failed to insert recipient!");
+        }
+
+        results.put(e164, RecipientId.from(id));
+      }
+
+      db.setTransactionSuccessful();
+
+      return results;
+    } finally {
+      db.endTransaction();
+    }
+  }
+
   public @NonNull RecipientId getOrInsertFromEmail(@NonNull String email) {
     return getOrInsertByColumn(EMAIL, email).recipientId;
   }
@@ -707,6 +774,40 @@ public class RecipientDatabase extends Database {
     }
   }
 
+  /**
+   * Bulk version of {@link #getRecipientSettings(RecipientId)}, which reads the settings in as few
+   * queries as possible.
+   *
+   * @return A map of every requested id to its settings. Any ids that aren't in the table are looked
+   *         up individually, so that remapped ids are followed and missing ones throw.
+   */
+  public @NonNull Map<RecipientId, RecipientSettings> getRecipientSettings(@NonNull Collection<RecipientId> ids) {
+    Map<RecipientId, RecipientSettings> results = new HashMap<>(ids.size());
+
+    if (ids.isEmpty()) {
+      return results;
+    }
+
+    SQLiteDatabase database = databaseHelper.getReadableDatabase();
+
+    for (SqlUtil.Query query : SqlUtil.buildCollectionQueries(ID, ids)) {
+      try (Cursor cursor = database.query(TABLE_NAME, RECIPIENT_PROJECTION, query.getWhere(), query.getWhereArgs(), null, null, null)) {
+        while (cursor != null && cursor.moveToNext()) {
+          RecipientSettings settings = getRecipientSettings(context, cursor);
+          results.put(settings.getId(), settings);
+        }
+      }
+    }
+
+    for (RecipientId id : ids) {
+      if (!results.containsKey(id)) {
+        results.put(id, getRecipientSettings(id));
+      }
+    }
+
+    return results;
+  }
+
   public @NonNull DirtyState getDirtyState(@NonNull RecipientId recipientId) {
     SQLiteDatabase db = databaseHelper.getReadableDatabase();
 
@@ -2215,6 +2316,117 @@ public class RecipientDatabase extends Database {
     return uuidMap;
   }
 
+  /**
+   * Applies the result of a contact discovery refresh in a single transaction. Numbers are
+   * rewritten, registered users are inserted or linked by UUID as in
+   * {@link #bulkProcessCdsResult(Map)}, everyone else is marked unregistered, and every number that
+   * was checked is marked as discovered, so that {@link #getNumbersNeedingDiscovery(Set, long)}
+   * can skip it next time.
+   *
+   * @param unregistered Numbers to mark as unregistered. They'll be inserted if needed.
+   * @param ignored      Numbers that were left out of the request because it was too large. Their
+   *                     registered state is left alone, but they're inserted if needed and marked
+   *                     as discovered, so that they aren't all sent again on the next incremental
+   *                     refresh. They'll be checked again once they're stale.
+   * @return A mapping of (RecipientId, UUID) for the registered users.
+   */
+  public @NonNull Map<RecipientId, String> bulkApplyCdsResult(@NonNull Map<String, String> rewrites,
+                                                               @NonNull Map<String, UUID> registered,
+                                                               @NonNull Collection<String> unregistered,
+                                                               @NonNull Collection<String> ignored,
+                                                               long discoveryTime)
+  {
+    SQLiteDatabase db = databaseHelper.getWritableDatabase();
+
+    db.beginTransaction();
+    try {
+      updatePhoneNumbers(rewrites);
+
+      Map<RecipientId, String> uuidMap         = bulkProcessCdsResult(registered);
+      Set<RecipientId>         unregisteredIds = new HashSet<>(getOrInsertFromE164s(unregistered).values());
+      Set<RecipientId>         ignoredIds      = new HashSet<>(getOrInsertFromE164s(ignored).values());
+
+      bulkUpdatedRegisteredStatus(uuidMap, unregisteredIds);
+
+      markDiscovered(SetUtil.union(SetUtil.union(uuidMap.keySet(), unregisteredIds), ignoredIds), discoveryTime);
+
+      db.setTransactionSuccessful();
+
+      return uuidMap;
+    } finally {
+      db.endTransaction();
+    }
+  }
+
+  /**
+   * Finds the numbers that contact discovery should check in an incremental refresh: numbers we
+   * haven't checked before, numbers we last checked before the stale time, and numbers whose
+   * registration state has changed since we last checked them, for example via a storage sync.
+   */
+  public @NonNull Set<String> getNumbersNeedingDiscovery(@NonNull Set<String> numbers, long staleTime) {
+    SQLiteDatabase db         = databaseHelper.getReadableDatabase();
+    Set<String>    upToDate   = new HashSet<>();
+    String[]       projection = new String[] { PHONE, UUID, REGISTERED, DISCOVERY_HASH, LAST_DISCOVERY_TIME };
+    String         query      = PHONE + " NOT NULL AND " + LAST_DISCOVERY_TIME + " >= ?";
+
+    try (Cursor cursor = db.query(TABLE_NAME, projection, query, SqlUtil.buildArgs(staleTime), null, null, null)) {
+      while (cursor != null && cursor.moveToNext()) {
+        String phone        = CursorUtil.requireString(cursor, PHONE);
+        String uuid         = CursorUtil.requireString(cursor, UUID);
+        int    registered   = CursorUtil.requireInt(cursor, REGISTERED);
+        int    previousHash = CursorUtil.requireInt(cursor, DISCOVERY_HASH);
+
+        if (previousHash == discoveryHash(registered, uuid)) {
+          upToDate.add(phone);
+        }
+      }
+    }
+
+    return SetUtil.difference(numbers, upToDate);
+  }
+
+  /**
+   * Records the current registration state of each recipient, so that later changes can be noticed.
+   */
+  private void markDiscovered(@NonNull Collection<RecipientId> ids, long discoveryTime) {
+    if (ids.isEmpty()) {
+      return;
+    }
+
+    SQLiteDatabase     db     = databaseHelper.getWritableDatabase();
+    Map<Long, Integer> hashes = new HashMap<>(ids.size());
+
+    for (SqlUtil.Query query : SqlUtil.buildCollectionQueries(ID, ids)) {
+      try (Cursor cursor = db.query(TABLE_NAME, new String[] { ID, UUID, REGISTERED }, query.getWhere(), query.getWhereArgs(), null, null, null)) {
+        while (cursor != null && cursor.moveToNext()) {
+          hashes.put(CursorUtil.requireLong(cursor, ID),
+                     discoveryHash(CursorUtil.requireInt(cursor, REGISTERED), CursorUtil.requireString(cursor, UUID)));
+        }
+      }
+    }
+
+    if (hashes.isEmpty()) {
+      return;
+    }
+
+    for (SqlUtil.Query query : SqlUtil.buildCollectionQueries(ID, hashes.keySet())) {
+      StringBuilder hashCase = new StringBuilder("CASE ").append(ID);
+
+      for (String id : query.getWhereArgs()) {
+        hashCase.append(" WHEN ").append(id).append(" THEN ").append(hashes.get(Long.parseLong(id)));
+      }
+
+      hashCase.append(" END");
+
+      db.execSQL("UPDATE " + TABLE_NAME + " SET " + DISCOVERY_HASH + " = " + hashCase + ", " + LAST_DISCOVERY_TIME + " = " + discoveryTime + " WHERE " + query.getWhere(),
+                 query.getWhereArgs());
+    }
+  }
+
+  private static int discoveryHash(int registeredState, @Nullable String uuid) {
+    return Objects.hash(registeredState, uuid != null ? uuid.toLowerCase(Locale.US) : null);
+  }
+
   public @NonNull List<RecipientId> getUninvitedRecipientsForInsights() {
     SQLiteDatabase    db      = databaseHelper.getReadableDatabase();
     List<RecipientId> results = new LinkedList<>();
@@ -53,8 +53,11 @@ public class SQLiteDatabase {
 
   private void trace(String methodName, Runnable runnable) {
     tracer.start(methodName);
-    runnable.run();
-    tracer.end(methodName);
+    try {
+      runnable.run();
+    } finally {
+      tracer.end(methodName);
+    }
   }
 
   private void traceSql(String methodName, String query, boolean locked, Runnable returnable) {
@@ -62,12 +65,17 @@ public class SQLiteDatabase {
       traceLockStart();
     }
 
-    tracer.start(methodName, KEY_QUERY, query);
-    returnable.run();
-    tracer.end(methodName);
-
-    if (locked) {
-      traceLockEnd();
+    try {
+      tracer.start(methodName, KEY_QUERY, query);
+      try {
+        returnable.run();
+      } finally {
+        tracer.end(methodName);
+      }
+    } finally {
+      if (locked) {
+        traceLockEnd();
+      }
     }
   }
 
@@ -80,23 +88,26 @@ public class SQLiteDatabase {
       traceLockStart();
     }
 
-    Map<String, String> params = new HashMap<>();
-    if (query != null) {
-      params.put(KEY_QUERY, query);
+    try {
+      Map<String, String> params = new HashMap<>();
+      if (query != null) {
+        params.put(KEY_QUERY, query);
+      }
+      if (table != null) {
+        params.put(KEY_TABLE, table);
+      }
+
+      tracer.start(methodName, params);
+      try {
+        return returnable.run();
+      } finally {
+        tracer.end(methodName);
+      }
+    } finally {
+      if (locked) {
+        traceLockEnd();
+      }
     }
-    if (table != null) {
-      params.put(KEY_TABLE, table);
-    }
-
-    tracer.start(methodName, params);
-    E result = returnable.run();
-    tracer.end(methodName);
-
-    if (locked) {
-      traceLockEnd();
-    }
-
-    return result;
   }
 
   public net.sqlcipher.database.SQLiteDatabase getSqlCipherDatabase() {
@@ -114,12 +125,24 @@ public class SQLiteDatabase {
 
   public void beginTransaction() {
     traceLockStart();
-    trace("beginTransaction()", wrapped::beginTransaction);
+
+    boolean began = false;
+    try {
+      trace("beginTransaction()", wrapped::beginTransaction);
+      began = true;
+    } finally {
+      if (!began) {
+        traceLockEnd();
+      }
+    }
   }
 
   public void endTransaction() {
-    trace("endTransaction()", wrapped::endTransaction);
-    traceLockEnd();
+    try {
+      trace("endTransaction()", wrapped::endTransaction);
+    } finally {
+      traceLockEnd();
+    }
   }
 
   public void setTransactionSuccessful() {
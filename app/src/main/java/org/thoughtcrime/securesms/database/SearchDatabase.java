@@ -4,21 +4,39 @@ import android.content.Context;
 import android.text.TextUtils;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
 
+import com.annimon.stream.Collectors;
 import com.annimon.stream.Stream;
 
 import net.sqlcipher.Cursor;
+import net.sqlcipher.database.SQLiteException;
+
+import org.signal.core.util.logging.Log;
 
 import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper;
+import org.thoughtcrime.securesms.util.CursorUtil;
+import org.thoughtcrime.securesms.util.SqlUtil;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
 
 /**
  * Contains all databases necessary for full-text search (FTS).
  */
 public class SearchDatabase extends Database {
 
+  private static final String TAG = Log.tag(SearchDatabase.class);
+
   public static final String SMS_FTS_TABLE_NAME = "sms_fts";
   public static final String MMS_FTS_TABLE_NAME = "mms_fts";
 
+  public static final String SMS_TRIGRAM_TABLE_NAME = "sms_trigram";
+  public static final String MMS_TRIGRAM_TABLE_NAME = "mms_trigram";
+
   public static final String ID                     = "rowid";
   public static final String BODY                   = MmsSmsColumns.BODY;
   public static final String THREAD_ID              = MmsSmsColumns.THREAD_ID;
@@ -28,10 +46,18 @@ public class SearchDatabase extends Database {
   public static final String IS_MMS                 = "is_mms";
   public static final String MESSAGE_ID             = "message_id";
 
+  public static final String MATCH_TIER             = "match_tier";
+
   public static final String SNIPPET_WRAP = "...";
 
+  /**
+   * Every search term is treated as a prefix, so we keep dedicated indexes for the short prefixes
+   * that type-ahead search produces, which would otherwise have to merge a huge number of terms.
+   */
+  public static final String PREFIX_INDEX = "'2 3'";
+
   public static final String[] CREATE_TABLE = {
-      "CREATE VIRTUAL TABLE " + SMS_FTS_TABLE_NAME + " USING fts5(" + BODY + ", " + THREAD_ID + " UNINDEXED, content=" + SmsDatabase.TABLE_NAME + ", content_rowid=" + SmsDatabase.ID + ");",
+      "CREATE VIRTUAL TABLE " + SMS_FTS_TABLE_NAME + " USING fts5(" + BODY + ", " + THREAD_ID + " UNINDEXED, content=" + SmsDatabase.TABLE_NAME + ", content_rowid=" + SmsDatabase.ID + ", prefix=" + PREFIX_INDEX + ");",
 
       "CREATE TRIGGER sms_ai AFTER INSERT ON " + SmsDatabase.TABLE_NAME + " BEGIN\n" +
           "  INSERT INTO " + SMS_FTS_TABLE_NAME + "(" + ID + ", " + BODY + ", " + THREAD_ID + ") VALUES (new." + SmsDatabase.ID + ", new." + SmsDatabase.BODY + ", new." + SmsDatabase.THREAD_ID + ");\n" +
@@ -45,7 +71,7 @@ public class SearchDatabase extends Database {
           "END;",
 
 
-      "CREATE VIRTUAL TABLE " + MMS_FTS_TABLE_NAME + " USING fts5(" + BODY + ", " + THREAD_ID + " UNINDEXED, content=" + MmsDatabase.TABLE_NAME + ", content_rowid=" + MmsDatabase.ID + ");",
+      "CREATE VIRTUAL TABLE " + MMS_FTS_TABLE_NAME + " USING fts5(" + BODY + ", " + THREAD_ID + " UNINDEXED, content=" + MmsDatabase.TABLE_NAME + ", content_rowid=" + MmsDatabase.ID + ", prefix=" + PREFIX_INDEX + ");",
 
       "CREATE TRIGGER mms_ai AFTER INSERT ON " + MmsDatabase.TABLE_NAME + " BEGIN\n" +
           "  INSERT INTO " + MMS_FTS_TABLE_NAME + "(" + ID + ", " + BODY + ", " + THREAD_ID + ") VALUES (new." + MmsDatabase.ID + ", new." + MmsDatabase.BODY + ", new." + MmsDatabase.THREAD_ID + ");\n" +
@@ -59,36 +85,48 @@ public class SearchDatabase extends Database {
           "END;"
   };
 
-  private static final String MESSAGES_QUERY =
-      "SELECT " +
-        ThreadDatabase.TABLE_NAME + "." + ThreadDatabase.RECIPIENT_ID + " AS " + CONVERSATION_RECIPIENT + ", " +
-        MmsSmsColumns.RECIPIENT_ID + " AS " + MESSAGE_RECIPIENT + ", " +
-        "snippet(" + SMS_FTS_TABLE_NAME + ", -1, '', '', '" + SNIPPET_WRAP + "', 7) AS " + SNIPPET + ", " +
-        SmsDatabase.TABLE_NAME + "." + SmsDatabase.DATE_RECEIVED + " AS " + MmsSmsColumns.NORMALIZED_DATE_RECEIVED + ", " +
-        SMS_FTS_TABLE_NAME + "." + THREAD_ID + ", " +
-        SMS_FTS_TABLE_NAME + "." + BODY + ", " +
-        SMS_FTS_TABLE_NAME + "." + ID + " AS " + MESSAGE_ID + ", " +
-        "0 AS " + IS_MMS + " " +
-      "FROM " + SmsDatabase.TABLE_NAME + " " +
-      "INNER JOIN " + SMS_FTS_TABLE_NAME + " ON " + SMS_FTS_TABLE_NAME + "." + ID + " = " + SmsDatabase.TABLE_NAME + "." + SmsDatabase.ID + " " +
-      "INNER JOIN " + ThreadDatabase.TABLE_NAME + " ON " + SMS_FTS_TABLE_NAME + "." + THREAD_ID + " = " + ThreadDatabase.TABLE_NAME + "." + ThreadDatabase.ID + " " +
-      "WHERE " + SMS_FTS_TABLE_NAME + " MATCH ? " +
-      "UNION ALL " +
-      "SELECT " +
-        ThreadDatabase.TABLE_NAME + "." + ThreadDatabase.RECIPIENT_ID + " AS " + CONVERSATION_RECIPIENT + ", " +
-        MmsSmsColumns.RECIPIENT_ID + " AS " + MESSAGE_RECIPIENT + ", " +
-        "snippet(" + MMS_FTS_TABLE_NAME + ", -1, '', '', '" + SNIPPET_WRAP + "', 7) AS " + SNIPPET + ", " +
-        MmsDatabase.TABLE_NAME + "." + MmsDatabase.DATE_RECEIVED + " AS " + MmsSmsColumns.NORMALIZED_DATE_RECEIVED + ", " +
-        MMS_FTS_TABLE_NAME + "." + THREAD_ID + ", " +
-        MMS_FTS_TABLE_NAME + "." + BODY + ", " +
-        MMS_FTS_TABLE_NAME + "." + ID + " AS " + MESSAGE_ID + ", " +
-        "1 AS " + IS_MMS + " " +
-      "FROM " + MmsDatabase.TABLE_NAME + " " +
-      "INNER JOIN " + MMS_FTS_TABLE_NAME + " ON " + MMS_FTS_TABLE_NAME + "." + ID + " = " + MmsDatabase.TABLE_NAME + "." + MmsDatabase.ID + " " +
-      "INNER JOIN " + ThreadDatabase.TABLE_NAME + " ON " + MMS_FTS_TABLE_NAME + "." + THREAD_ID + " = " + ThreadDatabase.TABLE_NAME + "." + ThreadDatabase.ID + " " +
-      "WHERE " + MMS_FTS_TABLE_NAME + " MATCH ? " +
-      "ORDER BY " + MmsSmsColumns.NORMALIZED_DATE_RECEIVED + " DESC " +
-      "LIMIT 500";
+  /**
+   * The FTS tables above split text into words, which means they can't find text in the middle of
+   * a word, and treat an entire run of CJK characters as a single word. These tables index every
+   * three character sequence instead, so any substring of at least three characters can be found
+   * with an index lookup.
+   *
+   * The trigram tokenizer was added in SQLite 3.34, so these are only created if
+   * {@link #isTrigramTokenizerSupported(net.sqlcipher.database.SQLiteDatabase)}.
+   */
+  public static final String[] CREATE_TRIGRAM_TABLES = {
+      "CREATE VIRTUAL TABLE " + SMS_TRIGRAM_TABLE_NAME + " USING fts5(" + BODY + ", " + THREAD_ID + " UNINDEXED, content=" + SmsDatabase.TABLE_NAME + ", content_rowid=" + SmsDatabase.ID + ", tokenize='trigram');",
+
+      "CREATE TRIGGER sms_ai_trigram AFTER INSERT ON " + SmsDatabase.TABLE_NAME + " BEGIN\n" +
+          "  INSERT INTO " + SMS_TRIGRAM_TABLE_NAME + "(" + ID + ", " + BODY + ", " + THREAD_ID + ") VALUES (new." + SmsDatabase.ID + ", new." + SmsDatabase.BODY + ", new." + SmsDatabase.THREAD_ID + ");\n" +
+          "END;\n",
+      "CREATE TRIGGER sms_ad_trigram AFTER DELETE ON " + SmsDatabase.TABLE_NAME + " BEGIN\n" +
+          "  INSERT INTO " + SMS_TRIGRAM_TABLE_NAME + "(" + SMS_TRIGRAM_TABLE_NAME + ", " + ID + ", " + BODY + ", " + THREAD_ID + ") VALUES('delete', old." + SmsDatabase.ID + ", old." + SmsDatabase.BODY + ", old." + SmsDatabase.THREAD_ID + ");\n" +
+          "END;\n",
+      "CREATE TRIGGER sms_au_trigram AFTER UPDATE ON " + SmsDatabase.TABLE_NAME + " BEGIN\n" +
+          "  INSERT INTO " + SMS_TRIGRAM_TABLE_NAME + "(" + SMS_TRIGRAM_TABLE_NAME + ", " + ID + ", " + BODY + ", " + THREAD_ID + ") VALUES('delete', old." + SmsDatabase.ID + ", old." + SmsDatabase.BODY + ", old." + SmsDatabase.THREAD_ID + ");\n" +
+          "  INSERT INTO " + SMS_TRIGRAM_TABLE_NAME + "(" + ID + ", " + BODY + ", " + THREAD_ID + ") VALUES(new." + SmsDatabase.ID + ", new." + SmsDatabase.BODY + ", new." + SmsDatabase.THREAD_ID + ");\n" +
+          "END;",
+
+
+      "CREATE VIRTUAL TABLE " + MMS_TRIGRAM_TABLE_NAME + " USING fts5(" + BODY + ", " + THREAD_ID + " UNINDEXED, content=" + MmsDatabase.TABLE_NAME + ", content_rowid=" + MmsDatabase.ID + ", tokenize='trigram');",
+
+      "CREATE TRIGGER mms_ai_trigram AFTER INSERT ON " + MmsDatabase.TABLE_NAME + " BEGIN\n" +
+          "  INSERT INTO " + MMS_TRIGRAM_TABLE_NAME + "(" + ID + ", " + BODY + ", " + THREAD_ID + ") VALUES (new." + MmsDatabase.ID + ", new." + MmsDatabase.BODY + ", new." + MmsDatabase.THREAD_ID + ");\n" +
+          "END;\n",
+      "CREATE TRIGGER mms_ad_trigram AFTER DELETE ON " + MmsDatabase.TABLE_NAME + " BEGIN\n" +
+          "  INSERT INTO " + MMS_TRIGRAM_TABLE_NAME + "(" + MMS_TRIGRAM_TABLE_NAME + ", " + ID + ", " + BODY + ", " + THREAD_ID + ") VALUES('delete', old." + MmsDatabase.ID + ", old." + MmsDatabase.BODY + ", old." + MmsDatabase.THREAD_ID + ");\n" +
+          "END;\n",
+      "CREATE TRIGGER mms_au_trigram AFTER UPDATE ON " + MmsDatabase.TABLE_NAME + " BEGIN\n" +
+          "  INSERT INTO " + MMS_TRIGRAM_TABLE_NAME + "(" + MMS_TRIGRAM_TABLE_NAME + ", " + ID + ", " + BODY + ", " + THREAD_ID + ") VALUES('delete', old." + MmsDatabase.ID + ", old." + MmsDatabase.BODY + ", old." + MmsDatabase.THREAD_ID + ");\n" +
+          "  INSERT INTO " + MMS_TRIGRAM_TABLE_NAME + "(" + ID + ", " + BODY + ", " + THREAD_ID + ") VALUES (new." + MmsDatabase.ID + ", new." + MmsDatabase.BODY + ", new." + MmsDatabase.THREAD_ID + ");\n" +
+          "END;"
+  };
+
+  /**
+   * The shortest term that can be looked up in the trigram tables.
+   */
+  private static final int MIN_SUBSTRING_LENGTH = 3;
 
   private static final String MESSAGES_FOR_THREAD_QUERY =
       "SELECT " +
@@ -121,11 +159,22 @@ public class SearchDatabase extends Database {
         "ORDER BY " + MmsSmsColumns.NORMALIZED_DATE_RECEIVED + " DESC " +
         "LIMIT 500";
 
+  private static final String RANKED_SMS_MESSAGES_QUERY    = rankedMessagesQuery(SMS_FTS_TABLE_NAME, SmsDatabase.TABLE_NAME, SmsDatabase.ID, SmsDatabase.DATE_RECEIVED, false);
+  private static final String RANKED_MMS_MESSAGES_QUERY    = rankedMessagesQuery(MMS_FTS_TABLE_NAME, MmsDatabase.TABLE_NAME, MmsDatabase.ID, MmsDatabase.DATE_RECEIVED, true);
+  private static final String SUBSTRING_SMS_MESSAGES_QUERY = rankedMessagesQuery(SMS_TRIGRAM_TABLE_NAME, SmsDatabase.TABLE_NAME, SmsDatabase.ID, SmsDatabase.DATE_RECEIVED, false);
+  private static final String SUBSTRING_MMS_MESSAGES_QUERY = rankedMessagesQuery(MMS_TRIGRAM_TABLE_NAME, MmsDatabase.TABLE_NAME, MmsDatabase.ID, MmsDatabase.DATE_RECEIVED, true);
+
+  private static final String RANKED_ORDER = " ORDER BY " + MATCH_TIER + " ASC, " + MmsSmsColumns.NORMALIZED_DATE_RECEIVED + " DESC, " + IS_MMS + " ASC, " + MESSAGE_ID + " DESC LIMIT ?";
+
+  private static final String MATCH_DATE = "match_date";
+
+  private volatile Boolean hasSubstringIndex;
+
   public SearchDatabase(@NonNull Context context, @NonNull SQLCipherOpenHelper databaseHelper) {
     super(context, databaseHelper);
   }
 
-  public Cursor queryMessages(@NonNull String query) {
+  public Cursor queryMessages(@NonNull String query, long threadId) {
     SQLiteDatabase db                  = databaseHelper.getReadableDatabase();
     String         fullTextSearchQuery = createFullTextSearchQuery(query);
 
@@ -133,14 +182,30 @@ public class SearchDatabase extends Database {
       return null;
     }
 
-    Cursor cursor = db.rawQuery(MESSAGES_QUERY, new String[] { fullTextSearchQuery,
-                                                               fullTextSearchQuery });
+    Cursor cursor = db.rawQuery(MESSAGES_FOR_THREAD_QUERY, new String[] { fullTextSearchQuery,
+                                                                          String.valueOf(threadId),
+                                                                          fullTextSearchQuery,
+                                                                          String.valueOf(threadId) });
 
     setNotifyConversationListListeners(cursor);
     return cursor;
   }
 
-  public Cursor queryMessages(@NonNull String query, long threadId) {
+  /**
+   * Searches all messages, with messages that contain the query as typed before those that only
+   * contain its terms, and newest first within each of those tiers.
+   *
+   * This doesn't order by bm25, since that's computed from each FTS table's own statistics, and the
+   * SMS and MMS ranks can't be compared with each other. The tier and date can.
+   *
+   * Each FTS table is ordered and limited on its own before anything is joined, so the cost of the
+   * joins and snippets is proportional to the page size rather than the number of matches. Pages
+   * are keyset-paginated: pass the {@link SearchPosition} of the last row of the previous page to
+   * get the page after it.
+   *
+   * @return A cursor ordered by {@link #MATCH_TIER} and date, or null if the query has nothing to search for.
+   */
+  public @Nullable Cursor queryMessagesRanked(@NonNull String query, @Nullable SearchPosition after, int limit) {
     SQLiteDatabase db                  = databaseHelper.getReadableDatabase();
     String         fullTextSearchQuery = createFullTextSearchQuery(query);
 
@@ -148,26 +213,255 @@ public class SearchDatabase extends Database {
       return null;
     }
 
-    Cursor cursor = db.rawQuery(MESSAGES_FOR_THREAD_QUERY, new String[] { fullTextSearchQuery,
-                                                                          String.valueOf(threadId),
-                                                                          fullTextSearchQuery,
-                                                                          String.valueOf(threadId) });
+    List<String> args = new ArrayList<>();
+    String       sql  = buildRankedMessagesQuery(query, after, limit, args);
+
+    Cursor cursor = db.rawQuery(sql, args.toArray(new String[0]));
+
+    setNotifyConversationListListeners(cursor);
+    return cursor;
+  }
+
+  /**
+   * Searches all messages for text anywhere within a word, including within runs of CJK characters,
+   * ordered and paginated the same way as {@link #queryMessagesRanked(String, SearchPosition, int)}.
+   *
+   * @return A cursor ordered by {@link #MATCH_TIER} and date, or null if there is no substring index or the query
+   *         doesn't have a term that can be looked up in it. See {@link #canSearchBySubstring(String)}.
+   */
+  public @Nullable Cursor queryMessagesBySubstring(@NonNull String query, @Nullable SearchPosition after, int limit) {
+    if (!hasSubstringIndex() || !canSearchBySubstring(query)) {
+      return null;
+    }
+
+    SQLiteDatabase db   = databaseHelper.getReadableDatabase();
+    List<String>   args = new ArrayList<>();
+    String         sql  = buildSubstringMessagesQuery(query, after, limit, args);
+
+    Cursor cursor = db.rawQuery(sql, args.toArray(new String[0]));
 
     setNotifyConversationListListeners(cursor);
     return cursor;
   }
 
+  /**
+   * @return True if the database has the trigram tables used by {@link #queryMessagesBySubstring(String, SearchPosition, int)}.
+   */
+  public boolean hasSubstringIndex() {
+    if (hasSubstringIndex == null) {
+      net.sqlcipher.database.SQLiteDatabase db = databaseHelper.getReadableDatabase().getSqlCipherDatabase();
+      hasSubstringIndex = SqlUtil.tableExists(db, SMS_TRIGRAM_TABLE_NAME) && SqlUtil.tableExists(db, MMS_TRIGRAM_TABLE_NAME);
+    }
+
+    return hasSubstringIndex;
+  }
+
+  /**
+   * Terms shorter than three characters can't be looked up in a trigram index, so a query needs at
+   * least one longer term. Shorter terms are only used to filter what the longer ones found.
+   */
+  public static boolean canSearchBySubstring(@NonNull String query) {
+    return Stream.of(splitTerms(query)).anyMatch(SearchDatabase::isIndexableSubstring);
+  }
+
+  /**
+   * Whether the bundled SQLite can create the tables in {@link #CREATE_TRIGRAM_TABLES}.
+   */
+  public static boolean isTrigramTokenizerSupported(@NonNull net.sqlcipher.database.SQLiteDatabase db) {
+    try {
+      db.execSQL("CREATE VIRTUAL TABLE temp.trigram_check USING fts5(" + BODY + ", tokenize='trigram')");
+      db.execSQL("DROP TABLE temp.trigram_check");
+      return true;
+    } catch (SQLiteException e) {
+      Log.w(TAG, "Trigram tokenizer is not supported.", e);
+      return false;
+    }
+  }
+
+  @VisibleForTesting
+  static @NonNull String buildRankedMessagesQuery(@NonNull String query, @Nullable SearchPosition after, int limit, @NonNull List<String> args) {
+    return buildMessagesQuery(RANKED_SMS_MESSAGES_QUERY, RANKED_MMS_MESSAGES_QUERY, createFullTextSearchQuery(query), createPhrase(query), Collections.emptyList(), after, limit, args);
+  }
+
+  @VisibleForTesting
+  static @NonNull String buildSubstringMessagesQuery(@NonNull String query, @Nullable SearchPosition after, int limit, @NonNull List<String> args) {
+    List<String> terms   = splitTerms(query);
+    String       match   = Stream.of(terms).filter(SearchDatabase::isIndexableSubstring).map(SearchDatabase::fullTextSearchEscape).collect(Collectors.joining(" "));
+    List<String> filters = Stream.of(terms).filterNot(SearchDatabase::isIndexableSubstring).map(SearchDatabase::likeEscape).toList();
+
+    return buildMessagesQuery(SUBSTRING_SMS_MESSAGES_QUERY, SUBSTRING_MMS_MESSAGES_QUERY, match, createPhrase(query), filters, after, limit, args);
+  }
+
+  private static @NonNull String buildMessagesQuery(@NonNull String smsQuery,
+                                                    @NonNull String mmsQuery,
+                                                    @NonNull String match,
+                                                    @NonNull String phrase,
+                                                    @NonNull List<String> likeFilters,
+                                                    @Nullable SearchPosition after,
+                                                    int limit,
+                                                    @NonNull List<String> args)
+  {
+    String filters   = buildLikeFilters(likeFilters);
+    String smsKeyset = buildKeyset(false, after);
+    String mmsKeyset = buildKeyset(true, after);
+
+    args.add(match);
+    args.add(phrase);
+    args.add(match);
+    args.addAll(likeFilters);
+    addKeysetArgs(false, after, args);
+    args.add(String.valueOf(limit));
+
+    args.add(match);
+    args.add(phrase);
+    args.add(match);
+    args.addAll(likeFilters);
+    addKeysetArgs(true, after, args);
+    args.add(String.valueOf(limit));
+
+    args.add(String.valueOf(limit));
+
+    return String.format(Locale.US, smsQuery, filters, smsKeyset) +
+           " UNION ALL " +
+           String.format(Locale.US, mmsQuery, filters, mmsKeyset) +
+           RANKED_ORDER;
+  }
+
+  /**
+   * Orders and limits the matches in a single FTS table before joining the page that's left to the
+   * messages and threads. The extra conditions on the FTS table and the keyset conditions are left
+   * as format arguments.
+   *
+   * A match is in tier 0 if its body contains the phrase, ignoring ASCII case, and in tier 1 if it
+   * only contains the terms.
+   */
+  private static @NonNull String rankedMessagesQuery(@NonNull String ftsTable, @NonNull String messageTable, @NonNull String messageId, @NonNull String dateReceived, boolean isMms) {
+    String hits      = ftsTable + "_hits";
+    String matchTier = "CASE WHEN instr(lower(" + ftsTable + "." + BODY + "), lower(?)) > 0 THEN 0 ELSE 1 END";
+    String matchDate = "(SELECT " + messageTable + "." + dateReceived + " FROM " + messageTable + " WHERE " + messageTable + "." + messageId + " = " + ftsTable + "." + ID + ")";
+
+    return "SELECT " +
+             ThreadDatabase.TABLE_NAME + "." + ThreadDatabase.RECIPIENT_ID + " AS " + CONVERSATION_RECIPIENT + ", " +
+             messageTable + "." + MmsSmsColumns.RECIPIENT_ID + " AS " + MESSAGE_RECIPIENT + ", " +
+             "(SELECT snippet(" + ftsTable + ", -1, '', '', '" + SNIPPET_WRAP + "', 7) FROM " + ftsTable + " WHERE " + ftsTable + " MATCH ? AND " + ftsTable + "." + ID + " = " + hits + "." + ID + ") AS " + SNIPPET + ", " +
+             messageTable + "." + dateReceived + " AS " + MmsSmsColumns.NORMALIZED_DATE_RECEIVED + ", " +
+             messageTable + "." + MmsSmsColumns.THREAD_ID + ", " +
+             messageTable + "." + MmsSmsColumns.BODY + ", " +
+             hits + "." + ID + " AS " + MESSAGE_ID + ", " +
+             (isMms ? 1 : 0) + " AS " + IS_MMS + ", " +
+             hits + "." + MATCH_TIER + " AS " + MATCH_TIER + " " +
+           "FROM (" +
+             "SELECT " + ID + ", " + MATCH_TIER + ", " + MATCH_DATE + " FROM (" +
+               "SELECT " + ftsTable + "." + ID + " AS " + ID + ", " + matchTier + " AS " + MATCH_TIER + ", " + matchDate + " AS " + MATCH_DATE + " " +
+               "FROM " + ftsTable + " WHERE " + ftsTable + " MATCH ? %1$s" +
+             ") WHERE 1 %2$s ORDER BY " + MATCH_TIER + " ASC, " + MATCH_DATE + " DESC, " + ID + " DESC LIMIT ?" +
+           ") AS " + hits + " " +
+           "INNER JOIN " + messageTable + " ON " + messageTable + "." + messageId + " = " + hits + "." + ID + " " +
+           "INNER JOIN " + ThreadDatabase.TABLE_NAME + " ON " + messageTable + "." + MmsSmsColumns.THREAD_ID + " = " + ThreadDatabase.TABLE_NAME + "." + ThreadDatabase.ID;
+  }
+
+  private static @NonNull String buildLikeFilters(@NonNull List<String> likeFilters) {
+    StringBuilder builder = new StringBuilder();
+
+    for (int i = 0; i < likeFilters.size(); i++) {
+      builder.append("AND ").append(BODY).append(" LIKE ? ESCAPE '\\' ");
+    }
+
+    return builder.toString();
+  }
+
+  /**
+   * Rows are ordered by tier, then newest first, then SMS before MMS, then by descending id. The
+   * arguments have to be cast, since a bound argument is text, and text always compares as greater
+   * than a number.
+   */
+  private static @NonNull String buildKeyset(boolean isMms, @Nullable SearchPosition after) {
+    if (after == null) {
+      return "";
+    }
+
+    String sameTier = MATCH_TIER + " = CAST(? AS INTEGER)";
+    String nextTier = MATCH_TIER + " > CAST(? AS INTEGER)";
+
+    if (after.isMms == isMms) {
+      return "AND (" + nextTier + " OR (" + sameTier + " AND (" + MATCH_DATE + " < CAST(? AS INTEGER) OR (" + MATCH_DATE + " = CAST(? AS INTEGER) AND " + ID + " < CAST(? AS INTEGER)))))";
+    } else if (isMms) {
+      return "AND (" + nextTier + " OR (" + sameTier + " AND " + MATCH_DATE + " <= CAST(? AS INTEGER)))";
+    } else {
+      return "AND (" + nextTier + " OR (" + sameTier + " AND " + MATCH_DATE + " < CAST(? AS INTEGER)))";
+    }
+  }
+
+  private static void addKeysetArgs(boolean isMms, @Nullable SearchPosition after, @NonNull List<String> args) {
+    if (after == null) {
+      return;
+    }
+
+    args.add(String.valueOf(after.matchTier));
+    args.add(String.valueOf(after.matchTier));
+    args.add(String.valueOf(after.dateReceived));
+
+    if (after.isMms == isMms) {
+      args.add(String.valueOf(after.dateReceived));
+      args.add(String.valueOf(after.messageId));
+    }
+  }
+
   private static String createFullTextSearchQuery(@NonNull String query) {
-    return Stream.of(query.split(" "))
-                 .map(String::trim)
-                 .filter(s -> s.length() > 0)
+    return Stream.of(splitTerms(query))
                  .map(SearchDatabase::fullTextSearchEscape)
                  .collect(StringBuilder::new, (sb, s) -> sb.append(s).append("* "))
                  .toString();
   }
 
+  private static @NonNull String createPhrase(@NonNull String query) {
+    return Stream.of(splitTerms(query)).collect(Collectors.joining(" "));
+  }
+
+  private static @NonNull List<String> splitTerms(@NonNull String query) {
+    return Stream.of(query.split(" "))
+                 .map(String::trim)
+                 .filter(s -> s.length() > 0)
+                 .toList();
+  }
+
+  private static boolean isIndexableSubstring(@NonNull String term) {
+    return term.codePointCount(0, term.length()) >= MIN_SUBSTRING_LENGTH;
+  }
+
   private static String fullTextSearchEscape(String s) {
     return "\"" + s.replace("\"", "\"\"") + "\"";
   }
-}
 
+  private static String likeEscape(String s) {
+    return "%" + s.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_") + "%";
+  }
+
+  /**
+   * The position of a row in a ranked search, used to fetch the page of results that follows it.
+   */
+  public static final class SearchPosition {
+    private final int     matchTier;
+    private final long    dateReceived;
+    private final boolean isMms;
+    private final long    messageId;
+
+    @VisibleForTesting
+    SearchPosition(int matchTier, long dateReceived, boolean isMms, long messageId) {
+      this.matchTier    = matchTier;
+      this.dateReceived = dateReceived;
+      this.isMms        = isMms;
+      this.messageId    = messageId;
+    }
+
+    /**
+     * @param cursor A cursor from {@link #queryMessagesRanked(String, SearchPosition, int)}, moved to a row.
+     */
+    public static @NonNull SearchPosition fromCursor(@NonNull Cursor cursor) {
+      return new SearchPosition(CursorUtil.requireInt(cursor, MATCH_TIER),
+                                CursorUtil.requireLong(cursor, MmsSmsColumns.NORMALIZED_DATE_RECEIVED),
+                                CursorUtil.requireInt(cursor, IS_MMS) == 1,
+                                CursorUtil.requireLong(cursor, MESSAGE_ID));
+    }
+  }
+}
@@ -25,6 +25,7 @@ import android.net.Uri;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
 
 import com.annimon.stream.Stream;
 import com.fasterxml.jackson.annotation.JsonProperty;
@@ -108,6 +109,8 @@ public class ThreadDatabase extends Database {
   public  static final String HAS_SENT               = "has_sent";
   private static final String LAST_SCROLLED          = "last_scrolled";
           static final String PINNED                 = "pinned";
+  private static final String SNIPPET_MESSAGE_ID     = "snippet_message_id";
+  private static final String SNIPPET_MESSAGE_MMS    = "snippet_message_mms";
 
   public static final String CREATE_TABLE = "CREATE TABLE " + TABLE_NAME + " (" + ID                     + " INTEGER PRIMARY KEY, " +
                                                                                   DATE                   + " INTEGER DEFAULT 0, " +
@@ -131,7 +134,9 @@ public class ThreadDatabase extends Database {
                                                                                   READ_RECEIPT_COUNT     + " INTEGER DEFAULT 0, " +
                                                                                   UNREAD_COUNT           + " INTEGER DEFAULT 0, " +
                                                                                   LAST_SCROLLED          + " INTEGER DEFAULT 0, " +
-                                                                                  PINNED                 + " INTEGER DEFAULT 0);";
+                                                                                  PINNED                 + " INTEGER DEFAULT 0, " +
+                                                                                  SNIPPET_MESSAGE_ID     + " INTEGER DEFAULT 0, " +
+                                                                                  SNIPPET_MESSAGE_MMS    + " INTEGER DEFAULT 0);";
 
   public static final String[] CREATE_INDEXS = {
     "CREATE INDEX IF NOT EXISTS thread_recipient_ids_index ON " + TABLE_NAME + " (" + RECIPIENT_ID + ");",
@@ -182,7 +187,7 @@ public class ThreadDatabase extends Database {
   private void updateThread(long threadId, long count, String body, @Nullable Uri attachment,
                             @Nullable String contentType, @Nullable Extra extra,
                             long date, int status, int deliveryReceiptCount, long type, boolean unarchive,
-                            long expiresIn, int readReceiptCount)
+                            long expiresIn, int readReceiptCount, long snippetMessageId, boolean snippetMms)
   {
     String extraSerialized = null;
 
@@ -206,6 +211,8 @@ public class ThreadDatabase extends Database {
     contentValues.put(DELIVERY_RECEIPT_COUNT, deliveryReceiptCount);
     contentValues.put(READ_RECEIPT_COUNT, readReceiptCount);
     contentValues.put(EXPIRES_IN, expiresIn);
+    contentValues.put(SNIPPET_MESSAGE_ID, snippetMessageId);
+    contentValues.put(SNIPPET_MESSAGE_MMS, snippetMms ? 1 : 0);
 
     if (unarchive) {
       contentValues.put(ARCHIVED, 0);
@@ -1242,11 +1249,7 @@ public class ThreadDatabase extends Database {
       MessageRecord record;
 
       if (reader != null && (record = reader.getNext()) != null) {
-        updateThread(threadId, count, ThreadBodyUtil.getFormattedBodyFor(context, record), getAttachmentUriFor(record),
-                     getContentTypeFor(record), getExtrasFor(record),
-                     record.getTimestamp(), record.getDeliveryStatus(), record.getDeliveryReceiptCount(),
-                     record.getType(), unarchive, record.getExpiresIn(), record.getReadReceiptCount());
-        notifyConversationListListeners();
+        updateThreadForSnippet(threadId, count, record, unarchive);
         return false;
       } else {
         deleteThread(threadId);
@@ -1259,6 +1262,216 @@ public class ThreadDatabase extends Database {
     }
   }
 
+  /**
+   * Updates the thread for a message that was just added to it. The message count is bumped rather
+   * than recounted where possible, and the snippet is only rebuilt if the new message is now the
+   * latest one. Falls back to {@link #update(long, boolean)} when the thread's summary can't be
+   * trusted.
+   */
+  public void updateForInsert(long threadId, long messageId, boolean mms, boolean unarchive) {
+    SQLiteDatabase db = databaseHelper.getWritableDatabase();
+
+    db.beginTransaction();
+    try {
+      SummaryState  state               = getSummaryState(threadId);
+      MessageRecord record              = state != null && state.hasSnippet() ? getMessageRecordOrNull(messageId, mms) : null;
+      long          snippetDateReceived = record != null ? getMessageDatabase(state.snippetMms).getDateReceived(state.snippetMessageId) : -1;
+
+      if (record == null || !isIncrementallyCounted(record) || snippetDateReceived == -1) {
+        update(threadId, unarchive);
+      } else {
+        int count = state.countAfterInsert(mms);
+
+        if (count == SummaryState.UNKNOWN) {
+          count = DatabaseFactory.getMmsSmsDatabase(context).getConversationCountForThreadSummary(threadId);
+        }
+
+        if (record.getDateReceived() >= snippetDateReceived) {
+          updateThreadForSnippet(threadId, count, record, unarchive);
+        } else {
+          updateMessageCount(threadId, count, unarchive);
+        }
+      }
+
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+  }
+
+  /**
+   * Updates the thread after one of its messages changed. The thread only shows its latest message,
+   * so nothing is re-read unless that's the one that changed.
+   */
+  public void updateForChange(long threadId, long messageId, boolean mms, boolean unarchive) {
+    SQLiteDatabase db = databaseHelper.getWritableDatabase();
+
+    db.beginTransaction();
+    try {
+      SummaryState state = getSummaryState(threadId);
+
+      if (state == null || !state.hasSnippet() || state.isSnippet(messageId, mms)) {
+        update(threadId, unarchive);
+      } else if (unarchive) {
+        ContentValues values = new ContentValues(1);
+        values.put(ARCHIVED, 0);
+
+        db.update(TABLE_NAME, values, ID_WHERE, SqlUtil.buildArgs(threadId));
+        notifyConversationListListeners();
+      }
+
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+  }
+
+  /**
+   * Updates the thread after some of its messages were deleted. The message count is reduced rather
+   * than recounted where possible, and the latest message is only looked up again if the snippet
+   * was deleted.
+   *
+   * @return True if the thread was deleted, like {@link #update(long, boolean)}.
+   */
+  public boolean updateForDelete(long threadId, @NonNull Collection<Long> smsIds, @NonNull Collection<Long> mmsIds) {
+    SQLiteDatabase db = databaseHelper.getWritableDatabase();
+
+    db.beginTransaction();
+    try {
+      SummaryState state = getSummaryState(threadId);
+      boolean      threadDeleted;
+
+      if (state == null || !state.hasSnippet() || state.isSnippetIn(smsIds, mmsIds)) {
+        threadDeleted = update(threadId, false);
+      } else {
+        int count = state.countAfterDelete(smsIds, mmsIds);
+
+        if (count == SummaryState.UNKNOWN) {
+          count = DatabaseFactory.getMmsSmsDatabase(context).getConversationCountForThreadSummary(threadId);
+        }
+
+        if (count <= 0) {
+          threadDeleted = update(threadId, false);
+        } else {
+          updateMessageCount(threadId, count, false);
+          threadDeleted = false;
+        }
+      }
+
+      db.setTransactionSuccessful();
+      return threadDeleted;
+    } finally {
+      db.endTransaction();
+    }
+  }
+
+  /**
+   * Checks every thread's incrementally maintained count and snippet against its messages, and
+   * fully recomputes the ones that have drifted.
+   *
+   * @return The number of threads that were repaired.
+   */
+  public int repairThreadSummaries() {
+    MmsSmsDatabase mmsSmsDatabase = DatabaseFactory.getMmsSmsDatabase(context);
+    List<Long>     threadIds      = new ArrayList<>();
+    int            repaired       = 0;
+
+    try (Cursor cursor = databaseHelper.getReadableDatabase().query(TABLE_NAME, new String[] { ID }, null, null, null, null, null)) {
+      while (cursor != null && cursor.moveToNext()) {
+        threadIds.add(CursorUtil.requireLong(cursor, ID));
+      }
+    }
+
+    for (long threadId : threadIds) {
+      SummaryState state = getSummaryState(threadId);
+
+      if (state == null) {
+        continue;
+      }
+
+      int count = mmsSmsDatabase.getConversationCountForThreadSummary(threadId);
+
+      if (count == 0) {
+        if (state.count != 0) {
+          Log.w(TAG, "Thread " + threadId + " has no messages, but a count of " + state.count + ".");
+          updateMessageCount(threadId, 0, false);
+          repaired++;
+        }
+        continue;
+      }
+
+      boolean countDrifted   = count != state.count;
+      boolean snippetDrifted = !state.hasSnippet() ||
+                               getMessageDatabase(state.snippetMms).getDateReceived(state.snippetMessageId) != mmsSmsDatabase.getConversationSnippetDateReceived(threadId);
+
+      if (countDrifted || snippetDrifted) {
+        Log.w(TAG, "Repairing summary for thread " + threadId + ". Count drifted: " + countDrifted + ", snippet drifted: " + snippetDrifted);
+        update(threadId, false);
+        repaired++;
+      }
+    }
+
+    return repaired;
+  }
+
+  private void updateThreadForSnippet(long threadId, long count, @NonNull MessageRecord record, boolean unarchive) {
+    updateThread(threadId, count, ThreadBodyUtil.getFormattedBodyFor(context, record), getAttachmentUriFor(record),
+                 getContentTypeFor(record), getExtrasFor(record),
+                 record.getTimestamp(), record.getDeliveryStatus(), record.getDeliveryReceiptCount(),
+                 record.getType(), unarchive, record.getExpiresIn(), record.getReadReceiptCount(),
+                 record.getId(), record.isMms());
+    notifyConversationListListeners();
+  }
+
+  private void updateMessageCount(long threadId, long count, boolean unarchive) {
+    ContentValues values = new ContentValues(3);
+    values.put(MESSAGE_COUNT, count);
+    values.put(LAST_SCROLLED, 0);
+
+    if (unarchive) {
+      values.put(ARCHIVED, 0);
+    }
+
+    databaseHelper.getWritableDatabase().update(TABLE_NAME, values, ID_WHERE, SqlUtil.buildArgs(threadId));
+    notifyConversationListListeners();
+  }
+
+  /**
+   * Whether this message is counted by {@link MmsSmsDatabase#getConversationCountForThreadSummary(long)}
+   * on its own, and can be the thread's snippet.
+   */
+  private static boolean isIncrementallyCounted(@NonNull MessageRecord record) {
+    return record.isMms() || (SmsDatabase.Types.isCountedInThreadSummary(record.getType()) && !SmsDatabase.Types.isGroupV1MigrationEvent(record.getType()));
+  }
+
+  private @Nullable MessageRecord getMessageRecordOrNull(long messageId, boolean mms) {
+    try {
+      return getMessageDatabase(mms).getMessageRecord(messageId);
+    } catch (NoSuchMessageException e) {
+      return null;
+    }
+  }
+
+  private @NonNull MessageDatabase getMessageDatabase(boolean mms) {
+    return mms ? DatabaseFactory.getMmsDatabase(context) : DatabaseFactory.getSmsDatabase(context);
+  }
+
+  private @Nullable SummaryState getSummaryState(long threadId) {
+    SQLiteDatabase db         = databaseHelper.getReadableDatabase();
+    String[]       projection = new String[] { MESSAGE_COUNT, SNIPPET_MESSAGE_ID, SNIPPET_MESSAGE_MMS, SNIPPET_TYPE };
+
+    try (Cursor cursor = db.query(TABLE_NAME, projection, ID_WHERE, SqlUtil.buildArgs(threadId), null, null, null)) {
+      if (cursor != null && cursor.moveToFirst()) {
+        return new SummaryState(CursorUtil.requireInt(cursor, MESSAGE_COUNT),
+                                CursorUtil.requireLong(cursor, SNIPPET_MESSAGE_ID),
+                                CursorUtil.requireBoolean(cursor, SNIPPET_MESSAGE_MMS),
+                                CursorUtil.requireLong(cursor, SNIPPET_TYPE));
+      }
+    }
+
+    return null;
+  }
+
   public @NonNull ThreadRecord getThreadRecordFor(@NonNull Recipient recipient) {
     return Objects.requireNonNull(getThreadRecord(getThreadIdFor(recipient)));
   }
@@ -1748,4 +1961,72 @@ public class ThreadDatabase extends Database {
       this.neededMerge      = neededMerge;
     }
   }
+
+  /**
+   * What's needed from a thread row to update it incrementally.
+   */
+  @VisibleForTesting
+  static final class SummaryState {
+
+    /** Returned when the new count can't be worked out from the summary alone. */
+    static final int UNKNOWN = -1;
+
+    private final int     count;
+    private final long    snippetMessageId;
+    private final boolean snippetMms;
+    private final long    snippetType;
+
+    @VisibleForTesting
+    SummaryState(int count, long snippetMessageId, boolean snippetMms, long snippetType) {
+      this.count            = count;
+      this.snippetMessageId = snippetMessageId;
+      this.snippetMms       = snippetMms;
+      this.snippetType      = snippetType;
+    }
+
+    /**
+     * Threads last summarized before the snippet was tracked, or that are empty, don't know which
+     * message their snippet came from.
+     */
+    boolean hasSnippet() {
+      return count > 0 && snippetMessageId > 0;
+    }
+
+    boolean isSnippet(long messageId, boolean mms) {
+      return snippetMessageId == messageId && snippetMms == mms;
+    }
+
+    boolean isSnippetIn(@NonNull Collection<Long> smsIds, @NonNull Collection<Long> mmsIds) {
+      return snippetMms ? mmsIds.contains(snippetMessageId) : smsIds.contains(snippetMessageId);
+    }
+
+    /**
+     * The count after adding a message that counts on its own. An mms always adds one. An sms only
+     * adds one if the thread's sms were already being counted. Otherwise, it also brings in any
+     * identity, session or profile updates that weren't counted before.
+     */
+    int countAfterInsert(boolean mms) {
+      return mms || countsEverySms() ? count + 1 : UNKNOWN;
+    }
+
+    /**
+     * The count after deleting messages, other than the snippet. Deleted mms always remove one each.
+     * Deleted sms only do if the thread's sms are still being counted afterwards. Otherwise, the
+     * updates that remain may have stopped counting.
+     */
+    int countAfterDelete(@NonNull Collection<Long> smsIds, @NonNull Collection<Long> mmsIds) {
+      if (!smsIds.isEmpty() && !countsEverySms()) {
+        return UNKNOWN;
+      }
+
+      return count - smsIds.size() - mmsIds.size();
+    }
+
+    /**
+     * The snippet being an sms that counts on its own means that every sms in the thread is counted.
+     */
+    private boolean countsEverySms() {
+      return !snippetMms && SmsDatabase.Types.isCountedInThreadSummary(snippetType);
+    }
+  }
 }
@@ -13,6 +13,7 @@ import android.preference.PreferenceManager;
 import android.text.TextUtils;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.VisibleForTesting;
 
 import com.annimon.stream.Stream;
 import com.bumptech.glide.Glide;
@@ -26,6 +27,7 @@ import org.thoughtcrime.securesms.contacts.avatars.ContactColorsLegacy;
 import org.thoughtcrime.securesms.crypto.DatabaseSecret;
 import org.thoughtcrime.securesms.crypto.MasterSecret;
 import org.thoughtcrime.securesms.database.AttachmentDatabase;
+import org.thoughtcrime.securesms.database.BackupChangeDatabase;
 import org.thoughtcrime.securesms.database.DraftDatabase;
 import org.thoughtcrime.securesms.database.GroupDatabase;
 import org.thoughtcrime.securesms.database.GroupReceiptDatabase;
@@ -171,15 +173,26 @@ public class SQLCipherOpenHelper extends SQLiteOpenHelper implements SignalDatab
   private static final int LAST_RESET_SESSION_TIME          = 87;
   private static final int WALLPAPER                        = 88;
   private static final int ABOUT                            = 89;
-
-  private static final int    DATABASE_VERSION = 89;
+  private static final int SEARCH_PREFIX_INDEX              = 90;
+  private static final int SEARCH_TRIGRAM_INDEX             = 91;
+  private static final int CONTACT_DISCOVERY_DELTA          = 92;
+  private static final int EXPIRES_AT_INDEX                 = 93;
+  private static final int THREAD_SNIPPET_MESSAGE           = 94;
+  private static final int BACKUP_CHANGE_LOG                = 95;
+
+  private static final int    DATABASE_VERSION = 95;
   private static final String DATABASE_NAME    = "signal.db";
 
   private final Context        context;
   private final DatabaseSecret databaseSecret;
 
   public SQLCipherOpenHelper(@NonNull Context context, @NonNull DatabaseSecret databaseSecret) {
-    super(context, DATABASE_NAME, null, DATABASE_VERSION, new SqlCipherDatabaseHook());
+    this(context, databaseSecret, DATABASE_NAME);
+  }
+
+  @VisibleForTesting
+  public SQLCipherOpenHelper(@NonNull Context context, @NonNull DatabaseSecret databaseSecret, @NonNull String databaseName) {
+    super(context, databaseName, null, DATABASE_VERSION, new SqlCipherDatabaseHook());
 
     this.context        = context.getApplicationContext();
     this.databaseSecret = databaseSecret;
@@ -204,7 +217,13 @@ public class SQLCipherOpenHelper extends SQLiteOpenHelper implements SignalDatab
     db.execSQL(StorageKeyDatabase.CREATE_TABLE);
     db.execSQL(MentionDatabase.CREATE_TABLE);
     executeStatements(db, SearchDatabase.CREATE_TABLE);
+
+    if (SearchDatabase.isTrigramTokenizerSupported(db)) {
+      executeStatements(db, SearchDatabase.CREATE_TRIGRAM_TABLES);
+    }
+
     executeStatements(db, RemappedRecordsDatabase.CREATE_TABLE);
+    executeStatements(db, BackupChangeDatabase.CREATE_TABLE);
 
     executeStatements(db, RecipientDatabase.CREATE_INDEXS);
     executeStatements(db, SmsDatabase.CREATE_INDEXS);
@@ -217,6 +236,7 @@ public class SQLCipherOpenHelper extends SQLiteOpenHelper implements SignalDatab
     executeStatements(db, StickerDatabase.CREATE_INDEXES);
     executeStatements(db, StorageKeyDatabase.CREATE_INDEXES);
     executeStatements(db, MentionDatabase.CREATE_INDEXES);
+    executeStatements(db, BackupChangeDatabase.CREATE_INDEXES);
 
     if (context.getDatabasePath(ClassicOpenHelper.NAME).exists()) {
       ClassicOpenHelper                      legacyHelper = new ClassicOpenHelper(context);
@@ -1258,6 +1278,100 @@ public class SQLCipherOpenHelper extends SQLiteOpenHelper implements SignalDatab
         db.execSQL("ALTER TABLE recipient ADD COLUMN about_emoji TEXT DEFAULT NULL");
       }
 
+      if (oldVersion < SEARCH_PREFIX_INDEX) {
+        db.execSQL("DROP TABLE sms_fts");
+        db.execSQL("DROP TABLE mms_fts");
+
+        db.execSQL("CREATE VIRTUAL TABLE sms_fts USING fts5(body, thread_id UNINDEXED, content=sms, content_rowid=_id, prefix='2 3')");
+        db.execSQL("CREATE VIRTUAL TABLE mms_fts USING fts5(body, thread_id UNINDEXED, content=mms, content_rowid=_id, prefix='2 3')");
+
+        Log.i(TAG, "Beginning to rebuild search index with prefixes.");
+        long start = SystemClock.elapsedRealtime();
+
+        db.execSQL("INSERT INTO sms_fts (sms_fts) VALUES ('rebuild')");
+
+        long smsFinished = SystemClock.elapsedRealtime();
+        Log.i(TAG, "Indexing SMS completed in " + (smsFinished - start) + " ms");
+
+        db.execSQL("INSERT INTO mms_fts (mms_fts) VALUES ('rebuild')");
+
+        long mmsFinished = SystemClock.elapsedRealtime();
+        Log.i(TAG, "Indexing MMS completed in " + (mmsFinished - smsFinished) + " ms");
+        Log.i(TAG, "Indexing finished. Total time: " + (mmsFinished - start) + " ms");
+      }
+
+      if (oldVersion < SEARCH_TRIGRAM_INDEX) {
+        if (SearchDatabase.isTrigramTokenizerSupported(db)) {
+          db.execSQL("CREATE VIRTUAL TABLE sms_trigram USING fts5(body, thread_id UNINDEXED, content=sms, content_rowid=_id, tokenize='trigram')");
+          db.execSQL("CREATE VIRTUAL TABLE mms_trigram USING fts5(body, thread_id UNINDEXED, content=mms, content_rowid=_id, tokenize='trigram')");
+
+          db.execSQL("CREATE TRIGGER sms_ai_trigram AFTER INSERT ON sms BEGIN\n" +
+                     "  INSERT INTO sms_trigram(rowid, body, thread_id) VALUES (new._id, new.body, new.thread_id);\n" +
+                     "END;");
+          db.execSQL("CREATE TRIGGER sms_ad_trigram AFTER DELETE ON sms BEGIN\n" +
+                     "  INSERT INTO sms_trigram(sms_trigram, rowid, body, thread_id) VALUES('delete', old._id, old.body, old.thread_id);\n" +
+                     "END;");
+          db.execSQL("CREATE TRIGGER sms_au_trigram AFTER UPDATE ON sms BEGIN\n" +
+                     "  INSERT INTO sms_trigram(sms_trigram, rowid, body, thread_id) VALUES('delete', old._id, old.body, old.thread_id);\n" +
+                     "  INSERT INTO sms_trigram(rowid, body, thread_id) VALUES(new._id, new.body, new.thread_id);\n" +
+                     "END;");
+
+          db.execSQL("CREATE TRIGGER mms_ai_trigram AFTER INSERT ON mms BEGIN\n" +
+                     "  INSERT INTO mms_trigram(rowid, body, thread_id) VALUES (new._id, new.body, new.thread_id);\n" +
+                     "END;");
+          db.execSQL("CREATE TRIGGER mms_ad_trigram AFTER DELETE ON mms BEGIN\n" +
+                     "  INSERT INTO mms_trigram(mms_trigram, rowid, body, thread_id) VALUES('delete', old._id, old.body, old.thread_id);\n" +
+                     "END;");
+          db.execSQL("CREATE TRIGGER mms_au_trigram AFTER UPDATE ON mms BEGIN\n" +
+                     "  INSERT INTO mms_trigram(mms_trigram, rowid, body, thread_id) VALUES('delete', old._id, old.body, old.thread_id);\n" +
+                     "  INSERT INTO mms_trigram(rowid, body, thread_id) VALUES (new._id, new.body, new.thread_id);\n" +
+                     "END;");
+
+          Log.i(TAG, "Beginning to build substring search index.");
+          long start = SystemClock.elapsedRealtime();
+
+          db.execSQL("INSERT INTO sms_trigram (sms_trigram) VALUES ('rebuild')");
+
+          long smsFinished = SystemClock.elapsedRealtime();
+          Log.i(TAG, "Indexing SMS completed in " + (smsFinished - start) + " ms");
+
+          db.execSQL("INSERT INTO mms_trigram (mms_trigram) VALUES ('rebuild')");
+
+          long mmsFinished = SystemClock.elapsedRealtime();
+          Log.i(TAG, "Indexing MMS completed in " + (mmsFinished - smsFinished) + " ms");
+          Log.i(TAG, "Indexing finished. Total time: " + (mmsFinished - start) + " ms");
+        } else {
+          Log.w(TAG, "Trigram tokenizer unavailable. Skipping substring search index.");
+        }
+      }
+
+      if (oldVersion < CONTACT_DISCOVERY_DELTA) {
+        db.execSQL("ALTER TABLE recipient ADD COLUMN discovery_hash INTEGER DEFAULT 0");
+        db.execSQL("ALTER TABLE recipient ADD COLUMN last_discovery_time INTEGER DEFAULT 0");
+      }
+
+      if (oldVersion < EXPIRES_AT_INDEX) {
+        db.execSQL("CREATE INDEX IF NOT EXISTS sms_expires_at_index ON sms (expire_started + expires_in) WHERE expire_started > 0");
+        db.execSQL("CREATE INDEX IF NOT EXISTS mms_expires_at_index ON mms (expire_started + expires_in) WHERE expire_started > 0");
+      }
+
+      if (oldVersion < THREAD_SNIPPET_MESSAGE) {
+        db.execSQL("ALTER TABLE thread ADD COLUMN snippet_message_id INTEGER DEFAULT 0");
+        db.execSQL("ALTER TABLE thread ADD COLUMN snippet_message_mms INTEGER DEFAULT 0");
+      }
+
+      if (oldVersion < BACKUP_CHANGE_LOG) {
+        db.execSQL("CREATE TABLE backup_change (_id INTEGER PRIMARY KEY AUTOINCREMENT, row_table TEXT NOT NULL, row_id INTEGER NOT NULL)");
+        db.execSQL("CREATE INDEX IF NOT EXISTS backup_change_row_index ON backup_change (row_table, row_id)");
+
+        for (String table : new String[] { "sms", "mms", "part", "group_receipts", "sticker" }) {
+          db.execSQL("CREATE TRIGGER " + table + "_backup_au AFTER UPDATE ON " + table + " BEGIN\n" +
+                     "  DELETE FROM backup_change WHERE row_table = '" + table + "' AND row_id = old._id;\n" +
+                     "  INSERT INTO backup_change (row_table, row_id) VALUES ('" + table + "', new._id);\n" +
+                     "END;");
+        }
+      }
+
       db.setTransactionSuccessful();
     } finally {
       db.endTransaction();
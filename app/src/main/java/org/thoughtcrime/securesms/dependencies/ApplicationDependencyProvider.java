@@ -21,8 +21,8 @@ import org.thoughtcrime.securesms.jobmanager.ConstraintObserver;
 import org.thoughtcrime.securesms.jobmanager.Job;
 import org.thoughtcrime.securesms.jobmanager.JobManager;
 import org.thoughtcrime.securesms.jobmanager.JobMigrator;
+import org.thoughtcrime.securesms.jobmanager.impl.BinaryDataSerializer;
 import org.thoughtcrime.securesms.jobmanager.impl.FactoryJobPredicate;
-import org.thoughtcrime.securesms.jobmanager.impl.JsonDataSerializer;
 import org.thoughtcrime.securesms.jobmanager.persistence.JobStorage;
 import org.thoughtcrime.securesms.jobs.FastJobStorage;
 import org.thoughtcrime.securesms.jobs.GroupCallUpdateSendJob;
@@ -65,6 +65,7 @@ import org.whispersystems.signalservice.api.util.UptimeSleepTimer;
 import org.whispersystems.signalservice.api.websocket.ConnectivityListener;
 
 import java.util.UUID;
+import java.util.concurrent.ExecutorService;
 
 /**
  * Implementation of {@link ApplicationDependencies.Provider} that provides real app dependencies.
@@ -73,6 +74,10 @@ public class ApplicationDependencyProvider implements ApplicationDependencies.Pr
 
   private static final String TAG = Log.tag(ApplicationDependencyProvider.class);
 
+  private static final int MAX_MESSAGE_SEND_FAN_OUT = 16;
+
+  private static final ExecutorService GROUPS_V2_DECRYPT_EXECUTOR = SignalExecutors.newCachedBoundedExecutor("signal-GroupsV2Decrypt", 1, SignalExecutors.getIdealThreadCount());
+
   private final Application                context;
   private final SignalServiceNetworkAccess networkAccess;
 
@@ -87,7 +92,7 @@ public class ApplicationDependencyProvider implements ApplicationDependencies.Pr
 
   @Override
   public @NonNull GroupsV2Operations provideGroupsV2Operations() {
-    return new GroupsV2Operations(provideClientZkOperations());
+    return new GroupsV2Operations(provideClientZkOperations(), GROUPS_V2_DECRYPT_EXECUTOR);
   }
 
   @Override
@@ -110,8 +115,9 @@ public class ApplicationDependencyProvider implements ApplicationDependencies.Pr
                                             Optional.fromNullable(IncomingMessageObserver.getUnidentifiedPipe()),
                                             Optional.of(new SecurityEventListener(context)),
                                             provideClientZkOperations().getProfileOperations(),
-                                            SignalExecutors.newCachedBoundedExecutor("signal-messages", 1, 16),
+                                            SignalExecutors.newCachedBoundedExecutor("signal-messages", 1, MAX_MESSAGE_SEND_FAN_OUT),
                                             ByteUnit.KILOBYTES.toBytes(512),
+                                            MAX_MESSAGE_SEND_FAN_OUT,
                                             FeatureFlags.okHttpAutomaticRetry());
   }
 
@@ -151,7 +157,7 @@ public class ApplicationDependencyProvider implements ApplicationDependencies.Pr
   @Override
   public @NonNull JobManager provideJobManager() {
     JobManager.Configuration config = new JobManager.Configuration.Builder()
-                                                                  .setDataSerializer(new JsonDataSerializer())
+                                                                  .setDataSerializer(new BinaryDataSerializer())
                                                                   .setJobFactories(JobManagerFactories.getJobFactories(context))
                                                                   .setConstraintFactories(JobManagerFactories.getConstraintFactories(context))
                                                                   .setConstraintObservers(JobManagerFactories.getConstraintObservers(context))
@@ -6,14 +6,12 @@ import androidx.lifecycle.MutableLiveData;
 import androidx.lifecycle.Transformations;
 import androidx.lifecycle.ViewModel;
 
-import org.thoughtcrime.securesms.logsubmit.LogLine;
+import org.thoughtcrime.securesms.logsubmit.StreamingLogLines;
 import org.thoughtcrime.securesms.logsubmit.SubmitDebugLogRepository;
 import org.thoughtcrime.securesms.util.livedata.LiveDataPair;
 import org.whispersystems.libsignal.util.Pair;
 import org.whispersystems.libsignal.util.guava.Optional;
 
-import java.util.List;
-
 public class HelpViewModel extends ViewModel {
 
   private static final int MINIMUM_PROBLEM_CHARS = 10;
@@ -24,7 +22,7 @@ public class HelpViewModel extends ViewModel {
 
   private final SubmitDebugLogRepository submitDebugLogRepository;
 
-  private List<LogLine> logLines;
+  private StreamingLogLines logLines;
 
   public HelpViewModel() {
     submitDebugLogRepository = new SubmitDebugLogRepository();
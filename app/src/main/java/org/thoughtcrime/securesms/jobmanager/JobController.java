@@ -4,6 +4,7 @@ import android.app.Application;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
 import androidx.annotation.WorkerThread;
 
 import com.annimon.stream.Collectors;
@@ -22,6 +23,8 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -31,21 +34,31 @@ import java.util.concurrent.TimeUnit;
 /**
  * Manages the queue of jobs. This is the only class that should write to {@link JobStorage} to
  * ensure consistency.
+ *
+ * Idle {@link JobRunner}s don't wait on this class. Instead, whenever the state of the queue
+ * changes, eligible jobs are handed directly to idle runners whose predicate matches, so only the
+ * runners that actually have work to do are woken up. Jobs are handed out as specs, in a single
+ * pass over the eligible jobs, and are only instantiated once the runner has them, on the runner's
+ * own thread and outside of this class's lock.
  */
 class JobController {
 
   private static final String TAG = JobController.class.getSimpleName();
 
-  private final Application            application;
-  private final JobStorage             jobStorage;
-  private final JobInstantiator        jobInstantiator;
-  private final ConstraintInstantiator constraintInstantiator;
-  private final Data.Serializer        dataSerializer;
-  private final JobTracker             jobTracker;
-  private final Scheduler              scheduler;
-  private final Debouncer              debouncer;
-  private final Callback               callback;
-  private final Map<String, Job>       runningJobs;
+  private final Application              application;
+  private final JobStorage               jobStorage;
+  private final JobInstantiator          jobInstantiator;
+  private final ConstraintInstantiator   constraintInstantiator;
+  private final Data.Serializer          dataSerializer;
+  private final JobTracker               jobTracker;
+  private final Scheduler                scheduler;
+  private final Debouncer                debouncer;
+  private final Callback                 callback;
+  private final Map<String, Job>         runningJobs;
+  private final Set<String>              assignedJobs;
+  private final Set<String>              canceledAssignedJobs;
+  private final List<IdleRunner>         idleRunners;
+  private final Map<String, RunnerStats> runnerStats;
 
   JobController(@NonNull Application application,
                 @NonNull JobStorage jobStorage,
@@ -67,16 +80,20 @@ class JobController {
     this.debouncer              = debouncer;
     this.callback               = callback;
     this.runningJobs            = new HashMap<>();
+    this.assignedJobs           = new HashSet<>();
+    this.canceledAssignedJobs   = new HashSet<>();
+    this.idleRunners            = new LinkedList<>();
+    this.runnerStats            = new LinkedHashMap<>();
   }
 
   @WorkerThread
   synchronized void init() {
     jobStorage.updateAllJobsToBePending();
-    notifyAll();
+    assignJobsToIdleRunners();
   }
 
   synchronized void wakeUp() {
-    notifyAll();
+    assignJobsToIdleRunners();
   }
 
   @WorkerThread
@@ -98,7 +115,7 @@ class JobController {
     insertJobChain(chain);
     scheduleJobs(chain.get(0));
     triggerOnSubmit(chain);
-    notifyAll();
+    assignJobsToIdleRunners();
   }
 
   @WorkerThread
@@ -126,7 +143,7 @@ class JobController {
 
     scheduleJobs(Collections.singletonList(job));
     triggerOnSubmit(chain);
-    notifyAll();
+    assignJobsToIdleRunners();
   }
 
   @WorkerThread
@@ -136,6 +153,9 @@ class JobController {
     if (runningJob != null) {
       Log.w(TAG, JobLogger.format(runningJob, "Canceling while running."));
       runningJob.cancel();
+    } else if (assignedJobs.contains(id)) {
+      Log.w(TAG, "Canceling JOB::" + id + " while it's being started.");
+      canceledAssignedJobs.add(id);
     } else {
       JobSpec jobSpec = jobStorage.getJobSpec(id);
 
@@ -184,7 +204,7 @@ class JobController {
     Log.i(TAG, JobLogger.format(job, "Scheduling a retry in " + delay + " ms."));
     scheduler.schedule(delay, constraints);
 
-    notifyAll();
+    assignJobsToIdleRunners();
   }
 
   synchronized void onJobFinished(@NonNull Job job) {
@@ -205,7 +225,7 @@ class JobController {
 
     jobStorage.deleteJob(job.getId());
     jobTracker.onStateChange(job, JobTracker.JobState.SUCCESS);
-    notifyAll();
+    assignJobsToIdleRunners();
   }
 
   /**
@@ -230,6 +250,8 @@ class JobController {
     jobStorage.deleteJobs(Stream.of(all).map(Job::getId).toList());
     Stream.of(all).forEach(j -> jobTracker.onStateChange(j, JobTracker.JobState.FAILURE));
 
+    assignJobsToIdleRunners();
+
     return dependents;
   }
 
@@ -238,31 +260,54 @@ class JobController {
    *  - Has no dependencies
    *  - Has no unmet constraints
    *
-   * This method will block until a job is available.
+   * This method will block until a job is available. While blocked, the calling runner is parked
+   * outside of this class's lock and will be handed a job as soon as one becomes eligible. The job
+   * is instantiated on the calling thread.
    * When the job returned from this method has been run, you must call {@link #onJobFinished(Job)}.
    */
   @WorkerThread
-  synchronized @NonNull Job pullNextEligibleJobForExecution(@NonNull JobPredicate predicate) {
-    try {
-      Job job;
+  @NonNull Job pullNextEligibleJobForExecution(@NonNull JobPredicate predicate) {
+    long       requestTime = System.nanoTime();
+    Assignment assignment;
+    IdleRunner idleRunner;
+
+    synchronized (this) {
+      long        acquireTime = System.nanoTime();
+      RunnerStats stats       = getRunnerStats(Thread.currentThread().getName());
+
+      assignment = getNextEligibleAssignment(predicate, stats);
 
-      while ((job = getNextEligibleJobForExecution(predicate)) == null) {
-        if (runningJobs.isEmpty()) {
+      if (assignment != null) {
+        idleRunner = null;
+      } else {
+        if (runningJobs.isEmpty() && assignedJobs.isEmpty()) {
           debouncer.publish(callback::onEmpty);
         }
 
-        wait();
+        idleRunner = new IdleRunner(predicate, stats);
+        idleRunners.add(idleRunner);
+
+        stats.idleWaits++;
       }
 
-      jobStorage.updateJobRunningState(job.getId(), true);
-      runningJobs.put(job.getId(), job);
-      jobTracker.onStateChange(job, JobTracker.JobState.RUNNING);
+      stats.onLockReleased(acquireTime - requestTime, System.nanoTime() - acquireTime);
+    }
 
-      return job;
-    } catch (InterruptedException e) {
-      Log.e(TAG, "Interrupted.");
-      throw new AssertionError(e);
+    if (idleRunner != null) {
+      try {
+        assignment = idleRunner.awaitAssignment();
+      } catch (InterruptedException e) {
+        Log.e(TAG, "Interrupted.");
+        throw new AssertionError(e);
+      }
     }
+
+    return startJob(assignment);
+  }
+
+  @VisibleForTesting
+  synchronized int getIdleRunnerCount() {
+    return idleRunners.size();
   }
 
   /**
@@ -297,6 +342,13 @@ class JobController {
       info.append("None\n");
     }
 
+    info.append("\n-- Runners\n");
+    if (!runnerStats.isEmpty()) {
+      Stream.of(runnerStats).forEach(e -> info.append(e.getKey()).append(" | ").append(e.getValue().toString()).append('\n'));
+    } else {
+      info.append("None\n");
+    }
+
     return info.toString();
   }
 
@@ -394,55 +446,174 @@ class JobController {
     }
   }
 
+  /**
+   * Hands eligible jobs to any idle runners that can run them, waking only those runners. Should
+   * be called whenever the set of eligible jobs may have grown.
+   *
+   * The eligible jobs are only looked up once, and are not instantiated here, so that this stays
+   * cheap for whoever happens to be holding the lock, e.g. a thread submitting a job.
+   */
   @WorkerThread
-  private @Nullable Job getNextEligibleJobForExecution(@NonNull JobPredicate predicate) {
-    List<JobSpec> jobSpecs = Stream.of(jobStorage.getPendingJobsWithNoDependenciesInCreatedOrder(System.currentTimeMillis()))
-                                   .filter(predicate::shouldRun)
-                                   .toList();
+  private void assignJobsToIdleRunners() {
+    if (idleRunners.isEmpty()) {
+      return;
+    }
+
+    for (JobSpec jobSpec : jobStorage.getPendingJobsWithNoDependenciesInCreatedOrder(System.currentTimeMillis())) {
+      IdleRunner idleRunner = getIdleRunnerFor(jobSpec);
+
+      if (idleRunner == null) {
+        continue;
+      }
 
-    for (JobSpec jobSpec : jobSpecs) {
       List<ConstraintSpec> constraintSpecs = jobStorage.getConstraintSpecs(jobSpec.getId());
-      List<Constraint>     constraints     = Stream.of(constraintSpecs)
-                                                   .map(ConstraintSpec::getFactoryKey)
-                                                   .map(constraintInstantiator::instantiate)
-                                                   .toList();
 
-      if (Stream.of(constraints).allMatch(Constraint::isMet)) {
-        return createJob(jobSpec, constraintSpecs);
+      if (!areConstraintsMet(constraintSpecs)) {
+        continue;
+      }
+
+      idleRunners.remove(idleRunner);
+      idleRunner.stats.wakeups++;
+      idleRunner.assign(claimJob(jobSpec, constraintSpecs, idleRunner.stats));
+
+      if (idleRunners.isEmpty()) {
+        return;
+      }
+    }
+  }
+
+  private @Nullable IdleRunner getIdleRunnerFor(@NonNull JobSpec jobSpec) {
+    for (IdleRunner idleRunner : idleRunners) {
+      if (idleRunner.predicate.shouldRun(jobSpec)) {
+        return idleRunner;
       }
     }
 
     return null;
   }
 
-  private @NonNull Job createJob(@NonNull JobSpec jobSpec, @NonNull List<ConstraintSpec> constraintSpecs) {
-    Job.Parameters parameters = buildJobParameters(jobSpec, constraintSpecs);
+  /**
+   * Marks the job as running, so that it's no longer eligible, and reserves it until the runner it
+   * was given to has instantiated it.
+   */
+  @WorkerThread
+  private @NonNull Assignment claimJob(@NonNull JobSpec jobSpec, @NonNull List<ConstraintSpec> constraintSpecs, @NonNull RunnerStats stats) {
+    jobStorage.updateJobRunningState(jobSpec.getId(), true);
+    assignedJobs.add(jobSpec.getId());
 
-    try {
-      Data data = dataSerializer.deserialize(jobSpec.getSerializedData());
-      Job  job  = jobInstantiator.instantiate(jobSpec.getFactoryKey(), parameters, data);
+    return new Assignment(jobSpec, constraintSpecs, stats);
+  }
 
-      job.setRunAttempt(jobSpec.getRunAttempt());
-      job.setNextRunAttemptTime(jobSpec.getNextRunAttemptTime());
-      job.setContext(application);
+  /**
+   * Instantiates a job that was claimed by the calling runner. Called without holding the lock.
+   */
+  @WorkerThread
+  private @NonNull Job startJob(@NonNull Assignment assignment) {
+    Job job;
 
-      return job;
+    try {
+      job = instantiateJob(assignment.jobSpec, assignment.constraintSpecs);
     } catch (RuntimeException e) {
-      Log.e(TAG, "Failed to instantiate job! Failing it and its dependencies without calling Job#onFailure. Crash imminent.");
+      synchronized (this) {
+        assignedJobs.remove(assignment.jobSpec.getId());
+        canceledAssignedJobs.remove(assignment.jobSpec.getId());
+        failUninstantiableJob(assignment.jobSpec);
+      }
+      throw e;
+    }
 
-      List<String> failIds = Stream.of(jobStorage.getDependencySpecsThatDependOnJob(jobSpec.getId()))
-                                   .map(DependencySpec::getJobId)
-                                   .toList();
+    synchronized (this) {
+      assignedJobs.remove(job.getId());
+
+      if (canceledAssignedJobs.remove(job.getId())) {
+        Log.w(TAG, JobLogger.format(job, "Canceled while being started."));
+        job.cancel();
+      }
 
-      jobStorage.deleteJob(jobSpec.getId());
-      jobStorage.deleteJobs(failIds);
+      runningJobs.put(job.getId(), job);
+      jobTracker.onStateChange(job, JobTracker.JobState.RUNNING);
 
-      Log.e(TAG, "Failed " + failIds.size() + " dependent jobs.");
+      long eligibleTime = Math.max(job.getParameters().getCreateTime(), job.getNextRunAttemptTime());
+      assignment.stats.onJobStarted(Math.max(0, System.currentTimeMillis() - eligibleTime));
+    }
+
+    return job;
+  }
+
+  private @NonNull RunnerStats getRunnerStats(@NonNull String runnerName) {
+    RunnerStats stats = runnerStats.get(runnerName);
+
+    if (stats == null) {
+      stats = new RunnerStats();
+      runnerStats.put(runnerName, stats);
+    }
+
+    return stats;
+  }
 
+  @WorkerThread
+  private @Nullable Assignment getNextEligibleAssignment(@NonNull JobPredicate predicate, @NonNull RunnerStats stats) {
+    for (JobSpec jobSpec : jobStorage.getPendingJobsWithNoDependenciesInCreatedOrder(System.currentTimeMillis())) {
+      if (!predicate.shouldRun(jobSpec)) {
+        continue;
+      }
+
+      List<ConstraintSpec> constraintSpecs = jobStorage.getConstraintSpecs(jobSpec.getId());
+
+      if (areConstraintsMet(constraintSpecs)) {
+        return claimJob(jobSpec, constraintSpecs, stats);
+      }
+    }
+
+    return null;
+  }
+
+  private boolean areConstraintsMet(@NonNull List<ConstraintSpec> constraintSpecs) {
+    return Stream.of(constraintSpecs)
+                 .map(ConstraintSpec::getFactoryKey)
+                 .map(constraintInstantiator::instantiate)
+                 .allMatch(Constraint::isMet);
+  }
+
+  @WorkerThread
+  private @NonNull Job createJob(@NonNull JobSpec jobSpec, @NonNull List<ConstraintSpec> constraintSpecs) {
+    try {
+      return instantiateJob(jobSpec, constraintSpecs);
+    } catch (RuntimeException e) {
+      failUninstantiableJob(jobSpec);
       throw e;
     }
   }
 
+  /**
+   * Doesn't touch storage, so it can be called without holding the lock.
+   */
+  private @NonNull Job instantiateJob(@NonNull JobSpec jobSpec, @NonNull List<ConstraintSpec> constraintSpecs) {
+    Job.Parameters parameters = buildJobParameters(jobSpec, constraintSpecs);
+    Data           data       = dataSerializer.deserialize(jobSpec.getSerializedData());
+    Job            job        = jobInstantiator.instantiate(jobSpec.getFactoryKey(), parameters, data);
+
+    job.setRunAttempt(jobSpec.getRunAttempt());
+    job.setNextRunAttemptTime(jobSpec.getNextRunAttemptTime());
+    job.setContext(application);
+
+    return job;
+  }
+
+  @WorkerThread
+  private void failUninstantiableJob(@NonNull JobSpec jobSpec) {
+    Log.e(TAG, "Failed to instantiate job! Failing it and its dependencies without calling Job#onFailure. Crash imminent.");
+
+    List<String> failIds = Stream.of(jobStorage.getDependencySpecsThatDependOnJob(jobSpec.getId()))
+                                 .map(DependencySpec::getJobId)
+                                 .toList();
+
+    jobStorage.deleteJob(jobSpec.getId());
+    jobStorage.deleteJobs(failIds);
+
+    Log.e(TAG, "Failed " + failIds.size() + " dependent jobs.");
+  }
+
   private @NonNull Job.Parameters buildJobParameters(@NonNull JobSpec jobSpec, @NonNull List<ConstraintSpec> constraintSpecs) {
     return new Job.Parameters.Builder(jobSpec.getId())
                   .setCreateTime(jobSpec.getCreateTime())
@@ -472,4 +643,92 @@ class JobController {
   interface Callback {
     void onEmpty();
   }
+
+  /**
+   * A job that has been claimed for a runner, but not yet instantiated.
+   */
+  private static final class Assignment {
+    private final JobSpec              jobSpec;
+    private final List<ConstraintSpec> constraintSpecs;
+    private final RunnerStats          stats;
+
+    private Assignment(@NonNull JobSpec jobSpec, @NonNull List<ConstraintSpec> constraintSpecs, @NonNull RunnerStats stats) {
+      this.jobSpec         = jobSpec;
+      this.constraintSpecs = constraintSpecs;
+      this.stats           = stats;
+    }
+  }
+
+  /**
+   * A runner that is parked waiting for a job to be handed to it.
+   */
+  private static final class IdleRunner {
+    private final JobPredicate predicate;
+    private final RunnerStats  stats;
+
+    private Assignment assignment;
+
+    private IdleRunner(@NonNull JobPredicate predicate, @NonNull RunnerStats stats) {
+      this.predicate = predicate;
+      this.stats     = stats;
+    }
+
+    synchronized void assign(@NonNull Assignment assignment) {
+      this.assignment = assignment;
+      notify();
+    }
+
+    synchronized @NonNull Assignment awaitAssignment() throws InterruptedException {
+      while (assignment == null) {
+        wait();
+      }
+      return assignment;
+    }
+  }
+
+  /**
+   * Scheduling metrics for a single runner. Only accessed while holding the {@link JobController}
+   * lock.
+   */
+  private static final class RunnerStats {
+    private long lockAcquisitions;
+    private long jobsStarted;
+    private long idleWaits;
+    private long wakeups;
+    private long totalLockWaitNanos;
+    private long maxLockWaitNanos;
+    private long totalLockHoldNanos;
+    private long maxLockHoldNanos;
+    private long totalQueueLatencyMs;
+    private long maxQueueLatencyMs;
+
+    void onLockReleased(long waitNanos, long holdNanos) {
+      lockAcquisitions++;
+      totalLockWaitNanos += waitNanos;
+      maxLockWaitNanos    = Math.max(maxLockWaitNanos, waitNanos);
+      totalLockHoldNanos += holdNanos;
+      maxLockHoldNanos    = Math.max(maxLockHoldNanos, holdNanos);
+    }
+
+    void onJobStarted(long queueLatencyMs) {
+      jobsStarted++;
+      totalQueueLatencyMs += queueLatencyMs;
+      maxQueueLatencyMs    = Math.max(maxQueueLatencyMs, queueLatencyMs);
+    }
+
+    @Override
+    public @NonNull String toString() {
+      long acquisitions = Math.max(1, lockAcquisitions);
+
+      return "jobsStarted: " + jobsStarted +
+             " | idleWaits: " + idleWaits +
+             " | wakeups: " + wakeups +
+             " | avgLockWait: " + TimeUnit.NANOSECONDS.toMicros(totalLockWaitNanos / acquisitions) + " us" +
+             " | maxLockWait: " + TimeUnit.NANOSECONDS.toMicros(maxLockWaitNanos) + " us" +
+             " | avgLockHold: " + TimeUnit.NANOSECONDS.toMicros(totalLockHoldNanos / acquisitions) + " us" +
+             " | maxLockHold: " + TimeUnit.NANOSECONDS.toMicros(maxLockHoldNanos) + " us" +
+             " | avgQueueLatency: " + (totalQueueLatencyMs / Math.max(1, jobsStarted)) + " ms" +
+             " | maxQueueLatency: " + maxQueueLatencyMs + " ms";
+    }
+  }
 }
@@ -0,0 +1,326 @@
+package org.thoughtcrime.securesms.jobmanager.impl;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.signal.core.util.logging.Log;
+import org.thoughtcrime.securesms.jobmanager.Data;
+import org.thoughtcrime.securesms.util.Base64;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Serializes {@link Data} into a compact, versioned binary format. Because job data is stored as
+ * text, the binary is base64-encoded.
+ *
+ * Data that was previously serialized as JSON by {@link JsonDataSerializer} is still readable, so
+ * existing rows are migrated lazily as jobs are rewritten.
+ *
+ * Format: a version byte, followed by each of the twelve typed maps in a fixed order. Each map is
+ * an entry count, followed by that many key/value pairs. Strings and arrays are length-prefixed,
+ * with a length of -1 representing null.
+ */
+public class BinaryDataSerializer implements Data.Serializer {
+
+  private static final String TAG = Log.tag(BinaryDataSerializer.class);
+
+  private static final Charset UTF_8   = Charset.forName("UTF-8");
+  private static final int     VERSION = 1;
+
+  private final JsonDataSerializer legacySerializer = new JsonDataSerializer();
+
+  @Override
+  public @NonNull String serialize(@NonNull Data data) {
+    try {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream      out   = new DataOutputStream(bytes);
+
+      out.writeByte(VERSION);
+
+      out.writeInt(data.getStrings().size());
+      for (Map.Entry<String, String> entry : data.getStrings().entrySet()) {
+        writeString(out, entry.getKey());
+        writeString(out, entry.getValue());
+      }
+
+      out.writeInt(data.getStringArrays().size());
+      for (Map.Entry<String, String[]> entry : data.getStringArrays().entrySet()) {
+        writeString(out, entry.getKey());
+        writeLength(out, entry.getValue() != null ? entry.getValue().length : -1);
+        if (entry.getValue() != null) {
+          for (String value : entry.getValue()) {
+            writeString(out, value);
+          }
+        }
+      }
+
+      out.writeInt(data.getIntegers().size());
+      for (Map.Entry<String, Integer> entry : data.getIntegers().entrySet()) {
+        writeString(out, entry.getKey());
+        out.writeInt(entry.getValue());
+      }
+
+      out.writeInt(data.getIntegerArrays().size());
+      for (Map.Entry<String, int[]> entry : data.getIntegerArrays().entrySet()) {
+        writeString(out, entry.getKey());
+        writeLength(out, entry.getValue() != null ? entry.getValue().length : -1);
+        if (entry.getValue() != null) {
+          for (int value : entry.getValue()) {
+            out.writeInt(value);
+          }
+        }
+      }
+
+      out.writeInt(data.getLongs().size());
+      for (Map.Entry<String, Long> entry : data.getLongs().entrySet()) {
+        writeString(out, entry.getKey());
+        out.writeLong(entry.getValue());
+      }
+
+      out.writeInt(data.getLongArrays().size());
+      for (Map.Entry<String, long[]> entry : data.getLongArrays().entrySet()) {
+        writeString(out, entry.getKey());
+        writeLength(out, entry.getValue() != null ? entry.getValue().length : -1);
+        if (entry.getValue() != null) {
+          for (long value : entry.getValue()) {
+            out.writeLong(value);
+          }
+        }
+      }
+
+      out.writeInt(data.getFloats().size());
+      for (Map.Entry<String, Float> entry : data.getFloats().entrySet()) {
+        writeString(out, entry.getKey());
+        out.writeFloat(entry.getValue());
+      }
+
+      out.writeInt(data.getFloatArrays().size());
+      for (Map.Entry<String, float[]> entry : data.getFloatArrays().entrySet()) {
+        writeString(out, entry.getKey());
+        writeLength(out, entry.getValue() != null ? entry.getValue().length : -1);
+        if (entry.getValue() != null) {
+          for (float value : entry.getValue()) {
+            out.writeFloat(value);
+          }
+        }
+      }
+
+      out.writeInt(data.getDoubles().size());
+      for (Map.Entry<String, Double> entry : data.getDoubles().entrySet()) {
+        writeString(out, entry.getKey());
+        out.writeDouble(entry.getValue());
+      }
+
+      out.writeInt(data.getDoubleArrays().size());
+      for (Map.Entry<String, double[]> entry : data.getDoubleArrays().entrySet()) {
+        writeString(out, entry.getKey());
+        writeLength(out, entry.getValue() != null ? entry.getValue().length : -1);
+        if (entry.getValue() != null) {
+          for (double value : entry.getValue()) {
+            out.writeDouble(value);
+          }
+        }
+      }
+
+      out.writeInt(data.getBooleans().size());
+      for (Map.Entry<String, Boolean> entry : data.getBooleans().entrySet()) {
+        writeString(out, entry.getKey());
+        out.writeBoolean(entry.getValue());
+      }
+
+      out.writeInt(data.getBooleanArrays().size());
+      for (Map.Entry<String, boolean[]> entry : data.getBooleanArrays().entrySet()) {
+        writeString(out, entry.getKey());
+        writeLength(out, entry.getValue() != null ? entry.getValue().length : -1);
+        if (entry.getValue() != null) {
+          for (boolean value : entry.getValue()) {
+            out.writeBoolean(value);
+          }
+        }
+      }
+
+      out.flush();
+
+      return Base64.encodeBytes(bytes.toByteArray());
+    } catch (IOException e) {
+      Log.e(TAG, "Failed to serialize to binary.", e);
+      throw new AssertionError(e);
+    }
+  }
+
+  @Override
+  public @NonNull Data deserialize(@NonNull String serialized) {
+    if (isJson(serialized)) {
+      return legacySerializer.deserialize(serialized);
+    }
+
+    try {
+      DataInputStream in      = new DataInputStream(new ByteArrayInputStream(Base64.decode(serialized)));
+      int             version = in.readUnsignedByte();
+
+      if (version != VERSION) {
+        throw new IOException("Unknown version: " + version);
+      }
+
+      Map<String, String> strings = new HashMap<>();
+      for (int i = 0, count = in.readInt(); i < count; i++) {
+        strings.put(readString(in), readString(in));
+      }
+
+      Map<String, String[]> stringArrays = new HashMap<>();
+      for (int i = 0, count = in.readInt(); i < count; i++) {
+        String   key    = readString(in);
+        int      length = in.readInt();
+        String[] value  = length >= 0 ? new String[length] : null;
+
+        for (int j = 0; j < length; j++) {
+          value[j] = readString(in);
+        }
+        stringArrays.put(key, value);
+      }
+
+      Map<String, Integer> integers = new HashMap<>();
+      for (int i = 0, count = in.readInt(); i < count; i++) {
+        integers.put(readString(in), in.readInt());
+      }
+
+      Map<String, int[]> integerArrays = new HashMap<>();
+      for (int i = 0, count = in.readInt(); i < count; i++) {
+        String key    = readString(in);
+        int    length = in.readInt();
+        int[]  value  = length >= 0 ? new int[length] : null;
+
+        for (int j = 0; j < length; j++) {
+          value[j] = in.readInt();
+        }
+        integerArrays.put(key, value);
+      }
+
+      Map<String, Long> longs = new HashMap<>();
+      for (int i = 0, count = in.readInt(); i < count; i++) {
+        longs.put(readString(in), in.readLong());
+      }
+
+      Map<String, long[]> longArrays = new HashMap<>();
+      for (int i = 0, count = in.readInt(); i < count; i++) {
+        String key    = readString(in);
+        int    length = in.readInt();
+        long[] value  = length >= 0 ? new long[length] : null;
+
+        for (int j = 0; j < length; j++) {
+          value[j] = in.readLong();
+        }
+        longArrays.put(key, value);
+      }
+
+      Map<String, Float> floats = new HashMap<>();
+      for (int i = 0, count = in.readInt(); i < count; i++) {
+        floats.put(readString(in), in.readFloat());
+      }
+
+      Map<String, float[]> floatArrays = new HashMap<>();
+      for (int i = 0, count = in.readInt(); i < count; i++) {
+        String  key    = readString(in);
+        int     length = in.readInt();
+        float[] value  = length >= 0 ? new float[length] : null;
+
+        for (int j = 0; j < length; j++) {
+          value[j] = in.readFloat();
+        }
+        floatArrays.put(key, value);
+      }
+
+      Map<String, Double> doubles = new HashMap<>();
+      for (int i = 0, count = in.readInt(); i < count; i++) {
+        doubles.put(readString(in), in.readDouble());
+      }
+
+      Map<String, double[]> doubleArrays = new HashMap<>();
+      for (int i = 0, count = in.readInt(); i < count; i++) {
+        String   key    = readString(in);
+        int      length = in.readInt();
+        double[] value  = length >= 0 ? new double[length] : null;
+
+        for (int j = 0; j < length; j++) {
+          value[j] = in.readDouble();
+        }
+        doubleArrays.put(key, value);
+      }
+
+      Map<String, Boolean> booleans = new HashMap<>();
+      for (int i = 0, count = in.readInt(); i < count; i++) {
+        booleans.put(readString(in), in.readBoolean());
+      }
+
+      Map<String, boolean[]> booleanArrays = new HashMap<>();
+      for (int i = 0, count = in.readInt(); i < count; i++) {
+        String    key    = readString(in);
+        int       length = in.readInt();
+        boolean[] value  = length >= 0 ? new boolean[length] : null;
+
+        for (int j = 0; j < length; j++) {
+          value[j] = in.readBoolean();
+        }
+        booleanArrays.put(key, value);
+      }
+
+      return new Data(strings,
+                      stringArrays,
+                      integers,
+                      integerArrays,
+                      longs,
+                      longArrays,
+                      floats,
+                      floatArrays,
+                      doubles,
+                      doubleArrays,
+                      booleans,
+                      booleanArrays);
+    } catch (IOException e) {
+      Log.e(TAG, "Failed to deserialize binary.", e);
+      throw new AssertionError(e);
+    }
+  }
+
+  /**
+   * The base64 alphabet doesn't include '{', so anything starting with one was written by
+   * {@link JsonDataSerializer}.
+   */
+  private static boolean isJson(@NonNull String serialized) {
+    return serialized.length() > 0 && serialized.charAt(0) == '{';
+  }
+
+  private static void writeLength(@NonNull DataOutputStream out, int length) throws IOException {
+    out.writeInt(length);
+  }
+
+  private static void writeString(@NonNull DataOutputStream out, @Nullable String value) throws IOException {
+    if (value == null) {
+      writeLength(out, -1);
+    } else {
+      byte[] bytes = value.getBytes(UTF_8);
+      writeLength(out, bytes.length);
+      out.write(bytes);
+    }
+  }
+
+  private static @Nullable String readString(@NonNull DataInputStream in) throws IOException {
+    int length = in.readInt();
+
+    if (length < 0) {
+      return null;
+    }
+
+    byte[] bytes = new byte[length];
+    in.readFully(bytes);
+
+    return new String(bytes, UTF_8);
+  }
+}
@@ -19,30 +19,70 @@ import org.whispersystems.libsignal.util.guava.Optional;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.ListIterator;
 import java.util.Map;
 import java.util.Set;
-
+import java.util.TreeSet;
+
+/**
+ * An in-memory mirror of the {@link JobDatabase} that is indexed so that the operations the
+ * {@link org.thoughtcrime.securesms.jobmanager.JobController} performs on every state change
+ * don't require scanning every job.
+ *
+ * In addition to the jobs themselves, we keep:
+ *  - Each queue's jobs sorted in created order, so the head of a queue is always known.
+ *  - The number of jobs per factory.
+ *  - A reverse index of dependencies, so we know which jobs are unblocked when a job is removed.
+ *  - The set of jobs that are eligible to run (the head of their queue, not running, and without
+ *    dependencies), sorted by their next run attempt time.
+ */
 public class FastJobStorage implements JobStorage {
 
   private static final String TAG = Log.tag(FastJobStorage.class);
 
   private final JobDatabase jobDatabase;
 
-  private final List<JobSpec>                     jobs;
+  private final Map<String, JobSpec>              jobsById;
+  private final Map<String, Long>                 insertOrderById;
+  private final Map<String, TreeSet<JobSpec>>     jobsByQueue;
+  private final Map<String, Integer>              jobCountByFactory;
+  private final TreeSet<JobSpec>                  eligibleJobs;
   private final Map<String, List<ConstraintSpec>> constraintsByJobId;
   private final Map<String, List<DependencySpec>> dependenciesByJobId;
+  private final Map<String, Set<String>>          dependentIdsByJobId;
+
+  /**
+   * Orders jobs by create time, falling back to insertion order for jobs created in the same
+   * millisecond.
+   */
+  private final Comparator<JobSpec> createdOrder = (j1, j2) -> {
+    int result = Long.compare(j1.getCreateTime(), j2.getCreateTime());
+    return result != 0 ? result : Long.compare(getInsertOrder(j1), getInsertOrder(j2));
+  };
+
+  private final Comparator<JobSpec> nextRunOrder = (j1, j2) -> {
+    int result = Long.compare(j1.getNextRunAttemptTime(), j2.getNextRunAttemptTime());
+    return result != 0 ? result : createdOrder.compare(j1, j2);
+  };
+
+  private long insertCount;
 
   public FastJobStorage(@NonNull JobDatabase jobDatabase) {
     this.jobDatabase         = jobDatabase;
-    this.jobs                = new ArrayList<>();
+    this.jobsById            = new LinkedHashMap<>();
+    this.insertOrderById     = new HashMap<>();
+    this.jobsByQueue         = new HashMap<>();
+    this.jobCountByFactory   = new HashMap<>();
+    this.eligibleJobs        = new TreeSet<>(nextRunOrder);
     this.constraintsByJobId  = new HashMap<>();
     this.dependenciesByJobId = new HashMap<>();
+    this.dependentIdsByJobId = new HashMap<>();
   }
 
   @Override
@@ -51,8 +91,6 @@ public class FastJobStorage implements JobStorage {
     List<ConstraintSpec> constraintSpecs = jobDatabase.getAllConstraintSpecs();
     List<DependencySpec> dependencySpecs = jobDatabase.getAllDependencySpecs();
 
-    jobs.addAll(jobSpecs);
-
     for (ConstraintSpec constraintSpec: constraintSpecs) {
       List<ConstraintSpec> jobConstraints = Util.getOrDefault(constraintsByJobId, constraintSpec.getJobSpecId(), new LinkedList<>());
       jobConstraints.add(constraintSpec);
@@ -63,6 +101,11 @@ public class FastJobStorage implements JobStorage {
       List<DependencySpec> jobDependencies = Util.getOrDefault(dependenciesByJobId, dependencySpec.getJobId(), new LinkedList<>());
       jobDependencies.add(dependencySpec);
       dependenciesByJobId.put(dependencySpec.getJobId(), jobDependencies);
+      addDependent(dependencySpec);
+    }
+
+    for (JobSpec jobSpec : jobSpecs) {
+      addJob(jobSpec);
     }
   }
 
@@ -74,25 +117,34 @@ public class FastJobStorage implements JobStorage {
     }
 
     for (FullSpec fullSpec : fullSpecs) {
-      jobs.add(fullSpec.getJobSpec());
-      constraintsByJobId.put(fullSpec.getJobSpec().getId(), fullSpec.getConstraintSpecs());
-      dependenciesByJobId.put(fullSpec.getJobSpec().getId(), fullSpec.getDependencySpecs());
+      String  id       = fullSpec.getJobSpec().getId();
+      JobSpec existing = jobsById.remove(id);
+
+      if (existing != null) {
+        Log.w(TAG, "Inserting JOB::" + id + ", which already exists in memory! Replacing it.");
+        removeFromIndexes(existing);
+        insertOrderById.remove(id);
+      }
+
+      constraintsByJobId.put(id, new LinkedList<>(fullSpec.getConstraintSpecs()));
+      dependenciesByJobId.put(id, new LinkedList<>(fullSpec.getDependencySpecs()));
+
+      for (DependencySpec dependencySpec : fullSpec.getDependencySpecs()) {
+        addDependent(dependencySpec);
+      }
+
+      addJob(fullSpec.getJobSpec());
     }
   }
 
   @Override
   public synchronized @Nullable JobSpec getJobSpec(@NonNull String id) {
-    for (JobSpec jobSpec : jobs) {
-      if (jobSpec.getId().equals(id)) {
-        return jobSpec;
-      }
-    }
-    return null;
+    return jobsById.get(id);
   }
 
   @Override
   public synchronized @NonNull List<JobSpec> getAllJobSpecs() {
-    return new ArrayList<>(jobs);
+    return new ArrayList<>(jobsById.values());
   }
 
   @Override
@@ -104,73 +156,41 @@ public class FastJobStorage implements JobStorage {
     } else if (migrationJob.isPresent()) {
       return Collections.emptyList();
     } else {
-      return Stream.of(jobs)
-                   .groupBy(jobSpec -> {
-                     String queueKey = jobSpec.getQueueKey();
-                     if (queueKey != null) {
-                       return queueKey;
-                     } else {
-                       return jobSpec.getId();
-                     }
-                   })
-                   .map(byQueueKey ->
-                     Stream.of(byQueueKey.getValue()).sorted((j1, j2) -> Long.compare(j1.getCreateTime(), j2.getCreateTime()))
-                           .findFirst()
-                           .orElse(null)
-                   )
-                   .withoutNulls()
-                   .filter(j -> {
-                     List<DependencySpec> dependencies = dependenciesByJobId.get(j.getId());
-                     return dependencies == null || dependencies.isEmpty();
-                   })
-                   .filterNot(JobSpec::isRunning)
-                   .filter(j -> j.getNextRunAttemptTime() <= currentTime)
-                   .sorted((j1, j2) -> Long.compare(j1.getCreateTime(), j2.getCreateTime()))
-                   .toList();
+      List<JobSpec> pending = new ArrayList<>();
+
+      for (JobSpec job : eligibleJobs) {
+        if (job.getNextRunAttemptTime() > currentTime) {
+          break;
+        }
+        pending.add(job);
+      }
+
+      Collections.sort(pending, createdOrder);
+
+      return pending;
     }
   }
 
   @Override
   public synchronized @NonNull List<JobSpec> getJobsInQueue(@NonNull String queue) {
-    return Stream.of(jobs)
-                 .filter(j -> queue.equals(j.getQueueKey()))
-                 .sorted((j1, j2) -> Long.compare(j1.getCreateTime(), j2.getCreateTime()))
-                 .toList();
+    TreeSet<JobSpec> jobs = jobsByQueue.get(queue);
+    return jobs != null ? new ArrayList<>(jobs) : new ArrayList<>();
   }
 
   private Optional<JobSpec> getMigrationJob() {
-    return Optional.fromNullable(Stream.of(jobs)
-                                       .filter(j -> Job.Parameters.MIGRATION_QUEUE_KEY.equals(j.getQueueKey()))
-                                       .filter(this::firstInQueue)
-                                       .findFirst()
-                                       .orElse(null));
-  }
-
-  private boolean firstInQueue(@NonNull JobSpec job) {
-    if (job.getQueueKey() == null) {
-      return true;
-    }
-
-    return Stream.of(jobs)
-                 .filter(j -> Util.equals(j.getQueueKey(), job.getQueueKey()))
-                 .sorted((j1, j2) -> Long.compare(j1.getCreateTime(), j2.getCreateTime()))
-                 .toList()
-                 .get(0)
-                 .equals(job);
+    TreeSet<JobSpec> migrationQueue = jobsByQueue.get(Job.Parameters.MIGRATION_QUEUE_KEY);
+    return migrationQueue != null ? Optional.of(migrationQueue.first()) : Optional.absent();
   }
 
   @Override
   public synchronized int getJobCountForFactory(@NonNull String factoryKey) {
-    return (int) Stream.of(jobs)
-                       .filter(j -> j.getFactoryKey().equals(factoryKey))
-                       .count();
+    return Util.getOrDefault(jobCountByFactory, factoryKey, 0);
   }
 
   @Override
   public synchronized int getJobCountForQueue(@NonNull String queueKey) {
-    return (int) Stream.of(jobs)
-                       .filter(j -> queueKey.equals(j.getQueueKey()))
-                       .count();
+    TreeSet<JobSpec> jobs = jobsByQueue.get(queueKey);
+    return jobs != null ? jobs.size() : 0;
   }
 
   @Override
@@ -180,25 +200,20 @@ public class FastJobStorage implements JobStorage {
       jobDatabase.updateJobRunningState(id, isRunning);
     }
 
-    ListIterator<JobSpec> iter = jobs.listIterator();
-
-    while (iter.hasNext()) {
-      JobSpec existing = iter.next();
-      if (existing.getId().equals(id)) {
-        JobSpec updated = new JobSpec(existing.getId(),
-                                      existing.getFactoryKey(),
-                                      existing.getQueueKey(),
-                                      existing.getCreateTime(),
-                                      existing.getNextRunAttemptTime(),
-                                      existing.getRunAttempt(),
-                                      existing.getMaxAttempts(),
-                                      existing.getLifespan(),
-                                      existing.getSerializedData(),
-                                      existing.getSerializedInputData(),
-                                      isRunning,
-                                      existing.isMemoryOnly());
-        iter.set(updated);
-      }
+    if (job != null) {
+      JobSpec updated = new JobSpec(job.getId(),
+                                    job.getFactoryKey(),
+                                    job.getQueueKey(),
+                                    job.getCreateTime(),
+                                    job.getNextRunAttemptTime(),
+                                    job.getRunAttempt(),
+                                    job.getMaxAttempts(),
+                                    job.getLifespan(),
+                                    job.getSerializedData(),
+                                    job.getSerializedInputData(),
+                                    isRunning,
+                                    job.isMemoryOnly());
+      replaceJob(job, updated);
     }
   }
 
@@ -209,25 +224,20 @@ public class FastJobStorage implements JobStorage {
       jobDatabase.updateJobAfterRetry(id, isRunning, runAttempt, nextRunAttemptTime, serializedData);
     }
 
-    ListIterator<JobSpec> iter = jobs.listIterator();
-
-    while (iter.hasNext()) {
-      JobSpec existing = iter.next();
-      if (existing.getId().equals(id)) {
-        JobSpec updated = new JobSpec(existing.getId(),
-                                      existing.getFactoryKey(),
-                                      existing.getQueueKey(),
-                                      existing.getCreateTime(),
-                                      nextRunAttemptTime,
-                                      runAttempt,
-                                      existing.getMaxAttempts(),
-                                      existing.getLifespan(),
-                                      serializedData,
-                                      existing.getSerializedInputData(),
-                                      isRunning,
-                                      existing.isMemoryOnly());
-        iter.set(updated);
-      }
+    if (job != null) {
+      JobSpec updated = new JobSpec(job.getId(),
+                                    job.getFactoryKey(),
+                                    job.getQueueKey(),
+                                    job.getCreateTime(),
+                                    nextRunAttemptTime,
+                                    runAttempt,
+                                    job.getMaxAttempts(),
+                                    job.getLifespan(),
+                                    serializedData,
+                                    job.getSerializedInputData(),
+                                    isRunning,
+                                    job.isMemoryOnly());
+      replaceJob(job, updated);
     }
   }
 
@@ -235,28 +245,29 @@ public class FastJobStorage implements JobStorage {
   public synchronized void updateAllJobsToBePending() {
     jobDatabase.updateAllJobsToBePending();
 
-    ListIterator<JobSpec> iter = jobs.listIterator();
-
-    while (iter.hasNext()) {
-      JobSpec existing = iter.next();
-      JobSpec updated  = new JobSpec(existing.getId(),
-                                     existing.getFactoryKey(),
-                                     existing.getQueueKey(),
-                                     existing.getCreateTime(),
-                                     existing.getNextRunAttemptTime(),
-                                     existing.getRunAttempt(),
-                                     existing.getMaxAttempts(),
-                                     existing.getLifespan(),
-                                     existing.getSerializedData(),
-                                     existing.getSerializedInputData(),
-                                     false,
-                                     existing.isMemoryOnly());
-      iter.set(updated);
+    for (JobSpec existing : new ArrayList<>(jobsById.values())) {
+      if (!existing.isRunning()) {
+        continue;
+      }
+
+      JobSpec updated = new JobSpec(existing.getId(),
+                                    existing.getFactoryKey(),
+                                    existing.getQueueKey(),
+                                    existing.getCreateTime(),
+                                    existing.getNextRunAttemptTime(),
+                                    existing.getRunAttempt(),
+                                    existing.getMaxAttempts(),
+                                    existing.getLifespan(),
+                                    existing.getSerializedData(),
+                                    existing.getSerializedInputData(),
+                                    false,
+                                    existing.isMemoryOnly());
+      replaceJob(existing, updated);
     }
   }
 
   @Override
-  public void updateJobs(@NonNull List<JobSpec> jobSpecs) {
+  public synchronized void updateJobs(@NonNull List<JobSpec> jobSpecs) {
     List<JobSpec> durable = new ArrayList<>(jobSpecs.size());
     for (JobSpec update : jobSpecs) {
       JobSpec found = getJobById(update.getId());
@@ -269,15 +280,11 @@ public class FastJobStorage implements JobStorage {
       jobDatabase.updateJobs(durable);
     }
 
-    Map<String, JobSpec>  updates = Stream.of(jobSpecs).collect(Collectors.toMap(JobSpec::getId));
-    ListIterator<JobSpec> iter    = jobs.listIterator();
-
-    while (iter.hasNext()) {
-      JobSpec existing = iter.next();
-      JobSpec update   = updates.get(existing.getId());
+    for (JobSpec update : jobSpecs) {
+      JobSpec existing = jobsById.get(update.getId());
 
-      if (update != null) {
-        iter.set(update);
+      if (existing != null) {
+        replaceJob(existing, update);
       }
     }
   }
@@ -301,26 +308,27 @@ public class FastJobStorage implements JobStorage {
       jobDatabase.deleteJobs(durableIds);
     }
 
-    Set<String> deleteIds = new HashSet<>(jobIds);
+    for (String jobId : jobIds) {
+      JobSpec job = jobsById.remove(jobId);
 
-    Iterator<JobSpec> jobIter = jobs.iterator();
-    while (jobIter.hasNext()) {
-      if (deleteIds.contains(jobIter.next().getId())) {
-        jobIter.remove();
+      if (job != null) {
+        removeFromIndexes(job);
+        insertOrderById.remove(jobId);
       }
-    }
 
-    for (String jobId : jobIds) {
       constraintsByJobId.remove(jobId);
-      dependenciesByJobId.remove(jobId);
 
-      for (Map.Entry<String, List<DependencySpec>> entry : dependenciesByJobId.entrySet()) {
-        Iterator<DependencySpec> depedencyIter = entry.getValue().iterator();
+      List<DependencySpec> dependencies = dependenciesByJobId.remove(jobId);
+      if (dependencies != null) {
+        for (DependencySpec dependency : dependencies) {
+          removeDependent(dependency);
+        }
+      }
 
-        while (depedencyIter.hasNext()) {
-          if (depedencyIter.next().getDependsOnJobId().equals(jobId)) {
-            depedencyIter.remove();
-          }
+      Set<String> dependentIds = dependentIdsByJobId.remove(jobId);
+      if (dependentIds != null) {
+        for (String dependentId : dependentIds) {
+          removeDependenciesOn(dependentId, jobId);
         }
       }
     }
@@ -361,15 +369,26 @@ public class FastJobStorage implements JobStorage {
   }
 
   private @NonNull List<DependencySpec> getSingleLayerOfDependencySpecsThatDependOnJob(@NonNull String jobSpecId) {
-    return Stream.of(dependenciesByJobId.entrySet())
-                 .map(Map.Entry::getValue)
-                 .flatMap(Stream::of)
-                 .filter(j -> j.getDependsOnJobId().equals(jobSpecId))
-                 .toList();
+    Set<String>          dependentIds = dependentIdsByJobId.get(jobSpecId);
+    List<DependencySpec> layer        = new ArrayList<>();
+
+    if (dependentIds == null) {
+      return layer;
+    }
+
+    for (String dependentId : dependentIds) {
+      for (DependencySpec dependency : Util.getOrDefault(dependenciesByJobId, dependentId, Collections.emptyList())) {
+        if (dependency.getDependsOnJobId().equals(jobSpecId)) {
+          layer.add(dependency);
+        }
+      }
+    }
+
+    return layer;
   }
 
   @Override
-  public @NonNull List<DependencySpec> getAllDependencySpecs() {
+  public synchronized @NonNull List<DependencySpec> getAllDependencySpecs() {
     return Stream.of(dependenciesByJobId)
                  .map(Map.Entry::getValue)
                  .flatMap(Stream::of)
@@ -377,12 +396,155 @@ public class FastJobStorage implements JobStorage {
   }
 
   private JobSpec getJobById(@NonNull String id) {
-    for (JobSpec job : jobs) {
-      if (job.getId().equals(id)) {
-        return job;
+    JobSpec job = jobsById.get(id);
+
+    if (job == null) {
+      Log.w(TAG, "Was looking for job with ID JOB::" + id + ", but it doesn't exist in memory!");
+    }
+
+    return job;
+  }
+
+  private long getInsertOrder(@NonNull JobSpec job) {
+    Long order = insertOrderById.get(job.getId());
+
+    if (order == null) {
+      throw new IllegalStateException("No insert order for JOB::" + job.getId());
+    }
+
+    return order;
+  }
+
+  /**
+   * Adds a brand new job to memory and all of the indexes.
+   */
+  private void addJob(@NonNull JobSpec job) {
+    insertOrderById.put(job.getId(), insertCount++);
+    jobsById.put(job.getId(), job);
+    addToIndexes(job);
+  }
+
+  /**
+   * Swaps out the in-memory copy of a job while preserving its position in insertion order.
+   */
+  private void replaceJob(@NonNull JobSpec existing, @NonNull JobSpec updated) {
+    removeFromIndexes(existing);
+    jobsById.put(updated.getId(), updated);
+    addToIndexes(updated);
+  }
+
+  private void addToIndexes(@NonNull JobSpec job) {
+    jobCountByFactory.put(job.getFactoryKey(), getJobCountForFactory(job.getFactoryKey()) + 1);
+
+    if (job.getQueueKey() != null) {
+      TreeSet<JobSpec> queue = jobsByQueue.get(job.getQueueKey());
+
+      if (queue == null) {
+        queue = new TreeSet<>(createdOrder);
+        jobsByQueue.put(job.getQueueKey(), queue);
+      } else if (createdOrder.compare(job, queue.first()) < 0) {
+        eligibleJobs.remove(queue.first());
+      }
+
+      queue.add(job);
+    }
+
+    updateEligibility(job);
+  }
+
+  private void removeFromIndexes(@NonNull JobSpec job) {
+    eligibleJobs.remove(job);
+
+    int factoryCount = getJobCountForFactory(job.getFactoryKey()) - 1;
+    if (factoryCount > 0) {
+      jobCountByFactory.put(job.getFactoryKey(), factoryCount);
+    } else {
+      jobCountByFactory.remove(job.getFactoryKey());
+    }
+
+    if (job.getQueueKey() != null) {
+      TreeSet<JobSpec> queue = jobsByQueue.get(job.getQueueKey());
+
+      if (queue != null) {
+        queue.remove(job);
+
+        if (queue.isEmpty()) {
+          jobsByQueue.remove(job.getQueueKey());
+        } else {
+          updateEligibility(queue.first());
+        }
       }
     }
-    Log.w(TAG, "Was looking for job with ID JOB::" + id + ", but it doesn't exist in memory!");
-    return null;
+  }
+
+  /**
+   * A job is eligible if it's at the front of its queue, isn't running, and has no dependencies.
+   * Whether or not its next run attempt time has passed is checked at query time.
+   */
+  private void updateEligibility(@NonNull JobSpec job) {
+    List<DependencySpec> dependencies = dependenciesByJobId.get(job.getId());
+
+    boolean eligible = !job.isRunning()                                 &&
+                       (dependencies == null || dependencies.isEmpty()) &&
+                       isFirstInQueue(job);
+
+    if (eligible) {
+      eligibleJobs.add(job);
+    } else {
+      eligibleJobs.remove(job);
+    }
+  }
+
+  private boolean isFirstInQueue(@NonNull JobSpec job) {
+    if (job.getQueueKey() == null) {
+      return true;
+    }
+
+    TreeSet<JobSpec> queue = jobsByQueue.get(job.getQueueKey());
+    return queue != null && queue.first().getId().equals(job.getId());
+  }
+
+  private void addDependent(@NonNull DependencySpec dependency) {
+    Set<String> dependentIds = dependentIdsByJobId.get(dependency.getDependsOnJobId());
+
+    if (dependentIds == null) {
+      dependentIds = new LinkedHashSet<>();
+      dependentIdsByJobId.put(dependency.getDependsOnJobId(), dependentIds);
+    }
+
+    dependentIds.add(dependency.getJobId());
+  }
+
+  private void removeDependent(@NonNull DependencySpec dependency) {
+    Set<String> dependentIds = dependentIdsByJobId.get(dependency.getDependsOnJobId());
+
+    if (dependentIds != null) {
+      dependentIds.remove(dependency.getJobId());
+
+      if (dependentIds.isEmpty()) {
+        dependentIdsByJobId.remove(dependency.getDependsOnJobId());
+      }
+    }
+  }
+
+  private void removeDependenciesOn(@NonNull String dependentId, @NonNull String dependsOnJobId) {
+    List<DependencySpec> dependencies = dependenciesByJobId.get(dependentId);
+
+    if (dependencies == null) {
+      return;
+    }
+
+    Iterator<DependencySpec> dependencyIter = dependencies.iterator();
+
+    while (dependencyIter.hasNext()) {
+      if (dependencyIter.next().getDependsOnJobId().equals(dependsOnJobId)) {
+        dependencyIter.remove();
+      }
+    }
+
+    JobSpec dependent = jobsById.get(dependentId);
+    if (dependent != null) {
+      updateEligibility(dependent);
+    }
   }
 }
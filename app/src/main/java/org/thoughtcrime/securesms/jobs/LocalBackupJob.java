@@ -5,8 +5,11 @@ import android.Manifest;
 
 import androidx.annotation.NonNull;
 
+import net.sqlcipher.database.SQLiteDatabase;
+
 import org.signal.core.util.logging.Log;
 import org.thoughtcrime.securesms.R;
+import org.thoughtcrime.securesms.backup.BackupChain;
 import org.thoughtcrime.securesms.backup.BackupFileIOError;
 import org.thoughtcrime.securesms.backup.BackupPassphrase;
 import org.thoughtcrime.securesms.backup.FullBackupExporter;
@@ -18,6 +21,7 @@ import org.thoughtcrime.securesms.jobmanager.Data;
 import org.thoughtcrime.securesms.jobmanager.Job;
 import org.thoughtcrime.securesms.jobmanager.JobManager;
 import org.thoughtcrime.securesms.jobmanager.impl.ChargingConstraint;
+import org.thoughtcrime.securesms.keyvalue.SignalStore;
 import org.thoughtcrime.securesms.notifications.NotificationChannels;
 import org.thoughtcrime.securesms.permissions.Permissions;
 import org.thoughtcrime.securesms.service.GenericForegroundService;
@@ -30,6 +34,7 @@ import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Locale;
+import java.util.Map;
 
 public final class LocalBackupJob extends BaseJob {
 
@@ -92,11 +97,14 @@ public final class LocalBackupJob extends BaseJob {
     {
       notification.setIndeterminateProgress();
 
-      String backupPassword  = BackupPassphrase.get(context);
-      File   backupDirectory = StorageUtil.getOrCreateBackupDirectory();
-      String timestamp       = new SimpleDateFormat("yyyy-MM-dd-HH-mm-ss", Locale.US).format(new Date());
-      String fileName        = String.format("signal-%s.backup", timestamp);
-      File   backupFile      = new File(backupDirectory, fileName);
+      String         backupPassword  = BackupPassphrase.get(context);
+      File           backupDirectory = StorageUtil.getOrCreateBackupDirectory();
+      SQLiteDatabase database        = DatabaseFactory.getBackupDatabase(context);
+      BackupChain    chain           = SignalStore.settings().getBackupChain();
+      boolean        isDelta         = chain != null && chain.canAppend(backupDirectory, database.getVersion());
+      String         timestamp       = new SimpleDateFormat("yyyy-MM-dd-HH-mm-ss", Locale.US).format(new Date());
+      String         fileName        = isDelta ? chain.getNextDeltaName() : String.format("signal-%s.backup", timestamp);
+      File           backupFile      = new File(backupDirectory, fileName);
 
       deleteOldTemporaryBackups(backupDirectory);
 
@@ -108,14 +116,28 @@ public final class LocalBackupJob extends BaseJob {
         throw new IOException("Backup password is null");
       }
 
-      File tempFile = File.createTempFile(TEMP_BACKUP_FILE_PREFIX, TEMP_BACKUP_FILE_SUFFIX, backupDirectory);
+      File              tempFile   = File.createTempFile(TEMP_BACKUP_FILE_PREFIX, TEMP_BACKUP_FILE_SUFFIX, backupDirectory);
+      long              startTime  = System.currentTimeMillis();
+      Map<String, Long> watermarks = BackupChain.captureWatermarks(database);
 
       try {
-        FullBackupExporter.export(context,
-                                  AttachmentSecretProvider.getInstance(context).getOrCreateAttachmentSecret(),
-                                  DatabaseFactory.getBackupDatabase(context),
-                                  tempFile,
-                                  backupPassword);
+        if (isDelta) {
+          Log.i(TAG, "Writing delta " + (chain.getSequence() + 1) + " for " + chain.getBaseName());
+          FullBackupExporter.exportDelta(context,
+                                         AttachmentSecretProvider.getInstance(context).getOrCreateAttachmentSecret(),
+                                         database,
+                                         tempFile,
+                                         backupPassword,
+                                         chain,
+                                         watermarks);
+        } else {
+          FullBackupExporter.export(context,
+                                    AttachmentSecretProvider.getInstance(context).getOrCreateAttachmentSecret(),
+                                    database,
+                                    tempFile,
+                                    backupPassword,
+                                    watermarks);
+        }
 
         if (!tempFile.renameTo(backupFile)) {
           Log.w(TAG, "Failed to rename temp file");
@@ -134,6 +156,14 @@ public final class LocalBackupJob extends BaseJob {
         }
       }
 
+      if (isDelta) {
+        SignalStore.settings().setBackupChain(chain.append(startTime, watermarks));
+      } else {
+        SignalStore.settings().setBackupChain(BackupChain.forBase(fileName, database.getVersion(), startTime, watermarks));
+      }
+
+      BackupChain.pruneChanges(database, watermarks);
+
       BackupUtil.deleteOldBackups();
     }
   }
@@ -12,6 +12,10 @@ import org.thoughtcrime.securesms.jobmanager.Job;
  * the {@link org.thoughtcrime.securesms.messages.IncomingMessageObserver} when decryptions have
  * finished. This lets us know not just when the websocket is drained, but when all the decryptions
  * for the messages we pulled down from the websocket have been finished.
+ *
+ * Should be enqueued with
+ * {@link org.thoughtcrime.securesms.messages.IncomingMessageProcessor.Processor#enqueueDecryptionsDrainedJob()},
+ * which also makes it wait for the partitioned decrypt queues.
  */
 public class PushDecryptDrainedJob extends BaseJob {
 
@@ -35,8 +35,10 @@ import org.thoughtcrime.securesms.groups.GroupId;
 import org.thoughtcrime.securesms.jobmanager.Data;
 import org.thoughtcrime.securesms.jobmanager.Job;
 import org.thoughtcrime.securesms.jobmanager.JobManager;
+import org.thoughtcrime.securesms.messages.DecryptionMetrics;
 import org.thoughtcrime.securesms.notifications.NotificationChannels;
 import org.thoughtcrime.securesms.recipients.Recipient;
+import org.thoughtcrime.securesms.recipients.RecipientId;
 import org.thoughtcrime.securesms.transport.RetryLaterException;
 import org.thoughtcrime.securesms.util.GroupUtil;
 import org.thoughtcrime.securesms.util.TextSecurePreferences;
@@ -57,6 +59,13 @@ public final class PushDecryptMessageJob extends BaseJob {
   public static final String KEY   = "PushDecryptJob";
   public static final String QUEUE = "__PUSH_DECRYPT_JOB__";
 
+  /**
+   * Envelopes with a known sender are spread across this many queues by sender and device, so that
+   * independent sessions can be decrypted in parallel. Envelopes without a known sender (sealed
+   * sender) stay on {@link #QUEUE}.
+   */
+  public static final int PARTITION_COUNT = 4;
+
   public static final String TAG = Log.tag(PushDecryptMessageJob.class);
 
   private static final String KEY_MESSAGE_ID     = "message_id";
@@ -70,8 +79,16 @@ public final class PushDecryptMessageJob extends BaseJob {
   }
 
   public PushDecryptMessageJob(Context context, long pushMessageId, long smsMessageId) {
+    this(context, pushMessageId, smsMessageId, QUEUE);
+  }
+
+  public PushDecryptMessageJob(Context context, long pushMessageId, @NonNull String queue) {
+    this(context, pushMessageId, -1, queue);
+  }
+
+  private PushDecryptMessageJob(Context context, long pushMessageId, long smsMessageId, @NonNull String queue) {
     this(new Parameters.Builder()
-                           .setQueue(QUEUE)
+                           .setQueue(queue)
                            .setMaxAttempts(Parameters.UNLIMITED)
                            .build(),
          pushMessageId,
@@ -86,6 +103,34 @@ public final class PushDecryptMessageJob extends BaseJob {
     this.smsMessageId = smsMessageId;
   }
 
+  /**
+   * @return The queue for envelopes from the given sender and device. The same sender and device
+   *         always map to the same queue, which keeps the messages for a session in order.
+   */
+  public static @NonNull String getPartitionQueue(@NonNull RecipientId sender, int device) {
+    long hash = sender.toLong() * 31 + device;
+    return getPartitionQueue((int) ((hash & Long.MAX_VALUE) % PARTITION_COUNT));
+  }
+
+  public static @NonNull String getPartitionQueue(int partition) {
+    return QUEUE + partition;
+  }
+
+  /**
+   * @return {@link #QUEUE} followed by every partition queue.
+   */
+  public static @NonNull List<String> getAllQueues() {
+    List<String> queues = new ArrayList<>(PARTITION_COUNT + 1);
+
+    queues.add(QUEUE);
+
+    for (int i = 0; i < PARTITION_COUNT; i++) {
+      queues.add(getPartitionQueue(i));
+    }
+
+    return queues;
+  }
+
   @Override
   public @NonNull Data serialize() {
     return new Data.Builder().putLong(KEY_MESSAGE_ID, messageId)
@@ -109,15 +154,19 @@ public final class PushDecryptMessageJob extends BaseJob {
     PushDatabase          database   = DatabaseFactory.getPushDatabase(context);
     SignalServiceEnvelope envelope   = database.get(messageId);
     JobManager            jobManager = ApplicationDependencies.getJobManager();
+    long                  startTime  = System.currentTimeMillis();
 
     try {
       List<Job> jobs = handleMessage(envelope);
 
+      DecryptionMetrics.getInstance().onDecrypted(getParameters().getQueue(), System.currentTimeMillis() - startTime);
+
       for (Job job: jobs) {
         jobManager.add(job);
       }
     } catch (NoSenderException e) {
       Log.w(TAG, "Invalid message, but no sender info!");
+      DecryptionMetrics.getInstance().onDropped(getParameters().getQueue());
     }
 
     database.delete(messageId);
@@ -130,6 +179,7 @@ public final class PushDecryptMessageJob extends BaseJob {
 
   @Override
   public void onFailure() {
+    DecryptionMetrics.getInstance().onDropped(getParameters().getQueue());
   }
 
   private boolean needsMigration() {
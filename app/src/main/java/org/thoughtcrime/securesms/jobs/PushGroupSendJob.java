@@ -44,6 +44,7 @@ import org.thoughtcrime.securesms.util.GroupUtil;
 import org.whispersystems.libsignal.util.Pair;
 import org.whispersystems.libsignal.util.guava.Optional;
 import org.whispersystems.signalservice.api.SignalServiceMessageSender;
+import org.whispersystems.signalservice.api.SignalServiceMessageSender.PartialSendCompleteListener;
 import org.whispersystems.signalservice.api.crypto.UnidentifiedAccessPair;
 import org.whispersystems.signalservice.api.crypto.UntrustedIdentityException;
 import org.whispersystems.signalservice.api.messages.SendMessageResult;
@@ -60,6 +61,7 @@ import org.whispersystems.signalservice.internal.push.SignalServiceProtos.GroupC
 import org.whispersystems.signalservice.internal.push.SignalServiceProtos.GroupContextV2;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
@@ -192,9 +194,13 @@ public final class PushGroupSendJob extends PushSendJob {
       Map<String, Recipient> idByE164 = Stream.of(target).filter(Recipient::hasE164).collect(Collectors.toMap(Recipient::requireE164, r -> r));
       Map<UUID, Recipient>   idByUuid = Stream.of(target).filter(Recipient::hasUuid).collect(Collectors.toMap(Recipient::requireUuid, r -> r));
 
-      List<SendMessageResult>   results = deliver(message, groupRecipient, target);
+      UnidentifiedStatusRecorder unidentifiedStatusRecorder = new UnidentifiedStatusRecorder(messageId, target.size(), idByE164, idByUuid);
+
+      List<SendMessageResult> results = deliver(message, groupRecipient, target, unidentifiedStatusRecorder);
       Log.i(TAG, JobLogger.format(this, "Finished send."));
 
+      unidentifiedStatusRecorder.flush();
+
       List<NetworkFailure>             networkFailures           = Stream.of(results).filter(SendMessageResult::isNetworkFailure).map(result -> new NetworkFailure(findId(result.getAddress(), idByE164, idByUuid))).toList();
       List<IdentityKeyMismatch>        identityMismatches        = Stream.of(results).filter(result -> result.getIdentityFailure() != null).map(result -> new IdentityKeyMismatch(findId(result.getAddress(), idByE164, idByUuid), result.getIdentityFailure().getIdentityKey())).toList();
       List<SendMessageResult>          successes                 = Stream.of(results).filter(result -> result.getSuccess() != null).toList();
@@ -227,8 +233,6 @@ public final class PushGroupSendJob extends PushSendJob {
         database.addMismatchedIdentity(messageId, mismatch.getRecipientId(context), mismatch.getIdentityKey());
       }
 
-      DatabaseFactory.getGroupReceiptDatabase(context).setUnidentified(successUnidentifiedStatus, messageId);
-
       if (existingNetworkFailures.isEmpty() && networkFailures.isEmpty() && identityMismatches.isEmpty() && existingIdentityMismatches.isEmpty()) {
         database.markAsSent(messageId, true);
 
@@ -281,7 +285,10 @@ public final class PushGroupSendJob extends PushSendJob {
     }
   }
 
-  private List<SendMessageResult> deliver(OutgoingMediaMessage message, @NonNull Recipient groupRecipient, @NonNull List<Recipient> destinations)
+  private List<SendMessageResult> deliver(@NonNull OutgoingMediaMessage message,
+                                          @NonNull Recipient groupRecipient,
+                                          @NonNull List<Recipient> destinations,
+                                          @NonNull PartialSendCompleteListener partialListener)
       throws IOException, UntrustedIdentityException, UndeliverableMessageException
   {
     try {
@@ -323,7 +330,7 @@ public final class PushGroupSendJob extends PushSendJob {
                                                                               .withExpiration(groupRecipient.getExpireMessages())
                                                                               .asGroupMessage(group)
                                                                               .build();
-          return messageSender.sendMessage(addresses, unidentifiedAccess, isRecipientUpdate, groupDataMessage);
+          return messageSender.sendMessage(addresses, unidentifiedAccess, isRecipientUpdate, groupDataMessage, partialListener);
         } else {
           MessageGroupContext.GroupV1Properties properties = groupMessage.requireGroupV1Properties();
 
@@ -341,7 +348,7 @@ public final class PushGroupSendJob extends PushSendJob {
                                                                                 .build();
 
           Log.i(TAG, JobLogger.format(this, "Beginning update send."));
-          return messageSender.sendMessage(addresses, unidentifiedAccess, isRecipientUpdate, groupDataMessage);
+          return messageSender.sendMessage(addresses, unidentifiedAccess, isRecipientUpdate, groupDataMessage, partialListener);
         }
       } else {
         SignalServiceDataMessage.Builder builder = SignalServiceDataMessage.newBuilder()
@@ -363,7 +370,7 @@ public final class PushGroupSendJob extends PushSendJob {
                                                        .build();
 
         Log.i(TAG, JobLogger.format(this, "Beginning message send."));
-        return messageSender.sendMessage(addresses, unidentifiedAccess, isRecipientUpdate, groupMessage);
+        return messageSender.sendMessage(addresses, unidentifiedAccess, isRecipientUpdate, groupMessage, partialListener);
       }
     } catch (ServerRejectedException e) {
       throw new UndeliverableMessageException(e);
@@ -401,4 +408,52 @@ public final class PushGroupSendJob extends PushSendJob {
       return new PushGroupSendJob(parameters, data.getLong(KEY_MESSAGE_ID), filter);
     }
   }
+
+  /**
+   * Writes the sealed sender status of each successful send to the group receipts in batches as the
+   * results come in, rather than all at once after the last recipient.
+   */
+  private final class UnidentifiedStatusRecorder implements PartialSendCompleteListener {
+
+    private static final int BATCH_SIZE = 50;
+
+    private final long                             messageId;
+    private final int                              total;
+    private final Map<String, Recipient>           idByE164;
+    private final Map<UUID, Recipient>             idByUuid;
+    private final List<Pair<RecipientId, Boolean>> pending;
+
+    private int completed;
+
+    private UnidentifiedStatusRecorder(long messageId, int total, @NonNull Map<String, Recipient> idByE164, @NonNull Map<UUID, Recipient> idByUuid) {
+      this.messageId = messageId;
+      this.total     = total;
+      this.idByE164  = idByE164;
+      this.idByUuid  = idByUuid;
+      this.pending   = new ArrayList<>(Math.min(total, BATCH_SIZE));
+    }
+
+    @Override
+    public void onPartialSendComplete(@NonNull SendMessageResult result) {
+      completed++;
+
+      if (result.getSuccess() != null) {
+        pending.add(new Pair<>(findId(result.getAddress(), idByE164, idByUuid), result.getSuccess().isUnidentified()));
+      }
+
+      if (pending.size() >= BATCH_SIZE) {
+        Log.i(TAG, JobLogger.format(PushGroupSendJob.this, "Sent to " + completed + "/" + total + " recipients."));
+        flush();
+      }
+    }
+
+    void flush() {
+      if (pending.isEmpty()) {
+        return;
+      }
+
+      DatabaseFactory.getGroupReceiptDatabase(context).setUnidentified(pending, messageId);
+      pending.clear();
+    }
+  }
 }
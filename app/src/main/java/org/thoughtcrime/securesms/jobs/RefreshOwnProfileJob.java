@@ -17,6 +17,7 @@ import org.thoughtcrime.securesms.jobmanager.Job;
 import org.thoughtcrime.securesms.jobmanager.impl.NetworkConstraint;
 import org.thoughtcrime.securesms.profiles.ProfileName;
 import org.thoughtcrime.securesms.recipients.Recipient;
+import org.thoughtcrime.securesms.util.ProfileFetchScheduler;
 import org.thoughtcrime.securesms.util.ProfileUtil;
 import org.thoughtcrime.securesms.util.TextSecurePreferences;
 import org.thoughtcrime.securesms.util.Util;
@@ -24,9 +25,12 @@ import org.whispersystems.libsignal.util.guava.Optional;
 import org.whispersystems.signalservice.api.crypto.InvalidCiphertextException;
 import org.whispersystems.signalservice.api.profiles.ProfileAndCredential;
 import org.whispersystems.signalservice.api.profiles.SignalServiceProfile;
+import org.whispersystems.signalservice.api.push.exceptions.NotFoundException;
 import org.whispersystems.signalservice.api.push.exceptions.PushNetworkException;
 
 import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
 
 
 /**
@@ -40,6 +44,8 @@ public class RefreshOwnProfileJob extends BaseJob {
 
   private static final String TAG = Log.tag(RefreshOwnProfileJob.class);
 
+  private static final int TIMEOUT_SECONDS = 10;
+
   public RefreshOwnProfileJob() {
     this(new Parameters.Builder()
                        .addConstraint(NetworkConstraint.KEY)
@@ -71,8 +77,23 @@ public class RefreshOwnProfileJob extends BaseJob {
       return;
     }
 
-    Recipient            self                 = Recipient.self();
-    ProfileAndCredential profileAndCredential = ProfileUtil.retrieveProfileSync(context, self, getRequestType(self));
+    Recipient                    self   = Recipient.self();
+    ProfileFetchScheduler.Result result = ProfileFetchScheduler.fetch(context,
+                                                                     Collections.singletonList(self),
+                                                                     RefreshOwnProfileJob::getRequestType,
+                                                                     1,
+                                                                     TIMEOUT_SECONDS,
+                                                                     TimeUnit.SECONDS);
+
+    if (result.getRetries().size() > 0) {
+      throw new PushNetworkException("Failed to retrieve our own profile.");
+    } else if (result.getNotFound().size() > 0) {
+      throw new NotFoundException("Our own profile was not found.");
+    } else if (result.getProfiles().isEmpty()) {
+      throw new IOException("Failed to retrieve our own profile.");
+    }
+
+    ProfileAndCredential profileAndCredential = result.getProfiles().get(0).second();
     SignalServiceProfile profile              = profileAndCredential.getProfile();
 
     setProfileName(profile.getName());
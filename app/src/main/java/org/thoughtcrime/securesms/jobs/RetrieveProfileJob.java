@@ -33,6 +33,7 @@ import org.thoughtcrime.securesms.recipients.RecipientUtil;
 import org.thoughtcrime.securesms.transport.RetryLaterException;
 import org.thoughtcrime.securesms.util.Base64;
 import org.thoughtcrime.securesms.util.IdentityUtil;
+import org.thoughtcrime.securesms.util.ProfileFetchScheduler;
 import org.thoughtcrime.securesms.util.ProfileUtil;
 import org.thoughtcrime.securesms.util.SetUtil;
 import org.thoughtcrime.securesms.util.Stopwatch;
@@ -46,9 +47,6 @@ import org.whispersystems.signalservice.api.crypto.InvalidCiphertextException;
 import org.whispersystems.signalservice.api.crypto.ProfileCipher;
 import org.whispersystems.signalservice.api.profiles.ProfileAndCredential;
 import org.whispersystems.signalservice.api.profiles.SignalServiceProfile;
-import org.whispersystems.signalservice.api.push.exceptions.NotFoundException;
-import org.whispersystems.signalservice.api.push.exceptions.PushNetworkException;
-import org.whispersystems.signalservice.internal.util.concurrent.ListenableFuture;
 
 import java.io.IOException;
 import java.util.ArrayList;
@@ -59,9 +57,7 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
-import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
 
 /**
  * Retrieves a users profile and sets the appropriate local fields.
@@ -74,6 +70,9 @@ public class RetrieveProfileJob extends BaseJob {
 
   private static final String KEY_RECIPIENTS = "recipients";
 
+  private static final int MAX_IN_FLIGHT   = 8;
+  private static final int TIMEOUT_SECONDS = 30;
+
   private final Set<RecipientId> recipientIds;
 
   /**
@@ -249,37 +248,26 @@ public class RetrieveProfileJob extends BaseJob {
     List<Recipient> recipients = Recipient.resolvedList(recipientIds);
     stopwatch.split("resolve-ensure");
 
-    List<Pair<Recipient, ListenableFuture<ProfileAndCredential>>> futures = Stream.of(recipients)
-                                                                                  .filter(Recipient::hasServiceIdentifier)
-                                                                                  .map(r -> new Pair<>(r, ProfileUtil.retrieveProfile(context, r, getRequestType(r))))
-                                                                                  .toList();
-    stopwatch.split("futures");
-
-    List<Pair<Recipient, ProfileAndCredential>> profiles = Stream.of(futures)
-                                                                 .map(pair -> {
-                                                                   Recipient recipient = pair.first();
-
-                                                                   try {
-                                                                     ProfileAndCredential profile = pair.second().get(10, TimeUnit.SECONDS);
-                                                                     return new Pair<>(recipient, profile);
-                                                                   } catch (InterruptedException | TimeoutException e) {
-                                                                     retries.add(recipient.getId());
-                                                                   } catch (ExecutionException e) {
-                                                                     if (e.getCause() instanceof PushNetworkException) {
-                                                                       retries.add(recipient.getId());
-                                                                     } else if (e.getCause() instanceof NotFoundException) {
-                                                                       Log.w(TAG, "Failed to find a profile for " + recipient.getId());
-                                                                       if (recipient.isRegistered()) {
-                                                                         unregistered.add(recipient.getId());
-                                                                       }
-                                                                     } else {
-                                                                       Log.w(TAG, "Failed to retrieve profile for " + recipient.getId());
-                                                                     }
-                                                                   }
-                                                                   return null;
-                                                                 })
-                                                                 .withoutNulls()
-                                                                 .toList();
+    List<Recipient> fetchable = Stream.of(recipients).filter(Recipient::hasServiceIdentifier).toList();
+
+    ProfileFetchScheduler.Result result = ProfileFetchScheduler.fetch(context,
+                                                                     fetchable,
+                                                                     RetrieveProfileJob::getRequestType,
+                                                                     MAX_IN_FLIGHT,
+                                                                     TIMEOUT_SECONDS,
+                                                                     TimeUnit.SECONDS);
+
+    List<Pair<Recipient, ProfileAndCredential>> profiles = result.getProfiles();
+
+    retries.addAll(result.getRetries());
+
+    for (RecipientId id : result.getNotFound()) {
+      Log.w(TAG, "Failed to find a profile for " + id);
+      if (Recipient.resolved(id).isRegistered()) {
+        unregistered.add(id);
+      }
+    }
+
     stopwatch.split("network");
 
     for (Pair<Recipient, ProfileAndCredential> profile : profiles) {
@@ -0,0 +1,88 @@
+package org.thoughtcrime.securesms.jobs;
+
+import androidx.annotation.NonNull;
+
+import org.signal.core.util.logging.Log;
+import org.thoughtcrime.securesms.database.DatabaseFactory;
+import org.thoughtcrime.securesms.dependencies.ApplicationDependencies;
+import org.thoughtcrime.securesms.jobmanager.Data;
+import org.thoughtcrime.securesms.jobmanager.Job;
+import org.thoughtcrime.securesms.keyvalue.SignalStore;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Thread message counts and snippets are maintained incrementally as messages come and go, so a
+ * write path that doesn't keep them up to date can leave them out of step with the thread's
+ * messages. This periodically checks every thread and recomputes the ones that have drifted.
+ */
+public final class ThreadSummaryConsistencyJob extends BaseJob {
+
+  public static final String KEY = "ThreadSummaryConsistencyJob";
+
+  private static final String TAG = Log.tag(ThreadSummaryConsistencyJob.class);
+
+  private static final long CHECK_INTERVAL = TimeUnit.DAYS.toMillis(1);
+
+  public static void enqueueIfNecessary() {
+    long timeSinceCheck = System.currentTimeMillis() - SignalStore.misc().getLastThreadSummaryCheckTime();
+
+    if (timeSinceCheck < CHECK_INTERVAL) {
+      Log.i(TAG, "Too soon to check. Did the last check " + timeSinceCheck + " ms ago.");
+      return;
+    }
+
+    SignalStore.misc().setLastThreadSummaryCheckTime(System.currentTimeMillis());
+    ApplicationDependencies.getJobManager().add(new ThreadSummaryConsistencyJob());
+  }
+
+  private ThreadSummaryConsistencyJob() {
+    this(new Job.Parameters.Builder()
+                           .setQueue(KEY)
+                           .setMaxInstancesForFactory(1)
+                           .setLifespan(TimeUnit.DAYS.toMillis(1))
+                           .build());
+  }
+
+  private ThreadSummaryConsistencyJob(@NonNull Job.Parameters parameters) {
+    super(parameters);
+  }
+
+  @Override
+  public @NonNull Data serialize() {
+    return Data.EMPTY;
+  }
+
+  @Override
+  public @NonNull String getFactoryKey() {
+    return KEY;
+  }
+
+  @Override
+  protected void onRun() {
+    long start    = System.currentTimeMillis();
+    int  repaired = DatabaseFactory.getThreadDatabase(context).repairThreadSummaries();
+
+    if (repaired > 0) {
+      Log.w(TAG, "Repaired " + repaired + " thread summaries. Took " + (System.currentTimeMillis() - start) + " ms.");
+    } else {
+      Log.i(TAG, "All thread summaries are consistent. Took " + (System.currentTimeMillis() - start) + " ms.");
+    }
+  }
+
+  @Override
+  protected boolean onShouldRetry(@NonNull Exception e) {
+    return false;
+  }
+
+  @Override
+  public void onFailure() {
+  }
+
+  public static final class Factory implements Job.Factory<ThreadSummaryConsistencyJob> {
+    @Override
+    public @NonNull ThreadSummaryConsistencyJob create(@NonNull Parameters parameters, @NonNull Data data) {
+      return new ThreadSummaryConsistencyJob(parameters);
+    }
+  }
+}
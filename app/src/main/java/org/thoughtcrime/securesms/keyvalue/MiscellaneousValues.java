@@ -10,6 +10,8 @@ public final class MiscellaneousValues extends SignalStoreValues {
   private static final String LAST_GV1_ROUTINE_MIGRATION_TIME  = "misc.last_gv1_routine_migration_time";
   private static final String USERNAME_SHOW_REMINDER           = "username.show.reminder";
   private static final String CLIENT_DEPRECATED                = "misc.client_deprecated";
+  private static final String LAST_FULL_CDS_REFRESH_TIME       = "misc.last_full_cds_refresh_time";
+  private static final String LAST_THREAD_SUMMARY_CHECK_TIME   = "misc.last_thread_summary_check_time";
 
   MiscellaneousValues(@NonNull KeyValueStore store) {
     super(store);
@@ -48,6 +50,22 @@ public final class MiscellaneousValues extends SignalStoreValues {
     putLong(LAST_GV1_ROUTINE_MIGRATION_TIME, time);
   }
 
+  public long getLastFullCdsRefreshTime() {
+    return getLong(LAST_FULL_CDS_REFRESH_TIME, 0);
+  }
+
+  public void setLastFullCdsRefreshTime(long time) {
+    putLong(LAST_FULL_CDS_REFRESH_TIME, time);
+  }
+
+  public long getLastThreadSummaryCheckTime() {
+    return getLong(LAST_THREAD_SUMMARY_CHECK_TIME, 0);
+  }
+
+  public void setLastThreadSummaryCheckTime(long time) {
+    putLong(LAST_THREAD_SUMMARY_CHECK_TIME, time);
+  }
+
   public void hideUsernameReminder() {
     putBoolean(USERNAME_SHOW_REMINDER, false);
   }
@@ -6,6 +6,7 @@ import android.text.TextUtils;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import org.thoughtcrime.securesms.backup.BackupChain;
 import org.thoughtcrime.securesms.webrtc.CallBandwidthMode;
 
 public final class SettingsValues extends SignalStoreValues {
@@ -17,6 +18,7 @@ public final class SettingsValues extends SignalStoreValues {
 
   private static final String SIGNAL_BACKUP_DIRECTORY        = "settings.signal.backup.directory";
   private static final String SIGNAL_LATEST_BACKUP_DIRECTORY = "settings.signal.backup.directory,latest";
+  private static final String SIGNAL_BACKUP_CHAIN            = "settings.signal.backup.chain";
 
   private static final String CALL_BANDWIDTH_MODE = "settings.signal.call.bandwidth.mode";
 
@@ -91,6 +93,17 @@ public final class SettingsValues extends SignalStoreValues {
     putString(SIGNAL_BACKUP_DIRECTORY, null);
   }
 
+  /**
+   * The chain that the next local backup can be added to, if any.
+   */
+  public @Nullable BackupChain getBackupChain() {
+    return BackupChain.deserialize(getString(SIGNAL_BACKUP_CHAIN, null));
+  }
+
+  public void setBackupChain(@Nullable BackupChain chain) {
+    putString(SIGNAL_BACKUP_CHAIN, chain != null ? chain.serialize() : null);
+  }
+
   public void setCallBandwidthMode(@NonNull CallBandwidthMode callBandwidthMode) {
     putInteger(CALL_BANDWIDTH_MODE, callBandwidthMode.getCode());
   }
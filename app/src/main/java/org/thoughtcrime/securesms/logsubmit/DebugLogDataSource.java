@@ -0,0 +1,182 @@
+package org.thoughtcrime.securesms.logsubmit;
+
+import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import org.signal.paging.KeyedPagedDataSource;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Pages through a {@link StreamingLogLines}, minus whatever lines the user has deleted. While a
+ * search is active, pages through the matching lines instead, which are held in memory.
+ *
+ * Keyed by line ID, so that deletions can be applied in place with
+ * {@link org.signal.paging.PagingController#onDataItemRemoved(Object)}.
+ */
+final class DebugLogDataSource implements KeyedPagedDataSource<Long, LogLine>, LogLineSource {
+
+  private final StreamingLogLines lines;
+  private final TreeSet<Long>     deleted;
+
+  private List<LogLine> matches;
+
+  DebugLogDataSource(@NonNull StreamingLogLines lines) {
+    this.lines   = lines;
+    this.deleted = new TreeSet<>();
+  }
+
+  @MainThread
+  synchronized void delete(long id) {
+    deleted.add(id);
+
+    if (matches != null) {
+      for (int i = 0; i < matches.size(); i++) {
+        if (matches.get(i).getId() == id) {
+          matches.remove(i);
+          break;
+        }
+      }
+    }
+  }
+
+  /**
+   * @param matches The lines to show instead of the full log, or null to show the full log again.
+   */
+  synchronized void setMatches(@Nullable List<LogLine> matches) {
+    this.matches = matches != null ? new ArrayList<>(matches) : null;
+  }
+
+  /**
+   * @return All of the (non-deleted) lines containing the query, ignoring case, or null if the
+   *         search was canceled.
+   */
+  @WorkerThread
+  @Nullable List<LogLine> search(@NonNull String query, @NonNull CancellationSignal cancellationSignal) throws IOException {
+    String        lowerQuery = query.toLowerCase(Locale.ROOT);
+    Set<Long>     skipped    = getDeletedSnapshot();
+    List<LogLine> found      = new ArrayList<>();
+
+    lines.forEach(line -> {
+      if (cancellationSignal.isCanceled()) {
+        return false;
+      }
+
+      if (!skipped.contains(line.getId()) && line.getText().toLowerCase(Locale.ROOT).contains(lowerQuery)) {
+        found.add(line);
+      }
+
+      return true;
+    });
+
+    return cancellationSignal.isCanceled() ? null : found;
+  }
+
+  @Override
+  public synchronized int size() {
+    if (matches != null) {
+      return matches.size();
+    } else {
+      return lines.size() - deleted.size();
+    }
+  }
+
+  @Override
+  public @NonNull List<LogLine> load(int start, int length, @NonNull CancellationSignal cancellationSignal) {
+    int       rawStart;
+    Set<Long> skipped;
+
+    synchronized (this) {
+      if (matches != null) {
+        int end = Math.min(matches.size(), start + length);
+        return start < end ? new ArrayList<>(matches.subList(start, end)) : new ArrayList<>();
+      }
+
+      rawStart = start;
+
+      for (long id : deleted) {
+        if (id <= rawStart) {
+          rawStart++;
+        } else {
+          break;
+        }
+      }
+
+      skipped = new HashSet<>(deleted.tailSet((long) rawStart));
+    }
+
+    List<LogLine> result = new ArrayList<>(length);
+    int           raw    = rawStart;
+
+    while (result.size() < length && raw < lines.size() && !cancellationSignal.isCanceled()) {
+      List<LogLine> chunk = lines.getLines(raw, length - result.size());
+
+      if (chunk.isEmpty()) {
+        break;
+      }
+
+      for (LogLine line : chunk) {
+        if (!skipped.contains(line.getId())) {
+          result.add(line);
+        }
+      }
+
+      raw += chunk.size();
+    }
+
+    return result;
+  }
+
+  @Override
+  public @NonNull Long getKey(@NonNull LogLine item) {
+    return item.getId();
+  }
+
+  @Override
+  public @Nullable LogLine load(@NonNull Long key) {
+    synchronized (this) {
+      if (deleted.contains(key)) {
+        return null;
+      }
+    }
+
+    return lines.getLine(key);
+  }
+
+  /**
+   * Visits the lines currently being shown: the search results if there's an active search,
+   * otherwise the full log.
+   */
+  @Override
+  public void forEach(@NonNull Visitor visitor) throws IOException {
+    List<LogLine> currentMatches;
+    Set<Long>     skipped;
+
+    synchronized (this) {
+      currentMatches = matches != null ? new ArrayList<>(matches) : null;
+      skipped        = new HashSet<>(deleted);
+    }
+
+    if (currentMatches != null) {
+      for (LogLine line : currentMatches) {
+        if (!visitor.visit(line)) {
+          return;
+        }
+      }
+    } else {
+      lines.forEach(line -> skipped.contains(line.getId()) || visitor.visit(line));
+    }
+  }
+
+  private synchronized @NonNull Set<Long> getDeletedSnapshot() {
+    return new HashSet<>(deleted);
+  }
+}
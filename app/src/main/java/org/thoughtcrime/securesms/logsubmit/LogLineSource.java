@@ -0,0 +1,26 @@
+package org.thoughtcrime.securesms.logsubmit;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+
+import java.io.IOException;
+
+/**
+ * A sequence of {@link LogLine}s that can be walked more than once without holding all of them in
+ * memory.
+ */
+public interface LogLineSource {
+
+  /**
+   * Visits each line in order until there are no more, or the visitor asks to stop.
+   */
+  @WorkerThread
+  void forEach(@NonNull Visitor visitor) throws IOException;
+
+  interface Visitor {
+    /**
+     * @return False to stop visiting lines.
+     */
+    boolean visit(@NonNull LogLine line) throws IOException;
+  }
+}
@@ -0,0 +1,20 @@
+package org.thoughtcrime.securesms.logsubmit;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+
+import org.thoughtcrime.securesms.messages.DecryptionMetrics;
+
+public class LogSectionDecryption implements LogSection {
+
+  @Override
+  public @NonNull String getTitle() {
+    return "DECRYPTION";
+  }
+
+  @Override
+  public @NonNull CharSequence getContent(@NonNull Context context) {
+    return DecryptionMetrics.getInstance().getDebugInfo();
+  }
+}
@@ -3,9 +3,16 @@ package org.thoughtcrime.securesms.logsubmit;
 import android.content.Context;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+
+import org.signal.core.util.tracing.Tracer;
+
+import java.util.concurrent.TimeUnit;
 
 public class LogSectionTrace implements LogSection {
 
+  private static final long TRACE_DURATION_MINUTES = 5;
+
   @Override
   public @NonNull String getTitle() {
     return "TRACE";
@@ -15,4 +22,12 @@ public class LogSectionTrace implements LogSection {
   public @NonNull CharSequence getContent(@NonNull Context context) {
     return LogStyleParser.TRACE_PLACEHOLDER;
   }
+
+  /**
+   * @return The last few minutes of traces, to be uploaded alongside the log.
+   */
+  @WorkerThread
+  public static @NonNull byte[] getRecentTrace() {
+    return Tracer.getInstance().serialize(TRACE_DURATION_MINUTES, TimeUnit.MINUTES);
+  }
 }
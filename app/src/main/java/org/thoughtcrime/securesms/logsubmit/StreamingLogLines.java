@@ -0,0 +1,183 @@
+package org.thoughtcrime.securesms.logsubmit;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import org.signal.core.util.logging.Log;
+import org.signal.core.util.logging.PersistentLogReader;
+import org.thoughtcrime.securesms.logsubmit.util.Scrubber;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * All of the lines in a debug log: a handful of in-memory sections followed by the persistent logs,
+ * which are read from disk on demand rather than held in memory.
+ *
+ * Creating one makes a single pass over the persistent logs to count the lines and remember where
+ * every {@link #CHECKPOINT_INTERVAL}th one starts, so that any line can be found again with a seek
+ * and a short read. Lines are only scrubbed and styled as they're read.
+ */
+public final class StreamingLogLines implements LogLineSource {
+
+  private static final String TAG = Log.tag(StreamingLogLines.class);
+
+  private static final int CHECKPOINT_INTERVAL = 500;
+
+  private final List<LogLine>                      header;
+  private final PersistentLogReader                reader;
+  private final List<PersistentLogReader.Position> checkpoints;
+  private final int                                logLineCount;
+  private final int                                longestLine;
+
+  private StreamingLogLines(@NonNull List<LogLine> header,
+                            @Nullable PersistentLogReader reader,
+                            @NonNull List<PersistentLogReader.Position> checkpoints,
+                            int logLineCount,
+                            int longestLine)
+  {
+    this.header       = header;
+    this.reader       = reader;
+    this.checkpoints  = checkpoints;
+    this.logLineCount = logLineCount;
+    this.longestLine  = longestLine;
+  }
+
+  /**
+   * @param header Lines to show before the persistent logs. Their IDs must be their positions.
+   * @param reader A reader over the persistent logs, if they could be opened. Lines logged after
+   *               this call won't be included. The reader holds its files open, so the checkpoints
+   *               stay valid, and every walk over the lines sees the same ones, even if the logs
+   *               are rotated in the meantime.
+   */
+  @WorkerThread
+  static @NonNull StreamingLogLines create(@NonNull List<LogLine> header, @Nullable PersistentLogReader reader) {
+    long startTime = System.currentTimeMillis();
+
+    List<PersistentLogReader.Position> checkpoints = new ArrayList<>();
+    int                                count       = 0;
+    int                                longest     = 0;
+
+    for (LogLine line : header) {
+      longest = Math.max(longest, line.getText().length());
+    }
+
+    if (reader != null) {
+      try {
+        while (true) {
+          PersistentLogReader.Position position = reader.getPosition();
+          String                       line     = reader.readLine();
+
+          if (line == null) break;
+
+          if (count % CHECKPOINT_INTERVAL == 0) {
+            checkpoints.add(position);
+          }
+
+          longest = Math.max(longest, line.length());
+          count++;
+        }
+      } catch (IOException e) {
+        Log.w(TAG, "Failed to read all of the logs. Only showing the first " + count + " lines.", e);
+      }
+    }
+
+    Log.d(TAG, "Indexed " + count + " lines in " + (System.currentTimeMillis() - startTime) + " ms");
+
+    return new StreamingLogLines(Collections.unmodifiableList(header), reader, checkpoints, count, longest);
+  }
+
+  public int size() {
+    return header.size() + logLineCount;
+  }
+
+  /**
+   * The length of the longest line, before scrubbing.
+   */
+  public int getLongestLine() {
+    return longestLine;
+  }
+
+  /**
+   * @return Up to {@code length} lines starting at {@code start}. Fewer may be returned if the logs
+   *         couldn't be read.
+   */
+  @WorkerThread
+  synchronized @NonNull List<LogLine> getLines(int start, int length) {
+    int           end   = Math.min(size(), start + length);
+    List<LogLine> lines = new ArrayList<>(Math.max(0, end - start));
+    int           i     = start;
+
+    for (; i < end && i < header.size(); i++) {
+      lines.add(header.get(i));
+    }
+
+    if (i >= end || reader == null) {
+      return lines;
+    }
+
+    try {
+      int logIndex   = i - header.size();
+      int checkpoint = logIndex / CHECKPOINT_INTERVAL;
+
+      reader.seek(checkpoints.get(checkpoint));
+
+      for (int skip = logIndex - checkpoint * CHECKPOINT_INTERVAL; skip > 0; skip--) {
+        reader.readLine();
+      }
+
+      for (; i < end; i++) {
+        String text = reader.readLine();
+
+        if (text == null) break;
+
+        lines.add(toLogLine(i, text));
+      }
+    } catch (IOException e) {
+      Log.w(TAG, "Failed to read lines starting at " + i, e);
+    }
+
+    return lines;
+  }
+
+  @WorkerThread
+  @Nullable LogLine getLine(long id) {
+    List<LogLine> lines = getLines((int) id, 1);
+    return lines.isEmpty() ? null : lines.get(0);
+  }
+
+  @Override
+  public void forEach(@NonNull Visitor visitor) throws IOException {
+    for (LogLine line : header) {
+      if (!visitor.visit(line)) {
+        return;
+      }
+    }
+
+    if (reader == null) {
+      return;
+    }
+
+    PersistentLogReader walker = reader.duplicate();
+
+    try {
+      for (int i = header.size(); i < size(); i++) {
+        String text = walker.readLine();
+
+        if (text == null || !visitor.visit(toLogLine(i, text))) {
+          return;
+        }
+      }
+    } finally {
+      walker.close();
+    }
+  }
+
+  private static @NonNull LogLine toLogLine(int id, @NonNull String text) {
+    String scrubbed = Scrubber.scrub(text).toString();
+    return new CompleteLogLine(id, new SimpleLogLine(scrubbed, LogStyleParser.parseStyle(scrubbed), LogStyleParser.parsePlaceholderType(scrubbed)));
+  }
+}
@@ -183,7 +183,10 @@ public class SubmitDebugLogActivity extends BaseActivity implements SubmitDebugL
   private void initViewModel() {
     this.viewModel = ViewModelProviders.of(this, new SubmitDebugLogViewModel.Factory()).get(SubmitDebugLogViewModel.class);
 
+    adapter.setPagingController(viewModel.getPagingController());
+
     viewModel.getLines().observe(this, this::presentLines);
+    viewModel.getLongestLine().observe(this, adapter::setLongestLine);
     viewModel.getMode().observe(this, this::presentMode);
   }
 
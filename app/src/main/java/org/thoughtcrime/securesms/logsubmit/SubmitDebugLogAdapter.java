@@ -7,11 +7,11 @@ import android.view.ViewGroup;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.core.content.ContextCompat;
 import androidx.recyclerview.widget.RecyclerView;
 
-import com.annimon.stream.Stream;
-
+import org.signal.paging.PagingController;
 import org.thoughtcrime.securesms.R;
 import org.thoughtcrime.securesms.components.ListenableHorizontalScrollView;
 
@@ -27,20 +27,14 @@ public class SubmitDebugLogAdapter extends RecyclerView.Adapter<SubmitDebugLogAd
   private final ScrollManager scrollManager;
   private final Listener      listener;
 
-  private boolean editing;
-  private int     longestLine;
+  private boolean          editing;
+  private int              longestLine;
+  private PagingController pagingController;
 
   public SubmitDebugLogAdapter(@NonNull Listener listener) {
     this.listener      = listener;
     this.lines         = new ArrayList<>();
     this.scrollManager = new ScrollManager();
-
-    setHasStableIds(true);
-  }
-
-  @Override
-  public long getItemId(int position) {
-    return lines.get(position).getId();
   }
 
   @Override
@@ -50,7 +44,17 @@ public class SubmitDebugLogAdapter extends RecyclerView.Adapter<SubmitDebugLogAd
 
   @Override
   public void onBindViewHolder(@NonNull LineViewHolder holder, int position) {
-    holder.bind(lines.get(position), longestLine, editing, scrollManager, listener);
+    if (pagingController != null) {
+      pagingController.onDataNeededAroundIndex(position);
+    }
+
+    LogLine line = lines.get(position);
+
+    if (line != null) {
+      holder.bind(line, longestLine, editing, scrollManager, listener);
+    } else {
+      holder.bindPlaceholder(scrollManager);
+    }
   }
 
   @Override
@@ -63,16 +67,25 @@ public class SubmitDebugLogAdapter extends RecyclerView.Adapter<SubmitDebugLogAd
     return lines.size();
   }
 
+  /**
+   * @param lines The lines to show, where lines that haven't been loaded yet are null.
+   */
   public void setLines(@NonNull List<LogLine> lines) {
     this.lines.clear();
     this.lines.addAll(lines);
 
-    this.longestLine = Stream.of(lines).reduce(0, (currentMax, line) -> Math.max(currentMax, line.getText().length()));
-    this.longestLine = Math.min(longestLine, MAX_LINE_LENGTH);
+    notifyDataSetChanged();
+  }
 
+  public void setLongestLine(int longestLine) {
+    this.longestLine = Math.min(longestLine, MAX_LINE_LENGTH);
     notifyDataSetChanged();
   }
 
+  public void setPagingController(@Nullable PagingController pagingController) {
+    this.pagingController = pagingController;
+  }
+
   public void setEditing(boolean editing) {
     this.editing = editing;
     notifyDataSetChanged();
@@ -155,6 +168,13 @@ public class SubmitDebugLogAdapter extends RecyclerView.Adapter<SubmitDebugLogAd
       }
     }
 
+    void bindPlaceholder(@NonNull ScrollManager scrollManager) {
+      text.setText("");
+      text.setOnClickListener(null);
+      scrollView.setOnScrollListener(null);
+      scrollManager.unsubscribe(this);
+    }
+
     void unbind(@NonNull ScrollManager scrollManager) {
       text.setOnClickListener(null);
       scrollManager.unsubscribe(this);
@@ -13,6 +13,8 @@ import org.json.JSONException;
 import org.json.JSONObject;
 import org.signal.core.util.concurrent.SignalExecutors;
 import org.signal.core.util.logging.Log;
+import org.signal.core.util.logging.PersistentLogReader;
+import org.thoughtcrime.securesms.ApplicationContext;
 import org.thoughtcrime.securesms.dependencies.ApplicationDependencies;
 import org.thoughtcrime.securesms.logsubmit.util.Scrubber;
 import org.thoughtcrime.securesms.net.StandardUserAgentInterceptor;
@@ -33,6 +35,8 @@ import okhttp3.Request;
 import okhttp3.RequestBody;
 import okhttp3.Response;
 import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.BufferedSink;
 
 /**
  * Handles retrieving, scrubbing, and uploading of all debug logs.
@@ -40,6 +44,9 @@ import okhttp3.ResponseBody;
  * Adding a new log section:
  * - Create a new {@link LogSection}.
  * - Add it to {@link #SECTIONS}. The order of the list is the order the sections are displayed.
+ *
+ * The persistent logs always come last, and are streamed from disk rather than being read into
+ * memory. See {@link StreamingLogLines}.
  */
 public class SubmitDebugLogRepository {
 
@@ -49,11 +56,13 @@ public class SubmitDebugLogRepository {
   private static final int    MIN_DECORATIONS  = 5;
   private static final int    SECTION_SPACING  = 3;
   private static final String API_ENDPOINT     = "https://debuglogs.org";
+  private static final String LOGGER_TITLE     = "LOGGER";
 
   /** Ordered list of log sections. */
   private static final List<LogSection> SECTIONS = new ArrayList<LogSection>() {{
     add(new LogSectionSystemInfo());
     add(new LogSectionJobs());
+    add(new LogSectionDecryption());
     add(new LogSectionConstraints());
     if (Build.VERSION.SDK_INT >= 28) {
       add(new LogSectionPower());
@@ -67,7 +76,6 @@ public class SubmitDebugLogRepository {
     add(new LogSectionThreads());
     add(new LogSectionBlockedThreads());
     add(new LogSectionLogcat());
-    add(new LogSectionLogger());
   }};
 
   private final Context         context;
@@ -78,44 +86,32 @@ public class SubmitDebugLogRepository {
     this.executor = SignalExecutors.SERIAL;
   }
 
-  public void getLogLines(@NonNull Callback<List<LogLine>> callback) {
+  public void getLogLines(@NonNull Callback<StreamingLogLines> callback) {
     executor.execute(() -> callback.onResult(getLogLinesInternal()));
   }
 
-  public void submitLog(@NonNull List<LogLine> lines, Callback<Optional<String>> callback) {
+  public void submitLog(@NonNull LogLineSource lines, Callback<Optional<String>> callback) {
     SignalExecutors.UNBOUNDED.execute(() -> callback.onResult(submitLogInternal(lines, null)));
   }
 
-  public void submitLog(@NonNull List<LogLine> lines, @Nullable byte[] trace, Callback<Optional<String>> callback) {
+  public void submitLog(@NonNull LogLineSource lines, @Nullable byte[] trace, Callback<Optional<String>> callback) {
     SignalExecutors.UNBOUNDED.execute(() -> callback.onResult(submitLogInternal(lines, trace)));
   }
 
   @WorkerThread
-  private @NonNull Optional<String> submitLogInternal(@NonNull List<LogLine> lines, @Nullable byte[] trace) {
+  private @NonNull Optional<String> submitLogInternal(@NonNull LogLineSource lines, @Nullable byte[] trace) {
     String traceUrl = null;
     if (trace != null) {
       try {
-        traceUrl = uploadContent("application/octet-stream", trace);
+        traceUrl = uploadContent("application/octet-stream", RequestBody.create(MediaType.parse("application/octet-stream"), trace));
       } catch (IOException e) {
         Log.w(TAG, "Error during trace upload.", e);
         return Optional.absent();
       }
     }
 
-    StringBuilder bodyBuilder = new StringBuilder();
-    for (LogLine line : lines) {
-      switch (line.getPlaceholderType()) {
-        case NONE:
-          bodyBuilder.append(line.getText()).append('\n');
-          break;
-        case TRACE:
-          bodyBuilder.append(traceUrl).append('\n');
-          break;
-      }
-    }
-
     try {
-      String logUrl = uploadContent("text/plain", bodyBuilder.toString().getBytes());
+      String logUrl = uploadContent("text/plain", new LogLinesRequestBody(lines, traceUrl));
       return Optional.of(logUrl);
     } catch (IOException e) {
       Log.w(TAG, "Error during log upload.", e);
@@ -124,7 +120,7 @@ public class SubmitDebugLogRepository {
   }
 
   @WorkerThread
-  private @NonNull String uploadContent(@NonNull String contentType, @NonNull byte[] content) throws IOException {
+  private @NonNull String uploadContent(@NonNull String contentType, @NonNull RequestBody content) throws IOException {
     try {
       OkHttpClient client   = new OkHttpClient.Builder().addInterceptor(new StandardUserAgentInterceptor()).dns(SignalServiceNetworkAccess.DNS).build();
       Response     response = client.newCall(new Request.Builder().url(API_ENDPOINT).get().build()).execute();
@@ -148,7 +144,7 @@ public class SubmitDebugLogRepository {
         post.addFormDataPart(key, fields.getString(key));
       }
 
-      post.addFormDataPart("file", "file", RequestBody.create(MediaType.parse(contentType), content));
+      post.addFormDataPart("file", "file", content);
 
       Response postResponse = client.newCall(new Request.Builder().url(url).post(post.build()).build()).execute();
 
@@ -164,34 +160,42 @@ public class SubmitDebugLogRepository {
   }
 
   @WorkerThread
-  private @NonNull List<LogLine> getLogLinesInternal() {
+  private @NonNull StreamingLogLines getLogLinesInternal() {
     long startTime = System.currentTimeMillis();
 
-    int maxTitleLength = Stream.of(SECTIONS).reduce(0, (max, section) -> Math.max(max, section.getTitle().length()));
+    int maxTitleLength = Stream.of(SECTIONS).reduce(LOGGER_TITLE.length(), (max, section) -> Math.max(max, section.getTitle().length()));
 
     List<LogLine> allLines = new ArrayList<>();
 
     for (LogSection section : SECTIONS) {
       List<LogLine> lines = getLinesForSection(context, section, maxTitleLength);
 
-      if (SECTIONS.indexOf(section) != SECTIONS.size() - 1) {
-        for (int i = 0; i < SECTION_SPACING; i++) {
-          lines.add(SimpleLogLine.EMPTY);
-        }
+      for (int i = 0; i < SECTION_SPACING; i++) {
+        lines.add(SimpleLogLine.EMPTY);
       }
 
       allLines.addAll(lines);
     }
 
+    allLines.add(new SimpleLogLine(formatTitle(LOGGER_TITLE, maxTitleLength), LogLine.Style.NONE, LogLine.Placeholder.NONE));
+
+    PersistentLogReader reader = ApplicationContext.getInstance(context).getPersistentLogger().getLogReader();
+
+    if (reader == null) {
+      allLines.add(new SimpleLogLine("Unable to retrieve logs.", LogLine.Style.NONE, LogLine.Placeholder.NONE));
+    }
+
     List<LogLine> withIds = new ArrayList<>(allLines.size());
 
     for (int i = 0; i < allLines.size(); i++) {
       withIds.add(new CompleteLogLine(i, allLines.get(i)));
     }
 
+    StreamingLogLines lines = StreamingLogLines.create(withIds, reader);
+
     Log.d(TAG, "Total time: " + (System.currentTimeMillis() - startTime) + " ms");
 
-    return withIds;
+    return lines;
   }
 
   @WorkerThread
@@ -238,4 +242,71 @@ public class SubmitDebugLogRepository {
   public interface Callback<E> {
     void onResult(E result);
   }
+
+  /**
+   * Writes lines straight to the request as it's sent, rather than building the whole log up in
+   * memory first. Since the upload needs a content length, the lines are walked twice: once to
+   * measure them, and once to send them.
+   */
+  private static final class LogLinesRequestBody extends RequestBody {
+
+    private static final int COUNTING_BUFFER_SIZE = 16 * 1024;
+
+    private final LogLineSource lines;
+    private final String        traceUrl;
+
+    private long contentLength = -1;
+
+    private LogLinesRequestBody(@NonNull LogLineSource lines, @Nullable String traceUrl) {
+      this.lines    = lines;
+      this.traceUrl = traceUrl;
+    }
+
+    @Override
+    public @Nullable MediaType contentType() {
+      return MediaType.parse("text/plain");
+    }
+
+    @Override
+    public long contentLength() throws IOException {
+      if (contentLength < 0) {
+        Buffer buffer = new Buffer();
+        long[] total  = new long[1];
+
+        lines.forEach(line -> {
+          writeLine(buffer, line);
+
+          if (buffer.size() > COUNTING_BUFFER_SIZE) {
+            total[0] += buffer.size();
+            buffer.clear();
+          }
+
+          return true;
+        });
+
+        contentLength = total[0] + buffer.size();
+      }
+
+      return contentLength;
+    }
+
+    @Override
+    public void writeTo(@NonNull BufferedSink sink) throws IOException {
+      lines.forEach(line -> {
+        writeLine(sink, line);
+        return true;
+      });
+    }
+
+    private void writeLine(@NonNull BufferedSink sink, @NonNull LogLine line) throws IOException {
+      switch (line.getPlaceholderType()) {
+        case NONE:
+          sink.writeUtf8(line.getText()).writeByte('\n');
+          break;
+        case TRACE:
+          sink.writeUtf8(String.valueOf(traceUrl)).writeByte('\n');
+          break;
+      }
+    }
+  }
 }
@@ -5,45 +5,85 @@ import android.text.TextUtils;
 import androidx.annotation.NonNull;
 import androidx.lifecycle.LiveData;
 import androidx.lifecycle.MutableLiveData;
+import androidx.lifecycle.Transformations;
 import androidx.lifecycle.ViewModel;
 import androidx.lifecycle.ViewModelProvider;
 
-import com.annimon.stream.Stream;
-
-import org.signal.core.util.tracing.Tracer;
-import org.thoughtcrime.securesms.dependencies.ApplicationDependencies;
-import org.thoughtcrime.securesms.util.DefaultValueLiveData;
+import org.signal.core.util.concurrent.SignalExecutors;
+import org.signal.core.util.logging.Log;
+import org.signal.paging.PagedData;
+import org.signal.paging.PagedDataSource;
+import org.signal.paging.PagingConfig;
+import org.signal.paging.PagingController;
+import org.signal.paging.ProxyPagingController;
 import org.whispersystems.libsignal.util.guava.Optional;
 
-import java.util.Collections;
+import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class SubmitDebugLogViewModel extends ViewModel {
 
+  private static final String TAG = Log.tag(SubmitDebugLogViewModel.class);
+
+  private static final ExecutorService SEARCH_EXECUTOR = SignalExecutors.newCachedSingleThreadExecutor("signal-DebugLogSearch");
+
   private final SubmitDebugLogRepository            repo;
-  private final DefaultValueLiveData<List<LogLine>> lines;
+  private final MutableLiveData<PagedData<LogLine>> pagedData;
+  private final LiveData<List<LogLine>>             lines;
+  private final MutableLiveData<Integer>            longestLine;
   private final MutableLiveData<Mode>               mode;
+  private final ProxyPagingController               pagingController;
+  private final AtomicInteger                       searchGeneration;
 
-  private List<LogLine> sourceLines;
-  private byte[]        trace;
+  private DebugLogDataSource dataSource;
+  private byte[]             trace;
 
   private SubmitDebugLogViewModel() {
-    this.repo  = new SubmitDebugLogRepository();
-    this.lines = new DefaultValueLiveData<>(Collections.emptyList());
-    this.mode  = new MutableLiveData<>();
-    this.trace = Tracer.getInstance().serialize();
+    this.repo             = new SubmitDebugLogRepository();
+    this.pagedData        = new MutableLiveData<>();
+    this.longestLine      = new MutableLiveData<>();
+    this.mode             = new MutableLiveData<>();
+    this.pagingController = new ProxyPagingController();
+    this.searchGeneration = new AtomicInteger();
+
+    this.lines = Transformations.switchMap(pagedData, data -> {
+      pagingController.set(data.getController());
+      return data.getData();
+    });
 
     repo.getLogLines(result -> {
-      sourceLines = result;
+      PagingConfig config = new PagingConfig.Builder()
+                                            .setPageSize(100)
+                                            .setBufferPages(3)
+                                            .build();
+
+      dataSource = new DebugLogDataSource(result);
+      trace      = LogSectionTrace.getRecentTrace();
+
+      longestLine.postValue(result.getLongestLine());
+      pagedData.postValue(PagedData.create(dataSource, config));
       mode.postValue(Mode.NORMAL);
-      lines.postValue(sourceLines);
     });
   }
 
+  /**
+   * The lines currently being shown. Lines that haven't been loaded yet are null -- ask for them
+   * with {@link #getPagingController()}.
+   */
   @NonNull LiveData<List<LogLine>> getLines() {
     return lines;
   }
 
+  @NonNull LiveData<Integer> getLongestLine() {
+    return longestLine;
+  }
+
+  @NonNull PagingController getPagingController() {
+    return pagingController;
+  }
+
   @NonNull LiveData<Mode> getMode() {
     return mode;
   }
@@ -53,7 +93,7 @@ public class SubmitDebugLogViewModel extends ViewModel {
 
     MutableLiveData<Optional<String>> result = new MutableLiveData<>();
 
-    repo.submitLog(lines.getValue(), trace, value -> {
+    repo.submitLog(dataSource, trace, value -> {
       mode.postValue(Mode.NORMAL);
       result.postValue(value);
     });
@@ -62,18 +102,43 @@ public class SubmitDebugLogViewModel extends ViewModel {
   }
 
   void onQueryUpdated(@NonNull String query) {
+    if (dataSource == null) {
+      return;
+    }
+
     if (TextUtils.isEmpty(query)) {
-      lines.postValue(sourceLines);
-    } else {
-      List<LogLine> filtered = Stream.of(sourceLines)
-                                     .filter(l -> l.getText().toLowerCase().contains(query.toLowerCase()))
-                                     .toList();
-      lines.postValue(filtered);
+      clearSearch();
+      return;
     }
+
+    DebugLogDataSource                 source     = dataSource;
+    int                                generation = searchGeneration.incrementAndGet();
+    PagedDataSource.CancellationSignal stale      = () -> searchGeneration.get() != generation;
+
+    SEARCH_EXECUTOR.execute(() -> {
+      if (stale.isCanceled()) {
+        return;
+      }
+
+      try {
+        List<LogLine> matches = source.search(query, stale);
+
+        synchronized (searchGeneration) {
+          if (matches != null && !stale.isCanceled()) {
+            source.setMatches(matches);
+            pagingController.onDataInvalidated();
+          }
+        }
+      } catch (IOException e) {
+        Log.w(TAG, "Failed to search logs.", e);
+      }
+    });
   }
 
   void onSearchClosed() {
-    lines.postValue(sourceLines);
+    if (dataSource != null) {
+      clearSearch();
+    }
   }
 
   void onEditButtonPressed() {
@@ -85,12 +150,8 @@ public class SubmitDebugLogViewModel extends ViewModel {
   }
 
   void onLogDeleted(@NonNull LogLine line) {
-    sourceLines.remove(line);
-
-    List<LogLine> logs = lines.getValue();
-    logs.remove(line);
-
-    lines.postValue(logs);
+    dataSource.delete(line.getId());
+    pagingController.onDataItemRemoved(line.getId());
   }
 
   boolean onBackPressed() {
@@ -102,6 +163,14 @@ public class SubmitDebugLogViewModel extends ViewModel {
     }
   }
 
+  private void clearSearch() {
+    synchronized (searchGeneration) {
+      searchGeneration.incrementAndGet();
+      dataSource.setMatches(null);
+      pagingController.onDataInvalidated();
+    }
+  }
+
   enum Mode {
     NORMAL, EDIT, SUBMITTING
   }
@@ -0,0 +1,116 @@
+package org.thoughtcrime.securesms.messages;
+
+import androidx.annotation.NonNull;
+
+import org.thoughtcrime.securesms.jobs.PushDecryptMessageJob;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps track of how quickly envelopes are decrypted, and how many are waiting in each of the
+ * {@link PushDecryptMessageJob} queues. Everything is counted from when the process started, and is
+ * only intended for the debug log.
+ */
+public final class DecryptionMetrics {
+
+  private static final DecryptionMetrics INSTANCE = new DecryptionMetrics();
+
+  private static final int WINDOW_SECONDS = 60;
+
+  private final Map<String, QueueStats> queues        = new TreeMap<>();
+  private final long[]                  buckets       = new long[WINDOW_SECONDS];
+  private final long[]                  bucketSeconds = new long[WINDOW_SECONDS];
+
+  private long peakPerSecond;
+
+  public static @NonNull DecryptionMetrics getInstance() {
+    return INSTANCE;
+  }
+
+  private DecryptionMetrics() {}
+
+  public synchronized void onEnqueued(@NonNull String queue) {
+    getStats(queue).enqueued++;
+  }
+
+  public synchronized void onDecrypted(@NonNull String queue, long durationMs) {
+    QueueStats stats = getStats(queue);
+
+    stats.decrypted++;
+    stats.decryptTimeMs += durationMs;
+
+    long second = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis());
+    int  index  = (int) (second % WINDOW_SECONDS);
+
+    if (bucketSeconds[index] != second) {
+      bucketSeconds[index] = second;
+      buckets[index]       = 0;
+    }
+
+    buckets[index]++;
+    peakPerSecond = Math.max(peakPerSecond, buckets[index]);
+  }
+
+  public synchronized void onDropped(@NonNull String queue) {
+    getStats(queue).dropped++;
+  }
+
+  public synchronized @NonNull String getDebugInfo() {
+    long          now      = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis());
+    long          inWindow = 0;
+    StringBuilder out      = new StringBuilder();
+
+    for (int i = 0; i < WINDOW_SECONDS; i++) {
+      if (now - bucketSeconds[i] < WINDOW_SECONDS) {
+        inWindow += buckets[i];
+      }
+    }
+
+    out.append(String.format(Locale.US, "Envelopes/sec (last %d sec): %.1f\n", WINDOW_SECONDS, (double) inWindow / WINDOW_SECONDS));
+    out.append("Envelopes/sec (peak)       : ").append(peakPerSecond).append('\n');
+    out.append('\n');
+
+    for (String queue : PushDecryptMessageJob.getAllQueues()) {
+      QueueStats stats = getStats(queue);
+      long       mean  = stats.decrypted > 0 ? stats.decryptTimeMs / stats.decrypted : 0;
+
+      out.append(String.format(Locale.US, "%-24s backlog: %4d | decrypted: %6d | dropped: %3d | mean: %4d ms\n",
+                               queue,
+                               stats.getBacklog(),
+                               stats.decrypted,
+                               stats.dropped,
+                               mean));
+    }
+
+    return out.toString();
+  }
+
+  private @NonNull QueueStats getStats(@NonNull String queue) {
+    QueueStats stats = queues.get(queue);
+
+    if (stats == null) {
+      stats = new QueueStats();
+      queues.put(queue, stats);
+    }
+
+    return stats;
+  }
+
+  private static final class QueueStats {
+    private long enqueued;
+    private long decrypted;
+    private long dropped;
+    private long decryptTimeMs;
+
+    /**
+     * Jobs that were persisted by a previous process aren't counted as enqueued, so this can only be
+     * a lower bound.
+     */
+    long getBacklog() {
+      return Math.max(0, enqueued - decrypted - dropped);
+    }
+  }
+}
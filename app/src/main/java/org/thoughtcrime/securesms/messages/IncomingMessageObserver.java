@@ -21,7 +21,6 @@ import org.signal.core.util.logging.Log;
 import org.thoughtcrime.securesms.R;
 import org.thoughtcrime.securesms.dependencies.ApplicationDependencies;
 import org.thoughtcrime.securesms.jobmanager.impl.NetworkConstraint;
-import org.thoughtcrime.securesms.jobs.PushDecryptDrainedJob;
 import org.thoughtcrime.securesms.messages.IncomingMessageProcessor.Processor;
 import org.thoughtcrime.securesms.notifications.NotificationChannels;
 import org.thoughtcrime.securesms.push.SignalServiceNetworkAccess;
@@ -219,7 +218,9 @@ public class IncomingMessageObserver {
               if (!result.isPresent() && !networkDrained) {
                 Log.i(TAG, "Network was newly-drained. Enqueuing a job to listen for decryption draining.");
                 networkDrained = true;
-                ApplicationDependencies.getJobManager().add(new PushDecryptDrainedJob());
+                try (Processor processor = ApplicationDependencies.getIncomingMessageProcessor().acquire()) {
+                  processor.enqueueDecryptionsDrainedJob();
+                }
               }
             } catch (TimeoutException e) {
               Log.w(TAG, "Application level read timeout...");
@@ -12,17 +12,32 @@ import org.thoughtcrime.securesms.database.MessageDatabase.SyncMessageId;
 import org.thoughtcrime.securesms.database.MmsSmsDatabase;
 import org.thoughtcrime.securesms.database.PushDatabase;
 import org.thoughtcrime.securesms.dependencies.ApplicationDependencies;
+import org.thoughtcrime.securesms.jobmanager.Job;
 import org.thoughtcrime.securesms.jobmanager.JobManager;
+import org.thoughtcrime.securesms.jobs.MarkerJob;
+import org.thoughtcrime.securesms.jobs.PushDecryptDrainedJob;
 import org.thoughtcrime.securesms.jobs.PushDecryptMessageJob;
 import org.thoughtcrime.securesms.recipients.Recipient;
 import org.whispersystems.signalservice.api.messages.SignalServiceEnvelope;
 
 import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * The central entry point for all envelopes that have been retrieved. Envelopes must be processed
  * here to guarantee proper ordering.
+ *
+ * Envelopes with a known sender are decrypted on one of several partition queues, chosen by sender
+ * and device, so that independent sessions can be decrypted in parallel while each session stays
+ * in order. Sealed sender envelopes don't reveal their sender until they're decrypted, so they all
+ * go through {@link PushDecryptMessageJob#QUEUE}. Since the same sender can switch between the two,
+ * a {@link MarkerJob} barrier is put down whenever we switch between them, and the first envelopes
+ * on the other side depend on it.
  */
 public class IncomingMessageProcessor {
 
@@ -31,9 +46,22 @@ public class IncomingMessageProcessor {
   private final Application   context;
   private final ReentrantLock lock;
 
+  private final Set<String>  dirtyPartitionQueues;
+  private final List<String> partitionBarriers;
+
+  private boolean unidentifiedQueueDirty;
+  private String  unidentifiedBarrier;
+
   public IncomingMessageProcessor(@NonNull Application context) {
-    this.context = context;
-    this.lock    = new ReentrantLock();
+    this.context                = context;
+    this.lock                   = new ReentrantLock();
+    this.dirtyPartitionQueues   = new HashSet<>();
+    this.partitionBarriers      = new ArrayList<>();
+    this.unidentifiedQueueDirty = true;
+
+    for (int i = 0; i < PushDecryptMessageJob.PARTITION_COUNT; i++) {
+      dirtyPartitionQueues.add(PushDecryptMessageJob.getPartitionQueue(i));
+    }
   }
 
   /**
@@ -68,30 +96,52 @@ public class IncomingMessageProcessor {
      *         one was created. Otherwise null.
      */
     public @Nullable String processEnvelope(@NonNull SignalServiceEnvelope envelope) {
+      Recipient sender = null;
+
       if (envelope.hasSource()) {
-        Recipient.externalHighTrustPush(context, envelope.getSourceAddress());
+        sender = Recipient.externalHighTrustPush(context, envelope.getSourceAddress());
       }
 
       if (envelope.isReceipt()) {
         processReceipt(envelope);
         return null;
       } else if (envelope.isPreKeySignalMessage() || envelope.isSignalMessage() || envelope.isUnidentifiedSender()) {
-        return processMessage(envelope);
+        return processMessage(envelope, sender);
       } else {
         Log.w(TAG, "Received envelope of unknown type: " + envelope.getType());
         return null;
       }
     }
 
-    private @Nullable String processMessage(@NonNull SignalServiceEnvelope envelope) {
+    /**
+     * Enqueues a {@link PushDecryptDrainedJob} that will run once every envelope processed so far
+     * has been decrypted.
+     */
+    public void enqueueDecryptionsDrainedJob() {
+      addToUnidentifiedQueue(new PushDecryptDrainedJob());
+    }
+
+    private @Nullable String processMessage(@NonNull SignalServiceEnvelope envelope, @Nullable Recipient sender) {
       Log.i(TAG, "Received message " + envelope.getTimestamp() + ". Inserting in PushDatabase.");
 
       long id  = pushDatabase.insert(envelope);
 
       if (id > 0) {
-        PushDecryptMessageJob job = new PushDecryptMessageJob(context, id);
+        PushDecryptMessageJob job;
 
-        jobManager.add(job);
+        String                queue;
+
+        if (sender != null && envelope.hasSourceDevice()) {
+          queue = PushDecryptMessageJob.getPartitionQueue(sender.getId(), envelope.getSourceDevice());
+          job   = new PushDecryptMessageJob(context, id, queue);
+          addToPartitionQueue(job, queue);
+        } else {
+          queue = PushDecryptMessageJob.QUEUE;
+          job   = new PushDecryptMessageJob(context, id);
+          addToUnidentifiedQueue(job);
+        }
+
+        DecryptionMetrics.getInstance().onEnqueued(queue);
 
         return job.getId();
       } else {
@@ -100,6 +150,42 @@ public class IncomingMessageProcessor {
       }
     }
 
+    private void addToPartitionQueue(@NonNull Job job, @NonNull String queue) {
+      if (unidentifiedQueueDirty) {
+        MarkerJob barrier = new MarkerJob(PushDecryptMessageJob.QUEUE);
+        jobManager.add(barrier);
+
+        unidentifiedBarrier    = barrier.getId();
+        unidentifiedQueueDirty = false;
+      }
+
+      if (unidentifiedBarrier != null) {
+        jobManager.add(job, Collections.singletonList(unidentifiedBarrier));
+      } else {
+        jobManager.add(job);
+      }
+
+      dirtyPartitionQueues.add(queue);
+    }
+
+    private void addToUnidentifiedQueue(@NonNull Job job) {
+      if (!dirtyPartitionQueues.isEmpty()) {
+        partitionBarriers.clear();
+
+        for (String queue : dirtyPartitionQueues) {
+          MarkerJob barrier = new MarkerJob(queue);
+          jobManager.add(barrier);
+          partitionBarriers.add(barrier.getId());
+        }
+
+        dirtyPartitionQueues.clear();
+      }
+
+      jobManager.add(job, new ArrayList<>(partitionBarriers));
+
+      unidentifiedQueueDirty = true;
+    }
+
     private void processReceipt(@NonNull SignalServiceEnvelope envelope) {
       Log.i(TAG, "Received server receipt for " + envelope.getTimestamp());
       mmsSmsDatabase.incrementDeliveryReceiptCount(new SyncMessageId(Recipient.externalHighTrustPush(context, envelope.getSourceAddress()).getId(), envelope.getTimestamp()),
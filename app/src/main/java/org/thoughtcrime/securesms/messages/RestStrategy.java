@@ -45,8 +45,13 @@ public class RestStrategy extends MessageRetrievalStrategy {
         Log.d(TAG, jobCount + " PushDecryptMessageJob(s) were enqueued.");
       }
 
-      long        timeRemainingMs = blockUntilQueueDrained(PushDecryptMessageJob.QUEUE, TimeUnit.SECONDS.toMillis(10));
-      Set<String> processQueues   = queueListener.getQueues();
+      long timeRemainingMs = TimeUnit.SECONDS.toMillis(10);
+
+      for (String decryptQueue : PushDecryptMessageJob.getAllQueues()) {
+        timeRemainingMs = blockUntilQueueDrained(decryptQueue, Math.max(timeRemainingMs, 0));
+      }
+
+      Set<String> processQueues = queueListener.getQueues();
 
       Log.d(TAG, "Discovered " + processQueues.size() + " queue(s): " + processQueues);
 
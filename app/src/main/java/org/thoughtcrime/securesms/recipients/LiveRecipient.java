@@ -17,6 +17,7 @@ import org.thoughtcrime.securesms.database.GroupDatabase;
 import org.thoughtcrime.securesms.database.GroupDatabase.GroupRecord;
 import org.thoughtcrime.securesms.database.RecipientDatabase;
 import org.thoughtcrime.securesms.database.RecipientDatabase.RecipientSettings;
+import org.thoughtcrime.securesms.dependencies.ApplicationDependencies;
 import org.thoughtcrime.securesms.util.Util;
 import org.thoughtcrime.securesms.util.livedata.LiveDataUtil;
 import org.whispersystems.libsignal.util.guava.Optional;
@@ -131,16 +132,7 @@ public final class LiveRecipient {
       Log.w(TAG, "[Resolve][MAIN] " + getId(), new Throwable());
     }
 
-    Recipient       updated      = fetchAndCacheRecipientFromDisk(getId());
-    List<Recipient> participants = Stream.of(updated.getParticipants())
-                                         .filter(Recipient::isResolving)
-                                         .map(Recipient::getId)
-                                         .map(this::fetchAndCacheRecipientFromDisk)
-                                         .toList();
-
-    for (Recipient participant : participants) {
-      participant.live().set(participant);
-    }
+    Recipient updated = fetchAndCacheRecipientFromDisk(getId(), false);
 
     set(updated);
 
@@ -167,15 +159,7 @@ public final class LiveRecipient {
       Log.w(TAG, "[Refresh][MAIN] " + id, new Throwable());
     }
 
-    Recipient       recipient    = fetchAndCacheRecipientFromDisk(id);
-    List<Recipient> participants = Stream.of(recipient.getParticipants())
-                                         .map(Recipient::getId)
-                                         .map(this::fetchAndCacheRecipientFromDisk)
-                                         .toList();
-
-    for (Recipient participant : participants) {
-      participant.live().set(participant);
-    }
+    Recipient recipient = fetchAndCacheRecipientFromDisk(id, true);
 
     set(recipient);
     refreshForceNotify.postValue(new Object());
@@ -189,9 +173,13 @@ public final class LiveRecipient {
     return observableLiveDataResolved;
   }
 
-  private @NonNull Recipient fetchAndCacheRecipientFromDisk(@NonNull RecipientId id) {
+  /**
+   * @param refreshMembers If this is a group, whether every member should be read from disk. If not,
+   *                       members that are already resolved in the cache are used as-is.
+   */
+  private @NonNull Recipient fetchAndCacheRecipientFromDisk(@NonNull RecipientId id, boolean refreshMembers) {
     RecipientSettings settings = recipientDatabase.getRecipientSettings(id);
-    RecipientDetails  details  = settings.getGroupId() != null ? getGroupRecipientDetails(settings)
+    RecipientDetails  details  = settings.getGroupId() != null ? getGroupRecipientDetails(settings, refreshMembers)
                                                                : RecipientDetails.forIndividual(context, settings);
 
     Recipient recipient = new Recipient(id, details, true);
@@ -200,13 +188,15 @@ public final class LiveRecipient {
   }
 
   @WorkerThread
-  private @NonNull RecipientDetails getGroupRecipientDetails(@NonNull RecipientSettings settings) {
+  private @NonNull RecipientDetails getGroupRecipientDetails(@NonNull RecipientSettings settings, boolean refreshMembers) {
     Optional<GroupRecord> groupRecord = groupDatabase.getGroup(settings.getId());
 
     if (groupRecord.isPresent()) {
-      String          title    = groupRecord.get().getTitle();
-      List<Recipient> members  = Stream.of(groupRecord.get().getMembers()).filterNot(RecipientId::isUnknown).map(this::fetchAndCacheRecipientFromDisk).toList();
-      Optional<Long>  avatarId = Optional.absent();
+      LiveRecipientCache cache     = ApplicationDependencies.getRecipientCache();
+      String             title     = groupRecord.get().getTitle();
+      List<RecipientId>  memberIds = Stream.of(groupRecord.get().getMembers()).filterNot(RecipientId::isUnknown).toList();
+      List<Recipient>    members   = refreshMembers ? cache.refreshAll(memberIds) : cache.resolveAll(memberIds);
+      Optional<Long>     avatarId  = Optional.absent();
 
       if (groupRecord.get().hasAvatar()) {
         avatarId = Optional.of(groupRecord.get().getAvatarId());
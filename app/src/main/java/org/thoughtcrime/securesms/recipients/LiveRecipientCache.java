@@ -1,74 +1,92 @@
 package org.thoughtcrime.securesms.recipients;
 
-import android.annotation.SuppressLint;
 import android.content.Context;
 
 import androidx.annotation.AnyThread;
 import androidx.annotation.GuardedBy;
 import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
 
+import com.annimon.stream.Stream;
+
+import org.signal.core.util.ConcurrentLruCache;
 import org.signal.core.util.concurrent.SignalExecutors;
 import org.signal.core.util.logging.Log;
 import org.thoughtcrime.securesms.database.DatabaseFactory;
 import org.thoughtcrime.securesms.database.RecipientDatabase;
 import org.thoughtcrime.securesms.database.RecipientDatabase.MissingRecipientException;
+import org.thoughtcrime.securesms.database.RecipientDatabase.RecipientSettings;
 import org.thoughtcrime.securesms.database.ThreadDatabase;
 import org.thoughtcrime.securesms.database.model.ThreadRecord;
-import org.thoughtcrime.securesms.util.LRUCache;
 import org.thoughtcrime.securesms.util.TextSecurePreferences;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
-
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Holds a {@link LiveRecipient} for every recently-used recipient.
+ *
+ * Lookups don't lock. A recipient that isn't in the cache yet is handed out unresolved and added to
+ * a queue, which a single background thread drains in batches, reading many recipients per query.
+ * Anyone waiting on it is notified through the {@link LiveRecipient}'s observers once it's resolved.
+ */
 public final class LiveRecipientCache {
 
   private static final String TAG = Log.tag(LiveRecipientCache.class);
 
-  private static final int CACHE_MAX      = 1000;
-  private static final int CACHE_WARM_MAX = 500;
+  private static final int CACHE_MAX          = 1000;
+  private static final int CACHE_WARM_MAX     = 500;
+  private static final int RESOLVE_BATCH_SIZE = 100;
 
   private static final Object SELF_LOCK = new Object();
 
-  private final Context                         context;
-  private final RecipientDatabase               recipientDatabase;
-  private final Map<RecipientId, LiveRecipient> recipients;
-  private final LiveRecipient                   unknown;
+  private final Context                                        context;
+  private final RecipientDatabase                              recipientDatabase;
+  private final ConcurrentLruCache<RecipientId, LiveRecipient> recipients;
+  private final LiveRecipient                                  unknown;
+  private final BlockingQueue<PendingResolve>                  pendingResolves;
+  private final AtomicBoolean                                  resolveScheduled;
+  private final Executor                                       resolveExecutor;
 
   @GuardedBy("SELF_LOCK")
   private RecipientId localRecipientId;
   private boolean     warmedUp;
 
-  @SuppressLint("UseSparseArrays")
   public LiveRecipientCache(@NonNull Context context) {
     this.context           = context.getApplicationContext();
     this.recipientDatabase = DatabaseFactory.getRecipientDatabase(context);
-    this.recipients        = new LRUCache<>(CACHE_MAX);
+    this.recipients        = new ConcurrentLruCache<>(CACHE_MAX);
     this.unknown           = new LiveRecipient(context, Recipient.UNKNOWN);
+    this.pendingResolves   = new LinkedBlockingQueue<>();
+    this.resolveScheduled  = new AtomicBoolean(false);
+    this.resolveExecutor   = SignalExecutors.newCachedSingleThreadExecutor("signal-RecipientResolver");
   }
 
   @AnyThread
-  synchronized @NonNull LiveRecipient getLive(@NonNull RecipientId id) {
+  @NonNull LiveRecipient getLive(@NonNull RecipientId id) {
     if (id.isUnknown()) return unknown;
 
     LiveRecipient live = recipients.get(id);
 
     if (live == null) {
-      final LiveRecipient newLive = new LiveRecipient(context, new Recipient(id));
-
-      recipients.put(id, newLive);
+      LiveRecipient newLive  = new LiveRecipient(context, new Recipient(id));
+      LiveRecipient existing = recipients.putIfAbsent(id, newLive);
 
-      MissingRecipientException prettyStackTraceError = new MissingRecipientException(newLive.getId());
+      if (existing != null) {
+        return existing;
+      }
 
-      SignalExecutors.BOUNDED.execute(() -> {
-        try {
-          newLive.resolve();
-        } catch (MissingRecipientException e) {
-          throw prettyStackTraceError;
-        }
-      });
+      enqueueResolve(newLive);
 
       live = newLive;
     }
@@ -83,29 +101,160 @@ public final class LiveRecipientCache {
    * If the recipient you add is unresolved, this will enqueue a resolve on a background thread.
    */
   @AnyThread
-  public synchronized void addToCache(@NonNull Collection<Recipient> newRecipients) {
+  public void addToCache(@NonNull Collection<Recipient> newRecipients) {
     for (Recipient recipient : newRecipients) {
-      LiveRecipient live         = recipients.get(recipient.getId());
-      boolean       needsResolve = false;
+      LiveRecipient live = recipients.get(recipient.getId());
 
       if (live == null) {
-        live = new LiveRecipient(context, recipient);
-        recipients.put(recipient.getId(), live);
-        needsResolve = recipient.isResolving();
-      } else if (live.get().isResolving() || !recipient.isResolving()) {
+        LiveRecipient newLive = new LiveRecipient(context, recipient);
+
+        live = recipients.putIfAbsent(recipient.getId(), newLive);
+
+        if (live == null) {
+          if (recipient.isResolving()) {
+            enqueueResolve(newLive);
+          }
+          continue;
+        }
+      }
+
+      if (live.get().isResolving() || !recipient.isResolving()) {
         live.set(recipient);
-        needsResolve = recipient.isResolving();
+
+        if (recipient.isResolving()) {
+          enqueueResolve(live);
+        }
       }
+    }
+  }
 
-      if (needsResolve) {
-        MissingRecipientException prettyStackTraceError = new MissingRecipientException(recipient.getId());
-        SignalExecutors.BOUNDED.execute(() -> {
-          try {
-            recipient.resolve();
-          } catch (MissingRecipientException e) {
-            throw prettyStackTraceError;
-          }
-        });
+  /**
+   * Resolves all of the provided recipients at once, which is much faster than resolving them one
+   * at a time for large groups. Recipients that are already resolved in the cache are used as-is, and
+   * the rest are read from disk together.
+   *
+   * @return The resolved recipients, in the same order as the ids.
+   */
+  @WorkerThread
+  @NonNull List<Recipient> resolveAll(@NonNull Collection<RecipientId> ids) {
+    Map<RecipientId, Recipient> resolved = new HashMap<>(ids.size());
+    List<RecipientId>           misses   = new ArrayList<>();
+
+    for (RecipientId id : ids) {
+      LiveRecipient live = recipients.get(id);
+
+      if (live != null && !live.get().isResolving()) {
+        resolved.put(id, live.get());
+      } else {
+        misses.add(id);
+      }
+    }
+
+    if (!misses.isEmpty()) {
+      Map<RecipientId, Recipient> fetched = readAllFromDisk(misses);
+
+      addToCache(fetched.values());
+      resolved.putAll(fetched);
+    }
+
+    return Stream.of(ids).map(resolved::get).toList();
+  }
+
+  /**
+   * Like {@link #resolveAll(Collection)}, but always reads every recipient from disk.
+   */
+  @WorkerThread
+  @NonNull List<Recipient> refreshAll(@NonNull Collection<RecipientId> ids) {
+    Map<RecipientId, Recipient> refreshed = readAllFromDisk(ids);
+    addToCache(refreshed.values());
+    return Stream.of(ids).map(refreshed::get).toList();
+  }
+
+  /**
+   * Reads the recipients in bulk. Groups can't be built from their settings alone, but they're never
+   * members of other groups and are rarely resolved in bulk, so they're just resolved normally.
+   */
+  @WorkerThread
+  private @NonNull Map<RecipientId, Recipient> readAllFromDisk(@NonNull Collection<RecipientId> ids) {
+    Map<RecipientId, RecipientSettings> settings = recipientDatabase.getRecipientSettings(ids);
+    Map<RecipientId, Recipient>         results  = new HashMap<>(ids.size());
+
+    for (RecipientId id : ids) {
+      RecipientSettings recipientSettings = settings.get(id);
+
+      if (recipientSettings.getGroupId() != null) {
+        results.put(id, getLive(id).resolve());
+      } else {
+        Recipient recipient = new Recipient(id, RecipientDetails.forIndividual(context, recipientSettings), true);
+
+        RecipientIdCache.INSTANCE.put(recipient);
+        results.put(id, recipient);
+      }
+    }
+
+    return results;
+  }
+
+  private void enqueueResolve(@NonNull LiveRecipient live) {
+    pendingResolves.add(new PendingResolve(live, new MissingRecipientException(live.getId())));
+
+    if (resolveScheduled.compareAndSet(false, true)) {
+      resolveExecutor.execute(this::resolvePending);
+    }
+  }
+
+  /**
+   * Anything enqueued after the flag is cleared either gets picked up by this run, or schedules a
+   * new one, so nothing is missed.
+   */
+  @WorkerThread
+  private void resolvePending() {
+    resolveScheduled.set(false);
+
+    List<PendingResolve> batch = new ArrayList<>(RESOLVE_BATCH_SIZE);
+
+    while (pendingResolves.drainTo(batch, RESOLVE_BATCH_SIZE) > 0) {
+      resolveBatch(batch);
+      batch.clear();
+    }
+  }
+
+  @WorkerThread
+  private void resolveBatch(@NonNull List<PendingResolve> batch) {
+    Set<RecipientId> ids = new LinkedHashSet<>(batch.size());
+
+    for (PendingResolve pending : batch) {
+      if (pending.live.get().isResolving()) {
+        ids.add(pending.live.getId());
+      }
+    }
+
+    if (ids.isEmpty()) {
+      return;
+    }
+
+    Map<RecipientId, Recipient> resolved;
+
+    try {
+      resolved = readAllFromDisk(ids);
+    } catch (MissingRecipientException e) {
+      Log.w(TAG, "Failed to resolve a batch of " + ids.size() + " recipients. Resolving them one at a time.");
+
+      for (PendingResolve pending : batch) {
+        try {
+          pending.live.resolve();
+        } catch (MissingRecipientException missing) {
+          throw pending.prettyStackTraceError;
+        }
+      }
+      return;
+    }
+
+    for (PendingResolve pending : batch) {
+      Recipient recipient = resolved.get(pending.live.getId());
+
+      if (recipient != null && pending.live.get().isResolving()) {
+        pending.live.set(recipient);
       }
     }
   }
@@ -169,4 +318,14 @@ public final class LiveRecipientCache {
   public synchronized void clear() {
     recipients.clear();
   }
+
+  private static final class PendingResolve {
+    private final LiveRecipient             live;
+    private final MissingRecipientException prettyStackTraceError;
+
+    private PendingResolve(@NonNull LiveRecipient live, @NonNull MissingRecipientException prettyStackTraceError) {
+      this.live                  = live;
+      this.prettyStackTraceError = prettyStackTraceError;
+    }
+  }
 }
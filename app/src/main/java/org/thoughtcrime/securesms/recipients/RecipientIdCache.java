@@ -3,11 +3,10 @@ package org.thoughtcrime.securesms.recipients;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import org.signal.core.util.ConcurrentLruCache;
 import org.signal.core.util.logging.Log;
 import org.whispersystems.libsignal.util.guava.Optional;
 
-import java.util.LinkedHashMap;
-import java.util.Map;
 import java.util.UUID;
 
 /**
@@ -21,17 +20,16 @@ final class RecipientIdCache {
 
   private static final String TAG = Log.tag(RecipientIdCache.class);
 
-  private final Map<Object, RecipientId> ids;
+  private final ConcurrentLruCache<Object, RecipientId> ids;
 
   RecipientIdCache(int limit) {
-    ids = new LinkedHashMap<Object, RecipientId>(128, 0.75f, true) {
-      @Override
-      protected boolean removeEldestEntry(Entry<Object, RecipientId> eldest) {
-        return size() > limit;
-      }
-    };
+    ids = new ConcurrentLruCache<>(limit);
   }
 
+  /**
+   * Locked so that the UUID and E164 entries for a recipient change together. Lookups stay
+   * lock-free, and only take the lock to recheck a pair that looks inconsistent.
+   */
   synchronized void put(@NonNull Recipient recipient) {
     RecipientId      recipientId = recipient.getId();
     Optional<String> e164        = recipient.getE164();
@@ -46,7 +44,7 @@ final class RecipientIdCache {
     }
   }
 
-  synchronized @Nullable RecipientId get(@Nullable UUID uuid, @Nullable String e164) {
+  @Nullable RecipientId get(@Nullable UUID uuid, @Nullable String e164) {
     if (uuid != null && e164 != null) {
       RecipientId recipientIdByUuid = ids.get(uuid);
       if (recipientIdByUuid == null) return null;
@@ -57,10 +55,7 @@ final class RecipientIdCache {
       if (recipientIdByUuid.equals(recipientIdByE164)) {
         return recipientIdByUuid;
       } else {
-        ids.remove(uuid);
-        ids.remove(e164);
-        Log.w(TAG, "Seen invalid RecipientIdCacheState");
-        return null;
+        return getOrInvalidate(uuid, e164);
       }
     } else if (uuid != null) {
       return ids.get(uuid);
@@ -74,4 +69,18 @@ final class RecipientIdCache {
   synchronized void clear() {
     ids.clear();
   }
+
+  private synchronized @Nullable RecipientId getOrInvalidate(@NonNull UUID uuid, @NonNull String e164) {
+    RecipientId recipientIdByUuid = ids.get(uuid);
+    RecipientId recipientIdByE164 = ids.get(e164);
+
+    if (recipientIdByUuid != null && recipientIdByUuid.equals(recipientIdByE164)) {
+      return recipientIdByUuid;
+    }
+
+    ids.remove(uuid);
+    ids.remove(e164);
+    Log.w(TAG, "Seen invalid RecipientIdCacheState");
+    return null;
+  }
 }
@@ -34,6 +34,7 @@ import org.thoughtcrime.securesms.recipients.Recipient;
 import org.thoughtcrime.securesms.recipients.RecipientId;
 import org.thoughtcrime.securesms.util.CursorUtil;
 import org.thoughtcrime.securesms.util.Util;
+import org.thoughtcrime.securesms.util.cjkv.CJKVUtil;
 
 import java.util.ArrayList;
 import java.util.Collections;
@@ -46,6 +47,7 @@ import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static org.thoughtcrime.securesms.database.SearchDatabase.SNIPPET_WRAP;
 
@@ -56,6 +58,10 @@ public class SearchRepository {
 
   private static final String TAG = SearchRepository.class.getSimpleName();
 
+  private static final int FIRST_MESSAGE_PAGE_SIZE = 50;
+  private static final int MESSAGE_PAGE_SIZE       = 150;
+  private static final int MAX_MESSAGE_RESULTS     = 500;
+
   private static final Set<Character> BANNED_CHARACTERS = new HashSet<>();
   static {
     // Several ranges of invalid ASCII characters
@@ -83,6 +89,7 @@ public class SearchRepository {
   private final RecipientDatabase recipientDatabase;
   private final MentionDatabase   mentionDatabase;
   private final MessageDatabase   mmsDatabase;
+  private final AtomicLong        querySequence;
 
   public SearchRepository() {
     this.context           = ApplicationDependencies.getApplication().getApplicationContext();
@@ -95,29 +102,84 @@ public class SearchRepository {
     this.contactAccessor   = ContactAccessor.getInstance();
     this.serialExecutor    = SignalExecutors.SERIAL;
     this.parallelExecutor  = SignalExecutors.BOUNDED;
+    this.querySequence     = new AtomicLong();
   }
 
+  /**
+   * Searches contacts, conversations and messages. Messages that contain the query as typed come
+   * first, then newest first. They're loaded a page at a time, so the callback may be called
+   * several times for one query, each time with a superset of the previous messages. Once a newer
+   * query has been made, results for older queries stop being delivered.
+   *
+   * Word matches come first, followed by matches in the middle of words. Queries with CJK characters
+   * in them only use the substring search, since those scripts don't separate words with spaces.
+   */
   public void query(@NonNull String query, @NonNull Callback<SearchResult> callback) {
     if (TextUtils.isEmpty(query)) {
+      querySequence.incrementAndGet();
       callback.onResult(SearchResult.EMPTY);
       return;
     }
 
+    long sequence = querySequence.incrementAndGet();
+
     serialExecutor.execute(() -> {
-      String cleanQuery = sanitizeQuery(query);
+      if (sequence != querySequence.get()) {
+        Log.d(TAG, "Skipping stale query.");
+        return;
+      }
+
+      String  cleanQuery         = sanitizeQuery(query);
+      boolean substringAvailable = searchDatabase.hasSubstringIndex() && SearchDatabase.canSearchBySubstring(cleanQuery);
+      boolean substringOnly      = substringAvailable && CJKVUtil.containsCJKV(cleanQuery);
 
       Future<List<Recipient>>     contacts        = parallelExecutor.submit(() -> queryContacts(cleanQuery));
       Future<List<ThreadRecord>>  conversations   = parallelExecutor.submit(() -> queryConversations(cleanQuery));
-      Future<List<MessageResult>> messages        = parallelExecutor.submit(() -> queryMessages(cleanQuery));
+      Future<MessagePage>         firstPage       = parallelExecutor.submit(() -> queryMessages(cleanQuery, substringOnly, null, FIRST_MESSAGE_PAGE_SIZE));
       Future<List<MessageResult>> mentionMessages = parallelExecutor.submit(() -> queryMentions(sanitizeQueryAsTokens(query)));
 
       try {
-        long         startTime = System.currentTimeMillis();
-        SearchResult result    = new SearchResult(cleanQuery, contacts.get(), conversations.get(), mergeMessagesAndMentions(messages.get(), mentionMessages.get()));
+        long                startTime           = System.currentTimeMillis();
+        List<Recipient>     contactResults      = contacts.get();
+        List<ThreadRecord>  conversationResults = conversations.get();
+        List<MessageResult> mentionResults      = mentionMessages.get();
+        MessagePage         page                = firstPage.get();
+        List<MessageResult> messages            = new ArrayList<>(page.results.size());
+        Set<Long>           smsIds              = new HashSet<>();
+        Set<Long>           mmsIds              = new HashSet<>();
+        boolean             bySubstring         = substringOnly;
+
+        addNewMessages(messages, smsIds, mmsIds, page.results);
+
+        Log.d(TAG, "First page: " + (System.currentTimeMillis() - startTime) + " ms");
+
+        callback.onResult(new SearchResult(cleanQuery, contactResults, conversationResults, mergeRankedMessagesAndMentions(messages, mentionResults)));
+
+        while (messages.size() < MAX_MESSAGE_RESULTS) {
+          SearchDatabase.SearchPosition after;
+
+          if (page.hasMore()) {
+            after = page.last;
+          } else if (!bySubstring && substringAvailable) {
+            bySubstring = true;
+            after       = null;
+          } else {
+            break;
+          }
+
+          if (sequence != querySequence.get()) {
+            Log.d(TAG, "Newer query made after " + messages.size() + " messages. Stopping.");
+            return;
+          }
+
+          page = queryMessages(cleanQuery, bySubstring, after, Math.min(MESSAGE_PAGE_SIZE, MAX_MESSAGE_RESULTS - messages.size()));
+
+          if (addNewMessages(messages, smsIds, mmsIds, page.results)) {
+            callback.onResult(new SearchResult(cleanQuery, contactResults, conversationResults, mergeRankedMessagesAndMentions(messages, mentionResults)));
+          }
+        }
 
         Log.d(TAG, "Total time: " + (System.currentTimeMillis() - startTime) + " ms");
-
-        callback.onResult(result);
       } catch (ExecutionException | InterruptedException e) {
         Log.w(TAG, e);
         callback.onResult(SearchResult.EMPTY);
@@ -168,12 +230,29 @@ public class SearchRepository {
     }
   }
 
-  private @NonNull List<MessageResult> queryMessages(@NonNull String query) {
-    List<MessageResult> results;
-    try (Cursor cursor = searchDatabase.queryMessages(query)) {
-      results = readToList(cursor, new MessageModelBuilder());
+  private @NonNull MessagePage queryMessages(@NonNull String query, boolean bySubstring, @Nullable SearchDatabase.SearchPosition after, int limit) {
+    List<MessageResult>           results = new ArrayList<>(limit);
+    SearchDatabase.SearchPosition last    = null;
+    MessageModelBuilder           builder = new MessageModelBuilder();
+
+    try (Cursor cursor = bySubstring ? searchDatabase.queryMessagesBySubstring(query, after, limit)
+                                     : searchDatabase.queryMessagesRanked(query, after, limit))
+    {
+      if (cursor != null) {
+        while (cursor.moveToNext()) {
+          results.add(builder.build(cursor));
+        }
+
+        if (cursor.moveToLast()) {
+          last = SearchDatabase.SearchPosition.fromCursor(cursor);
+        }
+      }
     }
 
+    return new MessagePage(updateMentionDisplayNames(results), last, results.size() == limit);
+  }
+
+  private @NonNull List<MessageResult> updateMentionDisplayNames(@NonNull List<MessageResult> results) {
     List<Long> messageIds = new LinkedList<>();
     for (MessageResult result : results) {
       if (result.isMms) {
@@ -377,6 +456,52 @@ public class SearchRepository {
     return Stream.of(parts).map(this::sanitizeQuery).toList();
   }
 
+  /**
+   * Adds the results that aren't already in the list of messages.
+   *
+   * @return True if anything was added.
+   */
+  private static boolean addNewMessages(@NonNull List<MessageResult> messages, @NonNull Set<Long> smsIds, @NonNull Set<Long> mmsIds, @NonNull List<MessageResult> results) {
+    boolean added = false;
+
+    for (MessageResult result : results) {
+      if ((result.isMms ? mmsIds : smsIds).add(result.messageId)) {
+        messages.add(result);
+        added = true;
+      }
+    }
+
+    return added;
+  }
+
+  /**
+   * Unlike {@link #mergeMessagesAndMentions(List, List)}, this keeps the ranked messages in order,
+   * and only appends mention matches that the ranked search didn't find, newest first.
+   */
+  private static @NonNull List<MessageResult> mergeRankedMessagesAndMentions(@NonNull List<MessageResult> rankedMessages, @NonNull List<MessageResult> mentionMessages) {
+    Set<Long> includedMmsMessages = new HashSet<>();
+
+    List<MessageResult> combined = new ArrayList<>(rankedMessages.size() + mentionMessages.size());
+    for (MessageResult result : rankedMessages) {
+      combined.add(result);
+      if (result.isMms) {
+        includedMmsMessages.add(result.messageId);
+      }
+    }
+
+    List<MessageResult> remainingMentions = new ArrayList<>(mentionMessages.size());
+    for (MessageResult result : mentionMessages) {
+      if (!includedMmsMessages.contains(result.messageId)) {
+        remainingMentions.add(result);
+      }
+    }
+
+    Collections.sort(remainingMentions, Collections.reverseOrder((left, right) -> Long.compare(left.receivedTimestampMs, right.receivedTimestampMs)));
+    combined.addAll(remainingMentions);
+
+    return combined;
+  }
+
   private static @NonNull List<MessageResult> mergeMessagesAndMentions(@NonNull List<MessageResult> messages, @NonNull List<MessageResult> mentionMessages) {
     Set<Long> includedMmsMessages = new HashSet<>();
 
@@ -441,6 +566,22 @@ public class SearchRepository {
     }
   }
 
+  private static final class MessagePage {
+    private final List<MessageResult>           results;
+    private final SearchDatabase.SearchPosition last;
+    private final boolean                       full;
+
+    private MessagePage(@NonNull List<MessageResult> results, @Nullable SearchDatabase.SearchPosition last, boolean full) {
+      this.results = results;
+      this.last    = last;
+      this.full    = full;
+    }
+
+    boolean hasMore() {
+      return full && last != null;
+    }
+  }
+
   public interface Callback<E> {
     void onResult(@NonNull E result);
   }
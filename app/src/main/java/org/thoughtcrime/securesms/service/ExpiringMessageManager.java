@@ -2,38 +2,68 @@ package org.thoughtcrime.securesms.service;
 
 import android.content.Context;
 
+import androidx.annotation.VisibleForTesting;
+
 import org.signal.core.util.logging.Log;
 import org.thoughtcrime.securesms.database.DatabaseFactory;
 import org.thoughtcrime.securesms.database.MessageDatabase;
-import org.thoughtcrime.securesms.database.MmsDatabase;
-import org.thoughtcrime.securesms.database.SmsDatabase;
-import org.thoughtcrime.securesms.database.model.MessageRecord;
+import org.thoughtcrime.securesms.database.MessageDatabase.ExpirationInfo;
+import org.thoughtcrime.securesms.database.MmsSmsDatabase;
 
+import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.List;
 import java.util.TreeSet;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
-
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deletes messages once their disappearing timers run out.
+ * <p>
+ * Only the expirations due within the next {@link #WINDOW} are kept in memory. They're loaded from
+ * the database when the previous window runs dry. Of the rest, only the earliest is remembered, so
+ * we know when to load the next window. Everything due within {@link #BATCH_TOLERANCE} of now is
+ * deleted together, one transaction per thread.
+ */
 public class ExpiringMessageManager {
 
   private static final String TAG = ExpiringMessageManager.class.getSimpleName();
 
+  @VisibleForTesting static final long WINDOW          = TimeUnit.MINUTES.toMillis(5);
+  @VisibleForTesting static final long BATCH_TOLERANCE = 500;
+
   private final TreeSet<ExpiringMessageReference> expiringMessageReferences = new TreeSet<>(new ExpiringMessageComparator());
   private final Executor                          executor                  = Executors.newSingleThreadExecutor();
 
   private final MessageDatabase smsDatabase;
   private final MessageDatabase mmsDatabase;
+  private final MmsSmsDatabase  mmsSmsDatabase;
   private final Context         context;
 
+  /** Every expiration before this is in {@link #expiringMessageReferences}. Guarded by it. */
+  private long windowEnd;
+
+  /** The earliest known expiration at or after {@link #windowEnd}. Guarded by {@link #expiringMessageReferences}. */
+  private long nextLoadAt;
+
   public ExpiringMessageManager(Context context) {
-    this.context     = context.getApplicationContext();
-    this.smsDatabase = DatabaseFactory.getSmsDatabase(context);
-    this.mmsDatabase = DatabaseFactory.getMmsDatabase(context);
+    this(context, DatabaseFactory.getSmsDatabase(context), DatabaseFactory.getMmsDatabase(context), DatabaseFactory.getMmsSmsDatabase(context));
 
-    executor.execute(new LoadTask());
     executor.execute(new ProcessTask());
   }
 
+  /**
+   * Doesn't start processing. Tests drive it with {@link #processNext(long)} instead.
+   */
+  @VisibleForTesting
+  ExpiringMessageManager(Context context, MessageDatabase smsDatabase, MessageDatabase mmsDatabase, MmsSmsDatabase mmsSmsDatabase) {
+    this.context        = context.getApplicationContext();
+    this.smsDatabase    = smsDatabase;
+    this.mmsDatabase    = mmsDatabase;
+    this.mmsSmsDatabase = mmsSmsDatabase;
+  }
+
   public void scheduleDeletion(long id, boolean mms, long expiresInMillis) {
     scheduleDeletion(id, mms, System.currentTimeMillis(), expiresInMillis);
   }
@@ -42,7 +72,12 @@ public class ExpiringMessageManager {
     long expiresAtMillis = startedAtTimestamp + expiresInMillis;
 
     synchronized (expiringMessageReferences) {
-      expiringMessageReferences.add(new ExpiringMessageReference(id, mms, expiresAtMillis));
+      if (expiresAtMillis < windowEnd) {
+        expiringMessageReferences.add(new ExpiringMessageReference(id, mms, expiresAtMillis));
+      } else {
+        nextLoadAt = Math.min(nextLoadAt, expiresAtMillis);
+      }
+
       expiringMessageReferences.notifyAll();
     }
   }
@@ -53,60 +88,109 @@ public class ExpiringMessageManager {
     }
   }
 
-  private class LoadTask implements Runnable {
-    public void run() {
-      SmsDatabase.Reader smsReader = SmsDatabase.readerFor(smsDatabase.getExpirationStartedMessages());
-      MmsDatabase.Reader mmsReader = MmsDatabase.readerFor(mmsDatabase.getExpirationStartedMessages());
+  /**
+   * Loads everything that expires before the end of the next window. The window is moved before
+   * querying, so that anything scheduled while the query runs is either kept in memory or lowers
+   * {@link #nextLoadAt}, instead of falling between the two.
+   */
+  private void loadWindow(long now) {
+    long end = now + WINDOW;
+
+    synchronized (expiringMessageReferences) {
+      windowEnd  = end;
+      nextLoadAt = Long.MAX_VALUE;
+    }
+
+    List<ExpirationInfo> loaded = new ArrayList<>(smsDatabase.getExpiringMessages(end));
+    loaded.addAll(mmsDatabase.getExpiringMessages(end));
+
+    long nextSms = smsDatabase.getNearestExpiration(end);
+    long nextMms = mmsDatabase.getNearestExpiration(end);
+
+    synchronized (expiringMessageReferences) {
+      for (ExpirationInfo info : loaded) {
+        expiringMessageReferences.add(new ExpiringMessageReference(info.getId(), info.isMms(), info.getExpireStarted() + info.getExpiresIn()));
+      }
+
+      if (nextSms != -1) nextLoadAt = Math.min(nextLoadAt, nextSms);
+      if (nextMms != -1) nextLoadAt = Math.min(nextLoadAt, nextMms);
+    }
+
+    Log.i(TAG, "Loaded " + loaded.size() + " expiring messages.");
+  }
 
-      MessageRecord messageRecord;
+  /**
+   * Loads the next window if the current one has run dry and it's time to, or otherwise deletes
+   * everything that's due within {@link #BATCH_TOLERANCE} of now.
+   *
+   * @return False if there was nothing to do yet.
+   */
+  @VisibleForTesting
+  boolean processNext(long now) {
+    List<ExpiringMessageReference> expiredMessages = new ArrayList<>();
 
-      while ((messageRecord = smsReader.getNext()) != null) {
-        expiringMessageReferences.add(new ExpiringMessageReference(messageRecord.getId(),
-                                                                   messageRecord.isMms(),
-                                                                   messageRecord.getExpireStarted() + messageRecord.getExpiresIn()));
+    synchronized (expiringMessageReferences) {
+      if (getNextWakeTime() > now) {
+        return false;
       }
 
-      while ((messageRecord = mmsReader.getNext()) != null) {
-        expiringMessageReferences.add(new ExpiringMessageReference(messageRecord.getId(),
-                                                                   messageRecord.isMms(),
-                                                                   messageRecord.getExpireStarted() + messageRecord.getExpiresIn()));
+      while (!expiringMessageReferences.isEmpty() && expiringMessageReferences.first().expiresAtMillis <= now + BATCH_TOLERANCE) {
+        expiredMessages.add(expiringMessageReferences.pollFirst());
       }
+    }
 
-      smsReader.close();
-      mmsReader.close();
+    if (expiredMessages.isEmpty()) {
+      loadWindow(now);
+    } else {
+      deleteMessages(expiredMessages);
     }
+
+    return true;
+  }
+
+  /**
+   * The first expiration in the window, or when the next window should be loaded if it's empty.
+   * Must be called while holding {@link #expiringMessageReferences}.
+   */
+  private long getNextWakeTime() {
+    return expiringMessageReferences.isEmpty() ? nextLoadAt : expiringMessageReferences.first().expiresAtMillis;
+  }
+
+  private void deleteMessages(List<ExpiringMessageReference> expiredMessages) {
+    List<Long> smsIds = new ArrayList<>();
+    List<Long> mmsIds = new ArrayList<>();
+
+    for (ExpiringMessageReference expiredMessage : expiredMessages) {
+      if (expiredMessage.mms) mmsIds.add(expiredMessage.id);
+      else                    smsIds.add(expiredMessage.id);
+    }
+
+    mmsSmsDatabase.deleteExpiredMessages(smsIds, mmsIds);
   }
 
   @SuppressWarnings("InfiniteLoopStatement")
   private class ProcessTask implements Runnable {
     public void run() {
       while (true) {
-        ExpiringMessageReference expiredMessage = null;
+        if (processNext(System.currentTimeMillis())) {
+          continue;
+        }
 
         synchronized (expiringMessageReferences) {
           try {
-            while (expiringMessageReferences.isEmpty()) expiringMessageReferences.wait();
-
-            ExpiringMessageReference nextReference = expiringMessageReferences.first();
-            long                     waitTime      = nextReference.expiresAtMillis - System.currentTimeMillis();
-
-            if (waitTime > 0) {
-              ExpirationListener.setAlarm(context, waitTime);
-              expiringMessageReferences.wait(waitTime);
-            } else {
-              expiredMessage = nextReference;
-              expiringMessageReferences.remove(nextReference);
+            long now       = System.currentTimeMillis();
+            long waitUntil = getNextWakeTime();
+
+            if (waitUntil == Long.MAX_VALUE) {
+              expiringMessageReferences.wait();
+            } else if (waitUntil > now) {
+              ExpirationListener.setAlarm(context, waitUntil - now);
+              expiringMessageReferences.wait(waitUntil - now);
             }
-
           } catch (InterruptedException e) {
             Log.w(TAG, e);
           }
         }
-
-        if (expiredMessage != null) {
-          if (expiredMessage.mms) mmsDatabase.deleteMessage(expiredMessage.id);
-          else                    smsDatabase.deleteMessage(expiredMessage.id);
-        }
       }
     }
   }
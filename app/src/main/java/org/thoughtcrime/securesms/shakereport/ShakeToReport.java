@@ -10,9 +10,9 @@ import androidx.appcompat.app.AlertDialog;
 
 import org.signal.core.util.ShakeDetector;
 import org.signal.core.util.logging.Log;
-import org.signal.core.util.tracing.Tracer;
 import org.thoughtcrime.securesms.ApplicationContext;
 import org.thoughtcrime.securesms.R;
+import org.thoughtcrime.securesms.logsubmit.LogSectionTrace;
 import org.thoughtcrime.securesms.logsubmit.SubmitDebugLogRepository;
 import org.thoughtcrime.securesms.sharing.ShareIntents;
 import org.thoughtcrime.securesms.util.FeatureFlags;
@@ -92,7 +92,7 @@ public final class ShakeToReport implements ShakeDetector.Listener {
     repo.getLogLines(lines -> {
       Log.i(TAG, "Retrieved log lines...");
 
-      repo.submitLog(lines, Tracer.getInstance().serialize(), url -> {
+      repo.submitLog(lines, LogSectionTrace.getRecentTrace(), url -> {
         Log.i(TAG, "Logs uploaded!");
 
         Util.runOnMain(() -> {
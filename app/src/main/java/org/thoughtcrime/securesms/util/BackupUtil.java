@@ -15,6 +15,7 @@ import androidx.documentfile.provider.DocumentFile;
 
 import org.signal.core.util.logging.Log;
 import org.thoughtcrime.securesms.R;
+import org.thoughtcrime.securesms.backup.BackupChain;
 import org.thoughtcrime.securesms.backup.BackupPassphrase;
 import org.thoughtcrime.securesms.database.NoExternalStorageException;
 import org.thoughtcrime.securesms.dependencies.ApplicationDependencies;
@@ -96,6 +97,10 @@ public class BackupUtil {
       for (int i = 2; i < backups.size(); i++) {
         backups.get(i).delete();
       }
+
+      if (!isUserSelectionRequired(ApplicationDependencies.getApplication())) {
+        BackupChain.deleteOrphanedDeltas(StorageUtil.getOrCreateBackupDirectory());
+      }
     } catch (NoExternalStorageException e) {
       Log.w(TAG, e);
     }
@@ -104,6 +109,7 @@ public class BackupUtil {
   public static void disableBackups(@NonNull Context context) {
     BackupPassphrase.set(context, null);
     TextSecurePreferences.setBackupEnabled(context, false);
+    SignalStore.settings().setBackupChain(null);
     BackupUtil.deleteAllBackups();
 
     if (BackupUtil.isUserSelectionRequired(context)) {
@@ -187,9 +193,15 @@ public class BackupUtil {
     for (File file : files) {
       if (file.isFile() && file.getAbsolutePath().endsWith(".backup")) {
         long backupTimestamp = getBackupTimestamp(file.getName());
+        long backupSize      = file.length();
 
         if (backupTimestamp != -1) {
-          backups.add(new BackupInfo(backupTimestamp, file.length(), Uri.fromFile(file)));
+          for (File delta : BackupChain.getDeltaFiles(file)) {
+            backupTimestamp = Math.max(backupTimestamp, delta.lastModified());
+            backupSize     += delta.length();
+          }
+
+          backups.add(new BackupInfo(backupTimestamp, backupSize, Uri.fromFile(file)));
         }
       }
     }
@@ -305,6 +317,14 @@ public class BackupUtil {
       File file = new File(Objects.requireNonNull(uri.getPath()));
 
       if (file.exists()) {
+        for (File delta : BackupChain.getDeltaFiles(file)) {
+          Log.i(TAG, "Deleting File: " + delta.getAbsolutePath());
+
+          if (!delta.delete()) {
+            Log.w(TAG, "Delete failed: " + delta.getAbsolutePath());
+          }
+        }
+
         Log.i(TAG, "Deleting File: " + file.getAbsolutePath());
 
         if (!file.delete()) {
@@ -2,6 +2,7 @@ package org.thoughtcrime.securesms.util;
 
 import androidx.annotation.NonNull;
 
+import org.signal.core.util.ConcurrentLruCache;
 import org.thoughtcrime.securesms.recipients.RecipientId;
 import org.whispersystems.libsignal.util.guava.Optional;
 import org.whispersystems.signalservice.api.messages.SignalServiceContent;
@@ -17,13 +18,13 @@ import java.util.Objects;
  */
 public final class EarlyMessageCache {
 
-  private final LRUCache<MessageId, List<SignalServiceContent>> cache = new LRUCache<>(100);
+  private final ConcurrentLruCache<MessageId, List<SignalServiceContent>> cache = new ConcurrentLruCache<>(100);
 
   /**
    * @param targetSender        The sender of the message this message depends on.
    * @param targetSentTimestamp The sent timestamp of the message this message depends on.
    */
-  public void store(@NonNull RecipientId targetSender, long targetSentTimestamp, @NonNull SignalServiceContent content) {
+  public synchronized void store(@NonNull RecipientId targetSender, long targetSentTimestamp, @NonNull SignalServiceContent content) {
     MessageId                  messageId   = new MessageId(targetSender, targetSentTimestamp);
     List<SignalServiceContent> contentList = cache.get(messageId);
 
@@ -41,7 +42,7 @@ public final class EarlyMessageCache {
    * @param sender        The sender of the message in question.
    * @param sentTimestamp The sent timestamp of the message in question.
    */
-  public Optional<List<SignalServiceContent>> retrieve(@NonNull RecipientId sender, long sentTimestamp) {
+  public synchronized Optional<List<SignalServiceContent>> retrieve(@NonNull RecipientId sender, long sentTimestamp) {
     return Optional.fromNullable(cache.remove(new MessageId(sender, sentTimestamp)));
   }
 
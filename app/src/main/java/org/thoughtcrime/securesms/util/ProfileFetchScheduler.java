@@ -0,0 +1,314 @@
+package org.thoughtcrime.securesms.util;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+
+import com.annimon.stream.function.Function;
+
+import org.signal.core.util.logging.Log;
+import org.thoughtcrime.securesms.recipients.Recipient;
+import org.thoughtcrime.securesms.recipients.RecipientId;
+import org.whispersystems.libsignal.util.Pair;
+import org.whispersystems.signalservice.api.profiles.ProfileAndCredential;
+import org.whispersystems.signalservice.api.profiles.SignalServiceProfile.RequestType;
+import org.whispersystems.signalservice.api.push.exceptions.NotFoundException;
+import org.whispersystems.signalservice.api.push.exceptions.PushNetworkException;
+import org.whispersystems.signalservice.internal.util.concurrent.ListenableFuture;
+import org.whispersystems.signalservice.internal.util.concurrent.SettableFuture;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fetches profiles for many recipients at once, while keeping a limited number of requests in
+ * flight and giving up on whatever is left after a single deadline.
+ *
+ * Fetches are shared across callers: if a profile is already being fetched for a recipient (by
+ * another job, say), we'll wait on that request instead of making another one.
+ */
+public final class ProfileFetchScheduler {
+
+  private static final String TAG = Log.tag(ProfileFetchScheduler.class);
+
+  private static final Map<InFlightKey, ListenableFuture<ProfileAndCredential>> IN_FLIGHT = new HashMap<>();
+
+  private ProfileFetchScheduler() {}
+
+  /**
+   * Fetches the profiles of all of the provided recipients, blocking until they've all finished or
+   * the timeout has passed. Anything that didn't finish in time will be in
+   * {@link Result#getRetries()}.
+   *
+   * @param maxInFlight The most requests that will be outstanding at any one time.
+   * @param timeout     How long to wait, in total, for all of the fetches.
+   */
+  @WorkerThread
+  public static @NonNull Result fetch(@NonNull Context context,
+                                      @NonNull Collection<Recipient> recipients,
+                                      @NonNull Function<Recipient, RequestType> requestType,
+                                      int maxInFlight,
+                                      long timeout,
+                                      @NonNull TimeUnit timeUnit)
+  {
+    return fetch(recipients, requestType, (r, type) -> ProfileUtil.retrieveProfile(context, r, type), maxInFlight, timeUnit.toMillis(timeout));
+  }
+
+  @VisibleForTesting
+  static @NonNull Result fetch(@NonNull Collection<Recipient> recipients,
+                               @NonNull Function<Recipient, RequestType> requestType,
+                               @NonNull Fetcher fetcher,
+                               int maxInFlight,
+                               long timeoutMs)
+  {
+    if (maxInFlight < 1) {
+      throw new IllegalArgumentException("Must allow at least one request in flight!");
+    }
+
+    Collector collector = new Collector(recipients);
+    Semaphore permits   = new Semaphore(maxInFlight);
+    long      deadline  = System.currentTimeMillis() + timeoutMs;
+
+    try {
+      for (Recipient recipient : recipients) {
+        if (!permits.tryAcquire(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS)) {
+          break;
+        }
+
+        startOrJoin(recipient, requestType.apply(recipient), fetcher).addListener(new ListenableFuture.Listener<ProfileAndCredential>() {
+          @Override
+          public void onSuccess(ProfileAndCredential result) {
+            collector.onSuccess(recipient, result);
+            permits.release();
+          }
+
+          @Override
+          public void onFailure(ExecutionException e) {
+            collector.onFailure(recipient, e.getCause());
+            permits.release();
+          }
+        });
+      }
+
+      permits.tryAcquire(maxInFlight, Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Log.w(TAG, "Interrupted while fetching profiles.", e);
+      Thread.currentThread().interrupt();
+    }
+
+    return collector.finish();
+  }
+
+  /**
+   * Returns the in-flight request for the recipient if there is one that will satisfy the request
+   * type, otherwise starts a new one.
+   */
+  private static @NonNull ListenableFuture<ProfileAndCredential> startOrJoin(@NonNull Recipient recipient,
+                                                                             @NonNull RequestType requestType,
+                                                                             @NonNull Fetcher fetcher)
+  {
+    InFlightKey                          key = new InFlightKey(recipient.getId(), requestType);
+    SettableFuture<ProfileAndCredential> placeholder;
+
+    synchronized (IN_FLIGHT) {
+      ListenableFuture<ProfileAndCredential> existing = IN_FLIGHT.get(key);
+
+      if (existing == null && requestType == RequestType.PROFILE) {
+        existing = IN_FLIGHT.get(new InFlightKey(recipient.getId(), RequestType.PROFILE_AND_CREDENTIAL));
+      }
+
+      if (existing != null) {
+        return existing;
+      }
+
+      placeholder = new SettableFuture<>();
+      IN_FLIGHT.put(key, placeholder);
+    }
+
+    ListenableFuture<ProfileAndCredential> future;
+
+    try {
+      future = fetcher.fetch(recipient, requestType);
+    } catch (RuntimeException e) {
+      synchronized (IN_FLIGHT) {
+        IN_FLIGHT.remove(key);
+      }
+      placeholder.setException(e);
+      return placeholder;
+    }
+
+    future.addListener(new ListenableFuture.Listener<ProfileAndCredential>() {
+      @Override
+      public void onSuccess(ProfileAndCredential result) {
+        synchronized (IN_FLIGHT) {
+          IN_FLIGHT.remove(key);
+        }
+        placeholder.set(result);
+      }
+
+      @Override
+      public void onFailure(ExecutionException e) {
+        synchronized (IN_FLIGHT) {
+          IN_FLIGHT.remove(key);
+        }
+        placeholder.setException(e.getCause());
+      }
+    });
+
+    return placeholder;
+  }
+
+  @VisibleForTesting
+  static int getInFlightCount() {
+    synchronized (IN_FLIGHT) {
+      return IN_FLIGHT.size();
+    }
+  }
+
+  @VisibleForTesting
+  interface Fetcher {
+    @NonNull ListenableFuture<ProfileAndCredential> fetch(@NonNull Recipient recipient, @NonNull RequestType requestType);
+  }
+
+  public static final class Result {
+    private final List<Pair<Recipient, ProfileAndCredential>> profiles;
+    private final Set<RecipientId>                            notFound;
+    private final Set<RecipientId>                            retries;
+    private final Set<RecipientId>                            failures;
+
+    private Result(@NonNull List<Pair<Recipient, ProfileAndCredential>> profiles,
+                   @NonNull Set<RecipientId> notFound,
+                   @NonNull Set<RecipientId> retries,
+                   @NonNull Set<RecipientId> failures)
+    {
+      this.profiles = profiles;
+      this.notFound = notFound;
+      this.retries  = retries;
+      this.failures = failures;
+    }
+
+    public @NonNull List<Pair<Recipient, ProfileAndCredential>> getProfiles() {
+      return profiles;
+    }
+
+    /**
+     * Recipients the server told us don't have a profile.
+     */
+    public @NonNull Set<RecipientId> getNotFound() {
+      return notFound;
+    }
+
+    /**
+     * Recipients whose fetch failed due to network problems, or didn't finish before the deadline.
+     */
+    public @NonNull Set<RecipientId> getRetries() {
+      return retries;
+    }
+
+    /**
+     * Recipients whose fetch failed for any other reason.
+     */
+    public @NonNull Set<RecipientId> getFailures() {
+      return failures;
+    }
+  }
+
+  /**
+   * Gathers results as they come in. Anything that arrives after {@link #finish()} is ignored, since
+   * the caller has already moved on.
+   */
+  private static final class Collector {
+    private final Collection<Recipient>                       recipients;
+    private final List<Pair<Recipient, ProfileAndCredential>> profiles = new ArrayList<>();
+    private final Set<RecipientId>                            notFound = new HashSet<>();
+    private final Set<RecipientId>                            retries  = new HashSet<>();
+    private final Set<RecipientId>                            failures = new HashSet<>();
+    private final Set<RecipientId>                            finished = new HashSet<>();
+
+    private boolean closed;
+
+    private Collector(@NonNull Collection<Recipient> recipients) {
+      this.recipients = recipients;
+    }
+
+    synchronized void onSuccess(@NonNull Recipient recipient, @NonNull ProfileAndCredential profile) {
+      if (closed) return;
+
+      profiles.add(new Pair<>(recipient, profile));
+      finished.add(recipient.getId());
+    }
+
+    synchronized void onFailure(@NonNull Recipient recipient, @NonNull Throwable cause) {
+      if (closed) return;
+
+      if (cause instanceof NotFoundException) {
+        notFound.add(recipient.getId());
+      } else if (cause instanceof PushNetworkException) {
+        retries.add(recipient.getId());
+      } else {
+        Log.w(TAG, "Failed to retrieve profile for " + recipient.getId(), cause);
+        failures.add(recipient.getId());
+      }
+
+      finished.add(recipient.getId());
+    }
+
+    synchronized @NonNull Result finish() {
+      closed = true;
+
+      int unfinished = 0;
+
+      for (Recipient recipient : recipients) {
+        if (!finished.contains(recipient.getId())) {
+          retries.add(recipient.getId());
+          unfinished++;
+        }
+      }
+
+      if (unfinished > 0) {
+        Log.w(TAG, unfinished + " of " + recipients.size() + " profile fetch(es) didn't finish in time.");
+      }
+
+      return new Result(Collections.unmodifiableList(profiles),
+                        Collections.unmodifiableSet(notFound),
+                        Collections.unmodifiableSet(retries),
+                        Collections.unmodifiableSet(failures));
+    }
+  }
+
+  private static final class InFlightKey {
+    private final RecipientId recipientId;
+    private final RequestType requestType;
+
+    private InFlightKey(@NonNull RecipientId recipientId, @NonNull RequestType requestType) {
+      this.recipientId = recipientId;
+      this.requestType = requestType;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (o == null || getClass() != o.getClass()) return false;
+      InFlightKey that = (InFlightKey) o;
+      return recipientId.equals(that.recipientId) &&
+             requestType == that.requestType;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(recipientId, requestType);
+    }
+  }
+}
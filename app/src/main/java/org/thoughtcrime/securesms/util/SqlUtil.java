@@ -18,6 +18,12 @@ import java.util.Map;
 import java.util.Set;
 
 public final class SqlUtil {
+
+  /**
+   * The most arguments SQLite will accept in a single statement, by default.
+   */
+  public static final int MAX_QUERY_ARGS = 999;
+
   private SqlUtil() {}
 
 
@@ -126,6 +132,27 @@ public final class SqlUtil {
     return new Query(column + " IN (" + query.toString() + ")", buildArgs(args));
   }
 
+  /**
+   * Like {@link #buildCollectionQuery(String, Collection)}, but splits the values across as many
+   * queries as needed to stay under {@link #MAX_QUERY_ARGS}.
+   */
+  public static @NonNull List<Query> buildCollectionQueries(@NonNull String column, @NonNull Collection<? extends Object> values) {
+    return buildCollectionQueries(column, values, MAX_QUERY_ARGS);
+  }
+
+  static @NonNull List<Query> buildCollectionQueries(@NonNull String column, @NonNull Collection<? extends Object> values, int maxArgs) {
+    Preconditions.checkArgument(values.size() > 0);
+
+    List<Object> all     = new ArrayList<>(values);
+    List<Query>  queries = new ArrayList<>((all.size() + maxArgs - 1) / maxArgs);
+
+    for (int i = 0; i < all.size(); i += maxArgs) {
+      queries.add(buildCollectionQuery(column, all.subList(i, Math.min(all.size(), i + maxArgs))));
+    }
+
+    return queries;
+  }
+
   public static String[] appendArg(@NonNull String[] args, String addition) {
     String[] output = new String[args.length + 1];
 
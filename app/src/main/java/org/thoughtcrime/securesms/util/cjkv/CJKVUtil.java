@@ -25,6 +25,27 @@ public final class CJKVUtil {
     return true;
   }
 
+  /**
+   * @return True if the value has at least one CJKV character in it, ignoring spaces.
+   */
+  public static boolean containsCJKV(@Nullable String value) {
+    if (value == null) {
+      return false;
+    }
+
+    for (int offset = 0; offset < value.length(); ) {
+      int codepoint = Character.codePointAt(value, offset);
+
+      if (codepoint != (int)' ' && isCodepointCJKV(codepoint)) {
+        return true;
+      }
+
+      offset += Character.charCount(codepoint);
+    }
+
+    return false;
+  }
+
   private static boolean isCodepointCJKV(int codepoint) {
     if (codepoint == (int)' ') return true;
 
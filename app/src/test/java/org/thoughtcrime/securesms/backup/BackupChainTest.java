@@ -0,0 +1,120 @@
+package org.thoughtcrime.securesms.backup;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.signal.core.util.logging.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public final class BackupChainTest {
+
+  private static final String BASE_NAME = "signal-2021-01-02-03-04-05.backup";
+
+  static {
+    Log.initialize(new Log.Logger[0]);
+  }
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void serialize_roundTrips() {
+    BackupChain chain = BackupChain.forBase(BASE_NAME, 90, 1000, watermarks(10))
+                                   .append(2000, watermarks(20));
+
+    BackupChain deserialized = BackupChain.deserialize(chain.serialize());
+
+    assertNotNull(deserialized);
+    assertEquals(BASE_NAME, deserialized.getBaseName());
+    assertEquals(1, deserialized.getSequence());
+    assertEquals(2000, deserialized.getTimestamp());
+    assertTrue(deserialized.isWatermarked("sms"));
+    assertEquals(20, deserialized.getWatermark("sms"));
+    assertFalse(deserialized.isWatermarked("thread"));
+  }
+
+  @Test
+  public void deserialize_invalid_returnsNull() {
+    assertNull(BackupChain.deserialize(null));
+    assertNull(BackupChain.deserialize("not json"));
+  }
+
+  @Test
+  public void getDeltaFiles_stopsAtFirstGap() throws IOException {
+    File base = folder.newFile(BASE_NAME);
+    File one  = folder.newFile(BackupChain.getDeltaName(BASE_NAME, 1));
+    File two  = folder.newFile(BackupChain.getDeltaName(BASE_NAME, 2));
+
+    folder.newFile(BackupChain.getDeltaName(BASE_NAME, 4));
+
+    assertEquals("signal-2021-01-02-03-04-05.1.delta", one.getName());
+    assertEquals(Arrays.asList(one, two), BackupChain.getDeltaFiles(base));
+  }
+
+  @Test
+  public void canAppend() throws IOException {
+    BackupChain chain = BackupChain.forBase(BASE_NAME, 90, 1000, watermarks(10));
+
+    assertFalse(chain.canAppend(folder.getRoot(), 90));
+
+    folder.newFile(BASE_NAME);
+
+    assertTrue(chain.canAppend(folder.getRoot(), 90));
+    assertFalse(chain.canAppend(folder.getRoot(), 91));
+
+    BackupChain appended = chain.append(2000, watermarks(20));
+
+    assertFalse(appended.canAppend(folder.getRoot(), 90));
+
+    folder.newFile(chain.getNextDeltaName());
+
+    assertTrue(appended.canAppend(folder.getRoot(), 90));
+  }
+
+  @Test
+  public void canAppend_atMaxLength_false() throws IOException {
+    BackupChain chain = BackupChain.forBase(BASE_NAME, 90, 1000, watermarks(10));
+
+    folder.newFile(BASE_NAME);
+
+    for (int i = 0; i < BackupChain.MAX_DELTAS; i++) {
+      folder.newFile(chain.getNextDeltaName());
+      chain = chain.append(1000 + i, watermarks(10 + i));
+    }
+
+    assertFalse(chain.canAppend(folder.getRoot(), 90));
+  }
+
+  @Test
+  public void deleteOrphanedDeltas_keepsDeltasWithBase() throws IOException {
+    String otherBase = "signal-2021-01-01-00-00-00.backup";
+
+    File base    = folder.newFile(BASE_NAME);
+    File delta   = folder.newFile(BackupChain.getDeltaName(BASE_NAME, 1));
+    File orphan  = folder.newFile(BackupChain.getDeltaName(otherBase, 1));
+
+    BackupChain.deleteOrphanedDeltas(folder.getRoot());
+
+    assertTrue(base.exists());
+    assertTrue(delta.exists());
+    assertFalse(orphan.exists());
+  }
+
+  private static Map<String, Long> watermarks(long id) {
+    Map<String, Long> watermarks = new HashMap<>();
+    watermarks.put("sms", id);
+    watermarks.put("mms", id);
+    return watermarks;
+  }
+}
@@ -0,0 +1,96 @@
+package org.thoughtcrime.securesms.database;
+
+import org.junit.Test;
+import org.thoughtcrime.securesms.database.ThreadDatabase.SummaryState;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public final class ThreadDatabaseTest_summaryState {
+
+  private static final long TEXT_TYPE              = MmsSmsColumns.Types.BASE_INBOX_TYPE | MmsSmsColumns.Types.SECURE_MESSAGE_BIT | MmsSmsColumns.Types.PUSH_MESSAGE_BIT;
+  private static final long IDENTITY_UPDATE_TYPE   = MmsSmsColumns.Types.BASE_INBOX_TYPE | MmsSmsColumns.Types.KEY_EXCHANGE_IDENTITY_UPDATE_BIT;
+  private static final long IDENTITY_VERIFIED_TYPE = MmsSmsColumns.Types.BASE_INBOX_TYPE | MmsSmsColumns.Types.KEY_EXCHANGE_IDENTITY_VERIFIED_BIT;
+  private static final long END_SESSION_TYPE       = MmsSmsColumns.Types.BASE_SENT_TYPE | MmsSmsColumns.Types.END_SESSION_BIT;
+  private static final long PROFILE_CHANGE_TYPE    = MmsSmsColumns.Types.PROFILE_CHANGE_TYPE;
+  private static final long GV1_MIGRATION_TYPE     = MmsSmsColumns.Types.GV1_MIGRATION_TYPE;
+  private static final long MMS_TYPE               = MmsSmsColumns.Types.BASE_INBOX_TYPE;
+
+  @Test
+  public void isCountedInThreadSummary_textMessages_counted() {
+    assertTrue(MmsSmsColumns.Types.isCountedInThreadSummary(TEXT_TYPE));
+    assertTrue(MmsSmsColumns.Types.isCountedInThreadSummary(GV1_MIGRATION_TYPE));
+  }
+
+  @Test
+  public void isCountedInThreadSummary_excludedTypes_notCounted() {
+    assertFalse(MmsSmsColumns.Types.isCountedInThreadSummary(IDENTITY_UPDATE_TYPE));
+    assertFalse(MmsSmsColumns.Types.isCountedInThreadSummary(IDENTITY_VERIFIED_TYPE));
+    assertFalse(MmsSmsColumns.Types.isCountedInThreadSummary(END_SESSION_TYPE));
+    assertFalse(MmsSmsColumns.Types.isCountedInThreadSummary(PROFILE_CHANGE_TYPE));
+  }
+
+  @Test
+  public void hasSnippet_emptyOrUntracked_false() {
+    assertFalse(new SummaryState(0, 5, false, TEXT_TYPE).hasSnippet());
+    assertFalse(new SummaryState(3, 0, false, TEXT_TYPE).hasSnippet());
+    assertTrue(new SummaryState(3, 5, false, TEXT_TYPE).hasSnippet());
+  }
+
+  @Test
+  public void isSnippetIn_matchesTable() {
+    SummaryState state = new SummaryState(3, 5, false, TEXT_TYPE);
+
+    assertTrue(state.isSnippetIn(Arrays.asList(4L, 5L), Collections.emptyList()));
+    assertFalse(state.isSnippetIn(Collections.emptyList(), Collections.singletonList(5L)));
+    assertFalse(state.isSnippetIn(Collections.singletonList(4L), Collections.emptyList()));
+  }
+
+  @Test
+  public void countAfterInsert_mms_addsOne() {
+    assertEquals(4, new SummaryState(3, 5, true, MMS_TYPE).countAfterInsert(true));
+    assertEquals(4, new SummaryState(3, 5, false, IDENTITY_UPDATE_TYPE).countAfterInsert(true));
+  }
+
+  @Test
+  public void countAfterInsert_smsIntoThreadWithCountedSms_addsOne() {
+    assertEquals(4, new SummaryState(3, 5, false, TEXT_TYPE).countAfterInsert(false));
+  }
+
+  @Test
+  public void countAfterInsert_smsIntoThreadWithoutCountedSmsSnippet_unknown() {
+    assertEquals(SummaryState.UNKNOWN, new SummaryState(3, 5, true, MMS_TYPE).countAfterInsert(false));
+    assertEquals(SummaryState.UNKNOWN, new SummaryState(3, 5, false, IDENTITY_UPDATE_TYPE).countAfterInsert(false));
+    assertEquals(SummaryState.UNKNOWN, new SummaryState(3, 5, false, END_SESSION_TYPE).countAfterInsert(false));
+  }
+
+  @Test
+  public void countAfterDelete_mmsOnly_subtracts() {
+    assertEquals(1, new SummaryState(3, 5, false, IDENTITY_UPDATE_TYPE).countAfterDelete(Collections.emptyList(), Arrays.asList(1L, 2L)));
+    assertEquals(0, new SummaryState(2, 5, true, MMS_TYPE).countAfterDelete(Collections.emptyList(), Arrays.asList(1L, 2L)));
+  }
+
+  @Test
+  public void countAfterDelete_smsWithCountedSmsSnippet_subtracts() {
+    assertEquals(1, new SummaryState(4, 5, false, TEXT_TYPE).countAfterDelete(Arrays.asList(1L, 2L), Collections.singletonList(3L)));
+  }
+
+  @Test
+  public void countAfterDelete_smsWithMmsSnippet_unknown() {
+    assertEquals(SummaryState.UNKNOWN, new SummaryState(4, 5, true, MMS_TYPE).countAfterDelete(Collections.singletonList(1L), Collections.emptyList()));
+  }
+
+  /**
+   * Deleting the last text sms leaves only updates that don't count on their own, so the sms part
+   * of the count drops to zero rather than by one.
+   */
+  @Test
+  public void countAfterDelete_smsWithOnlyExcludedTypesLeft_unknown() {
+    assertEquals(SummaryState.UNKNOWN, new SummaryState(2, 5, false, IDENTITY_UPDATE_TYPE).countAfterDelete(Collections.singletonList(1L), Collections.emptyList()));
+    assertEquals(SummaryState.UNKNOWN, new SummaryState(2, 5, false, END_SESSION_TYPE).countAfterDelete(Collections.singletonList(1L), Collections.emptyList()));
+  }
+}
@@ -0,0 +1,270 @@
+package org.thoughtcrime.securesms.jobmanager;
+
+import android.app.Application;
+
+import androidx.annotation.NonNull;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.signal.core.util.logging.Log;
+import org.thoughtcrime.securesms.database.JobDatabase;
+import org.thoughtcrime.securesms.jobmanager.impl.JsonDataSerializer;
+import org.thoughtcrime.securesms.jobs.FastJobStorage;
+import org.thoughtcrime.securesms.util.Debouncer;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public final class JobControllerTest {
+
+  private static final long TIMEOUT_MS = 5000;
+
+  static {
+    Log.initialize(new Log.Logger[0]);
+  }
+
+  private TestJob.Factory factory;
+  private FastJobStorage  jobStorage;
+  private JobController   subject;
+  private ExecutorService runners;
+
+  @Before
+  public void setUp() {
+    JobDatabase database = mock(JobDatabase.class);
+
+    when(database.getAllJobSpecs()).thenReturn(Collections.emptyList());
+    when(database.getAllConstraintSpecs()).thenReturn(Collections.emptyList());
+    when(database.getAllDependencySpecs()).thenReturn(Collections.emptyList());
+
+    factory    = new TestJob.Factory();
+    jobStorage = new FastJobStorage(database);
+    runners    = Executors.newCachedThreadPool();
+
+    jobStorage.init();
+
+    Map<String, Job.Factory> jobFactories = Collections.singletonMap(TestJob.KEY, factory);
+
+    subject = new JobController(mock(Application.class),
+                                jobStorage,
+                                new JobInstantiator(jobFactories),
+                                new ConstraintInstantiator(Collections.emptyMap()),
+                                new JsonDataSerializer(),
+                                mock(JobTracker.class),
+                                mock(Scheduler.class),
+                                mock(Debouncer.class),
+                                mock(JobController.Callback.class));
+  }
+
+  @After
+  public void tearDown() {
+    runners.shutdownNow();
+  }
+
+  @Test
+  public void pull_jobAlreadyEligible_instantiatedOnCallingThread() {
+    TestJob job = new TestJob(null);
+
+    submit(job);
+
+    Job pulled = subject.pullNextEligibleJobForExecution(JobPredicate.NONE);
+
+    assertEquals(job.getId(), pulled.getId());
+    assertSame(Thread.currentThread(), factory.instantiatedOn.get(job.getId()));
+    assertTrue(jobStorage.getJobSpec(job.getId()).isRunning());
+  }
+
+  @Test
+  public void submit_withIdleRunner_handsJobToRunnerThatInstantiatesIt() throws Exception {
+    Future<Job> runner = pullOnRunner(JobPredicate.NONE);
+    awaitIdleRunners(1);
+
+    TestJob job = new TestJob(null);
+    submit(job);
+
+    Job pulled = runner.get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+
+    assertEquals(job.getId(), pulled.getId());
+    assertNotEquals(Thread.currentThread(), factory.instantiatedOn.get(job.getId()));
+    assertEquals(0, subject.getIdleRunnerCount());
+  }
+
+  @Test
+  public void submit_burst_eachIdleRunnerGetsADifferentJob() throws Exception {
+    List<Future<Job>> pulls = Arrays.asList(pullOnRunner(JobPredicate.NONE),
+                                            pullOnRunner(JobPredicate.NONE),
+                                            pullOnRunner(JobPredicate.NONE));
+    awaitIdleRunners(3);
+
+    submit(new TestJob(null));
+    submit(new TestJob(null));
+    submit(new TestJob(null));
+
+    Set<String> pulled = new HashSet<>();
+
+    for (Future<Job> pull : pulls) {
+      pulled.add(pull.get(TIMEOUT_MS, TimeUnit.MILLISECONDS).getId());
+    }
+
+    assertEquals(3, pulled.size());
+  }
+
+  @Test
+  public void submit_onlyWakesRunnerWhosePredicateMatches() throws Exception {
+    Future<Job> runnerA = pullOnRunner(jobSpec -> "a".equals(jobSpec.getQueueKey()));
+    Future<Job> runnerB = pullOnRunner(jobSpec -> "b".equals(jobSpec.getQueueKey()));
+    awaitIdleRunners(2);
+
+    TestJob job = new TestJob("b");
+    submit(job);
+
+    assertEquals(job.getId(), runnerB.get(TIMEOUT_MS, TimeUnit.MILLISECONDS).getId());
+    assertFalse(runnerA.isDone());
+    assertEquals(1, subject.getIdleRunnerCount());
+  }
+
+  @Test
+  public void submit_jobThatFailsToInstantiate_failsOnRunnerNotSubmitter() throws Exception {
+    Future<Job> runner = pullOnRunner(JobPredicate.NONE);
+    awaitIdleRunners(1);
+
+    TestJob job = new TestJob(null);
+    factory.failing.add(job.getId());
+
+    submit(job);
+
+    try {
+      runner.get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+      fail("Expected the runner to fail to instantiate the job.");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof IllegalStateException);
+    }
+
+    assertNull(jobStorage.getJobSpec(job.getId()));
+  }
+
+  @Test
+  public void cancel_whileBeingInstantiated_jobIsStartedCanceled() throws Exception {
+    TestJob job = new TestJob(null);
+    submit(job);
+
+    factory.blockUntilReleased();
+
+    Future<Job> runner = pullOnRunner(JobPredicate.NONE);
+
+    assertTrue(factory.entered.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+
+    subject.cancelJob(job.getId());
+    factory.release.countDown();
+
+    Job pulled = runner.get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+
+    assertEquals(job.getId(), pulled.getId());
+    assertTrue(pulled.isCanceled());
+    assertEquals(1, factory.instantiatedOn.size());
+  }
+
+  private void submit(@NonNull Job job) {
+    subject.submitNewJobChain(Collections.singletonList(Collections.singletonList(job)));
+  }
+
+  private Future<Job> pullOnRunner(@NonNull JobPredicate predicate) {
+    return runners.submit(() -> subject.pullNextEligibleJobForExecution(predicate));
+  }
+
+  private void awaitIdleRunners(int count) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+
+    while (subject.getIdleRunnerCount() < count) {
+      if (System.currentTimeMillis() > deadline) {
+        fail("Runners never went idle.");
+      }
+      Thread.sleep(5);
+    }
+  }
+
+  private static final class TestJob extends Job {
+
+    private static final String KEY = "TestJob";
+
+    private TestJob(String queue) {
+      this(new Parameters.Builder().setQueue(queue).build());
+    }
+
+    private TestJob(@NonNull Parameters parameters) {
+      super(parameters);
+    }
+
+    @Override
+    public @NonNull Data serialize() {
+      return Data.EMPTY;
+    }
+
+    @Override
+    public @NonNull String getFactoryKey() {
+      return KEY;
+    }
+
+    @Override
+    public @NonNull Result run() {
+      return Result.success();
+    }
+
+    @Override
+    public void onFailure() {
+    }
+
+    private static final class Factory implements Job.Factory<TestJob> {
+      private final Map<String, Thread> instantiatedOn = new ConcurrentHashMap<>();
+      private final Set<String>         failing        = Collections.newSetFromMap(new ConcurrentHashMap<>());
+      private final CountDownLatch      entered        = new CountDownLatch(1);
+
+      private volatile CountDownLatch release;
+
+      void blockUntilReleased() {
+        release = new CountDownLatch(1);
+      }
+
+      @Override
+      public @NonNull TestJob create(@NonNull Parameters parameters, @NonNull Data data) {
+        entered.countDown();
+
+        if (release != null) {
+          try {
+            release.await();
+          } catch (InterruptedException e) {
+            throw new AssertionError(e);
+          }
+        }
+
+        if (failing.contains(parameters.getId())) {
+          throw new IllegalStateException("Failed to instantiate.");
+        }
+
+        instantiatedOn.put(parameters.getId(), Thread.currentThread());
+        return new TestJob(parameters);
+      }
+    }
+  }
+}
@@ -0,0 +1,97 @@
+package org.thoughtcrime.securesms.jobmanager.impl;
+
+import org.junit.Ignore;
+import org.junit.Test;
+import org.thoughtcrime.securesms.jobmanager.Data;
+
+import java.util.Locale;
+
+/**
+ * Compares {@link JsonDataSerializer} and {@link BinaryDataSerializer} on the data of a small job
+ * and of a fan-out send with hundreds of recipients, like a large group's PushGroupSendJob.
+ * Not run as part of the normal test suite -- remove the {@link Ignore} to run it.
+ */
+@Ignore("Benchmark, run manually")
+public final class BinaryDataSerializerBenchmark {
+
+  private static final int RECIPIENT_COUNT    = 500;
+  private static final int WARMUP_ITERATIONS  = 5;
+  private static final int MEASURE_ITERATIONS = 10;
+  private static final int OPS_PER_ITERATION  = 2_000;
+
+  @Test
+  public void smallJob() {
+    Data data = new Data.Builder().putLong("message_id", 123456)
+                                  .putString("recipient_id", "42")
+                                  .putBoolean("is_mms", true)
+                                  .build();
+
+    compare("small job", data);
+  }
+
+  @Test
+  public void fanOutSend() {
+    String[] recipients = new String[RECIPIENT_COUNT];
+    long[]   sentAt     = new long[RECIPIENT_COUNT];
+
+    for (int i = 0; i < RECIPIENT_COUNT; i++) {
+      recipients[i] = String.valueOf(10_000 + i);
+      sentAt[i]     = 1_600_000_000_000L + i;
+    }
+
+    Data data = new Data.Builder().putLong("message_id", 123456)
+                                  .putStringArray("filter_recipients", recipients)
+                                  .putLongArray("sent_at", sentAt)
+                                  .putString("filter_recipient", null)
+                                  .build();
+
+    compare("fan-out send", data);
+  }
+
+  private static void compare(String name, Data data) {
+    Data.Serializer json   = new JsonDataSerializer();
+    Data.Serializer binary = new BinaryDataSerializer();
+
+    String jsonSerialized   = json.serialize(data);
+    String binarySerialized = binary.serialize(data);
+
+    System.out.println(String.format(Locale.US, "%s: json %d chars, binary %d chars", name, jsonSerialized.length(), binarySerialized.length()));
+
+    run(name + " | json serialize", () -> json.serialize(data));
+    run(name + " | binary serialize", () -> binary.serialize(data));
+    run(name + " | json deserialize", () -> json.deserialize(jsonSerialized));
+    run(name + " | binary deserialize", () -> binary.deserialize(binarySerialized));
+  }
+
+  private static void run(String name, Operation operation) {
+    Object blackhole = null;
+
+    for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+      for (int j = 0; j < OPS_PER_ITERATION; j++) {
+        blackhole = operation.run();
+      }
+    }
+
+    long best = Long.MAX_VALUE;
+    long sum  = 0;
+
+    for (int i = 0; i < MEASURE_ITERATIONS; i++) {
+      long start = System.nanoTime();
+
+      for (int j = 0; j < OPS_PER_ITERATION; j++) {
+        blackhole = operation.run();
+      }
+
+      long perOp = (System.nanoTime() - start) / OPS_PER_ITERATION;
+
+      best = Math.min(best, perOp);
+      sum += perOp;
+    }
+
+    System.out.println(name + ": avg " + (sum / MEASURE_ITERATIONS) + " ns/op, best " + best + " ns/op (" + System.identityHashCode(blackhole) + ")");
+  }
+
+  private interface Operation {
+    Object run();
+  }
+}
@@ -0,0 +1,94 @@
+package org.thoughtcrime.securesms.jobmanager.impl;
+
+import org.junit.Test;
+import org.signal.core.util.StreamUtil;
+import org.thoughtcrime.securesms.jobmanager.Data;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public final class BinaryDataSerializerTest {
+
+  private static final float FloatDelta = 0.00001f;
+
+  @Test
+  public void deserialize_legacyJson_dataMatchesExpected() throws IOException {
+    Data data = new BinaryDataSerializer().deserialize(StreamUtil.readFullyAsString(ClassLoader.getSystemClassLoader().getResourceAsStream("data/data_serialized.json")));
+
+    assertDataMatchesExpected(data);
+  }
+
+  @Test
+  public void serialize_roundTrip_fromLegacyJson() throws IOException {
+    BinaryDataSerializer serializer = new BinaryDataSerializer();
+    Data                 legacy     = serializer.deserialize(StreamUtil.readFullyAsString(ClassLoader.getSystemClassLoader().getResourceAsStream("data/data_serialized.json")));
+    String               serialized = serializer.serialize(legacy);
+
+    assertFalse(serialized.startsWith("{"));
+    assertDataMatchesExpected(serializer.deserialize(serialized));
+  }
+
+  @Test
+  public void serialize_roundTrip_nullsAndEmpties() {
+    BinaryDataSerializer serializer = new BinaryDataSerializer();
+    Data                 data       = new Data.Builder().putString("null", null)
+                                                        .putString("empty", "")
+                                                        .putString("unicode", "\u4f60\u597d \ud83d\udc4b")
+                                                        .putStringArray("array_with_null", new String[]{ "a", null })
+                                                        .putLongArray("empty_array", new long[0])
+                                                        .build();
+
+    Data result = serializer.deserialize(serializer.serialize(data));
+
+    assertTrue(result.hasString("null"));
+    assertNull(result.getString("null"));
+    assertEquals("", result.getString("empty"));
+    assertEquals("\u4f60\u597d \ud83d\udc4b", result.getString("unicode"));
+    assertArrayEquals(new String[]{ "a", null }, result.getStringArray("array_with_null"));
+    assertArrayEquals(new long[0], result.getLongArray("empty_array"));
+  }
+
+  @Test
+  public void serialize_roundTrip_empty() {
+    BinaryDataSerializer serializer = new BinaryDataSerializer();
+    Data                 result     = serializer.deserialize(serializer.serialize(Data.EMPTY));
+
+    assertFalse(result.hasString("s1"));
+    assertFalse(result.hasLong("l1"));
+  }
+
+  private static void assertDataMatchesExpected(Data data) {
+    assertEquals("s1 value", data.getString("s1"));
+    assertEquals("s2 value", data.getString("s2"));
+    assertArrayEquals(new String[]{ "a", "b", "c" }, data.getStringArray("s_array_1"));
+
+    assertEquals(1, data.getInt("i1"));
+    assertEquals(2, data.getInt("i2"));
+    assertEquals(Integer.MAX_VALUE, data.getInt("max"));
+    assertEquals(Integer.MIN_VALUE, data.getInt("min"));
+    assertArrayEquals(new int[]{ 1, 2, 3, Integer.MAX_VALUE, Integer.MIN_VALUE }, data.getIntegerArray("i_array_1"));
+
+    assertEquals(10, data.getLong("l1"));
+    assertEquals(20, data.getLong("l2"));
+    assertEquals(Long.MAX_VALUE, data.getLong("max"));
+    assertEquals(Long.MIN_VALUE, data.getLong("min"));
+    assertArrayEquals(new long[]{ 1, 2, 3, Long.MAX_VALUE, Long.MIN_VALUE }, data.getLongArray("l_array_1"));
+
+    assertEquals(1.2f, data.getFloat("f1"), FloatDelta);
+    assertEquals(3.4f, data.getFloat("f2"), FloatDelta);
+    assertArrayEquals(new float[]{ 5.6f, 7.8f }, data.getFloatArray("f_array_1"), FloatDelta);
+
+    assertEquals(10.2, data.getDouble("d1"), FloatDelta);
+    assertEquals(30.4, data.getDouble("d2"), FloatDelta);
+    assertArrayEquals(new double[]{ 50.6, 70.8 }, data.getDoubleArray("d_array_1"), FloatDelta);
+
+    assertTrue(data.getBoolean("b1"));
+    assertFalse(data.getBoolean("b2"));
+    assertArrayEquals(new boolean[]{ false, true }, data.getBooleanArray("b_array_1"));
+  }
+}
@@ -0,0 +1,112 @@
+package org.thoughtcrime.securesms.jobs;
+
+import org.junit.Ignore;
+import org.junit.Test;
+import org.thoughtcrime.securesms.database.JobDatabase;
+import org.thoughtcrime.securesms.jobmanager.Data;
+import org.thoughtcrime.securesms.jobmanager.impl.JsonDataSerializer;
+import org.thoughtcrime.securesms.jobmanager.persistence.JobSpec;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+/**
+ * Measures {@link FastJobStorage} with a backlog like the one left behind by a long offline period:
+ * most jobs in the single message processing queue, and the rest spread over many per-recipient
+ * attachment queues. Times how long it takes to load the backlog, and then to pick and finish jobs
+ * the way {@link org.thoughtcrime.securesms.jobmanager.JobController} does.
+ * Not run as part of the normal test suite -- remove the {@link Ignore} to run it.
+ */
+@Ignore("Benchmark, run manually")
+public final class FastJobStorageBenchmark {
+
+  private static final int[]  JOB_COUNTS    = { 10_000, 50_000, 100_000 };
+  private static final int    QUEUE_COUNT   = 500;
+  private static final int    DRAINED_JOBS  = 5_000;
+  private static final int    WARMUP_ROUNDS = 2;
+  private static final String PROCESS_QUEUE = "__PUSH_PROCESS_JOB__";
+  private static final String EMPTY_DATA    = new JsonDataSerializer().serialize(Data.EMPTY);
+
+  @Test
+  public void backlog() {
+    for (int round = 0; round < WARMUP_ROUNDS; round++) {
+      run(JOB_COUNTS[0], false);
+    }
+
+    for (int jobCount : JOB_COUNTS) {
+      run(jobCount, true);
+    }
+  }
+
+  private static void run(int jobCount, boolean print) {
+    List<JobSpec> jobs = backlog(jobCount);
+
+    long           start   = System.nanoTime();
+    FastJobStorage storage = new FastJobStorage(database(jobs));
+
+    storage.init();
+
+    long initTime = System.nanoTime() - start;
+
+    start = System.nanoTime();
+
+    int pulls = 0;
+
+    for (int i = 0; i < DRAINED_JOBS; i++) {
+      List<JobSpec> pending = storage.getPendingJobsWithNoDependenciesInCreatedOrder(System.currentTimeMillis());
+      JobSpec       next    = pending.get(0);
+
+      storage.getConstraintSpecs(next.getId());
+      storage.updateJobRunningState(next.getId(), true);
+      storage.getDependencySpecsThatDependOnJob(next.getId());
+      storage.deleteJob(next.getId());
+      pulls++;
+    }
+
+    long drainTime = System.nanoTime() - start;
+
+    assertEquals(jobCount - DRAINED_JOBS, storage.getAllJobSpecs().size());
+
+    if (print) {
+      System.out.println(String.format(Locale.US, "%6d jobs | init: %7.1f ms | pick and finish: %6.2f us/job",
+                                       jobCount,
+                                       initTime / 1_000_000.0,
+                                       drainTime / 1_000.0 / pulls));
+    }
+  }
+
+  /**
+   * Four in five jobs go to the message processing queue, and the rest are spread evenly over the
+   * other queues.
+   */
+  private static List<JobSpec> backlog(int jobCount) {
+    List<JobSpec> jobs = new ArrayList<>(jobCount);
+
+    for (int i = 0; i < jobCount; i++) {
+      boolean process = i % 5 != 0;
+      String  queue   = process ? PROCESS_QUEUE : "AttachmentDownloadJob" + (i % QUEUE_COUNT);
+      String  factory = process ? "PushProcessJob" : "AttachmentDownloadJob";
+
+      jobs.add(new JobSpec("id" + i, factory, queue, i, 0, 0, 5, -1, EMPTY_DATA, null, false, false));
+    }
+
+    return jobs;
+  }
+
+  private static JobDatabase database(List<JobSpec> jobs) {
+    JobDatabase database = mock(JobDatabase.class, withSettings().stubOnly());
+
+    when(database.getAllJobSpecs()).thenReturn(jobs);
+    when(database.getAllConstraintSpecs()).thenReturn(Collections.emptyList());
+    when(database.getAllDependencySpecs()).thenReturn(Collections.emptyList());
+
+    return database;
+  }
+}
@@ -434,6 +434,84 @@ public class FastJobStorageTest {
     assertTrue(jobs.isEmpty());
   }
 
+  @Test
+  public void getPendingJobsWithNoDependenciesInCreatedOrder_nextInQueueEligibleAfterFirstDeleted() {
+    FullSpec fullSpec1 = new FullSpec(new JobSpec("1", "f1", "q", 0, 0, 0, 0, -1, EMPTY_DATA, null, false, false),
+                                      Collections.emptyList(),
+                                      Collections.emptyList());
+    FullSpec fullSpec2 = new FullSpec(new JobSpec("2", "f2", "q", 0, 0, 0, 0, -1, EMPTY_DATA, null, false, false),
+                                      Collections.emptyList(),
+                                      Collections.emptyList());
+
+    FastJobStorage subject = new FastJobStorage(fixedDataDatabase(Arrays.asList(fullSpec1, fullSpec2)));
+    subject.init();
+    subject.deleteJob("1");
+
+    List<JobSpec> jobs = subject.getPendingJobsWithNoDependenciesInCreatedOrder(10);
+
+    assertEquals(1, jobs.size());
+    assertEquals("2", jobs.get(0).getId());
+  }
+
+  @Test
+  public void getPendingJobsWithNoDependenciesInCreatedOrder_eligibleAfterDependencyDeleted() {
+    FullSpec fullSpec1 = new FullSpec(new JobSpec("1", "f1", null, 0, 0, 0, 0, -1, EMPTY_DATA, null, true, false),
+                                      Collections.emptyList(),
+                                      Collections.emptyList());
+    FullSpec fullSpec2 = new FullSpec(new JobSpec("2", "f2", null, 0, 0, 0, 0, -1, EMPTY_DATA, null, false, false),
+                                      Collections.emptyList(),
+                                      Collections.singletonList(new DependencySpec("2", "1", false)));
+
+    FastJobStorage subject = new FastJobStorage(noopDatabase());
+    subject.insertJobs(Arrays.asList(fullSpec1, fullSpec2));
+    subject.deleteJob("1");
+
+    List<JobSpec> jobs = subject.getPendingJobsWithNoDependenciesInCreatedOrder(10);
+
+    assertEquals(1, jobs.size());
+    assertEquals("2", jobs.get(0).getId());
+  }
+
+  @Test
+  public void getPendingJobsWithNoDependenciesInCreatedOrder_eligibleAfterNoLongerRunning() {
+    FullSpec fullSpec = new FullSpec(new JobSpec("1", "f1", "q", 0, 0, 0, 0, -1, EMPTY_DATA, null, false, false),
+                                     Collections.emptyList(),
+                                     Collections.emptyList());
+
+    FastJobStorage subject = new FastJobStorage(fixedDataDatabase(Collections.singletonList(fullSpec)));
+    subject.init();
+
+    subject.updateJobRunningState("1", true);
+    assertEquals(0, subject.getPendingJobsWithNoDependenciesInCreatedOrder(10).size());
+
+    subject.updateJobAfterRetry("1", false, 1, 20, EMPTY_DATA);
+    assertEquals(0, subject.getPendingJobsWithNoDependenciesInCreatedOrder(10).size());
+    assertEquals(1, subject.getPendingJobsWithNoDependenciesInCreatedOrder(20).size());
+  }
+
+  @Test
+  public void getPendingJobsWithNoDependenciesInCreatedOrder_sortedByCreateTimeAcrossQueues() {
+    FullSpec fullSpec1 = new FullSpec(new JobSpec("1", "f1", "q1", 3, 0, 0, 0, -1, EMPTY_DATA, null, false, false),
+                                      Collections.emptyList(),
+                                      Collections.emptyList());
+    FullSpec fullSpec2 = new FullSpec(new JobSpec("2", "f2", "q2", 1, 5, 0, 0, -1, EMPTY_DATA, null, false, false),
+                                      Collections.emptyList(),
+                                      Collections.emptyList());
+    FullSpec fullSpec3 = new FullSpec(new JobSpec("3", "f3", null, 2, 1, 0, 0, -1, EMPTY_DATA, null, false, false),
+                                      Collections.emptyList(),
+                                      Collections.emptyList());
+
+    FastJobStorage subject = new FastJobStorage(fixedDataDatabase(Arrays.asList(fullSpec1, fullSpec2, fullSpec3)));
+    subject.init();
+
+    List<JobSpec> jobs = subject.getPendingJobsWithNoDependenciesInCreatedOrder(10);
+
+    assertEquals(3, jobs.size());
+    assertEquals("2", jobs.get(0).getId());
+    assertEquals("3", jobs.get(1).getId());
+    assertEquals("1", jobs.get(2).getId());
+  }
+
   @Test
   public void deleteJobs_writesToDatabase() {
     JobDatabase    database = fixedDataDatabase(DataSet1.FULL_SPECS);
@@ -556,6 +634,45 @@ public class FastJobStorageTest {
     assertEquals(0, subject.getJobCountForQueue("does-not-exist"));
   }
 
+  @Test
+  public void getJobsInQueue_createdOrder() {
+    FullSpec fullSpec1 = new FullSpec(new JobSpec("1", "f1", "q", 2, 0, 0, 0, -1, EMPTY_DATA, null, false, false),
+                                      Collections.emptyList(),
+                                      Collections.emptyList());
+    FullSpec fullSpec2 = new FullSpec(new JobSpec("2", "f1", "q", 1, 0, 0, 0, -1, EMPTY_DATA, null, false, false),
+                                      Collections.emptyList(),
+                                      Collections.emptyList());
+    FullSpec fullSpec3 = new FullSpec(new JobSpec("3", "f1", "q", 2, 0, 0, 0, -1, EMPTY_DATA, null, false, false),
+                                      Collections.emptyList(),
+                                      Collections.emptyList());
+
+    FastJobStorage subject = new FastJobStorage(fixedDataDatabase(Arrays.asList(fullSpec1, fullSpec2, fullSpec3)));
+    subject.init();
+
+    List<JobSpec> result = subject.getJobsInQueue("q");
+
+    assertEquals(3, result.size());
+    assertEquals("2", result.get(0).getId());
+    assertEquals("1", result.get(1).getId());
+    assertEquals("3", result.get(2).getId());
+  }
+
+  @Test
+  public void getJobCountForFactoryAndQueue_updatedAfterDeleteAndUpdate() {
+    FastJobStorage subject = new FastJobStorage(fixedDataDatabase(DataSet1.FULL_SPECS));
+
+    subject.init();
+    subject.deleteJob("id1");
+    subject.updateJobs(Collections.singletonList(new JobSpec("id2", "f3", "q3", 1, 2, 3, 4, 5, EMPTY_DATA, null, false, false)));
+
+    assertEquals(0, subject.getJobCountForFactory("f1"));
+    assertEquals(0, subject.getJobCountForFactory("f2"));
+    assertEquals(2, subject.getJobCountForFactory("f3"));
+    assertEquals(0, subject.getJobCountForQueue("q1"));
+    assertEquals(0, subject.getJobCountForQueue("q2"));
+    assertEquals(2, subject.getJobCountForQueue("q3"));
+  }
+
   private JobDatabase noopDatabase() {
     JobDatabase database = mock(JobDatabase.class);
 
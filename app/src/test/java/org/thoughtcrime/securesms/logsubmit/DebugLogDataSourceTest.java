@@ -0,0 +1,95 @@
+package org.thoughtcrime.securesms.logsubmit;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.signal.core.util.logging.Log;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public final class DebugLogDataSourceTest {
+
+  static {
+    Log.initialize(new Log.Logger[0]);
+  }
+
+  private DebugLogDataSource dataSource;
+
+  @Before
+  public void setUp() {
+    List<LogLine> lines = new ArrayList<>();
+
+    for (String text : Arrays.asList("zero", "one", "two", "three", "four", "five")) {
+      lines.add(new CompleteLogLine(lines.size(), new SimpleLogLine(text, LogLine.Style.NONE, LogLine.Placeholder.NONE)));
+    }
+
+    dataSource = new DebugLogDataSource(StreamingLogLines.create(lines, null));
+  }
+
+  @Test
+  public void load_skipsDeletedLines() {
+    dataSource.delete(0);
+    dataSource.delete(2);
+    dataSource.delete(3);
+
+    assertEquals(3, dataSource.size());
+    assertEquals(Arrays.asList("one", "four", "five"), texts(dataSource.load(0, 3, () -> false)));
+    assertEquals(Arrays.asList("four", "five"), texts(dataSource.load(1, 5, () -> false)));
+    assertEquals(Arrays.asList("five"), texts(dataSource.load(2, 1, () -> false)));
+    assertNull(dataSource.load(2L));
+  }
+
+  @Test
+  public void search_ignoresCaseAndDeletedLines() throws IOException {
+    dataSource.delete(4);
+
+    List<LogLine> matches = dataSource.search("O", () -> false);
+
+    assertEquals(Arrays.asList("zero", "one", "two"), texts(matches));
+  }
+
+  @Test
+  public void matches_replaceFullLogUntilCleared() throws IOException {
+    dataSource.setMatches(dataSource.search("o", () -> false));
+    dataSource.delete(1);
+
+    assertEquals(3, dataSource.size());
+    assertEquals(Arrays.asList("zero", "two", "four"), texts(dataSource.load(0, 10, () -> false)));
+
+    dataSource.setMatches(null);
+
+    assertEquals(5, dataSource.size());
+    assertEquals(Arrays.asList("zero", "two", "three", "four", "five"), texts(forEach(dataSource)));
+  }
+
+  @Test
+  public void search_canceled_returnsNull() throws IOException {
+    assertNull(dataSource.search("o", () -> true));
+  }
+
+  private static List<String> texts(List<LogLine> lines) {
+    List<String> texts = new ArrayList<>(lines.size());
+
+    for (LogLine line : lines) {
+      texts.add(line.getText());
+    }
+
+    return texts;
+  }
+
+  private static List<LogLine> forEach(LogLineSource source) throws IOException {
+    List<LogLine> lines = new ArrayList<>();
+
+    source.forEach(line -> {
+      lines.add(line);
+      return true;
+    });
+
+    return lines;
+  }
+}
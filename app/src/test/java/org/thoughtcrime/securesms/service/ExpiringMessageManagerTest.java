@@ -0,0 +1,159 @@
+package org.thoughtcrime.securesms.service;
+
+import android.content.Context;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.signal.core.util.logging.Log;
+import org.thoughtcrime.securesms.database.MessageDatabase;
+import org.thoughtcrime.securesms.database.MessageDatabase.ExpirationInfo;
+import org.thoughtcrime.securesms.database.MmsSmsDatabase;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.thoughtcrime.securesms.service.ExpiringMessageManager.BATCH_TOLERANCE;
+import static org.thoughtcrime.securesms.service.ExpiringMessageManager.WINDOW;
+
+public final class ExpiringMessageManagerTest {
+
+  private static final long NOW = 1_600_000_000_000L;
+
+  static {
+    Log.initialize(new Log.Logger[0]);
+  }
+
+  private MessageDatabase        smsDatabase;
+  private MessageDatabase        mmsDatabase;
+  private MmsSmsDatabase         mmsSmsDatabase;
+  private ExpiringMessageManager subject;
+
+  @Before
+  public void setUp() {
+    Context context = mock(Context.class);
+
+    when(context.getApplicationContext()).thenReturn(context);
+
+    smsDatabase    = mock(MessageDatabase.class);
+    mmsDatabase    = mock(MessageDatabase.class);
+    mmsSmsDatabase = mock(MmsSmsDatabase.class);
+
+    when(smsDatabase.getExpiringMessages(anyLong())).thenReturn(Collections.emptyList());
+    when(mmsDatabase.getExpiringMessages(anyLong())).thenReturn(Collections.emptyList());
+    when(smsDatabase.getNearestExpiration(anyLong())).thenReturn(-1L);
+    when(mmsDatabase.getNearestExpiration(anyLong())).thenReturn(-1L);
+
+    subject = new ExpiringMessageManager(context, smsDatabase, mmsDatabase, mmsSmsDatabase);
+  }
+
+  @Test
+  public void processNext_initially_loadsWindow() {
+    assertTrue(subject.processNext(NOW));
+
+    verify(smsDatabase).getExpiringMessages(NOW + WINDOW);
+    verify(mmsDatabase).getExpiringMessages(NOW + WINDOW);
+    verify(smsDatabase).getNearestExpiration(NOW + WINDOW);
+    verify(mmsDatabase).getNearestExpiration(NOW + WINDOW);
+  }
+
+  @Test
+  public void processNext_beforeFirstExpiration_doesNothing() {
+    when(smsDatabase.getExpiringMessages(anyLong())).thenReturn(Collections.singletonList(sms(1, NOW + 1000)));
+
+    subject.processNext(NOW);
+
+    assertFalse(subject.processNext(NOW + 999));
+    verify(mmsSmsDatabase, never()).deleteExpiredMessages(any(), any());
+  }
+
+  @Test
+  public void processNext_deletesEverythingDueWithinToleranceTogether() {
+    when(smsDatabase.getExpiringMessages(anyLong())).thenReturn(Arrays.asList(sms(1, NOW + 1000),
+                                                                              sms(2, NOW + 1000 + BATCH_TOLERANCE),
+                                                                              sms(3, NOW + 1000 + BATCH_TOLERANCE + 1)));
+    when(mmsDatabase.getExpiringMessages(anyLong())).thenReturn(Collections.singletonList(mms(4, NOW + 1200)));
+
+    subject.processNext(NOW);
+
+    assertTrue(subject.processNext(NOW + 1000));
+    verify(mmsSmsDatabase).deleteExpiredMessages(Arrays.asList(1L, 2L), Collections.singletonList(4L));
+
+    assertTrue(subject.processNext(NOW + 1000 + BATCH_TOLERANCE + 1));
+    verify(mmsSmsDatabase).deleteExpiredMessages(Collections.singletonList(3L), Collections.emptyList());
+  }
+
+  @Test
+  public void scheduleDeletion_insideWindow_deletedWithoutReload() {
+    subject.processNext(NOW);
+    subject.scheduleDeletion(1, true, NOW, 1000);
+
+    assertFalse(subject.processNext(NOW + 999));
+    assertTrue(subject.processNext(NOW + 1000));
+
+    verify(mmsSmsDatabase).deleteExpiredMessages(Collections.emptyList(), Collections.singletonList(1L));
+    verify(smsDatabase, times(1)).getExpiringMessages(anyLong());
+  }
+
+  @Test
+  public void scheduleDeletion_whileLoadingWindow_isNotLost() {
+    when(smsDatabase.getExpiringMessages(anyLong())).thenAnswer(invocation -> {
+      subject.scheduleDeletion(1, false, NOW, 1000);
+      subject.scheduleDeletion(2, false, NOW, WINDOW + 60_000);
+      return Collections.emptyList();
+    });
+
+    subject.processNext(NOW);
+
+    assertTrue(subject.processNext(NOW + 1000));
+    verify(mmsSmsDatabase).deleteExpiredMessages(Collections.singletonList(1L), Collections.emptyList());
+
+    assertFalse(subject.processNext(NOW + WINDOW + 59_999));
+    assertTrue(subject.processNext(NOW + WINDOW + 60_000));
+    verify(smsDatabase).getExpiringMessages(NOW + WINDOW + 60_000 + WINDOW);
+  }
+
+  @Test
+  public void processNext_emptyWindow_waitsForNextLoad() {
+    long nextLoadAt = NOW + WINDOW + 60_000;
+
+    when(mmsDatabase.getNearestExpiration(anyLong())).thenReturn(nextLoadAt);
+
+    subject.processNext(NOW);
+
+    assertFalse(subject.processNext(nextLoadAt - 1));
+    verify(smsDatabase, times(1)).getExpiringMessages(anyLong());
+
+    assertTrue(subject.processNext(nextLoadAt));
+    verify(smsDatabase).getExpiringMessages(nextLoadAt + WINDOW);
+  }
+
+  @Test
+  public void processNext_emptyWindowAndNothingLater_waitsForSchedule() {
+    subject.processNext(NOW);
+
+    assertFalse(subject.processNext(NOW + WINDOW * 100));
+
+    subject.scheduleDeletion(1, false, NOW + WINDOW * 100, WINDOW * 2);
+
+    assertFalse(subject.processNext(NOW + WINDOW * 102 - 1));
+    assertTrue(subject.processNext(NOW + WINDOW * 102));
+    verify(smsDatabase).getExpiringMessages(NOW + WINDOW * 103);
+  }
+
+  private static ExpirationInfo sms(long id, long expiresAt) {
+    return new ExpirationInfo(id, expiresAt - NOW, NOW, false);
+  }
+
+  private static ExpirationInfo mms(long id, long expiresAt) {
+    return new ExpirationInfo(id, expiresAt - NOW, NOW, true);
+  }
+}
@@ -0,0 +1,153 @@
+package org.thoughtcrime.securesms.util;
+
+import org.junit.Test;
+import org.thoughtcrime.securesms.recipients.Recipient;
+import org.thoughtcrime.securesms.recipients.RecipientId;
+import org.whispersystems.signalservice.api.profiles.ProfileAndCredential;
+import org.whispersystems.signalservice.api.profiles.SignalServiceProfile.RequestType;
+import org.whispersystems.signalservice.api.push.exceptions.NotFoundException;
+import org.whispersystems.signalservice.api.push.exceptions.PushNetworkException;
+import org.whispersystems.signalservice.internal.util.concurrent.SettableFuture;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public final class ProfileFetchSchedulerTest {
+
+  @Test
+  public void fetch_sortsResultsByOutcome() {
+    Recipient success  = recipient(1);
+    Recipient notFound = recipient(2);
+    Recipient network  = recipient(3);
+    Recipient other    = recipient(4);
+
+    ProfileAndCredential profile = mock(ProfileAndCredential.class);
+
+    ProfileFetchScheduler.Result result = ProfileFetchScheduler.fetch(Arrays.asList(success, notFound, network, other),
+                                                                     r -> RequestType.PROFILE,
+                                                                     (r, type) -> {
+                                                                       SettableFuture<ProfileAndCredential> future = new SettableFuture<>();
+
+                                                                       if      (r == success)  future.set(profile);
+                                                                       else if (r == notFound) future.setException(new NotFoundException("nope"));
+                                                                       else if (r == network)  future.setException(new PushNetworkException("nope"));
+                                                                       else                    future.setException(new IOException("nope"));
+
+                                                                       return future;
+                                                                     },
+                                                                     2,
+                                                                     1000);
+
+    assertEquals(1, result.getProfiles().size());
+    assertEquals(success, result.getProfiles().get(0).first());
+    assertEquals(profile, result.getProfiles().get(0).second());
+    assertEquals(Collections.singleton(notFound.getId()), result.getNotFound());
+    assertEquals(Collections.singleton(network.getId()), result.getRetries());
+    assertEquals(Collections.singleton(other.getId()), result.getFailures());
+  }
+
+  @Test
+  public void fetch_neverExceedsMaxInFlight() {
+    List<Recipient> recipients = new ArrayList<>();
+
+    for (int i = 0; i < 20; i++) {
+      recipients.add(recipient(100 + i));
+    }
+
+    AtomicInteger inFlight    = new AtomicInteger();
+    AtomicInteger maxInFlight = new AtomicInteger();
+
+    ProfileFetchScheduler.Result result = ProfileFetchScheduler.fetch(recipients,
+                                                                     r -> RequestType.PROFILE,
+                                                                     (r, type) -> {
+                                                                       SettableFuture<ProfileAndCredential> future = new SettableFuture<>();
+
+                                                                       maxInFlight.set(Math.max(maxInFlight.get(), inFlight.incrementAndGet()));
+
+                                                                       new Thread(() -> {
+                                                                         try {
+                                                                           Thread.sleep(5);
+                                                                         } catch (InterruptedException e) {
+                                                                           throw new AssertionError(e);
+                                                                         }
+                                                                         inFlight.decrementAndGet();
+                                                                         future.set(mock(ProfileAndCredential.class));
+                                                                       }).start();
+
+                                                                       return future;
+                                                                     },
+                                                                     3,
+                                                                     5000);
+
+    assertEquals(20, result.getProfiles().size());
+    assertTrue(maxInFlight.get() <= 3);
+  }
+
+  @Test
+  public void fetch_unfinishedAtDeadline_areRetries() {
+    Recipient                            fast       = recipient(200);
+    Recipient                            slow       = recipient(201);
+    SettableFuture<ProfileAndCredential> slowFuture = new SettableFuture<>();
+
+    ProfileFetchScheduler.Result result = ProfileFetchScheduler.fetch(Arrays.asList(fast, slow),
+                                                                     r -> RequestType.PROFILE,
+                                                                     (r, type) -> {
+                                                                       if (r == slow) {
+                                                                         return slowFuture;
+                                                                       }
+
+                                                                       SettableFuture<ProfileAndCredential> future = new SettableFuture<>();
+                                                                       future.set(mock(ProfileAndCredential.class));
+                                                                       return future;
+                                                                     },
+                                                                     2,
+                                                                     50);
+
+    assertEquals(1, result.getProfiles().size());
+    assertEquals(Collections.singleton(slow.getId()), result.getRetries());
+
+    slowFuture.set(mock(ProfileAndCredential.class));
+  }
+
+  @Test
+  public void fetch_sharesInFlightRequests() {
+    Recipient                                              recipient = recipient(300);
+    Map<RequestType, SettableFuture<ProfileAndCredential>> started   = new HashMap<>();
+    AtomicInteger                                          calls     = new AtomicInteger();
+
+    ProfileFetchScheduler.Fetcher fetcher = (r, type) -> {
+      SettableFuture<ProfileAndCredential> future = new SettableFuture<>();
+      started.put(type, future);
+      calls.incrementAndGet();
+      return future;
+    };
+
+    ProfileFetchScheduler.fetch(Collections.singletonList(recipient), r -> RequestType.PROFILE_AND_CREDENTIAL, fetcher, 1, 10);
+    ProfileFetchScheduler.fetch(Collections.singletonList(recipient), r -> RequestType.PROFILE, fetcher, 1, 10);
+    ProfileFetchScheduler.fetch(Collections.singletonList(recipient), r -> RequestType.PROFILE_AND_CREDENTIAL, fetcher, 1, 10);
+
+    assertEquals(1, calls.get());
+    assertTrue(started.containsKey(RequestType.PROFILE_AND_CREDENTIAL));
+
+    started.get(RequestType.PROFILE_AND_CREDENTIAL).set(mock(ProfileAndCredential.class));
+
+    assertEquals(0, ProfileFetchScheduler.getInFlightCount());
+  }
+
+  private static Recipient recipient(long id) {
+    Recipient recipient = mock(Recipient.class);
+    when(recipient.getId()).thenReturn(RecipientId.from(id));
+    return recipient;
+  }
+}
@@ -10,6 +10,7 @@ import org.robolectric.annotation.Config;
 
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
@@ -114,4 +115,31 @@ public final class SqlUtilTest {
   public void buildCollectionQuery_none() {
     SqlUtil.buildCollectionQuery("a", Collections.emptyList());
   }
+
+  @Test
+  public void buildCollectionQueries_underLimit() {
+    List<SqlUtil.Query> queries = SqlUtil.buildCollectionQueries("a", Arrays.asList(1, 2, 3), 3);
+
+    assertEquals(1, queries.size());
+    assertEquals("a IN (?, ?, ?)", queries.get(0).getWhere());
+    assertArrayEquals(new String[] { "1", "2", "3" }, queries.get(0).getWhereArgs());
+  }
+
+  @Test
+  public void buildCollectionQueries_overLimit() {
+    List<SqlUtil.Query> queries = SqlUtil.buildCollectionQueries("a", Arrays.asList(1, 2, 3, 4, 5), 2);
+
+    assertEquals(3, queries.size());
+    assertEquals("a IN (?, ?)", queries.get(0).getWhere());
+    assertArrayEquals(new String[] { "1", "2" }, queries.get(0).getWhereArgs());
+    assertEquals("a IN (?, ?)", queries.get(1).getWhere());
+    assertArrayEquals(new String[] { "3", "4" }, queries.get(1).getWhereArgs());
+    assertEquals("a IN (?)", queries.get(2).getWhere());
+    assertArrayEquals(new String[] { "5" }, queries.get(2).getWhereArgs());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void buildCollectionQueries_none() {
+    SqlUtil.buildCollectionQueries("a", Collections.emptyList());
+  }
 }
@@ -63,4 +63,31 @@ public class CJKVUtilTest {
     assertTrue(result);
   }
 
-}
\ No newline at end of file
+  @Test
+  public void givenOneNonCJKVChar_whenContainsCJKV_thenIExpectTrue() {
+    // WHEN
+    boolean result = CJKVUtil.containsCJKV(MIXED_CHARS);
+
+    // THEN
+    assertTrue(result);
+  }
+
+  @Test
+  public void givenNoCJKVChars_whenContainsCJKV_thenIExpectFalse() {
+    // WHEN
+    boolean result = CJKVUtil.containsCJKV(NON_CJKV_CHAR + " " + NON_CJKV_CHAR);
+
+    // THEN
+    assertFalse(result);
+  }
+
+  @Test
+  public void givenNull_whenContainsCJKV_thenIExpectFalse() {
+    // WHEN
+    boolean result = CJKVUtil.containsCJKV(null);
+
+    // THEN
+    assertFalse(result);
+  }
+
+}
@@ -0,0 +1,386 @@
+package org.signal.core.util;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A thread-safe, bounded cache that doesn't lock on reads.
+ *
+ * Entries are spread across a number of independent segments by hash. Reads go straight to a
+ * segment's {@link ConcurrentHashMap} and only mark the entry as referenced. Writes lock a single
+ * segment, and are also where eviction happens.
+ *
+ * Each segment uses a segmented LRU policy. New entries start out on probation. Entries that are
+ * read again before they reach the end of probation are promoted to a protected region, which
+ * takes up most of the segment. This means that a burst of entries that are only seen once (like a
+ * scroll through a long list) can't push out entries that are read over and over.
+ *
+ * Segments are bounded by weight, which is 1 per entry unless a {@link Weigher} is provided.
+ */
+public final class ConcurrentLruCache<K, V> {
+
+  private static final int MAX_SEGMENTS       = 16;
+  private static final int MIN_SEGMENT_WEIGHT = 32;
+
+  private final Segment<K, V>[] segments;
+  private final int             segmentMask;
+  private final Weigher<K, V>   weigher;
+
+  public ConcurrentLruCache(int maxSize) {
+    this(maxSize, (key, value) -> 1);
+  }
+
+  @SuppressWarnings("unchecked")
+  public ConcurrentLruCache(long maxWeight, @NonNull Weigher<K, V> weigher) {
+    if (maxWeight <= 0) {
+      throw new IllegalArgumentException("Max weight must be positive: " + maxWeight);
+    }
+
+    int segmentCount = segmentCountFor(maxWeight);
+
+    this.segments    = new Segment[segmentCount];
+    this.segmentMask = segmentCount - 1;
+    this.weigher     = weigher;
+
+    for (int i = 0; i < segmentCount; i++) {
+      long segmentWeight = maxWeight / segmentCount + (i < maxWeight % segmentCount ? 1 : 0);
+      segments[i] = new Segment<>(segmentWeight);
+    }
+  }
+
+  public @Nullable V get(@NonNull K key) {
+    return segmentFor(key).get(key);
+  }
+
+  /**
+   * @return The previous value for the key, if any.
+   */
+  public @Nullable V put(@NonNull K key, @NonNull V value) {
+    return segmentFor(key).put(key, value, weigher.weigh(key, value));
+  }
+
+  /**
+   * Adds the value only if there's no entry for the key yet. Checking and adding happen atomically,
+   * so only one of several racing callers will have its value added.
+   *
+   * @return The existing value for the key, if any, in which case the cache is left unchanged.
+   */
+  public @Nullable V putIfAbsent(@NonNull K key, @NonNull V value) {
+    return segmentFor(key).putIfAbsent(key, value, weigher.weigh(key, value));
+  }
+
+  /**
+   * @return The value for the key, if it was present.
+   */
+  public @Nullable V remove(@NonNull K key) {
+    return segmentFor(key).remove(key);
+  }
+
+  public void clear() {
+    for (Segment<K, V> segment : segments) {
+      segment.clear();
+    }
+  }
+
+  public int size() {
+    int size = 0;
+
+    for (Segment<K, V> segment : segments) {
+      size += segment.map.size();
+    }
+
+    return size;
+  }
+
+  public @NonNull Stats stats() {
+    long hits      = 0;
+    long misses    = 0;
+    long evictions = 0;
+
+    for (Segment<K, V> segment : segments) {
+      hits      += segment.hits.get();
+      misses    += segment.misses.get();
+      evictions += segment.evictions.get();
+    }
+
+    return new Stats(hits, misses, evictions);
+  }
+
+  private @NonNull Segment<K, V> segmentFor(@NonNull Object key) {
+    int hash = key.hashCode();
+    hash ^= (hash >>> 16);
+    hash *= 0x45d9f3b;
+    hash ^= (hash >>> 16);
+
+    return segments[hash & segmentMask];
+  }
+
+  /**
+   * Splitting a small cache into many segments makes its eviction order less accurate, so segments
+   * are only added while each one still holds a reasonable number of entries.
+   */
+  private static int segmentCountFor(long maxWeight) {
+    int count = 1;
+
+    while (count < MAX_SEGMENTS && maxWeight / (count * 2) >= MIN_SEGMENT_WEIGHT) {
+      count *= 2;
+    }
+
+    return count;
+  }
+
+  public interface Weigher<K, V> {
+    /**
+     * @return The relative size of an entry, which must not change while it's in the cache.
+     */
+    int weigh(@NonNull K key, @NonNull V value);
+  }
+
+  public static final class Stats {
+    private final long hitCount;
+    private final long missCount;
+    private final long evictionCount;
+
+    private Stats(long hitCount, long missCount, long evictionCount) {
+      this.hitCount      = hitCount;
+      this.missCount     = missCount;
+      this.evictionCount = evictionCount;
+    }
+
+    public long getHitCount() {
+      return hitCount;
+    }
+
+    public long getMissCount() {
+      return missCount;
+    }
+
+    public long getEvictionCount() {
+      return evictionCount;
+    }
+
+    public double getHitRate() {
+      long requests = hitCount + missCount;
+      return requests == 0 ? 1.0 : (double) hitCount / requests;
+    }
+
+    @Override
+    public @NonNull String toString() {
+      return "hits: " + hitCount + ", misses: " + missCount + ", evictions: " + evictionCount;
+    }
+  }
+
+  private static final class Segment<K, V> {
+
+    private final ConcurrentHashMap<K, Node<K, V>> map;
+
+    private final AtomicLong hits      = new AtomicLong();
+    private final AtomicLong misses    = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    private final long maxWeight;
+    private final long maxProtectedWeight;
+
+    private final Node<K, V> probation = Node.sentinel();
+    private final Node<K, V> protect   = Node.sentinel();
+
+    private long weight;
+    private long protectedWeight;
+
+    private Segment(long maxWeight) {
+      this.map                = new ConcurrentHashMap<>();
+      this.maxWeight          = maxWeight;
+      this.maxProtectedWeight = maxWeight * 4 / 5;
+    }
+
+    @Nullable V get(@NonNull K key) {
+      Node<K, V> node = map.get(key);
+
+      if (node == null) {
+        misses.incrementAndGet();
+        return null;
+      }
+
+      if (!node.referenced) {
+        node.referenced = true;
+      }
+
+      hits.incrementAndGet();
+      return node.value;
+    }
+
+    synchronized @Nullable V put(@NonNull K key, @NonNull V value, int nodeWeight) {
+      Node<K, V> existing = map.get(key);
+      V          previous = null;
+
+      if (existing != null) {
+        previous = existing.value;
+
+        existing.value      = value;
+        existing.referenced = true;
+
+        weight += nodeWeight - existing.weight;
+        if (existing.inProtected) {
+          protectedWeight += nodeWeight - existing.weight;
+        }
+        existing.weight = nodeWeight;
+      } else {
+        Node<K, V> node = new Node<>(key, value, nodeWeight);
+
+        map.put(key, node);
+        node.linkBefore(probation);
+        weight += nodeWeight;
+      }
+
+      evict();
+
+      return previous;
+    }
+
+    synchronized @Nullable V putIfAbsent(@NonNull K key, @NonNull V value, int nodeWeight) {
+      Node<K, V> existing = map.get(key);
+
+      if (existing != null) {
+        existing.referenced = true;
+        return existing.value;
+      }
+
+      return put(key, value, nodeWeight);
+    }
+
+    synchronized @Nullable V remove(@NonNull K key) {
+      Node<K, V> node = map.remove(key);
+
+      if (node == null) {
+        return null;
+      }
+
+      unlink(node);
+      return node.value;
+    }
+
+    synchronized void clear() {
+      map.clear();
+
+      probation.prev = probation.next = probation;
+      protect.prev   = protect.next   = protect;
+
+      weight          = 0;
+      protectedWeight = 0;
+    }
+
+    /**
+     * Entries that were read while on probation get a second chance in the protected region, and
+     * entries pushed out of the protected region go back to the end of probation. Readers can keep
+     * setting the referenced flag while this runs, so the number of second chances is bounded.
+     */
+    private void evict() {
+      int secondChances = map.size() * 2;
+
+      while (weight > maxWeight) {
+        if (probation.next == probation) {
+          if (protect.next == protect) {
+            break;
+          }
+
+          demote(protect.next);
+          continue;
+        }
+
+        Node<K, V> candidate = probation.next;
+
+        if (candidate.referenced && secondChances-- > 0) {
+          candidate.referenced = false;
+          promote(candidate);
+        } else {
+          map.remove(candidate.key, candidate);
+          unlink(candidate);
+          evictions.incrementAndGet();
+        }
+      }
+    }
+
+    private void promote(@NonNull Node<K, V> node) {
+      node.unlink();
+      node.linkBefore(protect);
+      node.inProtected = true;
+      protectedWeight += node.weight;
+
+      int secondChances = map.size();
+
+      while (protectedWeight > maxProtectedWeight) {
+        Node<K, V> eldest = protect.next;
+
+        if (eldest.referenced && eldest != node && secondChances-- > 0) {
+          eldest.referenced = false;
+          eldest.unlink();
+          eldest.linkBefore(protect);
+        } else {
+          demote(eldest);
+        }
+      }
+    }
+
+    private void demote(@NonNull Node<K, V> node) {
+      node.unlink();
+      node.linkBefore(probation);
+      node.inProtected = false;
+      protectedWeight -= node.weight;
+    }
+
+    private void unlink(@NonNull Node<K, V> node) {
+      node.unlink();
+      weight -= node.weight;
+
+      if (node.inProtected) {
+        protectedWeight -= node.weight;
+      }
+    }
+  }
+
+  private static final class Node<K, V> {
+    private final K key;
+
+    private volatile V       value;
+    private volatile boolean referenced;
+
+    private int        weight;
+    private boolean    inProtected;
+    private Node<K, V> prev;
+    private Node<K, V> next;
+
+    private Node(K key, V value, int weight) {
+      this.key    = key;
+      this.value  = value;
+      this.weight = weight;
+    }
+
+    static <K, V> Node<K, V> sentinel() {
+      Node<K, V> node = new Node<>(null, null, 0);
+      node.prev = node;
+      node.next = node;
+      return node;
+    }
+
+    /**
+     * Inserts this node before the given one. Inserting before a sentinel adds it to the end of
+     * that list.
+     */
+    void linkBefore(@NonNull Node<K, V> other) {
+      prev       = other.prev;
+      next       = other;
+      prev.next  = this;
+      other.prev = this;
+    }
+
+    void unlink() {
+      prev.next = next;
+      next.prev = prev;
+      prev      = null;
+      next      = null;
+    }
+  }
+}
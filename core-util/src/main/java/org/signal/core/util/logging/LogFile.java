@@ -1,6 +1,7 @@
 package org.signal.core.util.logging;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import org.signal.core.util.Conversions;
 import org.signal.core.util.StreamUtil;
@@ -12,6 +13,9 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
@@ -25,21 +29,30 @@ import javax.crypto.ShortBufferException;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 
-class LogFile {
+/**
+ * A log file is a series of frames, each of which is [16 byte IV][4 byte length][ciphertext]. A
+ * frame's plaintext is one or more newline-separated entries, so frames written one entry at a
+ * time and frames written in batches can be read the same way, even when both are in one file.
+ *
+ * Frames can also hold arbitrary bytes, which is how traces are spilled to disk.
+ */
+public class LogFile {
 
   public static class Writer {
 
     private final byte[]        ivBuffer         = new byte[16];
     private final GrowingBuffer ciphertextBuffer = new GrowingBuffer();
 
-    private final byte[]               secret;
+    private final SecretKeySpec        key;
     private final File                 file;
     private final Cipher               cipher;
+    private final SecureRandom         random;
     private final BufferedOutputStream outputStream;
 
-    Writer(@NonNull byte[] secret, @NonNull File file) throws IOException {
-      this.secret       = secret;
+    public Writer(@NonNull byte[] secret, @NonNull File file) throws IOException {
+      this.key          = new SecretKeySpec(secret, "AES");
       this.file         = file;
+      this.random       = new SecureRandom();
       this.outputStream = new BufferedOutputStream(new FileOutputStream(file, true));
 
       try {
@@ -49,49 +62,78 @@ class LogFile {
       }
     }
 
-    void writeEntry(@NonNull String entry) throws IOException {
-      new SecureRandom().nextBytes(ivBuffer);
+    /**
+     * Writes several entries as a single frame. The entries must be separated by newlines, without
+     * a trailing one. Nothing is guaranteed to reach the disk until {@link #flush()} is called.
+     */
+    public void writeFrame(@NonNull byte[] plaintext, int length) throws IOException {
+      random.nextBytes(ivBuffer);
 
-      byte[] plaintext = entry.getBytes();
       try {
-        cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(secret, "AES"), new IvParameterSpec(ivBuffer));
+        cipher.init(Cipher.ENCRYPT_MODE, key, new IvParameterSpec(ivBuffer));
 
-        int    cipherLength = cipher.getOutputSize(plaintext.length);
+        int    cipherLength = cipher.getOutputSize(length);
         byte[] ciphertext   = ciphertextBuffer.get(cipherLength);
-        cipherLength = cipher.doFinal(plaintext, 0, plaintext.length, ciphertext);
+        cipherLength = cipher.doFinal(plaintext, 0, length, ciphertext);
 
         outputStream.write(ivBuffer);
         outputStream.write(Conversions.intToByteArray(cipherLength));
         outputStream.write(ciphertext, 0, cipherLength);
-
-        outputStream.flush();
       } catch (ShortBufferException | InvalidAlgorithmParameterException | InvalidKeyException | BadPaddingException | IllegalBlockSizeException e) {
         throw new AssertionError(e);
       }
     }
 
-    long getLogSize() {
+    public void flush() throws IOException {
+      outputStream.flush();
+    }
+
+    public long getLogSize() {
       return file.length();
     }
 
-    void close() {
+    public void close() {
       StreamUtil.close(outputStream);
     }
   }
 
-  static class Reader {
+  public static class Reader {
 
     private final byte[]        ivBuffer         = new byte[16];
     private final byte[]        intBuffer        = new byte[4];
     private final GrowingBuffer ciphertextBuffer = new GrowingBuffer();
 
-    private final byte[]              secret;
+    private final SecretKeySpec       key;
     private final Cipher              cipher;
     private final BufferedInputStream inputStream;
 
-    Reader(@NonNull byte[] secret, @NonNull File file) throws IOException {
-      this.secret      = secret;
-      this.inputStream = new BufferedInputStream(new FileInputStream(file));
+    private long position;
+
+    public Reader(@NonNull byte[] secret, @NonNull File file) throws IOException {
+      this(secret, file, 0);
+    }
+
+    /**
+     * @param position The offset of the frame to start reading from, as given by {@link #getPosition()}.
+     */
+    Reader(@NonNull byte[] secret, @NonNull File file, long position) throws IOException {
+      this(secret, openAt(file, position), position);
+    }
+
+    /**
+     * Reads from a file that's already open, without moving the channel's own position, so several
+     * readers can share it. Closing this reader leaves the channel open.
+     *
+     * @param position The offset of the frame to start reading from, as given by {@link #getPosition()}.
+     */
+    Reader(@NonNull byte[] secret, @NonNull FileChannel channel, long position) {
+      this(secret, new ChannelInputStream(channel, position), position);
+    }
+
+    private Reader(@NonNull byte[] secret, @NonNull InputStream inputStream, long position) {
+      this.key         = new SecretKeySpec(secret, "AES");
+      this.inputStream = new BufferedInputStream(inputStream);
+      this.position    = position;
 
       try {
         this.cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
@@ -103,15 +145,34 @@ class LogFile {
     String readAll() throws IOException {
       StringBuilder builder = new StringBuilder();
 
-      String entry;
-      while ((entry = readEntry()) != null) {
-        builder.append(entry).append('\n');
+      String frame;
+      while ((frame = readFrame()) != null) {
+        builder.append(frame).append('\n');
       }
 
       return builder.toString();
     }
 
-    private String readEntry() throws IOException {
+    /**
+     * @return The offset of the next frame in the file.
+     */
+    long getPosition() {
+      return position;
+    }
+
+    /**
+     * @return The plaintext of the next frame, which may hold several newline-separated entries, or
+     *         null if there are no more complete frames.
+     */
+    @Nullable String readFrame() throws IOException {
+      byte[] plaintext = readFrameBytes();
+      return plaintext != null ? new String(plaintext) : null;
+    }
+
+    /**
+     * @return The plaintext of the next frame, or null if there are no more complete frames.
+     */
+    public @Nullable byte[] readFrameBytes() throws IOException {
       try {
         StreamUtil.readFully(inputStream, ivBuffer);
         StreamUtil.readFully(inputStream, intBuffer);
@@ -122,10 +183,12 @@ class LogFile {
         StreamUtil.readFully(inputStream, ciphertext, length);
 
         try {
-          cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(secret, "AES"), new IvParameterSpec(ivBuffer));
+          cipher.init(Cipher.DECRYPT_MODE, key, new IvParameterSpec(ivBuffer));
           byte[] plaintext = cipher.doFinal(ciphertext, 0, length);
 
-          return new String(plaintext);
+          position += ivBuffer.length + intBuffer.length + length;
+
+          return plaintext;
         } catch (InvalidKeyException | InvalidAlgorithmParameterException | IllegalBlockSizeException | BadPaddingException e) {
           throw new AssertionError(e);
         }
@@ -133,5 +196,55 @@ class LogFile {
         return null;
       }
     }
+
+    public void close() {
+      StreamUtil.close(inputStream);
+    }
+
+    private static @NonNull InputStream openAt(@NonNull File file, long position) throws IOException {
+      FileInputStream fileInputStream = new FileInputStream(file);
+
+      if (position > 0) {
+        fileInputStream.getChannel().position(position);
+      }
+
+      return fileInputStream;
+    }
+  }
+
+  /**
+   * Reads a channel from a position of its own using positional reads.
+   */
+  private static final class ChannelInputStream extends InputStream {
+
+    private final FileChannel channel;
+
+    private long position;
+
+    private ChannelInputStream(@NonNull FileChannel channel, long position) {
+      this.channel  = channel;
+      this.position = position;
+    }
+
+    @Override
+    public int read() throws IOException {
+      byte[] buffer = new byte[1];
+      return read(buffer, 0, 1) > 0 ? buffer[0] & 0xFF : -1;
+    }
+
+    @Override
+    public int read(@NonNull byte[] buffer, int offset, int length) throws IOException {
+      if (length == 0) {
+        return 0;
+      }
+
+      int read = channel.read(ByteBuffer.wrap(buffer, offset, length), position);
+
+      if (read > 0) {
+        position += read;
+      }
+
+      return read;
+    }
   }
 }
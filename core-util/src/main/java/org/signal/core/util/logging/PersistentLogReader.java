@@ -0,0 +1,212 @@
+package org.signal.core.util.logging;
+
+import android.annotation.SuppressLint;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import org.signal.core.util.StreamUtil;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/**
+ * Reads the lines written by a {@link PersistentLogger}, oldest first, decrypting one frame at a
+ * time so that only a small part of the logs is ever in memory.
+ *
+ * You can remember where you are with {@link #getPosition()} and later come back to it with
+ * {@link #seek(Position)}, which is enough to page through the logs without holding onto them.
+ *
+ * The files are opened up front and held open until the reader is closed, so a log rotation that
+ * deletes one of them while we're reading can't shift positions or change what's read. Readers made
+ * with {@link #duplicate()} share the open files with the reader they came from.
+ */
+@SuppressLint("LogNotSignal")
+public final class PersistentLogReader implements Closeable {
+
+  private static final String TAG = PersistentLogReader.class.getSimpleName();
+
+  private static final String[] EMPTY = new String[0];
+
+  private final byte[]            secret;
+  private final FileInputStream[] files;
+  private final boolean           ownsFiles;
+
+  private LogFile.Reader reader;
+  private int            fileIndex;
+  private long           frameOffset;
+  private String[]       frameLines;
+  private int            frameLineIndex;
+
+  /**
+   * @param files The log files, oldest first. Any that can't be opened are skipped.
+   */
+  PersistentLogReader(@NonNull byte[] secret, @NonNull File[] files) {
+    this(secret, open(files), true);
+  }
+
+  private PersistentLogReader(@NonNull byte[] secret, @NonNull FileInputStream[] files, boolean ownsFiles) {
+    this.secret     = secret;
+    this.files      = files;
+    this.ownsFiles  = ownsFiles;
+    this.fileIndex  = -1;
+    this.frameLines = EMPTY;
+  }
+
+  /**
+   * @return The next line, or null if there are no more.
+   */
+  @WorkerThread
+  public @Nullable String readLine() throws IOException {
+    while (frameLineIndex >= frameLines.length) {
+      if (!readNextFrame()) {
+        return null;
+      }
+    }
+
+    return frameLines[frameLineIndex++];
+  }
+
+  /**
+   * @return The position of the line that the next call to {@link #readLine()} will return.
+   */
+  public @NonNull Position getPosition() {
+    if (frameLineIndex < frameLines.length) {
+      return new Position(fileIndex, frameOffset, frameLineIndex);
+    } else if (reader != null) {
+      return new Position(fileIndex, reader.getPosition(), 0);
+    } else {
+      return new Position(fileIndex + 1, 0, 0);
+    }
+  }
+
+  /**
+   * Moves to a position previously returned by {@link #getPosition()}, possibly from a different
+   * reader over the same files.
+   */
+  @WorkerThread
+  public void seek(@NonNull Position position) throws IOException {
+    closeReader();
+
+    fileIndex      = position.fileIndex;
+    frameLines     = EMPTY;
+    frameLineIndex = 0;
+
+    if (fileIndex >= 0 && fileIndex < files.length) {
+      openReader(position.frameOffset);
+    }
+
+    if (position.lineIndex > 0) {
+      if (readNextFrameInFile()) {
+        frameLineIndex = Math.min(position.lineIndex, frameLines.length);
+      }
+    }
+  }
+
+  /**
+   * @return A new reader over the same files, starting from the beginning, that can be used
+   *         independently of (and concurrently with) this one for as long as this one is open.
+   */
+  public @NonNull PersistentLogReader duplicate() {
+    return new PersistentLogReader(secret, files, false);
+  }
+
+  /**
+   * Closes the files as well, unless this reader is a duplicate.
+   */
+  @Override
+  public void close() {
+    closeReader();
+
+    if (ownsFiles) {
+      for (FileInputStream file : files) {
+        StreamUtil.close(file);
+      }
+    }
+  }
+
+  /**
+   * Reads the next frame, moving on to the next file if needed.
+   *
+   * @return False if there are no more frames.
+   */
+  private boolean readNextFrame() throws IOException {
+    while (true) {
+      if (reader != null && readNextFrameInFile()) {
+        return true;
+      }
+
+      closeReader();
+
+      if (fileIndex + 1 >= files.length) {
+        fileIndex = files.length;
+        return false;
+      }
+
+      fileIndex++;
+      openReader(0);
+    }
+  }
+
+  private boolean readNextFrameInFile() throws IOException {
+    if (reader == null) {
+      return false;
+    }
+
+    long   offset = reader.getPosition();
+    String frame  = reader.readFrame();
+
+    if (frame == null) {
+      return false;
+    }
+
+    frameOffset    = offset;
+    frameLines     = frame.split("\n", -1);
+    frameLineIndex = 0;
+
+    return true;
+  }
+
+  private void openReader(long offset) {
+    reader = files[fileIndex] != null ? new LogFile.Reader(secret, files[fileIndex].getChannel(), offset) : null;
+  }
+
+  private static @NonNull FileInputStream[] open(@NonNull File[] files) {
+    FileInputStream[] opened = new FileInputStream[files.length];
+
+    for (int i = 0; i < files.length; i++) {
+      try {
+        opened[i] = new FileInputStream(files[i]);
+      } catch (IOException e) {
+        android.util.Log.w(TAG, "Failed to open log at index " + i + ". Skipping.");
+      }
+    }
+
+    return opened;
+  }
+
+  private void closeReader() {
+    if (reader != null) {
+      reader.close();
+      reader = null;
+    }
+  }
+
+  /**
+   * A line's position in the logs. Only meaningful to readers over the same set of files.
+   */
+  public static final class Position {
+    private final int  fileIndex;
+    private final long frameOffset;
+    private final int  lineIndex;
+
+    private Position(int fileIndex, long frameOffset, int lineIndex) {
+      this.fileIndex   = fileIndex;
+      this.frameOffset = frameOffset;
+      this.lineIndex   = lineIndex;
+    }
+  }
+}
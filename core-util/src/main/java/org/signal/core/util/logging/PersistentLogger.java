@@ -16,13 +16,24 @@ import java.io.PrintStream;
 import java.text.SimpleDateFormat;
 import java.util.Arrays;
 import java.util.Date;
-import java.util.LinkedList;
-import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.Executor;
-import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
-
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Writes encrypted logs to disk. Logging threads only add entries to a lock-free
+ * {@link RingBuffer}. A single writer thread formats them and writes them out in batches, each
+ * batch as one encrypted frame, either every {@link #FLUSH_INTERVAL_MS} or sooner if the buffer
+ * starts to fill up.
+ *
+ * If the buffer is full, verbose, debug and info entries are dropped, and the number dropped is
+ * logged once there's room. Warnings and errors are never dropped: the thread logging them wakes
+ * the writer and waits for room instead.
+ */
 @SuppressLint("LogNotSignal")
 public final class PersistentLogger extends Log.Logger {
 
@@ -35,19 +46,35 @@ public final class PersistentLogger extends Log.Logger {
   private static final String LOG_E   = "E";
   private static final String LOG_WTF = "A";
 
-  private static final String           LOG_DIRECTORY   = "log";
-  private static final String           FILENAME_PREFIX = "log-";
-  private static final int              MAX_LOG_FILES   = 7;
-  private static final int              MAX_LOG_SIZE    = 300 * 1024;
-  private static final SimpleDateFormat DATE_FORMAT     = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS zzz");
-
-  private final Context  context;
-  private final Executor executor;
-  private final byte[]   secret;
-  private final String   logTag;
+  private static final String LOG_DIRECTORY   = "log";
+  private static final String FILENAME_PREFIX = "log-";
+  private static final int    MAX_LOG_FILES   = 7;
+  private static final int    MAX_LOG_SIZE    = 300 * 1024;
+
+  private static final int  BUFFER_CAPACITY   = 8192;
+  private static final int  MAX_FRAME_SIZE    = 16 * 1024;
+  private static final long FLUSH_INTERVAL_MS = 500;
+  private static final long FULL_RETRY_NANOS  = TimeUnit.MICROSECONDS.toNanos(100);
+
+  private final SimpleDateFormat secondFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+  private final SimpleDateFormat zoneFormat   = new SimpleDateFormat("zzz");
+  private final Date             date         = new Date();
+  private final StringBuilder    frame        = new StringBuilder(MAX_FRAME_SIZE + 1024);
+
+  private final Context              context;
+  private final byte[]               secret;
+  private final String               logTag;
+  private final RingBuffer<LogEntry> buffer;
+  private final Queue<Runnable>      tasks;
+  private final AtomicInteger        dropped;
+  private final Thread               writerThread;
 
   private LogFile.Writer writer;
 
+  private long   cachedSecond = -1;
+  private String cachedSecondString;
+  private String cachedZoneString;
+
   private ThreadLocal<String> cachedThreadString;
 
   public PersistentLogger(@NonNull Context context, @NonNull byte[] secret, @NonNull String logTag) {
@@ -55,13 +82,14 @@ public final class PersistentLogger extends Log.Logger {
     this.secret             = secret;
     this.logTag             = logTag;
     this.cachedThreadString = new ThreadLocal<>();
-    this.executor           = Executors.newSingleThreadExecutor(r -> {
-      Thread thread = new Thread(r, "signal-PersistentLogger");
-      thread.setPriority(Thread.MIN_PRIORITY);
-      return thread;
-    });
-
-    executor.execute(this::initializeWriter);
+    this.buffer             = new RingBuffer<>(BUFFER_CAPACITY);
+    this.tasks              = new ConcurrentLinkedQueue<>();
+    this.dropped            = new AtomicInteger();
+    this.writerThread       = new Thread(this::runWriter, "signal-PersistentLogger");
+
+    writerThread.setPriority(Thread.MIN_PRIORITY);
+    writerThread.setDaemon(true);
+    writerThread.start();
   }
 
   @Override
@@ -98,7 +126,7 @@ public final class PersistentLogger extends Log.Logger {
   public void blockUntilAllWritesFinished() {
     CountDownLatch latch = new CountDownLatch(1);
 
-    executor.execute(latch::countDown);
+    execute(latch::countDown);
 
     try {
       latch.await();
@@ -107,29 +135,30 @@ public final class PersistentLogger extends Log.Logger {
     }
   }
 
+  /**
+   * Returns a reader over everything that's been logged so far, oldest first. Lines are decrypted
+   * lazily as they're read, so this is cheap no matter how large the logs are.
+   *
+   * The files are opened on the writer thread, which is the only place old logs are deleted, so
+   * they're all open before any of them can be rotated away.
+   */
   @WorkerThread
-  public @Nullable CharSequence getLogs() {
-    CountDownLatch                latch = new CountDownLatch(1);
-    AtomicReference<CharSequence> logs  = new AtomicReference<>();
-
-    executor.execute(() -> {
-      StringBuilder builder = new StringBuilder();
+  public @Nullable PersistentLogReader getLogReader() {
+    CountDownLatch                       latch  = new CountDownLatch(1);
+    AtomicReference<PersistentLogReader> reader = new AtomicReference<>();
 
+    execute(() -> {
       try {
-        File[] logFiles = getSortedLogFiles();
-        for (int i = logFiles.length - 1; i >= 0; i--) {
-          try {
-            LogFile.Reader reader = new LogFile.Reader(secret, logFiles[i]);
-            builder.append(reader.readAll());
-          } catch (IOException e) {
-            android.util.Log.w(TAG, "Failed to read log at index " + i + ". Removing reference.");
-            logFiles[i].delete();
-          }
+        File[] logFiles    = getSortedLogFiles();
+        File[] oldestFirst = new File[logFiles.length];
+
+        for (int i = 0; i < logFiles.length; i++) {
+          oldestFirst[i] = logFiles[logFiles.length - 1 - i];
         }
 
-        logs.set(builder);
+        reader.set(new PersistentLogReader(secret, oldestFirst));
       } catch (IOException e) {
-        logs.set(null);
+        android.util.Log.w(TAG, "Failed to list log files.", e);
       }
 
       latch.countDown();
@@ -137,11 +166,12 @@ public final class PersistentLogger extends Log.Logger {
 
     try {
       latch.await();
-      return logs.get();
     } catch (InterruptedException e) {
       android.util.Log.w(TAG, "Failed to wait for logs to be retrieved.");
       return null;
     }
+
+    return reader.get();
   }
 
   @WorkerThread
@@ -167,30 +197,140 @@ public final class PersistentLogger extends Log.Logger {
       cachedThreadString.set(threadString);
     }
 
-    final String finalThreadString = threadString;
+    LogEntry entry = new LogEntry(level, tag, message, t, threadString, System.currentTimeMillis());
+
+    if (!buffer.offer(entry)) {
+      LockSupport.unpark(writerThread);
+
+      if (!isDroppable(level) && offerWhenRoom(entry)) {
+        return;
+      }
+
+      dropped.incrementAndGet();
+    } else if (buffer.size() > buffer.capacity() / 2) {
+      LockSupport.unpark(writerThread);
+    }
+  }
+
+  private static boolean isDroppable(@NonNull String level) {
+    return LOG_V.equals(level) || LOG_D.equals(level) || LOG_I.equals(level);
+  }
+
+  /**
+   * Waits for the writer to make room for the entry. Only gives up if waiting can't help: when
+   * we're on the writer thread ourselves, or it has died.
+   *
+   * @return True if the entry was added.
+   */
+  @AnyThread
+  private boolean offerWhenRoom(@NonNull LogEntry entry) {
+    if (Thread.currentThread() == writerThread) {
+      return false;
+    }
+
+    while (writerThread.isAlive()) {
+      LockSupport.parkNanos(this, FULL_RETRY_NANOS);
+
+      if (buffer.offer(entry)) {
+        return true;
+      }
+
+      LockSupport.unpark(writerThread);
+    }
+
+    return false;
+  }
+
+  /**
+   * Runs the task on the writer thread, after everything that has been logged so far is written.
+   */
+  @AnyThread
+  private void execute(@NonNull Runnable task) {
+    tasks.add(task);
+    LockSupport.unpark(writerThread);
+  }
 
-    executor.execute(() -> {
+  @WorkerThread
+  private void runWriter() {
+    initializeWriter();
+
+    while (true) {
       try {
-        if (writer == null) {
-          return;
-        }
+        drain();
 
-        if (writer.getLogSize() >= MAX_LOG_SIZE) {
-          writer.close();
-          writer = new LogFile.Writer(secret, createNewLogFile());
-          trimLogFilesOverMax();
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+          drain();
+          task.run();
         }
+      } catch (RuntimeException e) {
+        android.util.Log.e(TAG, "Failed while writing logs.", e);
+      }
+
+      if (buffer.size() == 0 && tasks.isEmpty()) {
+        LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(FLUSH_INTERVAL_MS));
+      }
+    }
+  }
 
-        for (String entry : buildLogEntries(level, tag, message, t, finalThreadString)) {
-          writer.writeEntry(entry);
+  /**
+   * Writes out everything in the buffer, at most {@link #MAX_FRAME_SIZE} characters per frame, and
+   * then flushes.
+   */
+  @WorkerThread
+  private void drain() {
+    try {
+      int droppedCount = dropped.getAndSet(0);
+
+      if (droppedCount > 0) {
+        appendEntry(LOG_W, TAG, "Dropped " + droppedCount + " log entries because the buffer was full.", System.currentTimeMillis(), String.format("%-4s", Thread.currentThread().getId()));
+      }
+
+      boolean  wroteFrame = false;
+      LogEntry entry;
+
+      while ((entry = buffer.poll()) != null) {
+        appendEntries(entry);
+
+        if (frame.length() >= MAX_FRAME_SIZE) {
+          writeFrame();
+          wroteFrame = true;
         }
+      }
 
-      } catch (IOException e) {
-        android.util.Log.w(TAG, "Failed to write line. Deleting all logs and starting over.");
-        deleteAllLogs();
-        initializeWriter();
+      if (frame.length() > 0) {
+        writeFrame();
+        wroteFrame = true;
       }
-    });
+
+      if (wroteFrame && writer != null) {
+        writer.flush();
+      }
+    } catch (IOException e) {
+      android.util.Log.w(TAG, "Failed to write lines. Deleting all logs and starting over.");
+      frame.setLength(0);
+      deleteAllLogs();
+      initializeWriter();
+    }
+  }
+
+  @WorkerThread
+  private void writeFrame() throws IOException {
+    if (writer == null) {
+      frame.setLength(0);
+      return;
+    }
+
+    if (writer.getLogSize() >= MAX_LOG_SIZE) {
+      writer.close();
+      writer = new LogFile.Writer(secret, createNewLogFile());
+      trimLogFilesOverMax();
+    }
+
+    byte[] plaintext = frame.toString().getBytes();
+    frame.setLength(0);
+
+    writer.writeFrame(plaintext, plaintext.length);
   }
 
   private void trimLogFilesOverMax() throws IOException {
@@ -244,28 +384,71 @@ public final class PersistentLogger extends Log.Logger {
     return logDir;
   }
 
-  private List<String> buildLogEntries(String level, String tag, String message, Throwable t, String threadString) {
-    List<String> entries = new LinkedList<>();
-    Date         date    = new Date();
+  private void appendEntries(@NonNull LogEntry entry) {
+    appendEntry(entry.level, entry.tag, entry.message, entry.timestamp, entry.threadString);
 
-    entries.add(buildEntry(level, tag, message, date, threadString));
-
-    if (t != null) {
+    if (entry.throwable != null) {
       ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-      t.printStackTrace(new PrintStream(outputStream));
+      entry.throwable.printStackTrace(new PrintStream(outputStream));
 
       String   trace = new String(outputStream.toByteArray());
       String[] lines = trace.split("\\n");
 
       for (String line : lines) {
-        entries.add(buildEntry(level, tag, line, date, threadString));
+        appendEntry(entry.level, entry.tag, line, entry.timestamp, entry.threadString);
       }
     }
+  }
+
+  private void appendEntry(String level, String tag, String message, long timestamp, String threadString) {
+    if (frame.length() > 0) {
+      frame.append('\n');
+    }
 
-    return entries;
+    frame.append('[').append(logTag).append("] [").append(threadString).append("] ");
+    appendDate(timestamp);
+    frame.append(' ').append(level).append(' ').append(tag).append(": ").append(message);
   }
 
-  private String buildEntry(String level, String tag, String message, Date date, String threadString) {
-    return '[' + logTag + "] [" + threadString + "] " + DATE_FORMAT.format(date) + ' ' + level + ' ' + tag + ": " + message;
+  /**
+   * Equivalent to formatting with "yyyy-MM-dd HH:mm:ss.SSS zzz", but only uses the (slow)
+   * {@link SimpleDateFormat} once per second.
+   */
+  private void appendDate(long timestamp) {
+    long second = timestamp / 1000;
+    int  millis = (int) (timestamp % 1000);
+
+    if (second != cachedSecond) {
+      date.setTime(timestamp);
+
+      cachedSecond       = second;
+      cachedSecondString = secondFormat.format(date);
+      cachedZoneString   = zoneFormat.format(date);
+    }
+
+    frame.append(cachedSecondString).append('.');
+
+    if (millis < 100) frame.append('0');
+    if (millis < 10)  frame.append('0');
+
+    frame.append(millis).append(' ').append(cachedZoneString);
+  }
+
+  private static final class LogEntry {
+    private final String    level;
+    private final String    tag;
+    private final String    message;
+    private final Throwable throwable;
+    private final String    threadString;
+    private final long      timestamp;
+
+    private LogEntry(String level, String tag, String message, Throwable throwable, String threadString, long timestamp) {
+      this.level        = level;
+      this.tag          = tag;
+      this.message      = message;
+      this.throwable    = throwable;
+      this.threadString = threadString;
+      this.timestamp    = timestamp;
+    }
   }
 }
@@ -0,0 +1,96 @@
+package org.signal.core.util.logging;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded, lock-free queue for many producers and a single consumer. Each slot carries a
+ * sequence number that tells producers and the consumer whose turn it is to use it, so producers
+ * only ever contend on a single compare-and-set of the tail.
+ *
+ * {@link #poll()} must only ever be called from one thread at a time.
+ */
+final class RingBuffer<E> {
+
+  private final int                     mask;
+  private final AtomicReferenceArray<E> items;
+  private final AtomicLongArray         sequences;
+  private final AtomicLong              tail = new AtomicLong();
+
+  private volatile long head;
+
+  /**
+   * @param capacity Will be rounded up to the next power of two.
+   */
+  RingBuffer(int capacity) {
+    int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+
+    this.mask      = size - 1;
+    this.items     = new AtomicReferenceArray<>(size);
+    this.sequences = new AtomicLongArray(size);
+
+    for (int i = 0; i < size; i++) {
+      sequences.set(i, i);
+    }
+  }
+
+  /**
+   * @return False if the buffer is full, in which case the item was not added.
+   */
+  boolean offer(@NonNull E item) {
+    long position = tail.get();
+
+    while (true) {
+      int  index    = (int) (position & mask);
+      long sequence = sequences.get(index);
+      long diff     = sequence - position;
+
+      if (diff == 0) {
+        if (tail.compareAndSet(position, position + 1)) {
+          items.lazySet(index, item);
+          sequences.set(index, position + 1);
+          return true;
+        }
+        position = tail.get();
+      } else if (diff < 0) {
+        return false;
+      } else {
+        position = tail.get();
+      }
+    }
+  }
+
+  /**
+   * @return The oldest item, or null if there's nothing that's finished being added.
+   */
+  @Nullable E poll() {
+    int  index    = (int) (head & mask);
+    long sequence = sequences.get(index);
+
+    if (sequence != head + 1) {
+      return null;
+    }
+
+    E item = items.get(index);
+    items.lazySet(index, null);
+    sequences.set(index, head + mask + 1);
+    head++;
+
+    return item;
+  }
+
+  /**
+   * An estimate, since producers may be adding items while this is read.
+   */
+  int size() {
+    return (int) Math.max(0, tail.get() - head);
+  }
+
+  int capacity() {
+    return mask + 1;
+  }
+}
@@ -0,0 +1,194 @@
+package org.signal.core.util.tracing;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.lang.ref.WeakReference;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A fixed-size ring of trace events for a single thread. Events are stored in parallel primitive
+ * arrays, so recording one is just a handful of array writes -- no locks and no allocations. An
+ * event with a single key and value keeps them in arrays of their own, so that the common case of
+ * annotating an event doesn't need a map either.
+ *
+ * Only the owning thread may call {@link #add}, {@link #sampleBegin(int)} and
+ * {@link #sampleEnd()}, and only one thread at a time may call {@link #drain(Visitor)}. If the
+ * buffer is full when an event comes in, the event is dropped rather than blocking the thread.
+ */
+final class TraceBuffer {
+
+  static final byte TYPE_BEGIN = 1;
+  static final byte TYPE_END   = 2;
+
+  private static final int MAX_SAMPLE_DEPTH = 64;
+
+  private final long                  threadId;
+  private final String                threadName;
+  private final WeakReference<Thread> thread;
+  private final int                   mask;
+  private final byte[]                types;
+  private final long[]                timestamps;
+  private final long[]                trackIds;
+  private final String[]              names;
+  private final String[]              keys;
+  private final String[]              keyValues;
+  private final Object[]              values;
+  private final AtomicLong            written;
+  private final AtomicInteger         dropped;
+
+  private volatile long read;
+
+  private long sampledOut;
+  private int  depth;
+  private int  sampleCounter;
+
+  /**
+   * @param capacity Will be rounded up to the next power of two.
+   */
+  TraceBuffer(@NonNull Thread thread, int capacity) {
+    int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+
+    this.threadId   = thread.getId();
+    this.threadName = thread.getName();
+    this.thread     = new WeakReference<>(thread);
+    this.mask       = size - 1;
+    this.types      = new byte[size];
+    this.timestamps = new long[size];
+    this.trackIds   = new long[size];
+    this.names      = new String[size];
+    this.keys       = new String[size];
+    this.keyValues  = new String[size];
+    this.values     = new Object[size];
+    this.written    = new AtomicLong();
+    this.dropped    = new AtomicInteger();
+  }
+
+  long getThreadId() {
+    return threadId;
+  }
+
+  @NonNull String getThreadName() {
+    return threadName;
+  }
+
+  boolean isThreadAlive() {
+    Thread owner = thread.get();
+    return owner != null && owner.isAlive();
+  }
+
+  /**
+   * @return False if the buffer was full and the event was dropped.
+   */
+  boolean add(byte type, long timestamp, long trackId, @NonNull String name, @Nullable Map<String, String> eventValues) {
+    return add(type, timestamp, trackId, name, null, null, eventValues);
+  }
+
+  /**
+   * @return False if the buffer was full and the event was dropped.
+   */
+  boolean add(byte type, long timestamp, long trackId, @NonNull String name, @NonNull String key, @Nullable String value) {
+    return add(type, timestamp, trackId, name, key, value, null);
+  }
+
+  private boolean add(byte type, long timestamp, long trackId, @NonNull String name, @Nullable String key, @Nullable String value, @Nullable Map<String, String> eventValues) {
+    long position = written.get();
+
+    if (position - read > mask) {
+      dropped.incrementAndGet();
+      return false;
+    }
+
+    int index = (int) (position & mask);
+
+    types[index]      = type;
+    timestamps[index] = timestamp;
+    trackIds[index]   = trackId;
+    names[index]      = name;
+    keys[index]       = key;
+    keyValues[index]  = value;
+    values[index]     = eventValues;
+
+    written.lazySet(position + 1);
+    return true;
+  }
+
+  /**
+   * An estimate, since the owning thread may be adding events while this is read.
+   */
+  int size() {
+    return (int) (written.get() - read);
+  }
+
+  int capacity() {
+    return mask + 1;
+  }
+
+  /**
+   * Decides whether to record the start of a slice, keeping 1 in every {@code oneInN}. The decision
+   * is remembered so that the matching {@link #sampleEnd()} can make the same one.
+   */
+  boolean sampleBegin(int oneInN) {
+    boolean record = oneInN <= 1 || sampleCounter++ % oneInN == 0;
+
+    if (depth < MAX_SAMPLE_DEPTH) {
+      if (record) {
+        sampledOut &= ~(1L << depth);
+      } else {
+        sampledOut |= 1L << depth;
+      }
+    }
+
+    depth++;
+    return record;
+  }
+
+  /**
+   * @return Whether to record the end of a slice, based on the decision made for its start.
+   */
+  boolean sampleEnd() {
+    if (depth == 0) {
+      return true;
+    }
+
+    depth--;
+    return depth >= MAX_SAMPLE_DEPTH || (sampledOut & (1L << depth)) == 0;
+  }
+
+  /**
+   * Hands every event recorded so far to the visitor, oldest first, and then frees up their space.
+   * Single key-value pairs are only turned into maps here, off of the recording thread.
+   *
+   * @return The number of events that were dropped since the last drain.
+   */
+  @SuppressWarnings("unchecked")
+  int drain(@NonNull Visitor visitor) {
+    long start = read;
+    long end   = written.get();
+
+    for (long position = start; position < end; position++) {
+      int index = (int) (position & mask);
+
+      Map<String, String> eventValues = keys[index] != null ? Collections.singletonMap(keys[index], keyValues[index])
+                                                            : (Map<String, String>) values[index];
+
+      visitor.visit(types[index], timestamps[index], trackIds[index], names[index], eventValues);
+
+      names[index]     = null;
+      keys[index]      = null;
+      keyValues[index] = null;
+      values[index]    = null;
+    }
+
+    read = end;
+
+    return dropped.getAndSet(0);
+  }
+
+  interface Visitor {
+    void visit(byte type, long timestamp, long trackId, @NonNull String name, @Nullable Map<String, String> values);
+  }
+}
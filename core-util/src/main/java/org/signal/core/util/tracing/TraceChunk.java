@@ -0,0 +1,226 @@
+package org.signal.core.util.tracing;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The compact format that trace events are spilled in. Each chunk stands on its own, so chunks can
+ * be read back in any order, and old ones can be thrown away without affecting newer ones.
+ *
+ * A chunk is laid out as:
+ *
+ * [version]
+ * [thread count] ([thread id][thread name])*
+ * [event count] ([type][timestamp delta][track id][name][value count] ([key][value])*)*
+ *
+ * Numbers are varints (zigzag-encoded where they can be negative), and timestamps are deltas from
+ * the previous event's. Event strings are an index into a table built up as the chunk is read,
+ * where an index equal to the table's size means a new string, which follows immediately.
+ */
+final class TraceChunk {
+
+  private static final int VERSION = 1;
+
+  private TraceChunk() {}
+
+  /**
+   * Reads every thread and event in a chunk.
+   */
+  static void read(@NonNull byte[] chunk, @NonNull Visitor visitor) throws IOException {
+    DataInputStream in      = new DataInputStream(new ByteArrayInputStream(chunk));
+    List<String>    strings = new ArrayList<>();
+
+    int version = readVarint(in);
+    if (version != VERSION) {
+      throw new IOException("Unknown chunk version: " + version);
+    }
+
+    int threadCount = readVarint(in);
+
+    for (int i = 0; i < threadCount; i++) {
+      long id = readZigzag(in);
+      visitor.onThread(id, in.readUTF());
+    }
+
+    int  eventCount = readVarint(in);
+    long timestamp  = 0;
+
+    for (int i = 0; i < eventCount; i++) {
+      byte type = in.readByte();
+
+      timestamp += readZigzag(in);
+
+      long   trackId = readZigzag(in);
+      String name    = readString(in, strings);
+
+      int                 valueCount = readVarint(in);
+      Map<String, String> values     = valueCount > 0 ? new LinkedHashMap<>(valueCount) : null;
+
+      for (int j = 0; j < valueCount; j++) {
+        String key = readString(in, strings);
+        values.put(key, readString(in, strings));
+      }
+
+      visitor.onEvent(type, timestamp, trackId, name, values);
+    }
+  }
+
+  /**
+   * Builds up a chunk. Meant to be reused: after {@link #finish()}, it's ready for the next one.
+   */
+  static final class Writer implements TraceBuffer.Visitor {
+
+    private final ByteArrayOutputStream eventBytes = new ByteArrayOutputStream();
+    private final DataOutputStream      events     = new DataOutputStream(eventBytes);
+    private final ByteArrayOutputStream chunkBytes = new ByteArrayOutputStream();
+    private final DataOutputStream      chunk      = new DataOutputStream(chunkBytes);
+    private final Map<String, Integer>  strings    = new HashMap<>();
+    private final Map<Long, String>     threads    = new LinkedHashMap<>();
+
+    private int  eventCount;
+    private long lastTimestamp;
+
+    void addThread(long id, @NonNull String name) {
+      threads.put(id, name);
+    }
+
+    @Override
+    public void visit(byte type, long timestamp, long trackId, @NonNull String name, @Nullable Map<String, String> values) {
+      try {
+        events.writeByte(type);
+        writeZigzag(events, timestamp - lastTimestamp);
+        writeZigzag(events, trackId);
+        writeString(events, name);
+
+        if (values != null) {
+          writeVarint(events, values.size());
+
+          for (Map.Entry<String, String> entry : values.entrySet()) {
+            writeString(events, entry.getKey());
+            writeString(events, entry.getValue() != null ? entry.getValue() : "");
+          }
+        } else {
+          writeVarint(events, 0);
+        }
+      } catch (IOException e) {
+        throw new AssertionError(e);
+      }
+
+      lastTimestamp = timestamp;
+      eventCount++;
+    }
+
+    int getEventCount() {
+      return eventCount;
+    }
+
+    /**
+     * @return The finished chunk.
+     */
+    @NonNull byte[] finish() {
+      try {
+        writeVarint(chunk, VERSION);
+        writeVarint(chunk, threads.size());
+
+        for (Map.Entry<Long, String> thread : threads.entrySet()) {
+          writeZigzag(chunk, thread.getKey());
+          chunk.writeUTF(thread.getValue());
+        }
+
+        writeVarint(chunk, eventCount);
+        eventBytes.writeTo(chunk);
+
+        return chunkBytes.toByteArray();
+      } catch (IOException e) {
+        throw new AssertionError(e);
+      } finally {
+        reset();
+      }
+    }
+
+    private void reset() {
+      eventBytes.reset();
+      chunkBytes.reset();
+      strings.clear();
+      threads.clear();
+      eventCount    = 0;
+      lastTimestamp = 0;
+    }
+
+    private void writeString(@NonNull DataOutputStream out, @NonNull String value) throws IOException {
+      Integer index = strings.get(value);
+
+      if (index != null) {
+        writeVarint(out, index);
+      } else {
+        writeVarint(out, strings.size());
+        out.writeUTF(value);
+        strings.put(value, strings.size());
+      }
+    }
+  }
+
+  interface Visitor {
+    void onThread(long id, @NonNull String name);
+    void onEvent(byte type, long timestamp, long trackId, @NonNull String name, @Nullable Map<String, String> values);
+  }
+
+  private static @NonNull String readString(@NonNull DataInputStream in, @NonNull List<String> strings) throws IOException {
+    int index = readVarint(in);
+
+    if (index == strings.size()) {
+      strings.add(in.readUTF());
+    } else if (index > strings.size()) {
+      throw new IOException("Bad string index: " + index);
+    }
+
+    return strings.get(index);
+  }
+
+  private static void writeVarint(@NonNull DataOutputStream out, long value) throws IOException {
+    while ((value & ~0x7FL) != 0) {
+      out.writeByte((int) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    out.writeByte((int) value);
+  }
+
+  private static void writeZigzag(@NonNull DataOutputStream out, long value) throws IOException {
+    writeVarint(out, (value << 1) ^ (value >> 63));
+  }
+
+  private static int readVarint(@NonNull DataInputStream in) throws IOException {
+    return (int) readVarLong(in);
+  }
+
+  private static long readZigzag(@NonNull DataInputStream in) throws IOException {
+    long value = readVarLong(in);
+    return (value >>> 1) ^ -(value & 1);
+  }
+
+  private static long readVarLong(@NonNull DataInputStream in) throws IOException {
+    long value = 0;
+
+    for (int shift = 0; shift < 64; shift += 7) {
+      byte b = in.readByte();
+      value |= (long) (b & 0x7F) << shift;
+
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+
+    throw new IOException("Malformed varint.");
+  }
+}
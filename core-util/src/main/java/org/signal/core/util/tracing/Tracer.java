@@ -4,27 +4,37 @@ import android.os.SystemClock;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
 
 import com.google.protobuf.ByteString;
 
+import org.signal.core.util.logging.Log;
+import org.signal.core.util.logging.LogFile;
 import org.signal.core.util.tracing.TraceProtos.Trace;
 import org.signal.core.util.tracing.TraceProtos.TracePacket;
 import org.signal.core.util.tracing.TraceProtos.TrackDescriptor;
 import org.signal.core.util.tracing.TraceProtos.TrackEvent;
 
+import java.io.File;
+import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
-import java.util.Queue;
+import java.util.Set;
 import java.util.UUID;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 
 /**
- * A class to create Perfetto-compatible traces. Currently keeps the entire trace in memory to
- * avoid weirdness with synchronizing to disk.
+ * A class to create Perfetto-compatible traces. Cheap enough to leave on all the time.
  *
  * Some general info on how the Perfetto format works:
  * - The file format is just a Trace proto (see Trace.proto)
@@ -35,17 +45,22 @@ import java.util.concurrent.atomic.AtomicInteger;
  *   - End of a method
  *   - (And a bunch of other stuff that's not relevant to use at this point)
  *
- * We keep a circular buffer of TracePackets for method calls, and we keep a separate list of
- * TracePackets for threads so we don't lose any of those.
+ * Building protos for every event is too expensive to do all the time, so we don't. Instead:
+ * - Each thread records its events into its own {@link TraceBuffer}, which is just a few writes to
+ *   primitive arrays -- no locks, no allocations.
+ * - A background thread regularly drains every buffer into a compact {@link TraceChunk}. Once
+ *   {@link #enableSpilling(File, byte[])} has been called, chunks are encrypted and written to a
+ *   small set of rotating files. Until then, they're kept in memory, up to
+ *   {@link #setMaxBufferSize(long)} events.
+ * - Protos are only built when the trace is exported with {@link #serialize()}.
  *
- * Serializing is just a matter of throwing all the TracePackets we have into a proto.
+ * Tracks can also be sampled, keeping only 1 in every N slices, with
+ * {@link #setThreadSampleRate(int)} and {@link #setSampleRate(long, int)}.
  *
- * Note: This class aims to be largely-thread-safe, but prioritizes speed and memory efficiency
- * above all else. These methods are going to be called very quickly from every thread imaginable,
- * and we want to create as little overhead as possible. The idea being that it's ok if we don't,
- * for example, keep a perfect circular buffer size if it allows us to reduce overhead. The only
- * cost of screwing up would be dropping a trace packet or something, which, while sad, won't affect
- * how the app functions.
+ * Note: This class prioritizes speed and memory efficiency above all else. These methods are going
+ * to be called very quickly from every thread imaginable, and we want to create as little overhead
+ * as possible. If a thread's buffer fills up before it can be drained, its events are dropped
+ * rather than making the thread wait.
  */
 public final class Tracer {
 
@@ -55,34 +70,123 @@ public final class Tracer {
     private static final String DB_LOCK_NAME = "Database Lock";
   }
 
+  private static final String TAG = Log.tag(Tracer.class);
+
   private static final Tracer INSTANCE = new Tracer();
 
   private static final int    TRUSTED_SEQUENCE_ID      = 1;
   private static final byte[] SYNCHRONIZATION_MARKER   = toByteArray(UUID.fromString("82477a76-b28d-42ba-81dc-33326d57a079"));
   private static final long   SYNCHRONIZATION_INTERVAL = TimeUnit.SECONDS.toNanos(3);
 
-  private final Clock                  clock;
-  private final Map<Long, TracePacket> threadPackets;
-  private final Queue<TracePacket>     eventPackets;
-  private final AtomicInteger          eventCount;
-
-  private long lastSyncTime;
-  private long maxBufferSize;
+  private static final int    THREAD_BUFFER_CAPACITY = 512;
+  private static final long   SPILL_INTERVAL_MS      = 1000;
+  private static final String FILENAME_PREFIX        = "trace-";
+  private static final int    MAX_TRACE_FILES        = 4;
+  private static final int    MAX_TRACE_FILE_SIZE    = 512 * 1024;
+
+  private final Clock                    clock;
+  private final ThreadLocal<TraceBuffer> threadBuffer;
+  private final List<TraceBuffer>        buffers;
+  private final TraceChunk.Writer        chunkWriter;
+  private final Deque<MemoryChunk>       memoryChunks;
+  private final Object                   spillLock;
+  private final Thread                   spillThread;
+
+  private volatile int    threadSampleRate;
+  private volatile long[] sampledTrackIds;
+  private volatile int[]  trackSampleRates;
+
+  private long           maxBufferSize;
+  private long           memoryEventCount;
+  private File           directory;
+  private byte[]         secret;
+  private LogFile.Writer writer;
 
   private Tracer() {
-    this.clock         = SystemClock::elapsedRealtimeNanos;
-    this.threadPackets = new ConcurrentHashMap<>();
-    this.eventPackets  = new ConcurrentLinkedQueue<>();
-    this.eventCount    = new AtomicInteger(0);
-    this.maxBufferSize = 3_500;
+    this.clock            = SystemClock::elapsedRealtimeNanos;
+    this.threadBuffer     = new ThreadLocal<>();
+    this.buffers          = new CopyOnWriteArrayList<>();
+    this.chunkWriter      = new TraceChunk.Writer();
+    this.memoryChunks     = new ArrayDeque<>();
+    this.spillLock        = new Object();
+    this.spillThread      = new Thread(this::runSpiller, "signal-TraceSpiller");
+    this.threadSampleRate = 1;
+    this.sampledTrackIds  = new long[0];
+    this.trackSampleRates = new int[0];
+    this.maxBufferSize    = 3_500;
+
+    spillThread.setDaemon(true);
+    spillThread.setPriority(Thread.MIN_PRIORITY);
+    spillThread.start();
   }
 
   public static @NonNull Tracer getInstance() {
     return INSTANCE;
   }
 
+  /**
+   * The most events to keep in memory while traces aren't being spilled to disk.
+   */
   public void setMaxBufferSize(long maxBufferSize) {
-    this.maxBufferSize = maxBufferSize;
+    synchronized (spillLock) {
+      this.maxBufferSize = maxBufferSize;
+    }
+  }
+
+  /**
+   * Only keep 1 in every {@code oneInN} slices on thread tracks.
+   */
+  public void setThreadSampleRate(int oneInN) {
+    this.threadSampleRate = Math.max(1, oneInN);
+  }
+
+  /**
+   * Only keep 1 in every {@code oneInN} slices on the specified track, like {@link TrackId#DB_LOCK}.
+   */
+  public synchronized void setSampleRate(long trackId, int oneInN) {
+    long[] ids   = sampledTrackIds;
+    int[]  rates = trackSampleRates;
+
+    for (int i = 0; i < ids.length; i++) {
+      if (ids[i] == trackId) {
+        int[] updated = Arrays.copyOf(rates, rates.length);
+        updated[i] = Math.max(1, oneInN);
+
+        trackSampleRates = updated;
+        return;
+      }
+    }
+
+    long[] updatedIds   = Arrays.copyOf(ids, ids.length + 1);
+    int[]  updatedRates = Arrays.copyOf(rates, rates.length + 1);
+
+    updatedIds[ids.length]     = trackId;
+    updatedRates[rates.length] = Math.max(1, oneInN);
+
+    trackSampleRates = updatedRates;
+    sampledTrackIds  = updatedIds;
+  }
+
+  /**
+   * Starts writing traces to rotating, encrypted files in the specified directory, rather than
+   * keeping them in memory. Anything already in memory will be moved to disk.
+   */
+  public void enableSpilling(@NonNull File directory, @NonNull byte[] secret) {
+    synchronized (spillLock) {
+      this.directory = directory;
+      this.secret    = secret;
+
+      initializeWriter();
+
+      if (writer != null) {
+        for (MemoryChunk chunk : memoryChunks) {
+          writeChunk(chunk.data);
+        }
+
+        memoryChunks.clear();
+        memoryEventCount = 0;
+      }
+    }
   }
 
   public void start(@NonNull String methodName) {
@@ -98,7 +202,11 @@ public final class Tracer {
   }
 
   public void start(@NonNull String methodName, long trackId, @NonNull String key, @Nullable String value) {
-    start(methodName, trackId, Collections.singletonMap(key, value));
+    TraceBuffer buffer = getThreadBuffer();
+
+    if (buffer.sampleBegin(getSampleRate(buffer, trackId))) {
+      onRecorded(buffer, buffer.add(TraceBuffer.TYPE_BEGIN, clock.getTimeNanos(), trackId, methodName, key, value));
+    }
   }
 
   public void start(@NonNull String methodName, @Nullable Map<String, String> values) {
@@ -106,70 +214,344 @@ public final class Tracer {
   }
 
   public void start(@NonNull String methodName, long trackId, @Nullable Map<String, String> values) {
-    long time = clock.getTimeNanos();
-
-    if (time - lastSyncTime > SYNCHRONIZATION_INTERVAL) {
-      addPacket(forSynchronization(time));
-      lastSyncTime = time;
-    }
+    TraceBuffer buffer = getThreadBuffer();
 
-    if (!threadPackets.containsKey(trackId)) {
-      threadPackets.put(trackId, forTrackId(trackId));
+    if (buffer.sampleBegin(getSampleRate(buffer, trackId))) {
+      record(buffer, TraceBuffer.TYPE_BEGIN, trackId, methodName, values);
     }
-
-    addPacket(forMethodStart(methodName, time, trackId, values));
   }
 
   public void end(@NonNull String methodName) {
-    addPacket(forMethodEnd(methodName, clock.getTimeNanos(), Thread.currentThread().getId()));
+    end(methodName, Thread.currentThread().getId());
   }
 
   public void end(@NonNull String methodName, long trackId) {
-    addPacket(forMethodEnd(methodName, clock.getTimeNanos(), trackId));
+    TraceBuffer buffer = getThreadBuffer();
+
+    if (buffer.sampleEnd()) {
+      record(buffer, TraceBuffer.TYPE_END, trackId, methodName, null);
+    }
   }
 
+  /**
+   * @return Everything that's been traced and hasn't yet been rotated out, as a Perfetto trace.
+   */
+  @WorkerThread
   public @NonNull byte[] serialize() {
-    Trace.Builder trace = Trace.newBuilder();
+    return serialize(Long.MIN_VALUE);
+  }
+
+  /**
+   * @return The last {@code duration} of traces, as a Perfetto trace.
+   */
+  @WorkerThread
+  public @NonNull byte[] serialize(long duration, @NonNull TimeUnit unit) {
+    return serialize(clock.getTimeNanos() - unit.toNanos(duration));
+  }
+
+  private @NonNull byte[] serialize(long startTime) {
+    long     endTime = clock.getTimeNanos();
+    Exporter export  = new Exporter(startTime, endTime);
+
+    synchronized (spillLock) {
+      spill();
+
+      if (writer != null) {
+        readTraceFiles(export);
+      }
 
-    for (TracePacket thread : threadPackets.values()) {
-      trace.addPacket(thread);
+      for (MemoryChunk chunk : memoryChunks) {
+        try {
+          TraceChunk.read(chunk.data, export);
+        } catch (IOException e) {
+          throw new AssertionError(e);
+        }
+      }
     }
 
-    for (TracePacket event : eventPackets) {
-      trace.addPacket(event);
+    return export.build(endTime);
+  }
+
+  private @NonNull TraceBuffer getThreadBuffer() {
+    TraceBuffer buffer = threadBuffer.get();
+
+    if (buffer == null) {
+      buffer = new TraceBuffer(Thread.currentThread(), THREAD_BUFFER_CAPACITY);
+      threadBuffer.set(buffer);
+      buffers.add(buffer);
     }
 
-    trace.addPacket(forSynchronization(clock.getTimeNanos()));
+    return buffer;
+  }
 
-    return trace.build().toByteArray();
+  private int getSampleRate(@NonNull TraceBuffer buffer, long trackId) {
+    if (trackId == buffer.getThreadId()) {
+      return threadSampleRate;
+    }
+
+    long[] ids   = sampledTrackIds;
+    int[]  rates = trackSampleRates;
+
+    for (int i = 0; i < ids.length && i < rates.length; i++) {
+      if (ids[i] == trackId) {
+        return rates[i];
+      }
+    }
+
+    return 1;
+  }
+
+  private void record(@NonNull TraceBuffer buffer, byte type, long trackId, @NonNull String name, @Nullable Map<String, String> values) {
+    onRecorded(buffer, buffer.add(type, clock.getTimeNanos(), trackId, name, values));
+  }
+
+  private void onRecorded(@NonNull TraceBuffer buffer, boolean added) {
+    if (!added || buffer.size() > buffer.capacity() / 2) {
+      LockSupport.unpark(spillThread);
+    }
+  }
+
+  @WorkerThread
+  private void runSpiller() {
+    while (true) {
+      LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(SPILL_INTERVAL_MS));
+
+      try {
+        synchronized (spillLock) {
+          spill();
+        }
+      } catch (RuntimeException e) {
+        Log.w(TAG, "Failed to spill traces.", e);
+      }
+    }
   }
 
   /**
-   * Attempts to add a packet to our list while keeping the size of our circular buffer in-check.
-   * The tracking of the event count is not perfectly thread-safe, but doing it in a thread-safe
-   * way would likely involve adding a lock, which we really don't want to do, since it'll add
-   * unnecessary overhead.
-   *
-   * Note that we keep track of the event count separately because
-   * {@link ConcurrentLinkedQueue#size()} is NOT a constant-time operation.
+   * Drains every thread's buffer into a single chunk, and stores it. Must hold {@link #spillLock}.
    */
-  private void addPacket(@NonNull TracePacket packet) {
-    eventPackets.add(packet);
+  private void spill() {
+    int dropped = 0;
+
+    for (TraceBuffer buffer : buffers) {
+      int before = chunkWriter.getEventCount();
 
-    int size = eventCount.incrementAndGet();
+      dropped += buffer.drain(chunkWriter);
 
-    for (int i = size; i > maxBufferSize; i--) {
-      eventPackets.poll();
-      eventCount.decrementAndGet();
+      if (chunkWriter.getEventCount() > before) {
+        chunkWriter.addThread(buffer.getThreadId(), buffer.getThreadName());
+      } else if (!buffer.isThreadAlive()) {
+        buffers.remove(buffer);
+      }
     }
-  }
 
-  private TracePacket forTrackId(long id) {
-    if (id == TrackId.DB_LOCK) {
-      return forTrack(id, TrackId.DB_LOCK_NAME);
+    if (dropped > 0) {
+      Log.w(TAG, "Dropped " + dropped + " trace events because a buffer was full.");
+    }
+
+    int eventCount = chunkWriter.getEventCount();
+
+    if (eventCount == 0) {
+      return;
+    }
+
+    byte[] chunk = chunkWriter.finish();
+
+    if (writer != null) {
+      writeChunk(chunk);
     } else {
-      Thread currentThread = Thread.currentThread();
-      return forTrack(currentThread.getId(), currentThread.getName());
+      memoryChunks.add(new MemoryChunk(chunk, eventCount));
+      memoryEventCount += eventCount;
+
+      while (memoryEventCount > maxBufferSize && memoryChunks.size() > 1) {
+        memoryEventCount -= memoryChunks.removeFirst().eventCount;
+      }
+    }
+  }
+
+  private void writeChunk(@NonNull byte[] chunk) {
+    try {
+      if (writer.getLogSize() >= MAX_TRACE_FILE_SIZE) {
+        writer.close();
+        writer = new LogFile.Writer(secret, createNewTraceFile());
+        trimTraceFilesOverMax();
+      }
+
+      writer.writeFrame(chunk, chunk.length);
+      writer.flush();
+    } catch (IOException e) {
+      Log.w(TAG, "Failed to write traces. Deleting them and starting over.", e);
+      deleteAllTraceFiles();
+      initializeWriter();
+    }
+  }
+
+  private void readTraceFiles(@NonNull TraceChunk.Visitor visitor) {
+    File[] files;
+
+    try {
+      files = getSortedTraceFiles();
+    } catch (IOException e) {
+      Log.w(TAG, "Failed to list trace files.", e);
+      return;
+    }
+
+    for (int i = files.length - 1; i >= 0; i--) {
+      LogFile.Reader reader = null;
+
+      try {
+        reader = new LogFile.Reader(secret, files[i]);
+
+        byte[] chunk;
+        while ((chunk = reader.readFrameBytes()) != null) {
+          TraceChunk.read(chunk, visitor);
+        }
+      } catch (IOException e) {
+        Log.w(TAG, "Failed to read trace file at index " + i + ". Skipping.", e);
+      } finally {
+        if (reader != null) {
+          reader.close();
+        }
+      }
+    }
+  }
+
+  private void initializeWriter() {
+    try {
+      writer = new LogFile.Writer(secret, getOrCreateActiveTraceFile());
+    } catch (IOException e) {
+      Log.w(TAG, "Failed to initialize trace writer. Keeping traces in memory.", e);
+      writer = null;
+    }
+  }
+
+  private void trimTraceFilesOverMax() throws IOException {
+    File[] files = getSortedTraceFiles();
+    for (int i = MAX_TRACE_FILES; i < files.length; i++) {
+      files[i].delete();
+    }
+  }
+
+  private void deleteAllTraceFiles() {
+    try {
+      for (File file : getSortedTraceFiles()) {
+        file.delete();
+      }
+    } catch (IOException e) {
+      Log.w(TAG, "Was unable to delete trace files.", e);
+    }
+  }
+
+  private File getOrCreateActiveTraceFile() throws IOException {
+    File[] files = getSortedTraceFiles();
+    if (files.length > 0) {
+      return files[0];
+    }
+
+    return createNewTraceFile();
+  }
+
+  private File createNewTraceFile() throws IOException {
+    return new File(getOrCreateTraceDirectory(), FILENAME_PREFIX + System.currentTimeMillis());
+  }
+
+  private File[] getSortedTraceFiles() throws IOException {
+    File[] files = getOrCreateTraceDirectory().listFiles();
+    if (files != null) {
+      Arrays.sort(files, (o1, o2) -> o2.getName().compareTo(o1.getName()));
+      return files;
+    }
+    return new File[0];
+  }
+
+  private File getOrCreateTraceDirectory() throws IOException {
+    if (!directory.exists() && !directory.mkdirs()) {
+      throw new IOException("Unable to create trace directory.");
+    }
+
+    return directory;
+  }
+
+  /**
+   * Turns chunks back into trace packets, keeping only the events in the requested time range.
+   */
+  private static final class Exporter implements TraceChunk.Visitor {
+
+    private final long              startTime;
+    private final long              endTime;
+    private final Map<Long, String> threads = new LinkedHashMap<>();
+    private final Set<Long>         tracks  = new LinkedHashSet<>();
+    private final List<TracePacket> events  = new ArrayList<>();
+
+    private Exporter(long startTime, long endTime) {
+      this.startTime = startTime;
+      this.endTime   = endTime;
+    }
+
+    @Override
+    public void onThread(long id, @NonNull String name) {
+      threads.put(id, name);
+    }
+
+    @Override
+    public void onEvent(byte type, long timestamp, long trackId, @NonNull String name, @Nullable Map<String, String> values) {
+      if (timestamp < startTime || timestamp > endTime) {
+        return;
+      }
+
+      tracks.add(trackId);
+
+      if (type == TraceBuffer.TYPE_BEGIN) {
+        events.add(forMethodStart(name, timestamp, trackId, values));
+      } else {
+        events.add(forMethodEnd(name, timestamp, trackId));
+      }
+    }
+
+    @NonNull byte[] build(long time) {
+      Trace.Builder trace = Trace.newBuilder();
+
+      for (long trackId : tracks) {
+        trace.addPacket(forTrack(trackId, getTrackName(trackId)));
+      }
+
+      Collections.sort(events, (o1, o2) -> Long.compare(o1.getTimestamp(), o2.getTimestamp()));
+
+      long lastSyncTime = -1;
+
+      for (TracePacket event : events) {
+        if (lastSyncTime < 0 || event.getTimestamp() - lastSyncTime > SYNCHRONIZATION_INTERVAL) {
+          trace.addPacket(forSynchronization(event.getTimestamp()));
+          lastSyncTime = event.getTimestamp();
+        }
+
+        trace.addPacket(event);
+      }
+
+      trace.addPacket(forSynchronization(time));
+
+      return trace.build().toByteArray();
+    }
+
+    private @NonNull String getTrackName(long trackId) {
+      String threadName = threads.get(trackId);
+
+      if (threadName != null) {
+        return threadName;
+      } else if (trackId == TrackId.DB_LOCK) {
+        return TrackId.DB_LOCK_NAME;
+      } else {
+        return "Track " + trackId;
+      }
+    }
+  }
+
+  private static final class MemoryChunk {
+    private final byte[] data;
+    private final int    eventCount;
+
+    private MemoryChunk(@NonNull byte[] data, int eventCount) {
+      this.data       = data;
+      this.eventCount = eventCount;
     }
   }
 
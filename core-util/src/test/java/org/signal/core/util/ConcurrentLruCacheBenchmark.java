@@ -0,0 +1,171 @@
+package org.signal.core.util;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * A multi-threaded benchmark of {@link ConcurrentLruCache} against the caches it replaced: an
+ * access-ordered {@link LinkedHashMap} behind a lock (which is also how android.util.LruCache
+ * works), and an insertion-ordered one behind a lock. Keys follow a skewed distribution, so that a
+ * small set of keys is read far more often than the rest, like recipients in a busy conversation.
+ * Not run as part of the normal test suite -- remove the {@link Ignore} to run it.
+ */
+@Ignore("Benchmark, run manually")
+public final class ConcurrentLruCacheBenchmark {
+
+  private static final int   CAPACITY           = 1000;
+  private static final int   KEY_SPACE          = 10_000;
+  private static final int   OPS_PER_THREAD     = 2_000_000;
+  private static final int   WRITE_PERCENT      = 5;
+  private static final int   WARMUP_ITERATIONS  = 2;
+  private static final int[] THREAD_COUNTS      = { 1, 2, 4, 8 };
+
+  @Test
+  public void compare() throws InterruptedException {
+    int[] keys = skewedKeys(new Random(1), OPS_PER_THREAD);
+
+    for (int threads : THREAD_COUNTS) {
+      run("ConcurrentLruCache", threads, keys, new ConcurrentCache());
+      run("synchronized access-ordered LinkedHashMap", threads, keys, new SynchronizedCache(true));
+      run("synchronized insertion-ordered LinkedHashMap", threads, keys, new SynchronizedCache(false));
+      System.out.println();
+    }
+  }
+
+  private static void run(String name, int threadCount, int[] keys, Cache cache) throws InterruptedException {
+    for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+      runOnce(threadCount, keys, cache);
+    }
+
+    long   elapsed = runOnce(threadCount, keys, cache);
+    double opsPerMs = (double) threadCount * OPS_PER_THREAD / (elapsed / 1_000_000.0);
+
+    System.out.println(String.format("%-46s %d threads: %,10.0f ops/ms, hit rate %.3f", name, threadCount, opsPerMs, cache.hitRate()));
+  }
+
+  private static long runOnce(int threadCount, int[] keys, Cache cache) throws InterruptedException {
+    CountDownLatch start    = new CountDownLatch(1);
+    CountDownLatch finished = new CountDownLatch(threadCount);
+
+    for (int t = 0; t < threadCount; t++) {
+      int offset = t * 7919;
+
+      new Thread(() -> {
+        try {
+          start.await();
+
+          for (int i = 0; i < OPS_PER_THREAD; i++) {
+            int key = keys[(i + offset) % keys.length];
+
+            if (i % 100 < WRITE_PERCENT) {
+              cache.put(key, key);
+            } else if (cache.get(key) == null) {
+              cache.put(key, key);
+            }
+          }
+        } catch (InterruptedException e) {
+          throw new AssertionError(e);
+        } finally {
+          finished.countDown();
+        }
+      }).start();
+    }
+
+    long startTime = System.nanoTime();
+    start.countDown();
+    finished.await();
+
+    return System.nanoTime() - startTime;
+  }
+
+  /**
+   * Roughly Zipfian: the chance of picking key k falls off with 1/k.
+   */
+  private static int[] skewedKeys(Random random, int count) {
+    double[] cumulative = new double[KEY_SPACE];
+    double   total      = 0;
+
+    for (int k = 0; k < KEY_SPACE; k++) {
+      total        += 1.0 / (k + 1);
+      cumulative[k] = total;
+    }
+
+    int[] keys = new int[count];
+
+    for (int i = 0; i < count; i++) {
+      double target = random.nextDouble() * total;
+      int    index  = Arrays.binarySearch(cumulative, target);
+
+      keys[i] = index >= 0 ? index : -index - 1;
+    }
+
+    return keys;
+  }
+
+  private interface Cache {
+    Integer get(Integer key);
+    void put(Integer key, Integer value);
+    double hitRate();
+  }
+
+  private static final class ConcurrentCache implements Cache {
+    private final ConcurrentLruCache<Integer, Integer> cache = new ConcurrentLruCache<>(CAPACITY);
+
+    @Override
+    public Integer get(Integer key) {
+      return cache.get(key);
+    }
+
+    @Override
+    public void put(Integer key, Integer value) {
+      cache.put(key, value);
+    }
+
+    @Override
+    public double hitRate() {
+      return cache.stats().getHitRate();
+    }
+  }
+
+  private static final class SynchronizedCache implements Cache {
+    private final Map<Integer, Integer> map;
+
+    private long hits;
+    private long misses;
+
+    private SynchronizedCache(boolean accessOrder) {
+      this.map = new LinkedHashMap<Integer, Integer>(16, 0.75f, accessOrder) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, Integer> eldest) {
+          return size() > CAPACITY;
+        }
+      };
+    }
+
+    @Override
+    public synchronized Integer get(Integer key) {
+      Integer value = map.get(key);
+
+      if (value != null) hits++;
+      else               misses++;
+
+      return value;
+    }
+
+    @Override
+    public synchronized void put(Integer key, Integer value) {
+      map.put(key, value);
+    }
+
+    @Override
+    public synchronized double hitRate() {
+      return (double) hits / (hits + misses);
+    }
+  }
+}
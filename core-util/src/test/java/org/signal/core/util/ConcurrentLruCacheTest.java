@@ -0,0 +1,213 @@
+package org.signal.core.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public final class ConcurrentLruCacheTest {
+
+  @Test
+  public void get_afterPut_returnsValue() {
+    ConcurrentLruCache<String, Integer> cache = new ConcurrentLruCache<>(10);
+
+    cache.put("a", 1);
+
+    assertEquals(Integer.valueOf(1), cache.get("a"));
+    assertNull(cache.get("b"));
+  }
+
+  @Test
+  public void put_existingKey_replacesValue() {
+    ConcurrentLruCache<String, Integer> cache = new ConcurrentLruCache<>(10);
+
+    cache.put("a", 1);
+
+    assertEquals(Integer.valueOf(1), cache.put("a", 2));
+    assertEquals(Integer.valueOf(2), cache.get("a"));
+    assertEquals(1, cache.size());
+  }
+
+  @Test
+  public void putIfAbsent_keepsExistingValue() {
+    ConcurrentLruCache<String, Integer> cache = new ConcurrentLruCache<>(10);
+
+    assertNull(cache.putIfAbsent("a", 1));
+    assertEquals(Integer.valueOf(1), cache.putIfAbsent("a", 2));
+    assertEquals(Integer.valueOf(1), cache.get("a"));
+    assertEquals(1, cache.size());
+  }
+
+  @Test
+  public void remove_returnsAndRemovesValue() {
+    ConcurrentLruCache<String, Integer> cache = new ConcurrentLruCache<>(10);
+
+    cache.put("a", 1);
+
+    assertEquals(Integer.valueOf(1), cache.remove("a"));
+    assertNull(cache.remove("a"));
+    assertNull(cache.get("a"));
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void put_overCapacity_evictsOldest() {
+    ConcurrentLruCache<Integer, Integer> cache = new ConcurrentLruCache<>(10);
+
+    for (int i = 0; i < 20; i++) {
+      cache.put(i, i);
+    }
+
+    assertEquals(10, cache.size());
+    assertEquals(10, cache.stats().getEvictionCount());
+
+    for (int i = 10; i < 20; i++) {
+      assertEquals(Integer.valueOf(i), cache.get(i));
+    }
+  }
+
+  @Test
+  public void put_overCapacity_keepsEntriesThatWereRead() {
+    ConcurrentLruCache<Integer, Integer> cache = new ConcurrentLruCache<>(10);
+
+    for (int i = 0; i < 10; i++) {
+      cache.put(i, i);
+    }
+
+    cache.get(0);
+    cache.get(1);
+
+    for (int i = 100; i < 150; i++) {
+      cache.put(i, i);
+    }
+
+    assertEquals(Integer.valueOf(0), cache.get(0));
+    assertEquals(Integer.valueOf(1), cache.get(1));
+    assertEquals(10, cache.size());
+  }
+
+  @Test
+  public void put_weighted_boundsByWeight() {
+    ConcurrentLruCache<Integer, String> cache = new ConcurrentLruCache<>(10, (key, value) -> value.length());
+
+    cache.put(1, "aaaa");
+    cache.put(2, "bbbb");
+    cache.put(3, "cccc");
+
+    assertNull(cache.get(1));
+    assertEquals("bbbb", cache.get(2));
+    assertEquals("cccc", cache.get(3));
+  }
+
+  @Test(timeout = 5000)
+  public void put_weighted_protectedEntryGrowsPastMax_evictsEverything() {
+    ConcurrentLruCache<Integer, String> cache = new ConcurrentLruCache<>(10, (key, value) -> value.length());
+
+    cache.put(1, "aa");
+    cache.get(1);
+    cache.put(2, "bbbbbbbb");
+    cache.put(1, "aaaaaaaaaaaaaaaaaaaa");
+
+    assertNull(cache.get(1));
+    assertNull(cache.get(2));
+  }
+
+  @Test
+  public void put_largeCapacity_spreadsAcrossSegmentsAndStaysBounded() {
+    ConcurrentLruCache<Integer, Integer> cache = new ConcurrentLruCache<>(1000);
+
+    for (int i = 0; i < 10_000; i++) {
+      cache.put(i, i);
+    }
+
+    assertEquals(1000, cache.size());
+  }
+
+  @Test
+  public void stats_countHitsAndMisses() {
+    ConcurrentLruCache<String, Integer> cache = new ConcurrentLruCache<>(10);
+
+    cache.put("a", 1);
+    cache.get("a");
+    cache.get("a");
+    cache.get("b");
+
+    ConcurrentLruCache.Stats stats = cache.stats();
+
+    assertEquals(2, stats.getHitCount());
+    assertEquals(1, stats.getMissCount());
+    assertEquals(2.0 / 3.0, stats.getHitRate(), 0.0001);
+  }
+
+  @Test
+  public void clear_removesEverything() {
+    ConcurrentLruCache<Integer, Integer> cache = new ConcurrentLruCache<>(1000);
+
+    for (int i = 0; i < 100; i++) {
+      cache.put(i, i);
+    }
+
+    cache.clear();
+
+    assertEquals(0, cache.size());
+
+    for (int i = 0; i < 100; i++) {
+      cache.put(i, i);
+    }
+
+    assertEquals(100, cache.size());
+  }
+
+  @Test
+  public void concurrentAccess_staysBounded() throws Exception {
+    ConcurrentLruCache<Integer, Integer> cache   = new ConcurrentLruCache<>(256);
+    CountDownLatch                       start   = new CountDownLatch(1);
+    AtomicReference<Throwable>           failure = new AtomicReference<>();
+    List<Thread>                         threads = new ArrayList<>();
+
+    for (int t = 0; t < 8; t++) {
+      int seed = t;
+
+      Thread thread = new Thread(() -> {
+        try {
+          start.await();
+
+          for (int i = 0; i < 50_000; i++) {
+            int key = (i * 31 + seed * 7) % 2048;
+
+            if (i % 4 == 0) {
+              cache.put(key, key);
+            } else if (i % 17 == 0) {
+              cache.remove(key);
+            } else {
+              Integer value = cache.get(key);
+              if (value != null && value != key) {
+                throw new AssertionError("Wrong value for " + key + ": " + value);
+              }
+            }
+          }
+        } catch (Throwable e) {
+          failure.compareAndSet(null, e);
+        }
+      });
+
+      threads.add(thread);
+      thread.start();
+    }
+
+    start.countDown();
+
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    assertNull(failure.get());
+    assertTrue(cache.size() <= 256);
+  }
+}
@@ -0,0 +1,60 @@
+package org.signal.core.util.logging;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+
+public final class LogFileTest {
+
+  private static final byte[] SECRET = new byte[32];
+
+  private File file;
+
+  @Before
+  public void setUp() throws IOException {
+    file = File.createTempFile("log", null);
+  }
+
+  @After
+  public void tearDown() {
+    file.delete();
+  }
+
+  @Test
+  public void readAll_singleEntryAndBatchedFrames() throws IOException {
+    LogFile.Writer writer = new LogFile.Writer(SECRET, file);
+
+    writeFrame(writer, "one");
+    writeFrame(writer, "two\nthree\nfour");
+    writeFrame(writer, "five");
+    writer.flush();
+    writer.close();
+
+    assertEquals("one\ntwo\nthree\nfour\nfive\n", new LogFile.Reader(SECRET, file).readAll());
+  }
+
+  @Test
+  public void readAll_appendedAcrossWriters() throws IOException {
+    LogFile.Writer first = new LogFile.Writer(SECRET, file);
+    writeFrame(first, "one");
+    first.flush();
+    first.close();
+
+    LogFile.Writer second = new LogFile.Writer(SECRET, file);
+    writeFrame(second, "two\nthree");
+    second.flush();
+    second.close();
+
+    assertEquals("one\ntwo\nthree\n", new LogFile.Reader(SECRET, file).readAll());
+  }
+
+  private static void writeFrame(LogFile.Writer writer, String entries) throws IOException {
+    byte[] plaintext = entries.getBytes();
+    writer.writeFrame(plaintext, plaintext.length);
+  }
+}
@@ -0,0 +1,107 @@
+package org.signal.core.util.logging;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public final class PersistentLogReaderTest {
+
+  private static final byte[] SECRET = new byte[32];
+
+  private File first;
+  private File second;
+
+  @Before
+  public void setUp() throws IOException {
+    first  = File.createTempFile("log", null);
+    second = File.createTempFile("log", null);
+
+    write(first, "one", "two\nthree");
+    write(second, "four\nfive", "six");
+  }
+
+  @After
+  public void tearDown() {
+    first.delete();
+    second.delete();
+  }
+
+  @Test
+  public void readLine_readsAcrossFramesAndFiles() throws IOException {
+    PersistentLogReader reader = new PersistentLogReader(SECRET, new File[] { first, second });
+
+    assertEquals(Arrays.asList("one", "two", "three", "four", "five", "six"), readRemaining(reader));
+    assertNull(reader.readLine());
+  }
+
+  @Test
+  public void seek_resumesFromEveryPosition() throws IOException {
+    File[]                             files     = new File[] { first, second };
+    PersistentLogReader                reader    = new PersistentLogReader(SECRET, files);
+    List<PersistentLogReader.Position> positions = new ArrayList<>();
+    List<String>                       lines     = new ArrayList<>();
+
+    while (true) {
+      PersistentLogReader.Position position = reader.getPosition();
+      String                       line     = reader.readLine();
+
+      if (line == null) break;
+
+      positions.add(position);
+      lines.add(line);
+    }
+
+    for (int i = 0; i < positions.size(); i++) {
+      PersistentLogReader other = new PersistentLogReader(SECRET, files);
+      other.seek(positions.get(i));
+
+      assertEquals(lines.subList(i, lines.size()), readRemaining(other));
+    }
+  }
+
+  @Test
+  public void readLine_fileDeletedAfterReaderCreated_stillReadsIt() throws IOException {
+    PersistentLogReader          reader = new PersistentLogReader(SECRET, new File[] { first, second });
+    PersistentLogReader.Position start  = reader.getPosition();
+
+    first.delete();
+
+    assertEquals(Arrays.asList("one", "two", "three", "four", "five", "six"), readRemaining(reader.duplicate()));
+
+    reader.seek(start);
+    assertEquals(Arrays.asList("one", "two", "three", "four", "five", "six"), readRemaining(reader));
+  }
+
+  private static List<String> readRemaining(PersistentLogReader reader) throws IOException {
+    List<String> lines = new ArrayList<>();
+
+    String line;
+    while ((line = reader.readLine()) != null) {
+      lines.add(line);
+    }
+
+    reader.close();
+    return lines;
+  }
+
+  private static void write(File file, String... frames) throws IOException {
+    LogFile.Writer writer = new LogFile.Writer(SECRET, file);
+
+    for (String frame : frames) {
+      byte[] plaintext = frame.getBytes();
+      writer.writeFrame(plaintext, plaintext.length);
+    }
+
+    writer.flush();
+    writer.close();
+  }
+}
@@ -0,0 +1,248 @@
+package org.signal.core.util.logging;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.signal.core.util.Conversions;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Compares the throughput of the old logging pipeline against the batched one.
+ *
+ * The old pipeline submits one executor task per line, formats the date with a shared
+ * {@link SimpleDateFormat}, and encrypts and flushes every entry as its own frame with a fresh
+ * {@link SecureRandom}. The new one adds entries to a {@link RingBuffer}, and a writer thread
+ * drains them into frames of up to 16kb with {@link LogFile.Writer}, flushing once per drain and
+ * only formatting the date once per second.
+ *
+ * Both "producer" (time spent in the logging call) and "total" (time until everything is on disk)
+ * are reported. Not run as part of the normal test suite -- remove the {@link Ignore} to run it.
+ */
+@Ignore("Benchmark, run manually")
+public final class PersistentLoggerBenchmark {
+
+  private static final byte[] SECRET           = new byte[32];
+  private static final int    LINES_PER_THREAD = 50_000;
+  private static final int[]  THREAD_COUNTS    = { 1, 4 };
+  private static final int    MAX_FRAME_SIZE   = 16 * 1024;
+  private static final String MESSAGE          = "Processing envelope from 2f3a7d, timestamp 1612345678901, type CIPHERTEXT";
+
+  private File file;
+
+  @Before
+  public void setUp() throws IOException {
+    file = File.createTempFile("log-benchmark", null);
+  }
+
+  @After
+  public void tearDown() {
+    file.delete();
+  }
+
+  @Test
+  public void compare() throws Exception {
+    for (int threads : THREAD_COUNTS) {
+      for (int i = 0; i < 2; i++) {
+        runLegacy(threads);
+        runBatched(threads);
+      }
+
+      report("per-line executor + per-entry frames", threads, runLegacy(threads));
+      report("ring buffer + batched frames", threads, runBatched(threads));
+      System.out.println();
+    }
+  }
+
+  private static void report(String name, int threads, long[] result) {
+    int lines = threads * LINES_PER_THREAD;
+
+    System.out.println(String.format("%-38s %d threads: producer %,8.0f lines/ms | total %,8.0f lines/ms",
+                                     name,
+                                     threads,
+                                     lines / (result[0] / 1_000_000.0),
+                                     lines / (result[1] / 1_000_000.0)));
+  }
+
+  /**
+   * @return { producer nanos, total nanos }
+   */
+  private long[] runLegacy(int threadCount) throws Exception {
+    file.delete();
+
+    ExecutorService  executor = Executors.newSingleThreadExecutor();
+    SimpleDateFormat format   = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS zzz");
+    OutputStream     output   = new BufferedOutputStream(new FileOutputStream(file, true));
+    Cipher           cipher   = Cipher.getInstance("AES/CBC/PKCS5Padding");
+    byte[]           iv       = new byte[16];
+
+    long start    = System.nanoTime();
+    long producer = runProducers(threadCount, (thread, i) -> {
+      executor.execute(() -> {
+        try {
+          String entry = "[benchmark] [" + thread + "] " + format.format(new Date()) + " I Benchmark: " + MESSAGE + ' ' + i;
+
+          new SecureRandom().nextBytes(iv);
+          cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(SECRET, "AES"), new IvParameterSpec(iv));
+
+          byte[] ciphertext = cipher.doFinal(entry.getBytes());
+
+          output.write(iv);
+          output.write(Conversions.intToByteArray(ciphertext.length));
+          output.write(ciphertext);
+          output.flush();
+        } catch (IOException | GeneralSecurityException e) {
+          throw new AssertionError(e);
+        }
+      });
+    });
+
+    executor.shutdown();
+    executor.awaitTermination(5, TimeUnit.MINUTES);
+    output.close();
+
+    return new long[] { producer, System.nanoTime() - start };
+  }
+
+  /**
+   * @return { producer nanos, total nanos }
+   */
+  private long[] runBatched(int threadCount) throws Exception {
+    file.delete();
+
+    RingBuffer<String> buffer   = new RingBuffer<>(8192);
+    LogFile.Writer     writer   = new LogFile.Writer(SECRET, file);
+    SimpleDateFormat   format   = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+    Date               date     = new Date();
+    int                expected = threadCount * LINES_PER_THREAD;
+    CountDownLatch     done     = new CountDownLatch(1);
+
+    Thread writerThread = new Thread(() -> {
+      StringBuilder frame      = new StringBuilder();
+      int           written    = 0;
+      long          lastSecond = -1;
+      String        dateString = null;
+
+      try {
+        while (written < expected) {
+          String message;
+
+          while ((message = buffer.poll()) != null) {
+            long now = System.currentTimeMillis();
+
+            if (now / 1000 != lastSecond) {
+              date.setTime(now);
+              lastSecond = now / 1000;
+              dateString = format.format(date);
+            }
+
+            if (frame.length() > 0) frame.append('\n');
+            frame.append("[benchmark] ").append(dateString).append('.').append(now % 1000).append(" I Benchmark: ").append(message);
+            written++;
+
+            if (frame.length() >= MAX_FRAME_SIZE) {
+              writeFrame(writer, frame);
+            }
+          }
+
+          if (frame.length() > 0) {
+            writeFrame(writer, frame);
+          }
+
+          writer.flush();
+          LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+      } catch (IOException e) {
+        throw new AssertionError(e);
+      }
+
+      done.countDown();
+    });
+
+    long start = System.nanoTime();
+    writerThread.start();
+
+    long producer = runProducers(threadCount, (thread, i) -> {
+      while (!buffer.offer(MESSAGE + ' ' + i)) {
+        LockSupport.unpark(writerThread);
+        Thread.yield();
+      }
+
+      if (buffer.size() > buffer.capacity() / 2) {
+        LockSupport.unpark(writerThread);
+      }
+    });
+
+    done.await();
+    writer.close();
+
+    return new long[] { producer, System.nanoTime() - start };
+  }
+
+  private static void writeFrame(LogFile.Writer writer, StringBuilder frame) throws IOException {
+    byte[] plaintext = frame.toString().getBytes();
+    frame.setLength(0);
+    writer.writeFrame(plaintext, plaintext.length);
+  }
+
+  /**
+   * @return The longest time any producer spent in its logging calls.
+   */
+  private static long runProducers(int threadCount, LogCall call) throws InterruptedException {
+    CountDownLatch start    = new CountDownLatch(1);
+    CountDownLatch finished = new CountDownLatch(threadCount);
+    long[]         elapsed  = new long[threadCount];
+
+    for (int t = 0; t < threadCount; t++) {
+      int thread = t;
+
+      new Thread(() -> {
+        try {
+          start.await();
+
+          long begin = System.nanoTime();
+          for (int i = 0; i < LINES_PER_THREAD; i++) {
+            call.log(thread, i);
+          }
+          elapsed[thread] = System.nanoTime() - begin;
+        } catch (InterruptedException e) {
+          throw new AssertionError(e);
+        } finally {
+          finished.countDown();
+        }
+      }).start();
+    }
+
+    start.countDown();
+    finished.await();
+
+    long max = 0;
+    for (long value : elapsed) {
+      max = Math.max(max, value);
+    }
+
+    return max;
+  }
+
+  private interface LogCall {
+    void log(int thread, int line);
+  }
+}
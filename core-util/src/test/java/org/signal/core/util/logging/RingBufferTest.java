@@ -0,0 +1,115 @@
+package org.signal.core.util.logging;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public final class RingBufferTest {
+
+  @Test
+  public void capacity_roundsUpToPowerOfTwo() {
+    assertEquals(8, new RingBuffer<Integer>(5).capacity());
+    assertEquals(8, new RingBuffer<Integer>(8).capacity());
+    assertEquals(2, new RingBuffer<Integer>(1).capacity());
+  }
+
+  @Test
+  public void poll_returnsItemsInOrder() {
+    RingBuffer<Integer> buffer = new RingBuffer<>(4);
+
+    for (int round = 0; round < 3; round++) {
+      assertTrue(buffer.offer(1));
+      assertTrue(buffer.offer(2));
+      assertTrue(buffer.offer(3));
+
+      assertEquals(Integer.valueOf(1), buffer.poll());
+      assertEquals(Integer.valueOf(2), buffer.poll());
+      assertEquals(Integer.valueOf(3), buffer.poll());
+      assertNull(buffer.poll());
+    }
+  }
+
+  @Test
+  public void offer_whenFull_returnsFalse() {
+    RingBuffer<Integer> buffer = new RingBuffer<>(2);
+
+    assertTrue(buffer.offer(1));
+    assertTrue(buffer.offer(2));
+    assertFalse(buffer.offer(3));
+    assertEquals(2, buffer.size());
+
+    assertEquals(Integer.valueOf(1), buffer.poll());
+    assertTrue(buffer.offer(3));
+  }
+
+  @Test
+  public void manyProducers_singleConsumer_receivesEverything() throws Exception {
+    int                 producers = 4;
+    int                 perThread = 50_000;
+    RingBuffer<Integer> buffer    = new RingBuffer<>(1024);
+    CountDownLatch      start     = new CountDownLatch(1);
+    List<Thread>        threads   = new ArrayList<>();
+
+    for (int t = 0; t < producers; t++) {
+      int base = t * perThread;
+
+      Thread thread = new Thread(() -> {
+        try {
+          start.await();
+        } catch (InterruptedException e) {
+          throw new AssertionError(e);
+        }
+
+        for (int i = 0; i < perThread; i++) {
+          while (!buffer.offer(base + i)) {
+            Thread.yield();
+          }
+        }
+      });
+
+      threads.add(thread);
+      thread.start();
+    }
+
+    start.countDown();
+
+    Set<Integer> received = new HashSet<>();
+    int[]        lastSeen = new int[producers];
+
+    for (int t = 0; t < producers; t++) {
+      lastSeen[t] = -1;
+    }
+
+    while (received.size() < producers * perThread) {
+      Integer item = buffer.poll();
+
+      if (item == null) {
+        Thread.yield();
+        continue;
+      }
+
+      int producer = item / perThread;
+
+      assertTrue("Items from a single producer arrived out of order", item > lastSeen[producer]);
+      lastSeen[producer] = item;
+
+      received.add(item);
+    }
+
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    assertNull(buffer.poll());
+    assertEquals(producers * perThread, received.size());
+  }
+}
@@ -0,0 +1,93 @@
+package org.signal.core.util.tracing;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public final class TraceBufferTest {
+
+  @Test
+  public void capacity_roundsUpToPowerOfTwo() {
+    assertEquals(8, new TraceBuffer(Thread.currentThread(), 5).capacity());
+    assertEquals(8, new TraceBuffer(Thread.currentThread(), 8).capacity());
+  }
+
+  @Test
+  public void drain_returnsEventsInOrder() {
+    TraceBuffer  buffer = new TraceBuffer(Thread.currentThread(), 4);
+    List<String> names  = new ArrayList<>();
+
+    for (int round = 0; round < 3; round++) {
+      assertTrue(buffer.add(TraceBuffer.TYPE_BEGIN, 1, 1, "a" + round, null));
+      assertTrue(buffer.add(TraceBuffer.TYPE_END, 2, 1, "b" + round, null));
+
+      assertEquals(0, buffer.drain((type, timestamp, trackId, name, values) -> names.add(name)));
+      assertEquals(0, buffer.size());
+    }
+
+    assertEquals(Arrays.asList("a0", "b0", "a1", "b1", "a2", "b2"), names);
+  }
+
+  @Test
+  public void add_whenFull_dropsEvents() {
+    TraceBuffer  buffer = new TraceBuffer(Thread.currentThread(), 2);
+    List<String> names  = new ArrayList<>();
+
+    assertTrue(buffer.add(TraceBuffer.TYPE_BEGIN, 1, 1, "a", null));
+    assertTrue(buffer.add(TraceBuffer.TYPE_BEGIN, 2, 1, "b", null));
+    assertFalse(buffer.add(TraceBuffer.TYPE_BEGIN, 3, 1, "c", null));
+    assertFalse(buffer.add(TraceBuffer.TYPE_BEGIN, 4, 1, "d", null));
+
+    assertEquals(2, buffer.drain((type, timestamp, trackId, name, values) -> names.add(name)));
+    assertEquals(Arrays.asList("a", "b"), names);
+
+    assertTrue(buffer.add(TraceBuffer.TYPE_BEGIN, 5, 1, "e", null));
+    assertEquals(0, buffer.drain((type, timestamp, trackId, name, values) -> names.add(name)));
+  }
+
+  @Test
+  public void drain_keyValue_visitedAsMap() {
+    TraceBuffer               buffer = new TraceBuffer(Thread.currentThread(), 4);
+    List<Map<String, String>> values = new ArrayList<>();
+
+    assertTrue(buffer.add(TraceBuffer.TYPE_BEGIN, 1, 1, "a", "key", "value"));
+    assertTrue(buffer.add(TraceBuffer.TYPE_BEGIN, 2, 1, "b", null));
+
+    buffer.drain((type, timestamp, trackId, name, eventValues) -> values.add(eventValues));
+
+    assertEquals(Arrays.asList(Collections.singletonMap("key", "value"), null), values);
+  }
+
+  @Test
+  public void sample_keepsMatchingBeginsAndEnds() {
+    TraceBuffer buffer = new TraceBuffer(Thread.currentThread(), 4);
+
+    assertTrue(buffer.sampleBegin(2));
+    assertFalse(buffer.sampleBegin(2));
+    assertTrue(buffer.sampleBegin(2));
+    assertTrue(buffer.sampleEnd());
+    assertFalse(buffer.sampleEnd());
+    assertTrue(buffer.sampleEnd());
+  }
+
+  @Test
+  public void sample_oneInOne_keepsEverything() {
+    TraceBuffer buffer = new TraceBuffer(Thread.currentThread(), 4);
+
+    for (int i = 0; i < 10; i++) {
+      assertTrue(buffer.sampleBegin(1));
+    }
+
+    for (int i = 0; i < 10; i++) {
+      assertTrue(buffer.sampleEnd());
+    }
+  }
+}
@@ -0,0 +1,82 @@
+package org.signal.core.util.tracing;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+public final class TraceChunkTest {
+
+  private static final long NEGATIVE_TRACK_ID = -8675309;
+
+  @Test
+  public void read_returnsWrittenThreadsAndEvents() throws IOException {
+    TraceChunk.Writer   writer = new TraceChunk.Writer();
+    Map<String, String> values = new LinkedHashMap<>();
+
+    values.put("key", "value");
+    values.put("empty", null);
+
+    writer.visit(TraceBuffer.TYPE_BEGIN, 1_000, 5, "query", values);
+    writer.visit(TraceBuffer.TYPE_BEGIN, 1_500, NEGATIVE_TRACK_ID, "lock", null);
+    writer.visit(TraceBuffer.TYPE_END, 900, NEGATIVE_TRACK_ID, "lock", null);
+    writer.visit(TraceBuffer.TYPE_END, 2_000, 5, "query", null);
+    writer.addThread(5, "main");
+
+    assertEquals(4, writer.getEventCount());
+
+    Recorder recorder = new Recorder();
+    TraceChunk.read(writer.finish(), recorder);
+
+    assertEquals(Arrays.asList("thread 5 main"), recorder.threads);
+    assertEquals(Arrays.asList("1 1000 5 query {key=value, empty=}",
+                               "1 1500 -8675309 lock null",
+                               "2 900 -8675309 lock null",
+                               "2 2000 5 query null"),
+                 recorder.events);
+  }
+
+  @Test
+  public void finish_resetsWriter() throws IOException {
+    TraceChunk.Writer writer = new TraceChunk.Writer();
+
+    writer.addThread(1, "one");
+    writer.visit(TraceBuffer.TYPE_BEGIN, 10, 1, "first", null);
+    writer.finish();
+
+    writer.addThread(2, "two");
+    writer.visit(TraceBuffer.TYPE_END, 20, 2, "second", null);
+
+    assertEquals(1, writer.getEventCount());
+
+    Recorder recorder = new Recorder();
+    TraceChunk.read(writer.finish(), recorder);
+
+    assertEquals(Arrays.asList("thread 2 two"), recorder.threads);
+    assertEquals(Arrays.asList("2 20 2 second null"), recorder.events);
+  }
+
+  private static final class Recorder implements TraceChunk.Visitor {
+    private final List<String> threads = new ArrayList<>();
+    private final List<String> events  = new ArrayList<>();
+
+    @Override
+    public void onThread(long id, @NonNull String name) {
+      threads.add("thread " + id + " " + name);
+    }
+
+    @Override
+    public void onEvent(byte type, long timestamp, long trackId, @NonNull String name, @Nullable Map<String, String> values) {
+      events.add(type + " " + timestamp + " " + trackId + " " + name + " " + values);
+    }
+  }
+}
@@ -92,16 +92,22 @@ import org.whispersystems.util.Base64;
 import java.io.IOException;
 import java.io.InputStream;
 import java.security.SecureRandom;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Locale;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -118,6 +124,8 @@ public class SignalServiceMessageSender {
 
   private static final int RETRY_COUNT = 4;
 
+  private static final int DEFAULT_MAX_FAN_OUT = 16;
+
   private final PushServiceSocket                                   socket;
   private final SignalProtocolStore                                 store;
   private final SignalServiceAddress                                localAddress;
@@ -129,6 +137,7 @@ public class SignalServiceMessageSender {
 
   private final ExecutorService                                     executor;
   private final long                                                maxEnvelopeSize;
+  private final int                                                 maxFanOut;
 
   /**
    * Construct a SignalServiceMessageSender.
@@ -168,6 +177,27 @@ public class SignalServiceMessageSender {
                                     ExecutorService executor,
                                     long maxEnvelopeSize,
                                     boolean automaticNetworkRetry)
+  {
+    this(urls, credentialsProvider, store, signalAgent, isMultiDevice, pipe, unidentifiedPipe, eventListener, clientZkProfileOperations, executor, maxEnvelopeSize, DEFAULT_MAX_FAN_OUT, automaticNetworkRetry);
+  }
+
+  /**
+   * @param maxFanOut The most recipients of a single multi-recipient send that can be in flight at
+   *                  once. The executor should be able to run at least this many tasks at a time.
+   */
+  public SignalServiceMessageSender(SignalServiceConfiguration urls,
+                                    CredentialsProvider credentialsProvider,
+                                    SignalProtocolStore store,
+                                    String signalAgent,
+                                    boolean isMultiDevice,
+                                    Optional<SignalServiceMessagePipe> pipe,
+                                    Optional<SignalServiceMessagePipe> unidentifiedPipe,
+                                    Optional<EventListener> eventListener,
+                                    ClientZkProfileOperations clientZkProfileOperations,
+                                    ExecutorService executor,
+                                    long maxEnvelopeSize,
+                                    int maxFanOut,
+                                    boolean automaticNetworkRetry)
   {
     this.socket           = new PushServiceSocket(urls, credentialsProvider, signalAgent, clientZkProfileOperations, automaticNetworkRetry);
     this.store            = store;
@@ -178,6 +208,7 @@ public class SignalServiceMessageSender {
     this.eventListener    = eventListener;
     this.executor         = executor != null ? executor : Executors.newSingleThreadExecutor();
     this.maxEnvelopeSize  = maxEnvelopeSize;
+    this.maxFanOut        = Math.max(1, maxFanOut);
   }
 
   /**
@@ -223,7 +254,7 @@ public class SignalServiceMessageSender {
       throws IOException
   {
     byte[] content = createTypingContent(message);
-    sendMessage(recipients, getTargetUnidentifiedAccess(unidentifiedAccess), message.getTimestamp(), content, true, cancelationSignal);
+    sendMessage(recipients, getTargetUnidentifiedAccess(unidentifiedAccess), message.getTimestamp(), content, true, cancelationSignal, null);
   }
 
 
@@ -308,10 +339,29 @@ public class SignalServiceMessageSender {
                                              boolean                                isRecipientUpdate,
                                              SignalServiceDataMessage               message)
       throws IOException, UntrustedIdentityException
+  {
+    return sendMessage(recipients, unidentifiedAccess, isRecipientUpdate, message, null);
+  }
+
+  /**
+   * Send a message to a group.
+   *
+   * @param recipients The group members.
+   * @param message The group message.
+   * @param partialListener Told about each recipient's result as soon as it's known, in the order
+   *                        they finish. Called on the calling thread.
+   * @throws IOException
+   */
+  public List<SendMessageResult> sendMessage(List<SignalServiceAddress>             recipients,
+                                             List<Optional<UnidentifiedAccessPair>> unidentifiedAccess,
+                                             boolean                                isRecipientUpdate,
+                                             SignalServiceDataMessage               message,
+                                             PartialSendCompleteListener            partialListener)
+      throws IOException, UntrustedIdentityException
   {
     byte[]                  content            = createMessageContent(message);
     long                    timestamp          = message.getTimestamp();
-    List<SendMessageResult> results            = sendMessage(recipients, getTargetUnidentifiedAccess(unidentifiedAccess), timestamp, content, false, null);
+    List<SendMessageResult> results            = sendMessage(recipients, getTargetUnidentifiedAccess(unidentifiedAccess), timestamp, content, false, null, partialListener);
     boolean                 needsSyncInResults = false;
 
     for (SendMessageResult result : results) {
@@ -1294,52 +1344,86 @@ public class SignalServiceMessageSender {
     return results;
   }
 
+  /**
+   * Sends to every recipient, with at most {@link #maxFanOut} of them in flight at once.
+   * <p>
+   * Recipients we don't have a session with yet go through a prefetch step first, which fetches
+   * their prekeys and builds the sessions. Prefetches are handed out before any sends, so those
+   * extra round trips overlap with everything else instead of holding up the sends behind them.
+   * <p>
+   * Every step runs on {@link #executor}. This thread only hands out steps and collects their
+   * results, so a step never has to block on another one.
+   */
   private List<SendMessageResult> sendMessage(List<SignalServiceAddress>         recipients,
                                               List<Optional<UnidentifiedAccess>> unidentifiedAccess,
                                               long                               timestamp,
                                               byte[]                             content,
                                               boolean                            online,
-                                              CancelationSignal                  cancelationSignal)
+                                              CancelationSignal                  cancelationSignal,
+                                              PartialSendCompleteListener        partialListener)
       throws IOException
   {
     enforceMaxContentSize(content);
 
-    long                                   startTime                  = System.currentTimeMillis();
-    List<Future<SendMessageResult>>        futureResults              = new LinkedList<>();
-    Iterator<SignalServiceAddress>         recipientIterator          = recipients.iterator();
-    Iterator<Optional<UnidentifiedAccess>> unidentifiedAccessIterator = unidentifiedAccess.iterator();
-
-    while (recipientIterator.hasNext()) {
-      SignalServiceAddress         recipient = recipientIterator.next();
-      Optional<UnidentifiedAccess> access    = unidentifiedAccessIterator.next();
-      futureResults.add(executor.submit(() -> sendMessage(recipient, access, timestamp, content, online, cancelationSignal)));
+    long                               startTime  = System.currentTimeMillis();
+    List<SignalServiceAddress>         addresses  = new ArrayList<>(recipients);
+    List<Optional<UnidentifiedAccess>> access     = new ArrayList<>(unidentifiedAccess);
+    SendMessageResult[]                results    = new SendMessageResult[addresses.size()];
+    Deque<Callable<FanOutStep>>        steps      = new ArrayDeque<>(addresses.size());
+    CompletionService<FanOutStep>      completion = new ExecutorCompletionService<>(executor);
+    FanOutMetrics                      metrics    = new FanOutMetrics();
+
+    for (int i = 0; i < addresses.size(); i++) {
+      if (needsSession(addresses.get(i), access.get(i))) {
+        steps.addFirst(prefetchStep(i, addresses.get(i), access.get(i), cancelationSignal));
+      } else {
+        steps.addLast(sendStep(i, addresses.get(i), access.get(i), timestamp, content, online, cancelationSignal));
+      }
     }
 
-    List<SendMessageResult> results = new ArrayList<>(futureResults.size());
-    recipientIterator = recipients.iterator();
+    int inFlight  = 0;
+    int completed = 0;
+
+    while (completed < addresses.size()) {
+      while (inFlight < maxFanOut && !steps.isEmpty()) {
+        completion.submit(steps.removeFirst());
+        inFlight++;
+      }
+
+      FanOutStep step;
 
-    for (Future<SendMessageResult> futureResult : futureResults) {
-      SignalServiceAddress recipient = recipientIterator.next();
       try {
-        results.add(futureResult.get());
-      } catch (ExecutionException e) {
-        if (e.getCause() instanceof UntrustedIdentityException) {
-          Log.w(TAG, e);
-          results.add(SendMessageResult.identityFailure(recipient, ((UntrustedIdentityException) e.getCause()).getIdentityKey()));
-        } else if (e.getCause() instanceof UnregisteredUserException) {
-          Log.w(TAG, "Found unregistered user.");
-          results.add(SendMessageResult.unregisteredFailure(recipient));
-        } else if (e.getCause() instanceof PushNetworkException) {
-          Log.w(TAG, e);
-          results.add(SendMessageResult.networkFailure(recipient));
-        } else if (e.getCause() instanceof ServerRejectedException) {
-          Log.w(TAG, e);
-          throw ((ServerRejectedException) e.getCause());
+        step = completion.take().get();
+      } catch (ExecutionException | InterruptedException e) {
+        throw new IOException(e);
+      }
+
+      inFlight--;
+
+      SignalServiceAddress recipient = addresses.get(step.index);
+
+      if (step.isPrefetch) {
+        metrics.onPrefetchComplete(step);
+
+        if (step.error instanceof UnregisteredUserException || step.error instanceof UntrustedIdentityException) {
+          results[step.index] = toFanOutResult(recipient, step.error);
         } else {
-          throw new IOException(e);
+          if (step.error != null) {
+            Log.w(TAG, "[sendMessage] Prefetch failed, trying again during the send.", step.error);
+          }
+
+          steps.addFirst(sendStep(step.index, recipient, access.get(step.index), timestamp, content, online, cancelationSignal));
+          continue;
         }
-      } catch (InterruptedException e) {
-        throw new IOException(e);
+      } else {
+        metrics.onSendComplete(step);
+        results[step.index] = step.error != null ? toFanOutResult(recipient, step.error) : step.result;
+      }
+
+      completed++;
+
+      if (partialListener != null) {
+        partialListener.onPartialSendComplete(results[step.index]);
       }
     }
 
@@ -1359,8 +1443,69 @@ public class SignalServiceMessageSender {
       }
     }
 
-    Log.d(TAG, "Completed send to " + recipients.size() + " recipients in " + (System.currentTimeMillis() - startTime) + " ms, with an average time of " + Math.round(average) + " ms per send.");
-    return results;
+    Log.d(TAG, "Completed send to " + recipients.size() + " recipients in " + (System.currentTimeMillis() - startTime) + " ms, with an average time of " + Math.round(average) + " ms per send. " + metrics.describe(startTime));
+    return new ArrayList<>(Arrays.asList(results));
+  }
+
+  private boolean needsSession(SignalServiceAddress recipient, Optional<UnidentifiedAccess> unidentifiedAccess) {
+    return (!recipient.matches(localAddress) || unidentifiedAccess.isPresent()) &&
+           !store.containsSession(new SignalProtocolAddress(recipient.getIdentifier(), SignalServiceAddress.DEFAULT_DEVICE_ID));
+  }
+
+  private Callable<FanOutStep> prefetchStep(int                          index,
+                                            SignalServiceAddress         recipient,
+                                            Optional<UnidentifiedAccess> unidentifiedAccess,
+                                            CancelationSignal            cancelationSignal)
+  {
+    return () -> {
+      long startTime = System.currentTimeMillis();
+
+      try {
+        if (cancelationSignal == null || !cancelationSignal.isCanceled()) {
+          buildSessions(socket, recipient, unidentifiedAccess, SignalServiceAddress.DEFAULT_DEVICE_ID);
+        }
+        return FanOutStep.prefetched(index, null, startTime);
+      } catch (Exception e) {
+        return FanOutStep.prefetched(index, e, startTime);
+      }
+    };
+  }
+
+  private Callable<FanOutStep> sendStep(int                          index,
+                                        SignalServiceAddress         recipient,
+                                        Optional<UnidentifiedAccess> unidentifiedAccess,
+                                        long                         timestamp,
+                                        byte[]                       content,
+                                        boolean                      online,
+                                        CancelationSignal            cancelationSignal)
+  {
+    return () -> {
+      long startTime = System.currentTimeMillis();
+
+      try {
+        return FanOutStep.sent(index, sendMessage(recipient, unidentifiedAccess, timestamp, content, online, cancelationSignal), null, startTime);
+      } catch (Exception e) {
+        return FanOutStep.sent(index, null, e, startTime);
+      }
+    };
+  }
+
+  private static SendMessageResult toFanOutResult(SignalServiceAddress recipient, Exception error) throws IOException {
+    if (error instanceof UntrustedIdentityException) {
+      Log.w(TAG, error);
+      return SendMessageResult.identityFailure(recipient, ((UntrustedIdentityException) error).getIdentityKey());
+    } else if (error instanceof UnregisteredUserException) {
+      Log.w(TAG, "Found unregistered user.");
+      return SendMessageResult.unregisteredFailure(recipient);
+    } else if (error instanceof PushNetworkException) {
+      Log.w(TAG, error);
+      return SendMessageResult.networkFailure(recipient);
+    } else if (error instanceof ServerRejectedException) {
+      Log.w(TAG, error);
+      throw (ServerRejectedException) error;
+    } else {
+      throw new IOException(error);
+    }
   }
 
   private SendMessageResult sendMessage(SignalServiceAddress         recipient,
@@ -1552,25 +1697,7 @@ public class SignalServiceMessageSender {
     SignalServiceCipher   cipher                = new SignalServiceCipher(localAddress, store, null);
 
     if (!store.containsSession(signalProtocolAddress)) {
-      try {
-        List<PreKeyBundle> preKeys = socket.getPreKeys(recipient, unidentifiedAccess, deviceId);
-
-        for (PreKeyBundle preKey : preKeys) {
-          try {
-            SignalProtocolAddress preKeyAddress  = new SignalProtocolAddress(recipient.getIdentifier(), preKey.getDeviceId());
-            SessionBuilder        sessionBuilder = new SessionBuilder(store, preKeyAddress);
-            sessionBuilder.process(preKey);
-          } catch (org.whispersystems.libsignal.UntrustedIdentityException e) {
-            throw new UntrustedIdentityException("Untrusted identity key!", recipient.getIdentifier(), preKey.getIdentityKey());
-          }
-        }
-
-        if (eventListener.isPresent()) {
-          eventListener.get().onSecurityEvent(recipient);
-        }
-      } catch (InvalidKeyException e) {
-        throw new IOException(e);
-      }
+      buildSessions(socket, recipient, unidentifiedAccess, deviceId);
     }
 
     try {
@@ -1580,6 +1707,37 @@ public class SignalServiceMessageSender {
     }
   }
 
+  /**
+   * Fetches prekeys for the device, or for all of the recipient's devices if it's the default
+   * device, and builds sessions with them.
+   */
+  private void buildSessions(PushServiceSocket            socket,
+                             SignalServiceAddress         recipient,
+                             Optional<UnidentifiedAccess> unidentifiedAccess,
+                             int                          deviceId)
+      throws IOException, UntrustedIdentityException
+  {
+    try {
+      List<PreKeyBundle> preKeys = socket.getPreKeys(recipient, unidentifiedAccess, deviceId);
+
+      for (PreKeyBundle preKey : preKeys) {
+        try {
+          SignalProtocolAddress preKeyAddress  = new SignalProtocolAddress(recipient.getIdentifier(), preKey.getDeviceId());
+          SessionBuilder        sessionBuilder = new SessionBuilder(store, preKeyAddress);
+          sessionBuilder.process(preKey);
+        } catch (org.whispersystems.libsignal.UntrustedIdentityException e) {
+          throw new UntrustedIdentityException("Untrusted identity key!", recipient.getIdentifier(), preKey.getIdentityKey());
+        }
+      }
+
+      if (eventListener.isPresent()) {
+        eventListener.get().onSecurityEvent(recipient);
+      }
+    } catch (InvalidKeyException e) {
+      throw new IOException(e);
+    }
+  }
+
   private void handleMismatchedDevices(PushServiceSocket socket, SignalServiceAddress recipient,
                                        MismatchedDevices mismatchedDevices)
       throws IOException, UntrustedIdentityException
@@ -1650,4 +1808,70 @@ public class SignalServiceMessageSender {
     public void onSecurityEvent(SignalServiceAddress address);
   }
 
+  public interface PartialSendCompleteListener {
+    void onPartialSendComplete(SendMessageResult result);
+  }
+
+  private static final class FanOutStep {
+    private final int               index;
+    private final boolean           isPrefetch;
+    private final SendMessageResult result;
+    private final Exception         error;
+    private final long              duration;
+
+    private FanOutStep(int index, boolean isPrefetch, SendMessageResult result, Exception error, long startTime) {
+      this.index      = index;
+      this.isPrefetch = isPrefetch;
+      this.result     = result;
+      this.error      = error;
+      this.duration   = System.currentTimeMillis() - startTime;
+    }
+
+    static FanOutStep prefetched(int index, Exception error, long startTime) {
+      return new FanOutStep(index, true, null, error, startTime);
+    }
+
+    static FanOutStep sent(int index, SendMessageResult result, Exception error, long startTime) {
+      return new FanOutStep(index, false, result, error, startTime);
+    }
+  }
+
+  /**
+   * Timings for each stage of a multi-recipient send. Only touched by the thread running the send.
+   */
+  private static final class FanOutMetrics {
+    private int  prefetches;
+    private int  prefetchFailures;
+    private long prefetchTime;
+    private long lastPrefetchCompleted;
+    private int  sends;
+    private long sendTime;
+
+    void onPrefetchComplete(FanOutStep step) {
+      prefetches++;
+      prefetchTime         += step.duration;
+      lastPrefetchCompleted = System.currentTimeMillis();
+
+      if (step.error != null) {
+        prefetchFailures++;
+      }
+    }
+
+    void onSendComplete(FanOutStep step) {
+      sends++;
+      sendTime += step.duration;
+    }
+
+    String describe(long startTime) {
+      String sendStage = String.format(Locale.US, "Send stage: %d sends, %d ms on average.", sends, sends > 0 ? sendTime / sends : 0);
+
+      if (prefetches == 0) {
+        return sendStage;
+      }
+
+      return String.format(Locale.US, "Prefetch stage: %d sessions (%d failed) in %d ms, %d ms on average. ",
+                           prefetches, prefetchFailures, lastPrefetchCompleted - startTime, prefetchTime / prefetches) + sendStage;
+    }
+  }
+
 }
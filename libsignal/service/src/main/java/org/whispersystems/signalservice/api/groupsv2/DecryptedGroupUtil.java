@@ -20,7 +20,6 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Set;
 import java.util.UUID;
@@ -173,28 +172,6 @@ public final class DecryptedGroupUtil {
     return Optional.absent();
   }
 
-  private static int findPendingIndexByUuidCipherText(List<DecryptedPendingMember> members, ByteString cipherText) {
-    for (int i = 0; i < members.size(); i++) {
-      DecryptedPendingMember member = members.get(i);
-      if (cipherText.equals(member.getUuidCipherText())) {
-        return i;
-      }
-    }
-
-    return -1;
-  }
-
-  private static int findPendingIndexByUuid(List<DecryptedPendingMember> members, ByteString uuid) {
-    for (int i = 0; i < members.size(); i++) {
-      DecryptedPendingMember member = members.get(i);
-      if (uuid.equals(member.getUuid())) {
-        return i;
-      }
-    }
-
-    return -1;
-  }
-
   public static Optional<DecryptedRequestingMember> findRequestingByUuid(Collection<DecryptedRequestingMember> members, UUID uuid) {
     ByteString uuidBytes = UuidUtil.toByteString(uuid);
 
@@ -255,22 +232,23 @@ public final class DecryptedGroupUtil {
   public static DecryptedGroup applyWithoutRevisionCheck(DecryptedGroup group, DecryptedGroupChange change)
       throws NotAbleToApplyGroupV2ChangeException
   {
-    DecryptedGroup.Builder builder = DecryptedGroup.newBuilder(group)
-                                                   .setRevision(change.getRevision());
+    MutableDecryptedGroup  mutableGroup = new MutableDecryptedGroup(group);
+    DecryptedGroup.Builder builder      = mutableGroup.getBuilder()
+                                                      .setRevision(change.getRevision());
 
-    applyAddMemberAction(builder, change.getNewMembersList());
+    applyAddMemberAction(mutableGroup, change.getNewMembersList());
 
-    applyDeleteMemberActions(builder, change.getDeleteMembersList());
+    applyDeleteMemberActions(mutableGroup, change.getDeleteMembersList());
 
-    applyModifyMemberRoleActions(builder, change.getModifyMemberRolesList());
+    applyModifyMemberRoleActions(mutableGroup, change.getModifyMemberRolesList());
 
-    applyModifyMemberProfileKeyActions(builder, change.getModifiedProfileKeysList());
+    applyModifyMemberProfileKeyActions(mutableGroup, change.getModifiedProfileKeysList());
 
-    applyAddPendingMemberActions(builder, change.getNewPendingMembersList());
+    applyAddPendingMemberActions(mutableGroup, change.getNewPendingMembersList());
 
-    applyDeletePendingMemberActions(builder, change.getDeletePendingMembersList());
+    applyDeletePendingMemberActions(mutableGroup, change.getDeletePendingMembersList());
 
-    applyPromotePendingMemberActions(builder, change.getPromotePendingMembersList());
+    applyPromotePendingMemberActions(mutableGroup, change.getPromotePendingMembersList());
 
     applyModifyTitleAction(builder, change);
 
@@ -284,54 +262,40 @@ public final class DecryptedGroupUtil {
 
     applyModifyAddFromInviteLinkAccessControlAction(builder, change);
 
-    applyAddRequestingMembers(builder, change.getNewRequestingMembersList());
+    applyAddRequestingMembers(mutableGroup, change.getNewRequestingMembersList());
 
-    applyDeleteRequestingMembers(builder, change.getDeleteRequestingMembersList());
+    applyDeleteRequestingMembers(mutableGroup, change.getDeleteRequestingMembersList());
 
-    applyPromoteRequestingMemberActions(builder, change.getPromoteRequestingMembersList());
+    applyPromoteRequestingMemberActions(mutableGroup, change.getPromoteRequestingMembersList());
 
     applyInviteLinkPassword(builder, change);
 
-    return builder.build();
+    return mutableGroup.toDecryptedGroup();
   }
 
-  private static void applyAddMemberAction(DecryptedGroup.Builder builder, List<DecryptedMember> newMembersList) {
+  private static void applyAddMemberAction(MutableDecryptedGroup group, List<DecryptedMember> newMembersList) {
     if (newMembersList.isEmpty()) return;
 
-    LinkedHashMap<ByteString, DecryptedMember> members = new LinkedHashMap<>();
-
-    for (DecryptedMember member : builder.getMembersList()) {
-      members.put(member.getUuid(), member);
-    }
-
     for (DecryptedMember member : newMembersList) {
-      members.put(member.getUuid(), member);
+      group.putMember(member);
     }
 
-    builder.clearMembers();
-    builder.addAllMembers(members.values());
-
-    removePendingAndRequestingMembersNowInGroup(builder);
+    group.removePendingAndRequestingMembersNowInGroup();
   }
 
-  protected static void applyDeleteMemberActions(DecryptedGroup.Builder builder, List<ByteString> deleteMembersList) {
+  protected static void applyDeleteMemberActions(MutableDecryptedGroup group, List<ByteString> deleteMembersList) {
     for (ByteString removedMember : deleteMembersList) {
-      int index = indexOfUuid(builder.getMembersList(), removedMember);
-
-      if (index == -1) {
+      if (!group.removeMember(removedMember)) {
         Log.w(TAG, "Deleted member on change not found in group");
-        continue;
       }
-
-      builder.removeMembers(index);
     }
   }
 
-  private static void applyModifyMemberRoleActions(DecryptedGroup.Builder builder, List<DecryptedModifyMemberRole> modifyMemberRolesList) throws NotAbleToApplyGroupV2ChangeException {
+  private static void applyModifyMemberRoleActions(MutableDecryptedGroup group, List<DecryptedModifyMemberRole> modifyMemberRolesList) throws NotAbleToApplyGroupV2ChangeException {
     for (DecryptedModifyMemberRole modifyMemberRole : modifyMemberRolesList) {
-      int index = indexOfUuid(builder.getMembersList(), modifyMemberRole.getUuid());
+      DecryptedMember member = group.getMember(modifyMemberRole.getUuid());
 
-      if (index == -1) {
+      if (member == null) {
         throw new NotAbleToApplyGroupV2ChangeException();
       }
 
@@ -339,61 +303,57 @@ public final class DecryptedGroupUtil {
 
       ensureKnownRole(role);
 
-      builder.setMembers(index, DecryptedMember.newBuilder(builder.getMembers(index))
-                                               .setRole(role));
+      group.replaceMember(DecryptedMember.newBuilder(member)
+                                         .setRole(role)
+                                         .build());
     }
   }
 
-  private static void applyModifyMemberProfileKeyActions(DecryptedGroup.Builder builder, List<DecryptedMember> modifiedProfileKeysList) throws NotAbleToApplyGroupV2ChangeException {
+  private static void applyModifyMemberProfileKeyActions(MutableDecryptedGroup group, List<DecryptedMember> modifiedProfileKeysList) throws NotAbleToApplyGroupV2ChangeException {
     for (DecryptedMember modifyProfileKey : modifiedProfileKeysList) {
-      int index = indexOfUuid(builder.getMembersList(), modifyProfileKey.getUuid());
+      DecryptedMember member = group.getMember(modifyProfileKey.getUuid());
 
-      if (index == -1) {
+      if (member == null) {
         throw new NotAbleToApplyGroupV2ChangeException();
       }
 
-      builder.setMembers(index, withNewProfileKey(builder.getMembers(index), modifyProfileKey.getProfileKey()));
+      group.replaceMember(withNewProfileKey(member, modifyProfileKey.getProfileKey()));
     }
   }
 
-  private static void applyAddPendingMemberActions(DecryptedGroup.Builder builder, List<DecryptedPendingMember> newPendingMembersList) throws NotAbleToApplyGroupV2ChangeException {
-    Set<ByteString> fullMemberSet            = getMemberUuidSet(builder.getMembersList());
-    Set<ByteString> pendingMemberCipherTexts = getPendingMemberCipherTextSet(builder.getPendingMembersList());
+  private static void applyAddPendingMemberActions(MutableDecryptedGroup group, List<DecryptedPendingMember> newPendingMembersList) throws NotAbleToApplyGroupV2ChangeException {
+    List<DecryptedPendingMember> toAdd = new ArrayList<>(newPendingMembersList.size());
 
     for (DecryptedPendingMember pendingMember : newPendingMembersList) {
-      if (fullMemberSet.contains(pendingMember.getUuid())) {
+      if (group.isMember(pendingMember.getUuid())) {
         throw new NotAbleToApplyGroupV2ChangeException();
       }
 
-      if (!pendingMemberCipherTexts.contains(pendingMember.getUuidCipherText())) {
-        builder.addPendingMembers(pendingMember);
+      if (!group.isPendingCipherText(pendingMember.getUuidCipherText())) {
+        toAdd.add(pendingMember);
       }
     }
+
+    for (DecryptedPendingMember pendingMember : toAdd) {
+      group.addPendingMember(pendingMember);
+    }
   }
 
-  protected static void applyDeletePendingMemberActions(DecryptedGroup.Builder builder, List<DecryptedPendingMemberRemoval> deletePendingMembersList) {
+  protected static void applyDeletePendingMemberActions(MutableDecryptedGroup group, List<DecryptedPendingMemberRemoval> deletePendingMembersList) {
     for (DecryptedPendingMemberRemoval removedMember : deletePendingMembersList) {
-      int index = findPendingIndexByUuidCipherText(builder.getPendingMembersList(), removedMember.getUuidCipherText());
-
-      if (index == -1) {
+      if (!group.removePendingMemberByCipherText(removedMember.getUuidCipherText())) {
         Log.w(TAG, "Deleted pending member on change not found in group");
-        continue;
       }
-
-      builder.removePendingMembers(index);
     }
   }
 
-  protected static void applyPromotePendingMemberActions(DecryptedGroup.Builder builder, List<DecryptedMember> promotePendingMembersList) throws NotAbleToApplyGroupV2ChangeException {
+  protected static void applyPromotePendingMemberActions(MutableDecryptedGroup group, List<DecryptedMember> promotePendingMembersList) throws NotAbleToApplyGroupV2ChangeException {
     for (DecryptedMember newMember : promotePendingMembersList) {
-      int index = findPendingIndexByUuid(builder.getPendingMembersList(), newMember.getUuid());
-
-      if (index == -1) {
+      if (!group.removePendingMemberByUuid(newMember.getUuid())) {
         throw new NotAbleToApplyGroupV2ChangeException();
       }
 
-      builder.removePendingMembers(index);
-      builder.addMembers(newMember);
+      group.addMember(newMember);
     }
   }
 
@@ -442,42 +402,38 @@ public final class DecryptedGroupUtil {
     }
   }
 
-  private static void applyAddRequestingMembers(DecryptedGroup.Builder builder, List<DecryptedRequestingMember> newRequestingMembers) {
-    builder.addAllRequestingMembers(newRequestingMembers);
+  private static void applyAddRequestingMembers(MutableDecryptedGroup group, List<DecryptedRequestingMember> newRequestingMembers) {
+    for (DecryptedRequestingMember requestingMember : newRequestingMembers) {
+      group.addRequestingMember(requestingMember);
+    }
   }
 
-  private static void applyDeleteRequestingMembers(DecryptedGroup.Builder builder, List<ByteString> deleteRequestingMembersList) {
+  private static void applyDeleteRequestingMembers(MutableDecryptedGroup group, List<ByteString> deleteRequestingMembersList) {
     for (ByteString removedMember : deleteRequestingMembersList) {
-      int index = indexOfUuidInRequestingList(builder.getRequestingMembersList(), removedMember);
-
-      if (index == -1) {
+      if (group.removeRequestingMember(removedMember) == null) {
         Log.w(TAG, "Deleted member on change not found in group");
-        continue;
       }
-
-      builder.removeRequestingMembers(index);
     }
   }
 
-  private static void applyPromoteRequestingMemberActions(DecryptedGroup.Builder builder, List<DecryptedApproveMember> promoteRequestingMembers) throws NotAbleToApplyGroupV2ChangeException {
+  private static void applyPromoteRequestingMemberActions(MutableDecryptedGroup group, List<DecryptedApproveMember> promoteRequestingMembers) throws NotAbleToApplyGroupV2ChangeException {
     for (DecryptedApproveMember approvedMember : promoteRequestingMembers) {
-      int index = indexOfUuidInRequestingList(builder.getRequestingMembersList(), approvedMember.getUuid());
+      Member.Role role = approvedMember.getRole();
 
-      if (index == -1) {
+      DecryptedRequestingMember requestingMember = group.removeRequestingMember(approvedMember.getUuid());
+
+      if (requestingMember == null) {
         Log.w(TAG, "Deleted member on change not found in group");
         continue;
       }
 
-      DecryptedRequestingMember requestingMember = builder.getRequestingMembers(index);
-      Member.Role               role             = approvedMember.getRole();
-
       ensureKnownRole(role);
 
-      builder.removeRequestingMembers(index)
-             .addMembers(DecryptedMember.newBuilder()
-                                        .setUuid(approvedMember.getUuid())
-                                        .setProfileKey(requestingMember.getProfileKey())
-                                        .setRole(role));
+      group.addMember(DecryptedMember.newBuilder()
+                                     .setUuid(approvedMember.getUuid())
+                                     .setProfileKey(requestingMember.getProfileKey())
+                                     .setRole(role)
+                                     .build());
     }
   }
 
@@ -493,64 +449,12 @@ public final class DecryptedGroupUtil {
                           .build();
   }
 
-  private static Set<ByteString> getMemberUuidSet(List<DecryptedMember> membersList) {
-    Set<ByteString> memberUuids = new HashSet<>(membersList.size());
-
-    for (DecryptedMember members : membersList) {
-      memberUuids.add(members.getUuid());
-    }
-
-    return memberUuids;
-  }
-
-    private static Set<ByteString> getPendingMemberCipherTextSet(List<DecryptedPendingMember> pendingMemberList) {
-    Set<ByteString> pendingMemberCipherTexts = new HashSet<>(pendingMemberList.size());
-
-    for (DecryptedPendingMember pendingMember : pendingMemberList) {
-      pendingMemberCipherTexts.add(pendingMember.getUuidCipherText());
-    }
-
-    return pendingMemberCipherTexts;
-  }
-
-  private static void removePendingAndRequestingMembersNowInGroup(DecryptedGroup.Builder builder) {
-    Set<ByteString> allMembers = membersToUuidByteStringSet(builder.getMembersList());
-
-    for (int i = builder.getPendingMembersCount() - 1; i >= 0; i--) {
-      DecryptedPendingMember pendingMember = builder.getPendingMembers(i);
-      if (allMembers.contains(pendingMember.getUuid())) {
-        builder.removePendingMembers(i);
-      }
-    }
-
-    for (int i = builder.getRequestingMembersCount() - 1; i >= 0; i--) {
-      DecryptedRequestingMember requestingMember = builder.getRequestingMembers(i);
-      if (allMembers.contains(requestingMember.getUuid())) {
-        builder.removeRequestingMembers(i);
-      }
-    }
-  }
-
   private static void ensureKnownRole(Member.Role role) throws NotAbleToApplyGroupV2ChangeException {
     if (role != Member.Role.ADMINISTRATOR && role != Member.Role.DEFAULT) {
       throw new NotAbleToApplyGroupV2ChangeException();
     }
   }
 
-  private static int indexOfUuid(List<DecryptedMember> memberList, ByteString uuid) {
-    for (int i = 0; i < memberList.size(); i++) {
-      if (uuid.equals(memberList.get(i).getUuid())) return i;
-    }
-    return -1;
-  }
-
-  private static int indexOfUuidInRequestingList(List<DecryptedRequestingMember> memberList, ByteString uuid) {
-    for (int i = 0; i < memberList.size(); i++) {
-      if (uuid.equals(memberList.get(i).getUuid())) return i;
-    }
-    return -1;
-  }
-
   public static Optional<UUID> findInviter(List<DecryptedPendingMember> pendingMembersList, UUID uuid) {
     return Optional.fromNullable(findPendingByUuid(pendingMembersList, uuid).transform(DecryptedPendingMember::getAddedByUuid)
                                                                             .transform(UuidUtil::fromByteStringOrNull)
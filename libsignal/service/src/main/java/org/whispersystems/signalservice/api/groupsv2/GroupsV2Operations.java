@@ -45,8 +45,14 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 /**
  * Contains operations to create, modify and validate groups and group changes.
@@ -61,16 +67,33 @@ public final class GroupsV2Operations {
   /** Highest change epoch this class knows now to decrypt */
   public static final int HIGHEST_KNOWN_EPOCH = 1;
 
+  /** Number of members decrypted by each task when decrypting in parallel. */
+  private static final int PARALLEL_DECRYPT_BATCH_SIZE = 16;
+
+  /** Lists of members smaller than this are decrypted on the calling thread, as they'd only make one batch. */
+  private static final int PARALLEL_DECRYPT_THRESHOLD = 2 * PARALLEL_DECRYPT_BATCH_SIZE;
+
   private final ServerPublicParams        serverPublicParams;
   private final ClientZkProfileOperations clientZkProfileOperations;
   private final ClientZkAuthOperations    clientZkAuthOperations;
   private final SecureRandom              random;
+  private final ExecutorService           decryptExecutor;
 
   public GroupsV2Operations(ClientZkOperations clientZkOperations) {
+    this(clientZkOperations, null);
+  }
+
+  /**
+   * @param decryptExecutor If present, large lists of members are decrypted in batches on this
+   *                        executor. It should be bounded, as each task is CPU bound. Results are
+   *                        always in the same order as if they were decrypted serially.
+   */
+  public GroupsV2Operations(ClientZkOperations clientZkOperations, ExecutorService decryptExecutor) {
     this.serverPublicParams        = clientZkOperations.getServerPublicParams();
     this.clientZkProfileOperations = clientZkOperations.getProfileOperations();
     this.clientZkAuthOperations    = clientZkOperations.getAuthOperations();
     this.random                    = new SecureRandom();
+    this.decryptExecutor           = decryptExecutor;
   }
 
   /**
@@ -132,15 +155,21 @@ public final class GroupsV2Operations {
 
   /**
    * Operations on a single group.
+   * <p>
+   * Decrypted UUIDs are cached by their ciphertext for the lifetime of this object, as the same
+   * members show up again in every revision of the group. Reuse an instance when decrypting
+   * several states or changes for the same group.
    */
   public final class GroupOperations {
 
-    private final GroupSecretParams   groupSecretParams;
-    private final ClientZkGroupCipher clientZkGroupCipher;
+    private final GroupSecretParams     groupSecretParams;
+    private final ClientZkGroupCipher   clientZkGroupCipher;
+    private final Map<ByteString, UUID> uuidCache;
 
     private GroupOperations(GroupSecretParams groupSecretParams) {
       this.groupSecretParams   = groupSecretParams;
       this.clientZkGroupCipher = new ClientZkGroupCipher(groupSecretParams);
+      this.uuidCache           = new ConcurrentHashMap<>();
     }
 
     public GroupChange.Actions.Builder createModifyGroupTitle(final String title) {
@@ -356,28 +385,9 @@ public final class GroupsV2Operations {
     public DecryptedGroup decryptGroup(Group group)
         throws VerificationFailedException, InvalidGroupStateException
     {
-      List<Member>                    membersList                = group.getMembersList();
-      List<PendingMember>             pendingMembersList         = group.getPendingMembersList();
-      List<RequestingMember>          requestingMembersList      = group.getRequestingMembersList();
-      List<DecryptedMember>           decryptedMembers           = new ArrayList<>(membersList.size());
-      List<DecryptedPendingMember>    decryptedPendingMembers    = new ArrayList<>(pendingMembersList.size());
-      List<DecryptedRequestingMember> decryptedRequestingMembers = new ArrayList<>(requestingMembersList.size());
-
-      for (Member member : membersList) {
-        try {
-          decryptedMembers.add(decryptMember(member).build());
-        } catch (InvalidInputException e) {
-          throw new InvalidGroupStateException(e);
-        }
-      }
-
-      for (PendingMember member : pendingMembersList) {
-        decryptedPendingMembers.add(decryptMember(member));
-      }
-
-      for (RequestingMember member : requestingMembersList) {
-        decryptedRequestingMembers.add(decryptRequestingMember(member));
-      }
+      List<DecryptedMember>           decryptedMembers           = decryptAll(group.getMembersList(), member -> decryptFullMember(member).build());
+      List<DecryptedPendingMember>    decryptedPendingMembers    = decryptAll(group.getPendingMembersList(), this::decryptPendingMember);
+      List<DecryptedRequestingMember> decryptedRequestingMembers = decryptAll(group.getRequestingMembersList(), this::decryptRequestingMember);
 
       return DecryptedGroup.newBuilder()
                            .setTitle(decryptTitle(group.getTitle()))
@@ -435,13 +445,7 @@ public final class GroupsV2Operations {
       builder.setRevision(actions.getRevision());
 
       // Field 3
-      for (GroupChange.Actions.AddMemberAction addMemberAction : actions.getAddMembersList()) {
-        try {
-          builder.addNewMembers(decryptMember(addMemberAction.getAdded()).setJoinedAtRevision(actions.getRevision()));
-        } catch (InvalidInputException e) {
-          throw new InvalidGroupStateException(e);
-        }
-      }
+      builder.addAllNewMembers(decryptAll(actions.getAddMembersList(), add -> decryptFullMember(add.getAdded()).setJoinedAtRevision(actions.getRevision()).build()));
 
       // Field 4
       for (GroupChange.Actions.DeleteMemberAction deleteMemberAction : actions.getDeleteMembersList()) {
@@ -456,36 +460,10 @@ public final class GroupsV2Operations {
       }
 
       // Field 6
-      for (GroupChange.Actions.ModifyMemberProfileKeyAction modifyMemberProfileKeyAction : actions.getModifyMemberProfileKeysList()) {
-        try {
-          ProfileKeyCredentialPresentation presentation = new ProfileKeyCredentialPresentation(modifyMemberProfileKeyAction.getPresentation().toByteArray());
-          presentation.getProfileKeyCiphertext();
-
-          UUID uuid = decryptUuid(ByteString.copyFrom(presentation.getUuidCiphertext().serialize()));
-          builder.addModifiedProfileKeys(DecryptedMember.newBuilder()
-                                                        .setRole(Member.Role.UNKNOWN)
-                                                        .setJoinedAtRevision(-1)
-                                                        .setUuid(UuidUtil.toByteString(uuid))
-                                                        .setProfileKey(ByteString.copyFrom(decryptProfileKey(ByteString.copyFrom(presentation.getProfileKeyCiphertext().serialize()), uuid).serialize())));
-        } catch (InvalidInputException e) {
-          throw new InvalidGroupStateException(e);
-        }
-      }
+      builder.addAllModifiedProfileKeys(decryptAll(actions.getModifyMemberProfileKeysList(), this::decryptModifiedProfileKey));
 
       // Field 7
-      for (GroupChange.Actions.AddPendingMemberAction addPendingMemberAction : actions.getAddPendingMembersList()) {
-        PendingMember added          = addPendingMemberAction.getAdded();
-        Member        member         = added.getMember();
-        ByteString    uuidCipherText = member.getUserId();
-        UUID          uuid           = decryptUuidOrUnknown(uuidCipherText);
-
-        builder.addNewPendingMembers(DecryptedPendingMember.newBuilder()
-                                                           .setUuid(UuidUtil.toByteString(uuid))
-                                                           .setUuidCipherText(uuidCipherText)
-                                                           .setRole(member.getRole())
-                                                           .setAddedByUuid(decryptUuidToByteString(added.getAddedByUserId()))
-                                                           .setTimestamp(added.getTimestamp()));
-      }
+      builder.addAllNewPendingMembers(decryptAll(actions.getAddPendingMembersList(), this::decryptAddedPendingMember));
 
       // Field 8
       for (GroupChange.Actions.DeletePendingMemberAction deletePendingMemberAction : actions.getDeletePendingMembersList()) {
@@ -498,21 +476,7 @@ public final class GroupsV2Operations {
       }
 
       // Field 9
-      for (GroupChange.Actions.PromotePendingMemberAction promotePendingMemberAction : actions.getPromotePendingMembersList()) {
-        ProfileKeyCredentialPresentation profileKeyCredentialPresentation;
-        try {
-          profileKeyCredentialPresentation = new ProfileKeyCredentialPresentation(promotePendingMemberAction.getPresentation().toByteArray());
-        } catch (InvalidInputException e) {
-          throw new InvalidGroupStateException(e);
-        }
-        UUID       uuid       = clientZkGroupCipher.decryptUuid(profileKeyCredentialPresentation.getUuidCiphertext());
-        ProfileKey profileKey = clientZkGroupCipher.decryptProfileKey(profileKeyCredentialPresentation.getProfileKeyCiphertext(), uuid);
-        builder.addPromotePendingMembers(DecryptedMember.newBuilder()
-                                                        .setJoinedAtRevision(-1)
-                                                        .setRole(Member.Role.DEFAULT)
-                                                        .setUuid(UuidUtil.toByteString(uuid))
-                                                        .setProfileKey(ByteString.copyFrom(profileKey.serialize())));
-      }
+      builder.addAllPromotePendingMembers(decryptAll(actions.getPromotePendingMembersList(), this::decryptPromotedPendingMember));
 
       // Field 10
       if (actions.hasModifyTitle()) {
@@ -546,9 +510,7 @@ public final class GroupsV2Operations {
       }
 
       // Field 16
-      for (GroupChange.Actions.AddRequestingMemberAction request : actions.getAddRequestingMembersList()) {
-        builder.addNewRequestingMembers(decryptRequestingMember(request.getAdded()));
-      }
+      builder.addAllNewRequestingMembers(decryptAll(actions.getAddRequestingMembersList(), request -> decryptRequestingMember(request.getAdded())));
 
       // Field 17
       for (GroupChange.Actions.DeleteRequestingMemberAction delete : actions.getDeleteRequestingMembersList()) {
@@ -579,8 +541,8 @@ public final class GroupsV2Operations {
                                    .build();
     }
 
-    private DecryptedMember.Builder decryptMember(Member member)
-        throws InvalidGroupStateException, VerificationFailedException, InvalidInputException
+    private DecryptedMember.Builder decryptFullMember(Member member)
+        throws InvalidGroupStateException, VerificationFailedException
     {
       if (member.getPresentation().isEmpty()) {
         UUID uuid = decryptUuid(member.getUserId());
@@ -591,8 +553,8 @@ public final class GroupsV2Operations {
                               .setProfileKey(decryptProfileKeyToByteString(member.getProfileKey(), uuid))
                               .setRole(member.getRole());
       } else {
-        ProfileKeyCredentialPresentation profileKeyCredentialPresentation = new ProfileKeyCredentialPresentation(member.getPresentation().toByteArray());
-        UUID                             uuid                             = clientZkGroupCipher.decryptUuid(profileKeyCredentialPresentation.getUuidCiphertext());
+        ProfileKeyCredentialPresentation profileKeyCredentialPresentation = parsePresentation(member.getPresentation());
+        UUID                             uuid                             = decryptUuid(profileKeyCredentialPresentation.getUuidCiphertext());
         ProfileKey                       profileKey                       = clientZkGroupCipher.decryptProfileKey(profileKeyCredentialPresentation.getProfileKeyCiphertext(), uuid);
 
         return DecryptedMember.newBuilder()
@@ -603,7 +565,7 @@ public final class GroupsV2Operations {
       }
     }
 
-    private DecryptedPendingMember decryptMember(PendingMember member)
+    private DecryptedPendingMember decryptPendingMember(PendingMember member)
         throws InvalidGroupStateException, VerificationFailedException
     {
       ByteString userIdCipherText = member.getMember().getUserId();
@@ -637,14 +599,9 @@ public final class GroupsV2Operations {
                                         .setTimestamp(member.getTimestamp())
                                         .build();
       } else {
-        ProfileKeyCredentialPresentation profileKeyCredentialPresentation;
-        try {
-          profileKeyCredentialPresentation = new ProfileKeyCredentialPresentation(member.getPresentation().toByteArray());
-        } catch (InvalidInputException e) {
-          throw new InvalidGroupStateException(e);
-        }
+        ProfileKeyCredentialPresentation profileKeyCredentialPresentation = parsePresentation(member.getPresentation());
 
-        UUID       uuid       = clientZkGroupCipher.decryptUuid(profileKeyCredentialPresentation.getUuidCiphertext());
+        UUID       uuid       = decryptUuid(profileKeyCredentialPresentation.getUuidCiphertext());
         ProfileKey profileKey = clientZkGroupCipher.decryptProfileKey(profileKeyCredentialPresentation.getProfileKeyCiphertext(), uuid);
 
         return DecryptedRequestingMember.newBuilder()
@@ -654,6 +611,62 @@ public final class GroupsV2Operations {
       }
     }
 
+    private DecryptedMember decryptModifiedProfileKey(GroupChange.Actions.ModifyMemberProfileKeyAction modifyMemberProfileKeyAction)
+        throws InvalidGroupStateException, VerificationFailedException
+    {
+      ProfileKeyCredentialPresentation presentation = parsePresentation(modifyMemberProfileKeyAction.getPresentation());
+
+      UUID uuid = decryptUuid(presentation.getUuidCiphertext());
+
+      return DecryptedMember.newBuilder()
+                            .setRole(Member.Role.UNKNOWN)
+                            .setJoinedAtRevision(-1)
+                            .setUuid(UuidUtil.toByteString(uuid))
+                            .setProfileKey(ByteString.copyFrom(clientZkGroupCipher.decryptProfileKey(presentation.getProfileKeyCiphertext(), uuid).serialize()))
+                            .build();
+    }
+
+    private DecryptedPendingMember decryptAddedPendingMember(GroupChange.Actions.AddPendingMemberAction addPendingMemberAction)
+        throws InvalidGroupStateException, VerificationFailedException
+    {
+      PendingMember added          = addPendingMemberAction.getAdded();
+      Member        member         = added.getMember();
+      ByteString    uuidCipherText = member.getUserId();
+      UUID          uuid           = decryptUuidOrUnknown(uuidCipherText);
+
+      return DecryptedPendingMember.newBuilder()
+                                   .setUuid(UuidUtil.toByteString(uuid))
+                                   .setUuidCipherText(uuidCipherText)
+                                   .setRole(member.getRole())
+                                   .setAddedByUuid(decryptUuidToByteString(added.getAddedByUserId()))
+                                   .setTimestamp(added.getTimestamp())
+                                   .build();
+    }
+
+    private DecryptedMember decryptPromotedPendingMember(GroupChange.Actions.PromotePendingMemberAction promotePendingMemberAction)
+        throws InvalidGroupStateException, VerificationFailedException
+    {
+      ProfileKeyCredentialPresentation profileKeyCredentialPresentation = parsePresentation(promotePendingMemberAction.getPresentation());
+
+      UUID       uuid       = decryptUuid(profileKeyCredentialPresentation.getUuidCiphertext());
+      ProfileKey profileKey = clientZkGroupCipher.decryptProfileKey(profileKeyCredentialPresentation.getProfileKeyCiphertext(), uuid);
+
+      return DecryptedMember.newBuilder()
+                            .setJoinedAtRevision(-1)
+                            .setRole(Member.Role.DEFAULT)
+                            .setUuid(UuidUtil.toByteString(uuid))
+                            .setProfileKey(ByteString.copyFrom(profileKey.serialize()))
+                            .build();
+    }
+
+    private ProfileKeyCredentialPresentation parsePresentation(ByteString presentation) throws InvalidGroupStateException {
+      try {
+        return new ProfileKeyCredentialPresentation(presentation.toByteArray());
+      } catch (InvalidInputException e) {
+        throw new InvalidGroupStateException(e);
+      }
+    }
+
     private ProfileKey decryptProfileKey(ByteString profileKey, UUID uuid) throws VerificationFailedException, InvalidGroupStateException {
       try {
         ProfileKeyCiphertext profileKeyCiphertext = new ProfileKeyCiphertext(profileKey.toByteArray());
@@ -676,24 +689,125 @@ public final class GroupsV2Operations {
     }
 
     private UUID decryptUuid(ByteString userId) throws InvalidGroupStateException, VerificationFailedException {
+      UUID cached = uuidCache.get(userId);
+
+      if (cached != null) {
+        return cached;
+      }
+
       try {
-        return clientZkGroupCipher.decryptUuid(new UuidCiphertext(userId.toByteArray()));
+        UUID uuid = clientZkGroupCipher.decryptUuid(new UuidCiphertext(userId.toByteArray()));
+        uuidCache.put(userId, uuid);
+        return uuid;
       } catch (InvalidInputException e) {
         throw new InvalidGroupStateException(e);
       }
     }
 
+    private UUID decryptUuid(UuidCiphertext uuidCiphertext) throws InvalidGroupStateException, VerificationFailedException {
+      return decryptUuid(ByteString.copyFrom(uuidCiphertext.serialize()));
+    }
+
     /**
      * Attempts to decrypt a UUID, but will return {@link #UNKNOWN_UUID} if it cannot.
      */
     private UUID decryptUuidOrUnknown(ByteString userId) {
       try {
-        return clientZkGroupCipher.decryptUuid(new UuidCiphertext(userId.toByteArray()));
-      } catch (InvalidInputException | VerificationFailedException e) {
+        return decryptUuid(userId);
+      } catch (InvalidGroupStateException | VerificationFailedException e) {
         return UNKNOWN_UUID;
       }
     }
 
+    /**
+     * Decrypts every item in the list, returning the results in the same order.
+     * <p>
+     * If there is a {@link #decryptExecutor} and the list is large enough to be worth it, the items
+     * are split into batches that are decrypted in parallel, with the calling thread taking the
+     * first batch rather than waiting idle.
+     */
+    private <I, O> List<O> decryptAll(List<I> items, Decryptor<I, O> decryptor)
+        throws VerificationFailedException, InvalidGroupStateException
+    {
+      if (decryptExecutor == null || items.size() < PARALLEL_DECRYPT_THRESHOLD) {
+        return decryptBatch(items, decryptor);
+      }
+
+      List<Future<List<O>>> batches = new ArrayList<>((items.size() + PARALLEL_DECRYPT_BATCH_SIZE - 1) / PARALLEL_DECRYPT_BATCH_SIZE);
+
+      try {
+        for (int i = PARALLEL_DECRYPT_BATCH_SIZE; i < items.size(); i += PARALLEL_DECRYPT_BATCH_SIZE) {
+          List<I> batch = items.subList(i, Math.min(i + PARALLEL_DECRYPT_BATCH_SIZE, items.size()));
+          batches.add(decryptExecutor.submit(() -> decryptBatch(batch, decryptor)));
+        }
+
+        List<O> results = new ArrayList<>(items.size());
+
+        results.addAll(decryptBatch(items.subList(0, Math.min(PARALLEL_DECRYPT_BATCH_SIZE, items.size())), decryptor));
+
+        for (Future<List<O>> batch : batches) {
+          results.addAll(getBatch(batch));
+        }
+
+        return results;
+      } finally {
+        for (Future<List<O>> batch : batches) {
+          batch.cancel(false);
+        }
+      }
+    }
+
+    private <I, O> List<O> decryptBatch(List<I> items, Decryptor<I, O> decryptor)
+        throws VerificationFailedException, InvalidGroupStateException
+    {
+      List<O> results = new ArrayList<>(items.size());
+
+      for (I item : items) {
+        results.add(decryptor.decrypt(item));
+      }
+
+      return results;
+    }
+
+    /**
+     * Waits for a batch, rethrowing whatever the decryptor threw on the other thread.
+     */
+    private <O> List<O> getBatch(Future<List<O>> batch)
+        throws VerificationFailedException, InvalidGroupStateException
+    {
+      boolean interrupted = false;
+
+      try {
+        while (true) {
+          try {
+            return batch.get();
+          } catch (InterruptedException e) {
+            interrupted = true;
+          }
+        }
+      } catch (ExecutionException e) {
+        Throwable cause = e.getCause();
+
+        if (cause instanceof VerificationFailedException) {
+          throw (VerificationFailedException) cause;
+        } else if (cause instanceof InvalidGroupStateException) {
+          throw (InvalidGroupStateException) cause;
+        } else if (cause instanceof RuntimeException) {
+          throw (RuntimeException) cause;
+        } else if (cause instanceof Error) {
+          throw (Error) cause;
+        } else {
+          throw new AssertionError(cause);
+        }
+      } catch (CancellationException e) {
+        throw new AssertionError(e);
+      } finally {
+        if (interrupted) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    }
+
     ByteString encryptTitle(String title) {
       try {
         GroupAttributeBlob blob = GroupAttributeBlob.newBuilder().setTitle(title).build();
@@ -785,6 +899,10 @@ public final class GroupsV2Operations {
     }
   }
 
+  private interface Decryptor<I, O> {
+    O decrypt(I item) throws VerificationFailedException, InvalidGroupStateException;
+  }
+
   public static class NewGroup {
     private final GroupSecretParams groupSecretParams;
     private final Group             newGroupMessage;
@@ -0,0 +1,290 @@
+package org.whispersystems.signalservice.api.groupsv2;
+
+import com.google.protobuf.ByteString;
+
+import org.signal.storageservice.protos.groups.local.DecryptedGroup;
+import org.signal.storageservice.protos.groups.local.DecryptedMember;
+import org.signal.storageservice.protos.groups.local.DecryptedPendingMember;
+import org.signal.storageservice.protos.groups.local.DecryptedRequestingMember;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A mutable view of a {@link DecryptedGroup} with its member lists indexed, so that applying a
+ * change doesn't have to search a list for every member it touches.
+ * <p>
+ * Full and requesting members are indexed by UUID, and pending members by both UUID cipher text and
+ * UUID. Lookups and removals act on the first matching member, in list order, and members keep
+ * their position in the list when they're replaced, just like they would in the proto lists.
+ * <p>
+ * The proto is only rebuilt once, in {@link #toDecryptedGroup()}.
+ */
+final class MutableDecryptedGroup {
+
+  private static final KeyFunction<DecryptedMember>           MEMBER_UUID             = DecryptedMember::getUuid;
+  private static final KeyFunction<DecryptedPendingMember>    PENDING_UUID_CIPHERTEXT = DecryptedPendingMember::getUuidCipherText;
+  private static final KeyFunction<DecryptedPendingMember>    PENDING_UUID            = DecryptedPendingMember::getUuid;
+  private static final KeyFunction<DecryptedRequestingMember> REQUESTING_UUID         = DecryptedRequestingMember::getUuid;
+
+  private final DecryptedGroup.Builder                 builder;
+  private final IndexedList<DecryptedMember>           members;
+  private final IndexedList<DecryptedPendingMember>    pendingMembers;
+  private final IndexedList<DecryptedRequestingMember> requestingMembers;
+
+  MutableDecryptedGroup(DecryptedGroup group) {
+    this.builder           = DecryptedGroup.newBuilder(group)
+                                           .clearMembers()
+                                           .clearPendingMembers()
+                                           .clearRequestingMembers();
+    this.members           = new IndexedList<>(group.getMembersList(), MEMBER_UUID);
+    this.pendingMembers    = new IndexedList<>(group.getPendingMembersList(), PENDING_UUID_CIPHERTEXT, PENDING_UUID);
+    this.requestingMembers = new IndexedList<>(group.getRequestingMembersList(), REQUESTING_UUID);
+  }
+
+  /**
+   * For the fields of the group that aren't member lists.
+   */
+  DecryptedGroup.Builder getBuilder() {
+    return builder;
+  }
+
+  boolean isMember(ByteString uuid) {
+    return members.indexOf(MEMBER_UUID, uuid) != -1;
+  }
+
+  /**
+   * @return The member, or null if they're not a member.
+   */
+  DecryptedMember getMember(ByteString uuid) {
+    int index = members.indexOf(MEMBER_UUID, uuid);
+
+    return index != -1 ? members.get(index) : null;
+  }
+
+  /**
+   * Adds the member to the end of the list, or replaces them in place if they're already a member.
+   */
+  void putMember(DecryptedMember member) {
+    int index = members.indexOf(MEMBER_UUID, member.getUuid());
+
+    if (index == -1) {
+      members.add(member);
+    } else {
+      members.set(index, member);
+    }
+  }
+
+  /**
+   * Adds the member to the end of the list, whether or not they're already a member.
+   */
+  void addMember(DecryptedMember member) {
+    members.add(member);
+  }
+
+  /**
+   * Replaces an existing member in place.
+   *
+   * @return false if they're not a member.
+   */
+  boolean replaceMember(DecryptedMember member) {
+    int index = members.indexOf(MEMBER_UUID, member.getUuid());
+
+    if (index == -1) {
+      return false;
+    }
+
+    members.set(index, member);
+    return true;
+  }
+
+  /**
+   * @return false if they're not a member.
+   */
+  boolean removeMember(ByteString uuid) {
+    return members.remove(members.indexOf(MEMBER_UUID, uuid)) != null;
+  }
+
+  boolean isPendingCipherText(ByteString uuidCipherText) {
+    return pendingMembers.indexOf(PENDING_UUID_CIPHERTEXT, uuidCipherText) != -1;
+  }
+
+  void addPendingMember(DecryptedPendingMember pendingMember) {
+    pendingMembers.add(pendingMember);
+  }
+
+  /**
+   * @return false if there's no pending member with that cipher text.
+   */
+  boolean removePendingMemberByCipherText(ByteString uuidCipherText) {
+    return pendingMembers.remove(pendingMembers.indexOf(PENDING_UUID_CIPHERTEXT, uuidCipherText)) != null;
+  }
+
+  /**
+   * @return false if there's no pending member with that UUID.
+   */
+  boolean removePendingMemberByUuid(ByteString uuid) {
+    return pendingMembers.remove(pendingMembers.indexOf(PENDING_UUID, uuid)) != null;
+  }
+
+  void addRequestingMember(DecryptedRequestingMember requestingMember) {
+    requestingMembers.add(requestingMember);
+  }
+
+  /**
+   * @return The removed requesting member, or null if there's none with that UUID.
+   */
+  DecryptedRequestingMember removeRequestingMember(ByteString uuid) {
+    return requestingMembers.remove(requestingMembers.indexOf(REQUESTING_UUID, uuid));
+  }
+
+  /**
+   * Removes any pending and requesting members that are now full members.
+   */
+  void removePendingAndRequestingMembersNowInGroup() {
+    for (int i = 0; i < pendingMembers.size(); i++) {
+      DecryptedPendingMember pendingMember = pendingMembers.get(i);
+
+      if (pendingMember != null && isMember(pendingMember.getUuid())) {
+        pendingMembers.remove(i);
+      }
+    }
+
+    for (int i = 0; i < requestingMembers.size(); i++) {
+      DecryptedRequestingMember requestingMember = requestingMembers.get(i);
+
+      if (requestingMember != null && isMember(requestingMember.getUuid())) {
+        requestingMembers.remove(i);
+      }
+    }
+  }
+
+  DecryptedGroup toDecryptedGroup() {
+    return builder.clearMembers()
+                  .addAllMembers(members.toList())
+                  .clearPendingMembers()
+                  .addAllPendingMembers(pendingMembers.toList())
+                  .clearRequestingMembers()
+                  .addAllRequestingMembers(requestingMembers.toList())
+                  .build();
+  }
+
+  private interface KeyFunction<T> {
+    ByteString getKey(T item);
+  }
+
+  /**
+   * A list with hash indexes on one or more keys. Removed items leave a null behind rather than
+   * shifting everything after them, so that the positions in the indexes stay valid.
+   */
+  private static final class IndexedList<T> {
+
+    private final List<T>                                            items;
+    private final KeyFunction<T>[]                                   keyFunctions;
+    private final Map<KeyFunction<T>, Map<ByteString, List<Integer>>> indexes;
+
+    @SafeVarargs
+    IndexedList(List<T> initial, KeyFunction<T>... keyFunctions) {
+      this.items        = new ArrayList<>(initial.size());
+      this.keyFunctions = keyFunctions;
+      this.indexes      = new HashMap<>(keyFunctions.length);
+
+      for (KeyFunction<T> keyFunction : keyFunctions) {
+        indexes.put(keyFunction, new HashMap<>(initial.size()));
+      }
+
+      for (T item : initial) {
+        add(item);
+      }
+    }
+
+    int size() {
+      return items.size();
+    }
+
+    /**
+     * @return The item at that position, or null if it's been removed.
+     */
+    T get(int index) {
+      return items.get(index);
+    }
+
+    /**
+     * @return The position of the first item with that key, or -1 if there isn't one.
+     */
+    int indexOf(KeyFunction<T> keyFunction, ByteString key) {
+      List<Integer> positions = indexes.get(keyFunction).get(key);
+
+      return positions != null ? positions.get(0) : -1;
+    }
+
+    void add(T item) {
+      int position = items.size();
+
+      items.add(item);
+
+      for (KeyFunction<T> keyFunction : keyFunctions) {
+        Map<ByteString, List<Integer>> positionsByKey = indexes.get(keyFunction);
+        ByteString                     key            = keyFunction.getKey(item);
+        List<Integer>                  positions      = positionsByKey.get(key);
+
+        if (positions == null) {
+          positions = new ArrayList<>(1);
+          positionsByKey.put(key, positions);
+        }
+
+        positions.add(position);
+      }
+    }
+
+    /**
+     * Replaces the item at a position with one with the same keys.
+     */
+    void set(int index, T item) {
+      items.set(index, item);
+    }
+
+    /**
+     * @return The removed item, or null if index is -1 or the item was already removed.
+     */
+    T remove(int index) {
+      if (index == -1) {
+        return null;
+      }
+
+      T item = items.set(index, null);
+
+      if (item == null) {
+        return null;
+      }
+
+      for (KeyFunction<T> keyFunction : keyFunctions) {
+        Map<ByteString, List<Integer>> positionsByKey = indexes.get(keyFunction);
+        ByteString                     key            = keyFunction.getKey(item);
+        List<Integer>                  positions      = positionsByKey.get(key);
+
+        positions.remove(Integer.valueOf(index));
+
+        if (positions.isEmpty()) {
+          positionsByKey.remove(key);
+        }
+      }
+
+      return item;
+    }
+
+    List<T> toList() {
+      List<T> list = new ArrayList<>(items.size());
+
+      for (T item : items) {
+        if (item != null) {
+          list.add(item);
+        }
+      }
+
+      return list;
+    }
+  }
+}
@@ -0,0 +1,131 @@
+package org.whispersystems.signalservice.api.groupsv2;
+
+import com.google.protobuf.ByteString;
+
+import org.junit.Ignore;
+import org.junit.Test;
+import org.signal.storageservice.protos.groups.Member;
+import org.signal.storageservice.protos.groups.local.DecryptedGroup;
+import org.signal.storageservice.protos.groups.local.DecryptedGroupChange;
+import org.signal.storageservice.protos.groups.local.DecryptedMember;
+import org.signal.storageservice.protos.groups.local.DecryptedModifyMemberRole;
+import org.whispersystems.signalservice.internal.util.Util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.whispersystems.signalservice.api.groupsv2.ProtoTestUtils.member;
+
+/**
+ * Replays a run of revisions against a large group through {@link DecryptedGroupUtil#apply}, like
+ * {@code GroupsV2StateProcessor} does when it catches up on a group's history. Each change adds,
+ * removes, promotes and rotates the profile keys of a spread of members.
+ * Not run as part of the normal test suite -- remove the {@link Ignore} to run it.
+ */
+@Ignore("Benchmark, run manually")
+public final class DecryptedGroupUtil_apply_Benchmark {
+
+  private static final int MEMBER_COUNT        = 1000;
+  private static final int ACTIONS_PER_CHANGE  = 100;
+  private static final int REVISIONS           = 200;
+  private static final int WARMUP_ITERATIONS   = 3;
+  private static final int MEASURED_ITERATIONS = 5;
+
+  @Test
+  public void apply() throws NotAbleToApplyGroupV2ChangeException {
+    Random                     random  = new Random(1);
+    DecryptedGroup             group   = largeGroup();
+    List<DecryptedGroupChange> changes = changes(random, group);
+
+    for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+      replay(group, changes);
+    }
+
+    long elapsed = 0;
+
+    for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+      long start = System.nanoTime();
+      replay(group, changes);
+      elapsed += System.nanoTime() - start;
+    }
+
+    double msPerChange = elapsed / 1_000_000.0 / MEASURED_ITERATIONS / REVISIONS;
+
+    System.out.println(String.format("%d members, %d actions per change: %.3f ms per change", MEMBER_COUNT, ACTIONS_PER_CHANGE, msPerChange));
+  }
+
+  private static DecryptedGroup replay(DecryptedGroup group, List<DecryptedGroupChange> changes) throws NotAbleToApplyGroupV2ChangeException {
+    for (DecryptedGroupChange change : changes) {
+      group = DecryptedGroupUtil.apply(group, change);
+    }
+
+    assertEquals(MEMBER_COUNT, group.getMembersCount());
+
+    return group;
+  }
+
+  private static DecryptedGroup largeGroup() {
+    DecryptedGroup.Builder group = DecryptedGroup.newBuilder();
+
+    for (int i = 0; i < MEMBER_COUNT; i++) {
+      group.addMembers(newMember(0));
+    }
+
+    return group.build();
+  }
+
+  /**
+   * Each change removes as many members as it adds, so that the group stays the same size from
+   * revision to revision. Roles and profile keys are only changed for members that are staying.
+   */
+  private static List<DecryptedGroupChange> changes(Random random, DecryptedGroup group) {
+    List<ByteString>           members = new ArrayList<>(MEMBER_COUNT);
+    List<DecryptedGroupChange> changes = new ArrayList<>(REVISIONS);
+    int                        each    = ACTIONS_PER_CHANGE / 4;
+
+    for (DecryptedMember member : group.getMembersList()) {
+      members.add(member.getUuid());
+    }
+
+    for (int revision = 1; revision <= REVISIONS; revision++) {
+      DecryptedGroupChange.Builder change = DecryptedGroupChange.newBuilder()
+                                                                .setRevision(revision);
+
+      for (int i = 0; i < each; i++) {
+        change.addDeleteMembers(members.remove(random.nextInt(members.size())));
+      }
+
+      for (int i = 0; i < each; i++) {
+        ByteString uuid = members.get(random.nextInt(members.size()));
+
+        change.addModifyMemberRoles(DecryptedModifyMemberRole.newBuilder()
+                                                             .setUuid(uuid)
+                                                             .setRole(random.nextBoolean() ? Member.Role.ADMINISTRATOR : Member.Role.DEFAULT));
+      }
+
+      for (int i = 0; i < each; i++) {
+        change.addModifiedProfileKeys(DecryptedMember.newBuilder()
+                                                     .setUuid(members.get(random.nextInt(members.size())))
+                                                     .setProfileKey(ByteString.copyFrom(Util.getSecretBytes(32))));
+      }
+
+      for (int i = 0; i < each; i++) {
+        DecryptedMember member = newMember(revision);
+
+        change.addNewMembers(member);
+        members.add(member.getUuid());
+      }
+
+      changes.add(change.build());
+    }
+
+    return changes;
+  }
+
+  private static DecryptedMember newMember(int revision) {
+    return member(UUID.randomUUID(), ByteString.copyFrom(Util.getSecretBytes(32)), revision);
+  }
+}
@@ -558,6 +558,52 @@ public final class DecryptedGroupUtil_apply_Test {
                  newGroup);
   }
 
+  @Test
+  public void apply_several_member_actions_keeps_member_order() throws NotAbleToApplyGroupV2ChangeException {
+    ProfileKey             profileKey4  = randomProfileKey();
+    ProfileKey             profileKey6  = randomProfileKey();
+    DecryptedMember        member1      = member(UUID.randomUUID());
+    DecryptedMember        member2      = member(UUID.randomUUID());
+    DecryptedMember        member3      = member(UUID.randomUUID());
+    DecryptedMember        member4      = member(UUID.randomUUID());
+    DecryptedMember        member5      = member(UUID.randomUUID());
+    UUID                   pending6Uuid = UUID.randomUUID();
+    DecryptedPendingMember pending6     = pendingMember(pending6Uuid);
+    DecryptedPendingMember pending7     = pendingMember(UUID.randomUUID());
+    DecryptedMember        member6      = member(pending6Uuid, profileKey6);
+
+    DecryptedGroup newGroup = DecryptedGroupUtil.apply(DecryptedGroup.newBuilder()
+                                                                     .setRevision(10)
+                                                                     .addMembers(member1)
+                                                                     .addMembers(member2)
+                                                                     .addMembers(member3)
+                                                                     .addMembers(member4)
+                                                                     .addPendingMembers(pending6)
+                                                                     .addPendingMembers(pending7)
+                                                                     .build(),
+                                                       DecryptedGroupChange.newBuilder()
+                                                                           .setRevision(11)
+                                                                           .addNewMembers(member5)
+                                                                           .addDeleteMembers(member2.getUuid())
+                                                                           .addModifyMemberRoles(DecryptedModifyMemberRole.newBuilder()
+                                                                                                                          .setUuid(member3.getUuid())
+                                                                                                                          .setRole(Member.Role.ADMINISTRATOR))
+                                                                           .addModifiedProfileKeys(withProfileKey(member4, profileKey4))
+                                                                           .addPromotePendingMembers(member6)
+                                                                           .build());
+
+    assertEquals(DecryptedGroup.newBuilder()
+                               .setRevision(11)
+                               .addMembers(member1)
+                               .addMembers(asAdmin(member3))
+                               .addMembers(withProfileKey(member4, profileKey4))
+                               .addMembers(member5)
+                               .addMembers(member6)
+                               .addPendingMembers(pending7)
+                               .build(),
+                 newGroup);
+  }
+
   @Test
   public void title() throws NotAbleToApplyGroupV2ChangeException {
     DecryptedGroup newGroup = DecryptedGroupUtil.apply(DecryptedGroup.newBuilder()
@@ -0,0 +1,124 @@
+package org.whispersystems.signalservice.api.groupsv2;
+
+import com.google.protobuf.ByteString;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.signal.storageservice.protos.groups.Group;
+import org.signal.storageservice.protos.groups.Member;
+import org.signal.storageservice.protos.groups.PendingMember;
+import org.signal.storageservice.protos.groups.local.DecryptedGroup;
+import org.signal.zkgroup.InvalidInputException;
+import org.signal.zkgroup.VerificationFailedException;
+import org.signal.zkgroup.groups.ClientZkGroupCipher;
+import org.signal.zkgroup.groups.GroupMasterKey;
+import org.signal.zkgroup.groups.GroupSecretParams;
+import org.signal.zkgroup.profiles.ProfileKey;
+import org.whispersystems.signalservice.internal.util.Util;
+import org.whispersystems.signalservice.testutil.ZkGroupLibraryUtil;
+
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+
+public final class GroupsV2Operations_decrypt_group_parallel_Test {
+
+  private static final int MEMBER_COUNT = 100;
+
+  private GroupSecretParams                  groupSecretParams;
+  private ExecutorService                    executor;
+  private GroupsV2Operations.GroupOperations serialOperations;
+  private GroupsV2Operations.GroupOperations parallelOperations;
+
+  @Before
+  public void setup() throws InvalidInputException {
+    ZkGroupLibraryUtil.assumeZkGroupSupportedOnOS();
+
+    TestZkGroupServer  server             = new TestZkGroupServer();
+    ClientZkOperations clientZkOperations = new ClientZkOperations(server.getServerPublicParams());
+
+    executor           = Executors.newFixedThreadPool(4);
+    groupSecretParams  = GroupSecretParams.deriveFromMasterKey(new GroupMasterKey(Util.getSecretBytes(32)));
+    serialOperations   = new GroupsV2Operations(clientZkOperations).forGroup(groupSecretParams);
+    parallelOperations = new GroupsV2Operations(clientZkOperations, executor).forGroup(groupSecretParams);
+  }
+
+  @After
+  public void tearDown() {
+    if (executor != null) {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void parallel_decrypt_matches_serial_decrypt() throws VerificationFailedException, InvalidGroupStateException {
+    Group group = largeGroup();
+
+    DecryptedGroup serial   = serialOperations.decryptGroup(group);
+    DecryptedGroup parallel = parallelOperations.decryptGroup(group);
+
+    assertEquals(MEMBER_COUNT, parallel.getMembersCount());
+    assertEquals(MEMBER_COUNT, parallel.getPendingMembersCount());
+    assertEquals(serial, parallel);
+  }
+
+  @Test
+  public void parallel_decrypt_is_repeatable_with_cached_uuids() throws VerificationFailedException, InvalidGroupStateException {
+    Group group = largeGroup();
+
+    DecryptedGroup first  = parallelOperations.decryptGroup(group);
+    DecryptedGroup second = parallelOperations.decryptGroup(group);
+
+    assertEquals(first, second);
+  }
+
+  @Test(expected = InvalidGroupStateException.class)
+  public void parallel_decrypt_rethrows_failure_from_other_thread() throws VerificationFailedException, InvalidGroupStateException {
+    Group group = largeGroup().toBuilder()
+                              .addMembers(Member.newBuilder()
+                                                .setRole(Member.Role.DEFAULT)
+                                                .setUserId(ByteString.copyFrom(new byte[5])))
+                              .build();
+
+    parallelOperations.decryptGroup(group);
+  }
+
+  private Group largeGroup() {
+    UUID          inviter = UUID.randomUUID();
+    Group.Builder group   = Group.newBuilder();
+
+    for (int i = 0; i < MEMBER_COUNT; i++) {
+      UUID uuid = UUID.randomUUID();
+
+      group.addMembers(Member.newBuilder()
+                             .setRole(i == 0 ? Member.Role.ADMINISTRATOR : Member.Role.DEFAULT)
+                             .setUserId(serialOperations.encryptUuid(uuid))
+                             .setJoinedAtRevision(i)
+                             .setProfileKey(encryptProfileKey(uuid, newProfileKey())));
+
+      group.addPendingMembers(PendingMember.newBuilder()
+                                           .setAddedByUserId(serialOperations.encryptUuid(inviter))
+                                           .setTimestamp(i)
+                                           .setMember(Member.newBuilder()
+                                                            .setRole(Member.Role.DEFAULT)
+                                                            .setUserId(serialOperations.encryptUuid(UUID.randomUUID()))));
+    }
+
+    return group.build();
+  }
+
+  private ByteString encryptProfileKey(UUID uuid, ProfileKey profileKey) {
+    return ByteString.copyFrom(new ClientZkGroupCipher(groupSecretParams).encryptProfileKey(profileKey, uuid).serialize());
+  }
+
+  private static ProfileKey newProfileKey() {
+    try {
+      return new ProfileKey(Util.getSecretBytes(32));
+    } catch (InvalidInputException e) {
+      throw new AssertionError(e);
+    }
+  }
+}
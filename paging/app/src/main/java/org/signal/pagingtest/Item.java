@@ -0,0 +1,14 @@
+package org.signal.pagingtest;
+
+import androidx.annotation.NonNull;
+
+final class Item {
+
+  final long   key;
+  final String text;
+
+  Item(long key, @NonNull String text) {
+    this.key  = key;
+    this.text = text;
+  }
+}
@@ -1,6 +1,7 @@
 package org.signal.pagingtest;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.lifecycle.ViewModelProvider;
 import androidx.recyclerview.widget.LinearLayoutManager;
@@ -12,6 +13,8 @@ import android.view.View;
 import android.view.ViewGroup;
 import android.widget.TextView;
 
+import com.google.android.material.button.MaterialButton;
+
 import org.signal.paging.PagingController;
 
 import java.util.ArrayList;
@@ -54,6 +57,19 @@ public class MainActivity extends AppCompatActivity {
     findViewById(R.id.append_btn).setOnClickListener(v -> {
       viewModel.appendItems();
     });
+
+    MaterialButton stressButton = findViewById(R.id.stress_btn);
+    stressButton.setOnClickListener(v -> {
+      viewModel.toggleStress();
+      stressButton.setText(viewModel.isStressing() ? "Stop stress" : "Stress");
+    });
+
+    list.addOnScrollListener(new RecyclerView.OnScrollListener() {
+      @Override
+      public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+        viewModel.setFocusIndex(layoutManager.findFirstVisibleItemPosition());
+      }
+    });
   }
 
   static class MyAdapter extends RecyclerView.Adapter<MyViewHolder> {
@@ -63,7 +79,7 @@ public class MainActivity extends AppCompatActivity {
 
     private PagingController controller;
 
-    private final List<String> data = new ArrayList<>();
+    private final List<Item> data = new ArrayList<>();
 
     public MyAdapter() {
       setHasStableIds(true);
@@ -101,7 +117,7 @@ public class MainActivity extends AppCompatActivity {
       holder.bind(getItem(position));
     }
 
-    private String getItem(int index) {
+    private Item getItem(int index) {
       if (controller != null) {
         controller.onDataNeededAroundIndex(index);
       }
@@ -112,7 +128,7 @@ public class MainActivity extends AppCompatActivity {
       this.controller = pagingController;
     }
 
-    void submitList(List<String> list) {
+    void submitList(List<Item> list) {
       data.clear();
       data.addAll(list);
       notifyDataSetChanged();
@@ -128,8 +144,8 @@ public class MainActivity extends AppCompatActivity {
       textView = itemView.findViewById(R.id.text);
     }
 
-    void bind(@NonNull String s) {
-      textView.setText(s == null ? "PLACEHOLDER" : s);
+    void bind(@Nullable Item item) {
+      textView.setText(item == null ? "PLACEHOLDER" : item.text);
     }
   }
 }
\ No newline at end of file
@@ -1,30 +1,49 @@
 package org.signal.pagingtest;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.lifecycle.LiveData;
 import androidx.lifecycle.ViewModel;
 
-import org.signal.paging.PagedDataSource;
+import org.signal.paging.KeyedPagedDataSource;
 import org.signal.paging.PagingController;
 import org.signal.paging.PagingConfig;
 import org.signal.paging.PagedData;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 public class MainViewModel extends ViewModel {
 
-  private final PagedData<String> pagedData;
-  private final MyDataSource      dataSource;
+  /** Roughly 500 updates per second. */
+  private static final long STRESS_INTERVAL_MICROS = 2000;
+  private static final int  STRESS_SPREAD          = 25;
+
+  private final PagedData<Item>          pagedData;
+  private final MyDataSource             dataSource;
+  private final ScheduledExecutorService stressExecutor;
+  private final Random                   random;
+
+  private ScheduledFuture<?> stressTask;
+  private volatile int       focusIndex;
 
   public MainViewModel() {
-    this.dataSource = new MyDataSource(1000);
-    this.pagedData = PagedData.create(dataSource, new PagingConfig.Builder().setBufferPages(3)
-                                                                            .setPageSize(25)
-                                                                            .build());
+    this.dataSource     = new MyDataSource(1000);
+    this.stressExecutor = Executors.newSingleThreadScheduledExecutor();
+    this.random         = new Random();
+    this.pagedData      = PagedData.create(dataSource, new PagingConfig.Builder().setBufferPages(3)
+                                                                                 .setPageSize(25)
+                                                                                 .setMaxPrefetchPages(6)
+                                                                                 .setFetchThreads(2)
+                                                                                 .build());
   }
 
-  public @NonNull LiveData<List<String>> getList() {
+  public @NonNull LiveData<List<Item>> getList() {
     return pagedData.getData();
   }
 
@@ -33,42 +52,119 @@ public class MainViewModel extends ViewModel {
   }
 
   public void appendItems() {
-    dataSource.setSize(dataSource.size() + 1);
-    pagedData.getController().onDataInvalidated();
+    Item item = dataSource.insert(dataSource.size());
+    pagedData.getController().onDataItemInserted(item.key, dataSource.size() - 1);
+  }
+
+  public void setFocusIndex(int focusIndex) {
+    this.focusIndex = focusIndex;
+  }
+
+  /**
+   * Changes, inserts and removes items around the focused position as fast as the paging library
+   * will let us, reporting each one as a keyed update.
+   */
+  public void toggleStress() {
+    if (stressTask != null) {
+      stressTask.cancel(false);
+      stressTask = null;
+    } else {
+      stressTask = stressExecutor.scheduleAtFixedRate(this::performRandomUpdate, 0, STRESS_INTERVAL_MICROS, TimeUnit.MICROSECONDS);
+    }
+  }
+
+  public boolean isStressing() {
+    return stressTask != null;
+  }
+
+  private void performRandomUpdate() {
+    int size     = dataSource.size();
+    int position = Math.max(0, Math.min(size - 1, focusIndex + random.nextInt(STRESS_SPREAD * 2) - STRESS_SPREAD));
+    int roll     = random.nextInt(10);
+
+    if (roll < 7 && size > 0) {
+      Item item = dataSource.update(position);
+      pagedData.getController().onDataItemChanged(item.key);
+    } else if (roll < 9 || size == 0) {
+      Item item = dataSource.insert(position);
+      pagedData.getController().onDataItemInserted(item.key, position);
+    } else {
+      Item item = dataSource.remove(position);
+      pagedData.getController().onDataItemRemoved(item.key);
+    }
+  }
+
+  @Override
+  protected void onCleared() {
+    stressExecutor.shutdownNow();
   }
 
-  private static class MyDataSource implements PagedDataSource<String> {
+  private static class MyDataSource implements KeyedPagedDataSource<Long, Item> {
 
-    private int size;
+    private final List<Item> items;
+
+    private long nextKey;
 
     MyDataSource(int size) {
-      this.size = size;
+      this.items = new ArrayList<>(size);
+
+      for (int i = 0; i < size; i++) {
+        items.add(buildItem(nextKey++));
+      }
+    }
+
+    synchronized @NonNull Item insert(int position) {
+      Item item = buildItem(nextKey++);
+      items.add(position, item);
+      return item;
+    }
+
+    synchronized @NonNull Item update(int position) {
+      Item item = buildItem(items.get(position).key);
+      items.set(position, item);
+      return item;
     }
 
-    public void setSize(int size) {
-      this.size = size;
+    synchronized @NonNull Item remove(int position) {
+      return items.remove(position);
     }
 
     @Override
-    public int size() {
-      return size;
+    public synchronized int size() {
+      return items.size();
     }
 
     @Override
-    public List<String> load(int start, int length, @NonNull CancellationSignal cancellationSignal) {
+    public List<Item> load(int start, int length, @NonNull CancellationSignal cancellationSignal) {
       try {
         Thread.sleep(500);
       } catch (InterruptedException e) {
         e.printStackTrace();
       }
 
-      List<String> data = new ArrayList<>(length);
+      synchronized (this) {
+        int end = Math.min(items.size(), start + length);
+        return new ArrayList<>(items.subList(Math.min(start, end), end));
+      }
+    }
 
-      for (int i = 0; i < length; i++) {
-        data.add(String.valueOf(start + i) + "     (" + System.currentTimeMillis() + ")");
+    @Override
+    public @NonNull Long getKey(@NonNull Item item) {
+      return item.key;
+    }
+
+    @Override
+    public synchronized @Nullable Item load(@NonNull Long key) {
+      for (Item item : items) {
+        if (item.key == key) {
+          return item;
+        }
       }
+      return null;
+    }
 
-      return data;
+    private static @NonNull Item buildItem(long key) {
+      return new Item(key, key + "     (" + System.currentTimeMillis() + ")");
     }
   }
 }
@@ -3,6 +3,8 @@ package org.signal.paging;
 import androidx.annotation.NonNull;
 import androidx.lifecycle.MutableLiveData;
 
+import org.signal.core.util.concurrent.SignalExecutors;
+
 import java.util.List;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
@@ -18,14 +20,22 @@ import java.util.concurrent.Executors;
  *
  * It's also worth noting that this controller has lifecycle that matches the {@link PagedData} that
  * contains it. When invalidations come in, this class will just swap out the active controller with
- * a new one.
+ * a new one. Keyed item changes, on the other hand, are forwarded to the active controller so that
+ * it can patch its data in place.
+ *
+ * Loads run on a single fetch thread shared by all paged data, unless the {@link PagingConfig}
+ * asks for dedicated fetch threads, in which case they're owned by this controller and shared by
+ * every controller it creates.
  */
 class BufferedPagingController<E> implements PagingController {
 
+  private static final Executor SHARED_FETCH_EXECUTOR = SignalExecutors.newCachedSingleThreadExecutor("signal-FixedSizePagingController");
+
   private final PagedDataSource<E>       dataSource;
   private final PagingConfig             config;
   private final MutableLiveData<List<E>> liveData;
   private final Executor                 serializationExecutor;
+  private final Executor                 fetchExecutor;
 
   private PagingController activeController;
   private int              lastRequestedIndex;
@@ -35,6 +45,8 @@ class BufferedPagingController<E> implements PagingController {
     this.config                = config;
     this.liveData              = liveData;
     this.serializationExecutor = Executors.newSingleThreadExecutor();
+    this.fetchExecutor         = config.fetchThreads() > 0 ? SignalExecutors.newCachedBoundedExecutor("signal-PagingFetch", 0, config.fetchThreads())
+                                                           : SHARED_FETCH_EXECUTOR;
 
     this.activeController   = null;
     this.lastRequestedIndex = config.startIndex();
@@ -57,8 +69,23 @@ class BufferedPagingController<E> implements PagingController {
         activeController.onDataInvalidated();
       }
 
-      activeController = new FixedSizePagingController<>(dataSource, config, liveData, dataSource.size());
+      activeController = new FixedSizePagingController<>(dataSource, config, liveData, dataSource.size(), this::onDataInvalidated, serializationExecutor, fetchExecutor);
       activeController.onDataNeededAroundIndex(lastRequestedIndex);
     });
   }
+
+  @Override
+  public void onDataItemChanged(Object key) {
+    serializationExecutor.execute(() -> activeController.onDataItemChanged(key));
+  }
+
+  @Override
+  public void onDataItemInserted(Object key, int position) {
+    serializationExecutor.execute(() -> activeController.onDataItemInserted(key, position));
+  }
+
+  @Override
+  public void onDataItemRemoved(Object key) {
+    serializationExecutor.execute(() -> activeController.onDataItemRemoved(key));
+  }
 }
@@ -3,41 +3,198 @@ package org.signal.paging;
 import androidx.annotation.NonNull;
 
 import java.util.AbstractList;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
- * A placeholder class for efficiently storing lists that are mostly empty space.
- * TODO [greyson][paging]
+ * A list that efficiently stores data that is mostly empty space.
+ *
+ * Items are stored in fixed-size chunks, and a chunk that only contains nulls is never allocated.
+ * Copying a {@link CompressedList} shares all of its chunks with the copy, and either list will
+ * only copy a chunk the first time it writes to it. This means that taking a snapshot after
+ * loading a page costs O(page) rather than O(size).
  */
 public class CompressedList<E> extends AbstractList<E> {
 
-  private final List<E> wrapped;
+  private static final int CHUNK_SHIFT = 8;
+  private static final int CHUNK_SIZE  = 1 << CHUNK_SHIFT;
+  private static final int CHUNK_MASK  = CHUNK_SIZE - 1;
+
+  private Object[][] chunks;
+  private boolean[]  owned;
+  private int        size;
 
   public CompressedList(@NonNull List<E> source) {
-    this.wrapped = new ArrayList<>(source);
-  }
+    if (source instanceof CompressedList) {
+      CompressedList<E> compressed = (CompressedList<E>) source;
 
-  public CompressedList(int totalSize) {
-    this.wrapped = new ArrayList<>(totalSize);
+      this.size   = compressed.size;
+      this.chunks = compressed.chunks.clone();
+      this.owned  = new boolean[chunks.length];
+
+      Arrays.fill(compressed.owned, false);
+    } else {
+      this.size   = source.size();
+      this.chunks = new Object[chunkCount(size)][];
+      this.owned  = new boolean[chunks.length];
 
-    for (int i = 0; i < totalSize; i++) {
-      wrapped.add(null);
+      for (int i = 0; i < size; i++) {
+        E element = source.get(i);
+        if (element != null) {
+          writableChunk(i >> CHUNK_SHIFT)[i & CHUNK_MASK] = element;
+        }
+      }
     }
   }
 
+  public CompressedList(int totalSize) {
+    this.size   = totalSize;
+    this.chunks = new Object[chunkCount(totalSize)][];
+    this.owned  = new boolean[chunks.length];
+  }
+
   @Override
   public int size() {
-    return wrapped.size();
+    return size;
   }
 
   @Override
+  @SuppressWarnings("unchecked")
   public E get(int index) {
-    return wrapped.get(index);
+    checkIndex(index);
+
+    Object[] chunk = chunks[index >> CHUNK_SHIFT];
+    return chunk != null ? (E) chunk[index & CHUNK_MASK] : null;
   }
 
   @Override
+  @SuppressWarnings("unchecked")
   public E set(int globalIndex, E element) {
-    return wrapped.set(globalIndex, element);
+    checkIndex(globalIndex);
+
+    int chunkIndex = globalIndex >> CHUNK_SHIFT;
+
+    if (element == null && chunks[chunkIndex] == null) {
+      return null;
+    }
+
+    Object[] chunk    = writableChunk(chunkIndex);
+    E        previous = (E) chunk[globalIndex & CHUNK_MASK];
+
+    chunk[globalIndex & CHUNK_MASK] = element;
+    return previous;
+  }
+
+  /**
+   * Shifts everything at or after the index up by one. Only chunks that contain data (or are about
+   * to) are touched.
+   */
+  @Override
+  public void add(int globalIndex, E element) {
+    if (globalIndex < 0 || globalIndex > size) {
+      throw new IndexOutOfBoundsException("Index: " + globalIndex + ", Size: " + size);
+    }
+
+    size++;
+    ensureChunkCapacity(chunkCount(size));
+
+    int startChunk = globalIndex >> CHUNK_SHIFT;
+    int lastChunk  = (size - 1) >> CHUNK_SHIFT;
+
+    for (int i = lastChunk; i >= startChunk; i--) {
+      int    start   = i == startChunk ? globalIndex & CHUNK_MASK : 0;
+      Object carryIn = i == startChunk ? element : lastOf(i - 1);
+
+      if (chunks[i] == null && carryIn == null) {
+        continue;
+      }
+
+      Object[] chunk = writableChunk(i);
+      System.arraycopy(chunk, start, chunk, start + 1, CHUNK_SIZE - start - 1);
+      chunk[start] = carryIn;
+    }
+
+    modCount++;
+  }
+
+  /**
+   * Shifts everything after the index down by one. Only chunks that contain data are touched.
+   */
+  @Override
+  @SuppressWarnings("unchecked")
+  public E remove(int globalIndex) {
+    checkIndex(globalIndex);
+
+    E previous = get(globalIndex);
+
+    int startChunk = globalIndex >> CHUNK_SHIFT;
+    int lastChunk  = (size - 1) >> CHUNK_SHIFT;
+
+    for (int i = startChunk; i <= lastChunk; i++) {
+      int    start    = i == startChunk ? globalIndex & CHUNK_MASK : 0;
+      Object carryOut = i < lastChunk ? firstOf(i + 1) : null;
+
+      if (chunks[i] == null && carryOut == null) {
+        continue;
+      }
+
+      Object[] chunk = writableChunk(i);
+      System.arraycopy(chunk, start + 1, chunk, start, CHUNK_SIZE - start - 1);
+      chunk[CHUNK_MASK] = carryOut;
+    }
+
+    size--;
+    modCount++;
+
+    return previous;
+  }
+
+  private Object firstOf(int chunkIndex) {
+    Object[] chunk = chunks[chunkIndex];
+    return chunk != null ? chunk[0] : null;
+  }
+
+  private Object lastOf(int chunkIndex) {
+    Object[] chunk = chunks[chunkIndex];
+    return chunk != null ? chunk[CHUNK_MASK] : null;
+  }
+
+  /**
+   * @return A chunk that this list is free to write to, allocating or copying it if necessary.
+   */
+  private @NonNull Object[] writableChunk(int chunkIndex) {
+    Object[] chunk = chunks[chunkIndex];
+
+    if (chunk == null) {
+      chunk = new Object[CHUNK_SIZE];
+    } else if (!owned[chunkIndex]) {
+      chunk = chunk.clone();
+    } else {
+      return chunk;
+    }
+
+    chunks[chunkIndex] = chunk;
+    owned[chunkIndex]  = true;
+
+    return chunk;
+  }
+
+  private void ensureChunkCapacity(int chunkCount) {
+    if (chunkCount > chunks.length) {
+      int newLength = Math.max(chunkCount, chunks.length + (chunks.length >> 1));
+
+      chunks = Arrays.copyOf(chunks, newLength);
+      owned  = Arrays.copyOf(owned, newLength);
+    }
+  }
+
+  private void checkIndex(int index) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+    }
+  }
+
+  private static int chunkCount(int size) {
+    return (size + CHUNK_SIZE - 1) >> CHUNK_SHIFT;
   }
 }
@@ -13,7 +13,8 @@ class DataStatus {
   private static final Pools.Pool<BitSet> POOL = new Pools.SynchronizedPool<>(1);
 
   private final BitSet state;
-  private final int    size;
+
+  private int size;
 
   public static DataStatus obtain(int size) {
     BitSet bitset = POOL.acquire();
@@ -35,22 +36,65 @@ class DataStatus {
     state.set(startInclusive, endExclusive, true);
   }
 
-  int getEarliestUnmarkedIndexInRange(int startInclusive, int endExclusive) {
-    for (int i = startInclusive; i < endExclusive; i++) {
-      if (!state.get(i)) {
-        return i;
-      }
+  void clear(int index) {
+    state.clear(index);
+  }
+
+  /**
+   * @return The first marked index at or after {@code fromIndex}, or -1 if there isn't one.
+   */
+  int getNextMarkedIndex(int fromIndex) {
+    int index = state.nextSetBit(fromIndex);
+    return index < size ? index : -1;
+  }
+
+  boolean isMarked(int index) {
+    return index >= 0 && index < size && state.get(index);
+  }
+
+  /**
+   * Inserts a new entry at the specified position, shifting everything after it up by one.
+   */
+  void insertState(int position, boolean marked) {
+    BitSet tail = state.get(position, size);
+
+    state.clear(position, size + 1);
+
+    for (int i = tail.nextSetBit(0); i >= 0; i = tail.nextSetBit(i + 1)) {
+      state.set(position + 1 + i);
     }
-    return -1;
+
+    state.set(position, marked);
+    size++;
+  }
+
+  /**
+   * Removes the entry at the specified position, shifting everything after it down by one.
+   */
+  void removeState(int position) {
+    BitSet tail = state.get(position + 1, size);
+
+    state.clear(position, size);
+
+    for (int i = tail.nextSetBit(0); i >= 0; i = tail.nextSetBit(i + 1)) {
+      state.set(position + i);
+    }
+
+    size--;
+  }
+
+  int getEarliestUnmarkedIndexInRange(int startInclusive, int endExclusive) {
+    int index = state.nextClearBit(startInclusive);
+    return index < endExclusive ? index : -1;
   }
 
   int getLatestUnmarkedIndexInRange(int startInclusive, int endExclusive) {
-    for (int i = endExclusive - 1; i >= startInclusive; i--) {
-      if (!state.get(i)) {
-        return i;
-      }
+    if (endExclusive <= startInclusive) {
+      return -1;
     }
-    return -1;
+
+    int index = state.previousClearBit(endExclusive - 1);
+    return index >= startInclusive ? index : -1;
   }
 
   int size() {
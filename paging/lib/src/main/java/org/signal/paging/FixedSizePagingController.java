@@ -1,55 +1,105 @@
 package org.signal.paging;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.lifecycle.MutableLiveData;
 
-import org.signal.core.util.concurrent.SignalExecutors;
 import org.signal.core.util.logging.Log;
 
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Executor;
 
 /**
  * The workhorse of managing page requests.
  *
- * A controller whose life focuses around one invalidation cycle of a data set, and therefore has
- * a fixed size throughout. It assumes that all interface methods are called on a single thread,
- * which allows it to keep track of pending requests in a thread-safe way, while spinning off
- * tasks to fetch data on its own executor.
+ * A controller whose life focuses around one invalidation cycle of a data set. Its size only
+ * changes through keyed inserts and removals, which are applied in place.
+ *
+ * All interface methods, and all reads and writes of {@code loadState} and {@code data}, happen on
+ * the serial executor we're given. Only the actual loads from the data source run on the fetch
+ * executor, which may have several threads. Because inserts and removals can happen while a load is
+ * in flight, we keep a journal of them so that load results can be translated to their current
+ * positions before they're applied.
+ *
+ * Likewise, an item can change after a load has read it but before the load is applied. Changes to
+ * items that aren't loaded yet are remembered while loads are in flight, and any item a load brings
+ * in that changed after the load started is fetched again.
  */
 class FixedSizePagingController<E> implements PagingController {
 
   private static final String TAG = FixedSizePagingController.class.getSimpleName();
 
-  private static final Executor FETCH_EXECUTOR = SignalExecutors.newCachedSingleThreadExecutor("signal-FixedSizePagingController");
-  private static final boolean  DEBUG          = false;
+  private static final boolean DEBUG = false;
+
+  /** How often we take a new sample of the requested index to estimate scroll velocity. */
+  private static final long VELOCITY_SAMPLE_MS = 50;
+
+  /** If we haven't had a request in this long, assume scrolling has stopped. */
+  private static final long VELOCITY_RESET_MS = 500;
 
   private final PagedDataSource<E>       dataSource;
   private final PagingConfig             config;
   private final MutableLiveData<List<E>> liveData;
   private final DataStatus               loadState;
+  private final Runnable                 fullInvalidator;
+  private final List<E>                  data;
+  private final Executor                 serialExecutor;
+  private final Executor                 fetchExecutor;
+  private final List<StructuralChange>   journal;
+  private final Map<Object, Integer>     latestChangeByKey;
+  private final Map<Object, Integer>     unloadedChangeByKey;
+  private final Map<Object, Integer>     positionByKey;
 
-  private List<E> data;
+  private boolean publishPending;
+  private int     structureVersion;
+  private int     journalBaseVersion;
+  private int     loadsInFlight;
+  private int     changeSequence;
+  private int     positionIndexVersion;
+
+  private int   sampleIndex;
+  private long  sampleTime;
+  private float velocity;
+  private int   direction;
+
+  private volatile int wantedStart;
+  private volatile int wantedEnd;
 
   private volatile boolean invalidated;
 
   FixedSizePagingController(@NonNull PagedDataSource<E> dataSource,
                             @NonNull PagingConfig config,
                             @NonNull MutableLiveData<List<E>> liveData,
-                            int size)
+                            int size,
+                            @NonNull Runnable fullInvalidator,
+                            @NonNull Executor serialExecutor,
+                            @NonNull Executor fetchExecutor)
   {
-    this.dataSource = dataSource;
-    this.config     = config;
-    this.liveData   = liveData;
-    this.loadState  = DataStatus.obtain(size);
-    this.data       = new CompressedList<>(loadState.size());
+    this.dataSource          = dataSource;
+    this.config              = config;
+    this.liveData            = liveData;
+    this.loadState           = DataStatus.obtain(size);
+    this.data                = new CompressedList<>(loadState.size());
+    this.fullInvalidator     = fullInvalidator;
+    this.serialExecutor      = serialExecutor;
+    this.fetchExecutor       = fetchExecutor;
+    this.journal             = new ArrayList<>();
+    this.latestChangeByKey   = new HashMap<>();
+    this.unloadedChangeByKey = new HashMap<>();
+    this.positionByKey       = new HashMap<>();
+    this.sampleIndex         = -1;
+    this.wantedStart         = 0;
+    this.wantedEnd           = size;
   }
 
   /**
-   * We assume this method is always called on the same thread, so we can read our
-   * {@code loadState} and construct the parameters of a fetch request. That fetch request can
-   * then be performed on separate single-thread executor.
+   * Figures out which ranges around the index haven't been loaded yet, marks them as loaded, and
+   * kicks off loads for them. The page containing the index is loaded first, followed by the
+   * buffer in the direction of travel, followed by the buffer behind it.
    */
   @Override
   public void onDataNeededAroundIndex(int aroundIndex) {
@@ -63,68 +113,525 @@ class FixedSizePagingController<E> implements PagingController {
       return;
     }
 
-    int leftPageBoundary  = (aroundIndex / config.pageSize()) * config.pageSize();
-    int rightPageBoundary = leftPageBoundary + config.pageSize();
-    int buffer            = config.bufferPages() * config.pageSize();
+    updateVelocity(aroundIndex);
+
+    int pageSize          = config.pageSize();
+    int leftPageBoundary  = (aroundIndex / pageSize) * pageSize;
+    int rightPageBoundary = leftPageBoundary + pageSize;
+    int buffer            = config.bufferPages() * pageSize;
+    int prefetch          = getPrefetchPages() * pageSize;
+
+    int leftLoadBoundary  = Math.max(0, leftPageBoundary - buffer - (direction < 0 ? prefetch : 0));
+    int rightLoadBoundary = Math.min(loadState.size(), rightPageBoundary + buffer + (direction > 0 ? prefetch : 0));
+
+    leftPageBoundary  = Math.min(leftPageBoundary, loadState.size());
+    rightPageBoundary = Math.min(rightPageBoundary, loadState.size());
+
+    wantedStart = leftLoadBoundary;
+    wantedEnd   = rightLoadBoundary;
+
+    loadUnmarked(aroundIndex, leftPageBoundary, rightPageBoundary);
+
+    if (direction < 0) {
+      loadUnmarked(aroundIndex, leftLoadBoundary, leftPageBoundary);
+      loadUnmarked(aroundIndex, rightPageBoundary, rightLoadBoundary);
+    } else {
+      loadUnmarked(aroundIndex, rightPageBoundary, rightLoadBoundary);
+      loadUnmarked(aroundIndex, leftLoadBoundary, leftPageBoundary);
+    }
+  }
+
+  @Override
+  public void onDataInvalidated() {
+    if (invalidated) {
+      return;
+    }
+
+    invalidated = true;
+    loadState.recycle();
+  }
+
+  @Override
+  public void onDataItemChanged(Object key) {
+    if (!(dataSource instanceof KeyedPagedDataSource)) {
+      fullInvalidator.run();
+      return;
+    }
+
+    if (invalidated) {
+      Log.w(TAG, "[onDataItemChanged] Invalidated!");
+      return;
+    }
+
+    int sequence = ++changeSequence;
+
+    if (findPosition(key) < 0) {
+      if (loadsInFlight > 0) {
+        if (DEBUG) Log.i(TAG, "[onDataItemChanged] Item isn't loaded. Remembering it in case a load in flight brings it in.");
+        unloadedChangeByKey.put(key, sequence);
+      } else {
+        if (DEBUG) Log.i(TAG, "[onDataItemChanged] Item isn't loaded. Ignoring.");
+      }
+      return;
+    }
+
+    latestChangeByKey.put(key, sequence);
+
+    fetchExecutor.execute(() -> {
+      E item = invalidated ? null : getKeyedDataSource().load(key);
+
+      serialExecutor.execute(() -> {
+        if (invalidated) {
+          Log.w(TAG, "[onDataItemChanged] Invalidated! Just after data was loaded.");
+          return;
+        }
+
+        Integer latest = latestChangeByKey.get(key);
+
+        if (latest == null || latest != sequence) {
+          if (DEBUG) Log.i(TAG, "[onDataItemChanged] A newer change is in flight. Ignoring.");
+          return;
+        }
+
+        latestChangeByKey.remove(key);
+
+        int position = findPosition(key);
+
+        if (position < 0) {
+          if (DEBUG) Log.i(TAG, "[onDataItemChanged] Item was removed while loading. Ignoring.");
+          return;
+        }
+
+        if (item == null) {
+          Log.w(TAG, "[onDataItemChanged] Changed item no longer exists. Invalidating.");
+          fullInvalidator.run();
+          return;
+        }
+
+        setItem(position, item);
+        schedulePublish();
+      });
+    });
+  }
+
+  @Override
+  public void onDataItemInserted(Object key, int position) {
+    if (!(dataSource instanceof KeyedPagedDataSource)) {
+      fullInvalidator.run();
+      return;
+    }
+
+    if (invalidated) {
+      Log.w(TAG, "[onDataItemInserted] Invalidated!");
+      return;
+    }
+
+    if (position < 0 || position > loadState.size()) {
+      Log.w(TAG, "[onDataItemInserted] Position " + position + " is out of bounds for size " + loadState.size() + ". Invalidating.");
+      fullInvalidator.run();
+      return;
+    }
+
+    if (findPosition(key) >= 0) {
+      Log.w(TAG, "[onDataItemInserted] Item was already picked up by a page load. Invalidating.");
+      fullInvalidator.run();
+      return;
+    }
+
+    boolean nearLoadedData = loadState.isMarked(position - 1) || loadState.isMarked(position);
+
+    loadState.insertState(position, nearLoadedData);
+    data.add(position, null);
+    recordStructuralChange(position, true);
+
+    if (!nearLoadedData) {
+      schedulePublish();
+      return;
+    }
+
+    int version       = structureVersion;
+    int startSequence = changeSequence;
+    loadsInFlight++;
+
+    fetchExecutor.execute(() -> {
+      E item = invalidated ? null : getKeyedDataSource().load(key);
+
+      serialExecutor.execute(() -> {
+        loadsInFlight--;
+
+        if (invalidated) {
+          Log.w(TAG, "[onDataItemInserted] Invalidated! Just after data was loaded.");
+          return;
+        }
 
-    int leftLoadBoundary  = Math.max(0, leftPageBoundary - buffer);
-    int rightLoadBoundary = Math.min(loadState.size(), rightPageBoundary + buffer);
+        int current = translatePosition(position, version);
 
-    int loadStart = loadState.getEarliestUnmarkedIndexInRange(leftLoadBoundary, rightLoadBoundary);
+        if (current >= 0 && item != null) {
+          setItem(current, item);
+          refetchIfChangedSince(item, startSequence);
+        }
+
+        trimJournal();
+
+        if (current < 0) {
+          if (DEBUG) Log.i(TAG, "[onDataItemInserted] Item was removed while loading. Ignoring.");
+          return;
+        }
+
+        if (item == null) {
+          Log.w(TAG, "[onDataItemInserted] Inserted item no longer exists. Invalidating.");
+          fullInvalidator.run();
+          return;
+        }
+
+        schedulePublish();
+      });
+    });
+  }
+
+  @Override
+  public void onDataItemRemoved(Object key) {
+    if (!(dataSource instanceof KeyedPagedDataSource)) {
+      fullInvalidator.run();
+      return;
+    }
+
+    if (invalidated) {
+      Log.w(TAG, "[onDataItemRemoved] Invalidated!");
+      return;
+    }
+
+    int position = findPosition(key);
+
+    if (position < 0) {
+      Log.w(TAG, "[onDataItemRemoved] Item isn't loaded, so its position is unknown. Invalidating.");
+      fullInvalidator.run();
+      return;
+    }
+
+    loadState.removeState(position);
+    data.remove(position);
+    recordStructuralChange(position, false);
+    schedulePublish();
+  }
+
+  private void loadUnmarked(int aroundIndex, int startInclusive, int endExclusive) {
+    if (endExclusive <= startInclusive) {
+      return;
+    }
+
+    int loadStart = loadState.getEarliestUnmarkedIndexInRange(startInclusive, endExclusive);
 
     if (loadStart < 0) {
       if (DEBUG) Log.i(TAG, buildLog(aroundIndex, "loadStart < 0"));
       return;
     }
 
-    int loadEnd = loadState.getLatestUnmarkedIndexInRange(Math.max(leftLoadBoundary, loadStart), rightLoadBoundary) + 1;
+    int loadEnd = loadState.getLatestUnmarkedIndexInRange(loadStart, endExclusive) + 1;
 
     if (loadEnd <= loadStart) {
       if (DEBUG) Log.i(TAG, buildLog(aroundIndex, "loadEnd <= loadStart, loadEnd: " + loadEnd + ", loadStart: " + loadStart));
       return;
     }
 
-    int totalSize = loadState.size();
-
     loadState.markRange(loadStart, loadEnd);
 
-    if (DEBUG) Log.i(TAG, buildLog(aroundIndex, "start: " + loadStart + ", end: " + loadEnd + ", totalSize: " + totalSize));
+    if (DEBUG) Log.i(TAG, buildLog(aroundIndex, "start: " + loadStart + ", end: " + loadEnd + ", totalSize: " + loadState.size() + ", velocity: " + velocity));
 
-    FETCH_EXECUTOR.execute(() -> {
+    int version       = structureVersion;
+    int startSequence = changeSequence;
+    loadsInFlight++;
+
+    fetchExecutor.execute(() -> {
       if (invalidated) {
         Log.w(TAG, buildLog(aroundIndex, "Invalidated! At beginning of load task."));
         return;
       }
 
-      List<E> loaded = dataSource.load(loadStart, loadEnd - loadStart, () -> invalidated);
-
-      if (invalidated) {
-        Log.w(TAG, buildLog(aroundIndex, "Invalidated! Just after data was loaded."));
+      if (isStale(loadStart, loadEnd)) {
+        if (DEBUG) Log.i(TAG, buildLog(aroundIndex, "Stale before loading. Dropping."));
+        serialExecutor.execute(() -> onLoadDropped(loadStart, loadEnd, version));
         return;
       }
 
-      List<E> updated = new CompressedList<>(data);
+      List<E> loaded = dataSource.load(loadStart, loadEnd - loadStart, () -> invalidated || isStale(loadStart, loadEnd));
 
-      for (int i = 0, len = Math.min(loaded.size(), data.size() - loadStart); i < len; i++) {
-        updated.set(loadStart + i, loaded.get(i));
+      if (isStale(loadStart, loadEnd)) {
+        if (DEBUG) Log.i(TAG, buildLog(aroundIndex, "Stale after loading. Dropping."));
+        serialExecutor.execute(() -> onLoadDropped(loadStart, loadEnd, version));
+        return;
       }
 
-      data = updated;
-      liveData.postValue(updated);
+      serialExecutor.execute(() -> onLoadCompleted(loadStart, loadEnd, version, startSequence, loaded));
     });
   }
 
-  @Override
-  public void onDataInvalidated() {
+  /**
+   * @param startSequence The change sequence when the load was started. Any loaded item that
+   *                      changed after that may be stale.
+   */
+  private void onLoadCompleted(int loadStart, int loadEnd, int version, int startSequence, @NonNull List<E> loaded) {
+    loadsInFlight--;
+
     if (invalidated) {
+      Log.w(TAG, "[onLoadCompleted] Invalidated! Just after data was loaded.");
       return;
     }
 
-    invalidated = true;
-    loadState.recycle();
+    for (int i = 0, len = Math.min(loaded.size(), loadEnd - loadStart); i < len; i++) {
+      int position = translatePosition(loadStart + i, version);
+      E   item     = loaded.get(i);
+
+      if (position >= 0) {
+        setItem(position, item);
+
+        if (item != null) {
+          refetchIfChangedSince(item, startSequence);
+        }
+      }
+    }
+
+    trimJournal();
+    publish();
+  }
+
+  /**
+   * Unmarks whatever is left of a range we decided not to load, so that it can be requested again
+   * if the user scrolls back to it.
+   */
+  private void onLoadDropped(int loadStart, int loadEnd, int version) {
+    loadsInFlight--;
+
+    if (invalidated) {
+      return;
+    }
+
+    for (int i = loadStart; i < loadEnd; i++) {
+      int position = translatePosition(i, version);
+
+      if (position >= 0 && data.get(position) == null) {
+        loadState.clear(position);
+      }
+    }
+
+    trimJournal();
+  }
+
+  /**
+   * Samples the requested index at a fixed interval to estimate how fast, and in which direction,
+   * the user is scrolling. Velocity is in items per second, smoothed over recent samples.
+   */
+  private void updateVelocity(int aroundIndex) {
+    long now     = System.nanoTime() / 1_000_000;
+    long elapsed = now - sampleTime;
+
+    if (sampleIndex < 0 || elapsed > VELOCITY_RESET_MS) {
+      sampleIndex = aroundIndex;
+      sampleTime  = now;
+      velocity    = 0;
+      direction   = 0;
+      return;
+    }
+
+    if (elapsed < VELOCITY_SAMPLE_MS) {
+      return;
+    }
+
+    int   delta   = aroundIndex - sampleIndex;
+    float current = Math.abs(delta) * 1000f / elapsed;
+
+    velocity = (velocity + current) / 2;
+
+    if (delta != 0) {
+      direction = delta > 0 ? 1 : -1;
+    }
+
+    sampleIndex = aroundIndex;
+    sampleTime  = now;
+  }
+
+  /**
+   * @return Enough extra pages to cover roughly one second of travel at the current velocity.
+   */
+  private int getPrefetchPages() {
+    if (direction == 0) {
+      return 0;
+    }
+
+    return Math.min(config.maxPrefetchPages(), (int) (velocity / config.pageSize()));
+  }
+
+  /**
+   * Called from the fetch executor, so this only looks at the wanted range, which is volatile.
+   */
+  private boolean isStale(int loadStart, int loadEnd) {
+    return config.dropStaleLoads() && (loadEnd <= wantedStart || loadStart >= wantedEnd);
+  }
+
+  private void recordStructuralChange(int position, boolean insert) {
+    structureVersion++;
+
+    if (loadsInFlight > 0) {
+      journal.add(new StructuralChange(position, insert));
+    } else {
+      journalBaseVersion = structureVersion;
+    }
+  }
+
+  /**
+   * @return Where the item that was at {@code position} as of {@code version} is now, or -1 if it
+   *         has since been removed.
+   */
+  private int translatePosition(int position, int version) {
+    for (int i = version - journalBaseVersion, len = journal.size(); i < len; i++) {
+      StructuralChange change = journal.get(i);
+
+      if (change.insert) {
+        if (position >= change.position) {
+          position++;
+        }
+      } else if (position == change.position) {
+        return -1;
+      } else if (position > change.position) {
+        position--;
+      }
+    }
+
+    return position;
+  }
+
+  private void trimJournal() {
+    if (loadsInFlight == 0) {
+      journal.clear();
+      journalBaseVersion = structureVersion;
+      unloadedChangeByKey.clear();
+    }
+  }
+
+  /**
+   * If the item was reported as changed after its load started, the load may have read it from
+   * before the change, so we fetch it again. It's loaded now, so this goes down the usual path.
+   */
+  private void refetchIfChangedSince(@NonNull E item, int startSequence) {
+    if (unloadedChangeByKey.isEmpty()) {
+      return;
+    }
+
+    Object  key       = getKeyedDataSource().getKey(item);
+    Integer changedAt = unloadedChangeByKey.get(key);
+
+    if (changedAt != null && changedAt > startSequence) {
+      if (DEBUG) Log.i(TAG, "[refetchIfChangedSince] Item changed while it was loading. Fetching it again.");
+      unloadedChangeByKey.remove(key);
+      onDataItemChanged(key);
+    }
+  }
+
+  private void publish() {
+    liveData.postValue(new CompressedList<>(data));
+  }
+
+  /**
+   * Rather than copying the list after every change, we queue up a single task that publishes a
+   * snapshot once everything already queued has run. This coalesces bursts of item changes into a
+   * single list update.
+   */
+  private void schedulePublish() {
+    if (publishPending) {
+      return;
+    }
+
+    publishPending = true;
+
+    serialExecutor.execute(() -> {
+      publishPending = false;
+
+      if (invalidated) {
+        return;
+      }
+
+      publish();
+    });
+  }
+
+  /**
+   * Sets an item, keeping the key index up to date if it's current.
+   */
+  private void setItem(int position, @Nullable E item) {
+    E previous = data.set(position, item);
+
+    if (!(dataSource instanceof KeyedPagedDataSource) || positionIndexVersion != structureVersion) {
+      return;
+    }
+
+    KeyedPagedDataSource<Object, E> keyedDataSource = getKeyedDataSource();
+
+    if (previous != null) {
+      Object previousKey = keyedDataSource.getKey(previous);
+      Integer indexed    = positionByKey.get(previousKey);
+
+      if (indexed != null && indexed == position) {
+        positionByKey.remove(previousKey);
+      }
+    }
+
+    if (item != null) {
+      positionByKey.put(keyedDataSource.getKey(item), position);
+    }
+  }
+
+  /**
+   * Looks the key up in an index of loaded positions. Inserts and removals shift positions, so
+   * rather than patching the index on every one, it's rebuilt the next time it's needed after one.
+   * Item changes, which are far more frequent, only ever need a lookup.
+   *
+   * @return The position of the loaded item with the specified key, or -1 if it isn't loaded.
+   */
+  private int findPosition(@Nullable Object key) {
+    if (key == null) {
+      return -1;
+    }
+
+    if (positionIndexVersion != structureVersion) {
+      rebuildPositionIndex();
+    }
+
+    Integer position = positionByKey.get(key);
+    return position != null ? position : -1;
+  }
+
+  private void rebuildPositionIndex() {
+    KeyedPagedDataSource<Object, E> keyedDataSource = getKeyedDataSource();
+
+    positionByKey.clear();
+
+    for (int i = loadState.getNextMarkedIndex(0); i >= 0; i = loadState.getNextMarkedIndex(i + 1)) {
+      E item = data.get(i);
+
+      if (item != null) {
+        positionByKey.put(keyedDataSource.getKey(item), i);
+      }
+    }
+
+    positionIndexVersion = structureVersion;
+  }
+
+  @SuppressWarnings("unchecked")
+  private @NonNull KeyedPagedDataSource<Object, E> getKeyedDataSource() {
+    return (KeyedPagedDataSource<Object, E>) dataSource;
   }
 
   private static String buildLog(int aroundIndex, String message) {
     return "onDataNeededAroundIndex(" + aroundIndex + ") " + message;
   }
+
+  private static final class StructuralChange {
+    private final int     position;
+    private final boolean insert;
+
+    private StructuralChange(int position, boolean insert) {
+      this.position = position;
+      this.insert   = insert;
+    }
+  }
 }
@@ -0,0 +1,29 @@
+package org.signal.paging;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+/**
+ * A {@link PagedDataSource} whose items can be identified by a stable key. Data sources that
+ * implement this can report individual changes to the {@link PagingController} via
+ * {@link PagingController#onDataItemChanged(Object)} and friends, which lets the controller patch
+ * just the affected items rather than reloading everything.
+ *
+ * Changes should be reported as soon as they've been committed to the underlying store. If a page
+ * load reads the store in between a commit and its report, positions in that page may be off by
+ * one. The controller detects this when an inserted item was already loaded, or when a removed item
+ * isn't loaded at all, and falls back to a full invalidation.
+ */
+public interface KeyedPagedDataSource<K, T> extends PagedDataSource<T> {
+  /**
+   * @return The key that uniquely identifies this item. Must be stable across loads.
+   */
+  @NonNull K getKey(@NonNull T item);
+
+  /**
+   * @return The item with the specified key, or null if it no longer exists.
+   */
+  @WorkerThread
+  @Nullable T load(@NonNull K key);
+}
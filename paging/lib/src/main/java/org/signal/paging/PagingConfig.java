@@ -2,21 +2,25 @@ package org.signal.paging;
 
 import androidx.annotation.NonNull;
 
-import java.util.concurrent.Executor;
-
 /**
  * Describes various properties of how you'd like paging to be handled.
  */
 public final class PagingConfig {
 
-  private final int bufferPages;
-  private final int startIndex;
-  private final int pageSize;
+  private final int     bufferPages;
+  private final int     startIndex;
+  private final int     pageSize;
+  private final int     maxPrefetchPages;
+  private final int     fetchThreads;
+  private final boolean dropStaleLoads;
 
   private PagingConfig(@NonNull Builder builder) {
-    this.bufferPages = builder.bufferPages;
-    this.startIndex  = builder.startIndex;
-    this.pageSize    = builder.pageSize;
+    this.bufferPages      = builder.bufferPages;
+    this.startIndex       = builder.startIndex;
+    this.pageSize         = builder.pageSize;
+    this.maxPrefetchPages = builder.maxPrefetchPages;
+    this.fetchThreads     = builder.fetchThreads;
+    this.dropStaleLoads   = builder.dropStaleLoads;
   }
 
   /**
@@ -42,10 +46,37 @@ public final class PagingConfig {
     return startIndex;
   }
 
+  /**
+   * @return The most additional pages to load in the direction the user is scrolling. The number
+   *         actually used scales with scroll velocity, roughly covering one second of travel.
+   */
+  int maxPrefetchPages() {
+    return maxPrefetchPages;
+  }
+
+  /**
+   * @return How many threads this data source may use to load pages in parallel. Zero means that
+   *         loads run on a single thread shared with all other paged data in the process.
+   */
+  int fetchThreads() {
+    return fetchThreads;
+  }
+
+  /**
+   * @return Whether loads for ranges that have scrolled out of the buffer should be dropped before
+   *         (or canceled while) they run.
+   */
+  boolean dropStaleLoads() {
+    return dropStaleLoads;
+  }
+
   public static class Builder {
-    private int bufferPages = 1;
-    private int startIndex  = 0;
-    private int pageSize    = 50;
+    private int     bufferPages      = 1;
+    private int     startIndex       = 0;
+    private int     pageSize         = 50;
+    private int     maxPrefetchPages = 0;
+    private int     fetchThreads     = 0;
+    private boolean dropStaleLoads   = true;
 
     public @NonNull Builder setBufferPages(int bufferPages) {
       if (bufferPages < 1) {
@@ -74,6 +105,29 @@ public final class PagingConfig {
       return this;
     }
 
+    public @NonNull Builder setMaxPrefetchPages(int maxPrefetchPages) {
+      if (maxPrefetchPages < 0) {
+        throw new IllegalArgumentException("You can't prefetch a negative number of pages! Requested: " + maxPrefetchPages);
+      }
+
+      this.maxPrefetchPages = maxPrefetchPages;
+      return this;
+    }
+
+    public @NonNull Builder setFetchThreads(int fetchThreads) {
+      if (fetchThreads < 0) {
+        throw new IllegalArgumentException("You can't have a negative number of fetch threads! Requested: " + fetchThreads);
+      }
+
+      this.fetchThreads = fetchThreads;
+      return this;
+    }
+
+    public @NonNull Builder setDropStaleLoads(boolean dropStaleLoads) {
+      this.dropStaleLoads = dropStaleLoads;
+      return this;
+    }
+
     public @NonNull PagingConfig build() {
       return new PagingConfig(this);
     }
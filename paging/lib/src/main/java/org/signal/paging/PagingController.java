@@ -4,4 +4,22 @@ package org.signal.paging;
 public interface PagingController {
   void onDataNeededAroundIndex(int aroundIndex);
   void onDataInvalidated();
+
+  /**
+   * The item with the specified key has changed, but its position has not.
+   * Requires a {@link KeyedPagedDataSource}, otherwise this is treated as a full invalidation.
+   */
+  void onDataItemChanged(Object key);
+
+  /**
+   * An item with the specified key has been inserted at the specified position.
+   * Requires a {@link KeyedPagedDataSource}, otherwise this is treated as a full invalidation.
+   */
+  void onDataItemInserted(Object key, int position);
+
+  /**
+   * The item with the specified key has been removed.
+   * Requires a {@link KeyedPagedDataSource}, otherwise this is treated as a full invalidation.
+   */
+  void onDataItemRemoved(Object key);
 }
@@ -27,6 +27,27 @@ public class ProxyPagingController implements PagingController {
     }
   }
 
+  @Override
+  public synchronized void onDataItemChanged(Object key) {
+    if (proxied != null) {
+      proxied.onDataItemChanged(key);
+    }
+  }
+
+  @Override
+  public synchronized void onDataItemInserted(Object key, int position) {
+    if (proxied != null) {
+      proxied.onDataItemInserted(key, position);
+    }
+  }
+
+  @Override
+  public synchronized void onDataItemRemoved(Object key) {
+    if (proxied != null) {
+      proxied.onDataItemRemoved(key);
+    }
+  }
+
   /**
    * Updates the underlying controller to the one specified.
    */
@@ -0,0 +1,89 @@
+package org.signal.paging;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A small JMH-style benchmark for the cost of loading a page into a large {@link CompressedList}
+ * and publishing a snapshot of it, which is what {@link FixedSizePagingController} does for every
+ * page it loads. Not run as part of the normal test suite -- remove the {@link Ignore} to run it.
+ */
+@Ignore("Benchmark, run manually")
+public final class CompressedListBenchmark {
+
+  private static final int LIST_SIZE          = 200_000;
+  private static final int PAGE_SIZE          = 50;
+  private static final int WARMUP_ITERATIONS  = 5;
+  private static final int MEASURE_ITERATIONS = 10;
+  private static final int OPS_PER_ITERATION  = 1_000;
+
+  @Test
+  public void loadPageAndSnapshot() {
+    List<Integer> page = new ArrayList<>(PAGE_SIZE);
+    for (int i = 0; i < PAGE_SIZE; i++) {
+      page.add(i);
+    }
+
+    CompressedList<Integer> list = new CompressedList<>(LIST_SIZE);
+
+    run("loadPageAndSnapshot", () -> {
+      int start = (int) (Math.random() * (LIST_SIZE - PAGE_SIZE));
+
+      for (int i = 0; i < PAGE_SIZE; i++) {
+        list.set(start + i, page.get(i));
+      }
+
+      return new CompressedList<>(list);
+    });
+  }
+
+  @Test
+  public void insertAtFrontAndSnapshot() {
+    CompressedList<Integer> list = new CompressedList<>(LIST_SIZE);
+    for (int i = 0; i < 500; i++) {
+      list.set(i, i);
+    }
+
+    run("insertAtFrontAndSnapshot", () -> {
+      list.add(0, -1);
+      list.remove(list.size() - 1);
+
+      return new CompressedList<>(list);
+    });
+  }
+
+  private static void run(String name, Operation operation) {
+    Object blackhole = null;
+
+    for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+      for (int j = 0; j < OPS_PER_ITERATION; j++) {
+        blackhole = operation.run();
+      }
+    }
+
+    long best = Long.MAX_VALUE;
+    long sum  = 0;
+
+    for (int i = 0; i < MEASURE_ITERATIONS; i++) {
+      long start = System.nanoTime();
+
+      for (int j = 0; j < OPS_PER_ITERATION; j++) {
+        blackhole = operation.run();
+      }
+
+      long perOp = (System.nanoTime() - start) / OPS_PER_ITERATION;
+
+      best = Math.min(best, perOp);
+      sum += perOp;
+    }
+
+    System.out.println(name + ": avg " + (sum / MEASURE_ITERATIONS) + " ns/op, best " + best + " ns/op (" + System.identityHashCode(blackhole) + ")");
+  }
+
+  private interface Operation {
+    Object run();
+  }
+}
@@ -0,0 +1,113 @@
+package org.signal.paging;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public final class CompressedListTest {
+
+  @Test
+  public void newList_isAllNull() {
+    CompressedList<Integer> list = new CompressedList<>(1000);
+
+    assertEquals(1000, list.size());
+    for (Integer value : list) {
+      assertNull(value);
+    }
+  }
+
+  @Test
+  public void set_thenGet() {
+    CompressedList<Integer> list = new CompressedList<>(1000);
+
+    list.set(0, 0);
+    list.set(255, 255);
+    list.set(256, 256);
+    list.set(999, 999);
+
+    assertEquals(0, (int) list.get(0));
+    assertEquals(255, (int) list.get(255));
+    assertEquals(256, (int) list.get(256));
+    assertEquals(999, (int) list.get(999));
+    assertNull(list.get(500));
+  }
+
+  @Test
+  public void copyFromList_matchesSource() {
+    List<Integer> source = Arrays.asList(1, null, 3, null, 5);
+
+    assertEquals(source, new CompressedList<>(source));
+  }
+
+  @Test
+  public void copy_isNotAffectedByWritesToSource() {
+    CompressedList<Integer> source = new CompressedList<>(1000);
+    source.set(10, 10);
+
+    CompressedList<Integer> copy = new CompressedList<>(source);
+
+    source.set(10, -10);
+    source.set(11, 11);
+    source.add(0, 0);
+
+    assertEquals(1000, copy.size());
+    assertEquals(10, (int) copy.get(10));
+    assertNull(copy.get(11));
+  }
+
+  @Test
+  public void source_isNotAffectedByWritesToCopy() {
+    CompressedList<Integer> source = new CompressedList<>(1000);
+    source.set(10, 10);
+
+    CompressedList<Integer> copy = new CompressedList<>(source);
+
+    copy.set(10, -10);
+    copy.remove(0);
+
+    assertEquals(1000, source.size());
+    assertEquals(10, (int) source.get(10));
+  }
+
+  @Test
+  public void add_and_remove_matchArrayList() {
+    Random                  random   = new Random(42);
+    List<Integer>           expected = new ArrayList<>(Collections.nCopies(600, (Integer) null));
+    CompressedList<Integer> actual   = new CompressedList<>(600);
+
+    for (int i = 0; i < 5000; i++) {
+      int roll = random.nextInt(3);
+
+      if (roll == 0 || expected.isEmpty()) {
+        int index = random.nextInt(expected.size() + 1);
+        expected.add(index, i);
+        actual.add(index, i);
+      } else if (roll == 1) {
+        int index = random.nextInt(expected.size());
+        assertEquals(expected.remove(index), actual.remove(index));
+      } else {
+        int     index = random.nextInt(expected.size());
+        Integer value = random.nextBoolean() ? i : null;
+        assertEquals(expected.set(index, value), actual.set(index, value));
+      }
+
+      if (i % 100 == 0) {
+        actual = new CompressedList<>(actual);
+      }
+    }
+
+    assertEquals(expected, actual);
+  }
+
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void get_outOfBounds() {
+    new CompressedList<Integer>(10).get(10);
+  }
+}
@@ -0,0 +1,61 @@
+package org.signal.paging;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public final class DataStatusTest {
+
+  @Test
+  public void getEarliestUnmarkedIndexInRange() {
+    DataStatus status = DataStatus.obtain(100);
+    status.markRange(0, 10);
+    status.markRange(20, 30);
+
+    assertEquals(10, status.getEarliestUnmarkedIndexInRange(0, 100));
+    assertEquals(30, status.getEarliestUnmarkedIndexInRange(20, 100));
+    assertEquals(-1, status.getEarliestUnmarkedIndexInRange(20, 30));
+  }
+
+  @Test
+  public void getLatestUnmarkedIndexInRange() {
+    DataStatus status = DataStatus.obtain(100);
+    status.markRange(90, 100);
+    status.markRange(20, 30);
+
+    assertEquals(89, status.getLatestUnmarkedIndexInRange(0, 100));
+    assertEquals(19, status.getLatestUnmarkedIndexInRange(0, 30));
+    assertEquals(-1, status.getLatestUnmarkedIndexInRange(20, 30));
+    assertEquals(-1, status.getLatestUnmarkedIndexInRange(30, 30));
+  }
+
+  @Test
+  public void insertState_shiftsMarks() {
+    DataStatus status = DataStatus.obtain(10);
+    status.markRange(2, 4);
+
+    status.insertState(3, false);
+
+    assertEquals(11, status.size());
+    assertTrue(status.isMarked(2));
+    assertFalse(status.isMarked(3));
+    assertTrue(status.isMarked(4));
+    assertFalse(status.isMarked(5));
+  }
+
+  @Test
+  public void removeState_shiftsMarks() {
+    DataStatus status = DataStatus.obtain(10);
+    status.markRange(2, 4);
+    status.markRange(9, 10);
+
+    status.removeState(2);
+
+    assertEquals(9, status.size());
+    assertTrue(status.isMarked(2));
+    assertFalse(status.isMarked(3));
+    assertTrue(status.isMarked(8));
+  }
+}